@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2017-2018 Aditya Saligrama.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO
+ * EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES
+ * OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.saligrama.patricia.bench;
+
+import io.github.saligrama.patricia.PatriciaTree;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * BatchBenchmark compares PatriciaTree's batch operations, which resume each descent from the path
+ * of the previous key, with the same keys passed one at a time. Batches are runs of neighbouring
+ * keys in sorted order, as they arrive from an ingest pipeline reading sorted input.
+ *
+ * <p>Lookups are measured per key, on runs of keys of which half are in the tree. Adds load every
+ * key into an empty tree, one run at a time with the runs in random order.
+ *
+ * @author Aditya Saligrama
+ * @version 1.0
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class BatchBenchmark {
+  private static final int BATCH_SIZE = 1000;
+  private static final int NUM_BATCHES = 64;
+
+  @Param({"100000", "1000000"})
+  private int size;
+
+  @Param private Dataset dataset;
+
+  private PatriciaTree full;
+  private List<List<String>> lookupBatches;
+  private List<List<String>> loadBatches;
+  private int next;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    String[] keys = dataset.generate(size, Fixtures.SEED);
+    String[] misses = dataset.generateMisses(keys, size, Fixtures.MISS_SEED);
+    full = PatriciaTree.fromUnsorted(Arrays.asList(keys));
+
+    // batches are runs of neighbouring keys in sorted order, half of them not in the tree
+    String[] sorted = Arrays.copyOf(keys, keys.length + misses.length);
+    System.arraycopy(misses, 0, sorted, keys.length, misses.length);
+    Arrays.sort(sorted);
+    Random random = new Random(Fixtures.SEED);
+    lookupBatches = new ArrayList<>();
+    for (int i = 0; i < NUM_BATCHES; i++) {
+      int start = random.nextInt(sorted.length - BATCH_SIZE);
+      lookupBatches.add(Arrays.asList(sorted).subList(start, start + BATCH_SIZE));
+    }
+
+    // the key space is loaded run by run, in random order of runs
+    Arrays.sort(keys);
+    loadBatches = new ArrayList<>();
+    for (int i = 0; i < keys.length; i += BATCH_SIZE) {
+      loadBatches.add(Arrays.asList(keys).subList(i, Math.min(i + BATCH_SIZE, keys.length)));
+    }
+    Collections.shuffle(loadBatches, random);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  @OperationsPerInvocation(BATCH_SIZE)
+  public BitSet containsAll() {
+    return full.containsAll(nextBatch());
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  @OperationsPerInvocation(BATCH_SIZE)
+  public int containsEach() {
+    int ret = 0;
+    for (String k : nextBatch()) {
+      if (full.contains(k)) ret++;
+    }
+    return ret;
+  }
+
+  /**
+   * @param _empty a fresh tree
+   * @return the loaded tree; time is for all size keys
+   */
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  @Warmup(iterations = 3)
+  @Measurement(iterations = 5)
+  public PatriciaTree addAll(EmptyTree _empty) {
+    for (List<String> batch : loadBatches) _empty.tree.addAll(batch);
+    return _empty.tree;
+  }
+
+  /**
+   * @param _empty a fresh tree
+   * @return the loaded tree; time is for all size keys
+   */
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  @Warmup(iterations = 3)
+  @Measurement(iterations = 5)
+  public PatriciaTree addEach(EmptyTree _empty) {
+    for (List<String> batch : loadBatches) {
+      for (String k : batch) _empty.tree.add(k);
+    }
+    return _empty.tree;
+  }
+
+  private List<String> nextBatch() {
+    List<String> ret = lookupBatches.get(next);
+    next = next + 1 == lookupBatches.size() ? 0 : next + 1;
+    return ret;
+  }
+
+  /** EmptyTree holds a new, empty tree for each invocation of the add benchmarks. */
+  @State(Scope.Thread)
+  public static class EmptyTree {
+    private PatriciaTree tree;
+
+    @Setup(Level.Invocation)
+    public void setup() {
+      tree = new PatriciaTree();
+    }
+  }
+}
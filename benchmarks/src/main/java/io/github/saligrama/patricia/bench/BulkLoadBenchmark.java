@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2017-2018 Aditya Saligrama.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO
+ * EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES
+ * OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.saligrama.patricia.bench;
+
+import io.github.saligrama.patricia.PatriciaTree;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * BulkLoadBenchmark compares building a PatriciaTree with fromSorted and fromUnsorted against
+ * adding the same keys one at a time.
+ *
+ * @author Aditya Saligrama
+ * @version 1.0
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class BulkLoadBenchmark {
+  @Param({"10000", "100000", "1000000", "10000000"})
+  private int size;
+
+  @Param private Dataset dataset;
+
+  private List<String> unsorted;
+  private List<String> sorted;
+
+  @Setup
+  public void setup() {
+    String[] keys = dataset.generate(size, Fixtures.SEED);
+    unsorted = Arrays.asList(keys.clone());
+
+    // fromSorted wants UTF-8 order, which differs from String order for surrogate pairs
+    Arrays.sort(
+        keys,
+        Comparator.comparing(
+            (String s) -> s.getBytes(StandardCharsets.UTF_8), Arrays::compareUnsigned));
+    sorted = Arrays.asList(keys);
+  }
+
+  @Benchmark
+  public PatriciaTree incremental() {
+    PatriciaTree ret = new PatriciaTree();
+    for (String k : unsorted) ret.add(k);
+    return ret;
+  }
+
+  @Benchmark
+  public PatriciaTree fromSorted() {
+    return PatriciaTree.fromSorted(sorted.iterator());
+  }
+
+  @Benchmark
+  public PatriciaTree fromUnsorted() {
+    return PatriciaTree.fromUnsorted(unsorted);
+  }
+}
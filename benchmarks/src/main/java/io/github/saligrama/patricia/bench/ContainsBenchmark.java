@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2017-2018 Aditya Saligrama.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO
+ * EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES
+ * OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.saligrama.patricia.bench;
+
+import io.github.saligrama.patricia.bench.Target.StringSet;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * ContainsBenchmark measures lookups of keys that are in the set and of keys that are not. Keys
+ * are visited in random order, so large sets are measured out of cache.
+ *
+ * @author Aditya Saligrama
+ * @version 1.0
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ContainsBenchmark {
+  @Param({"10000", "100000", "1000000", "10000000"})
+  private int size;
+
+  @Param private Dataset dataset;
+
+  @Param private Target target;
+
+  private StringSet set;
+  private String[] hits;
+  private String[] misses;
+  private int nextHit;
+  private int nextMiss;
+
+  @Setup
+  public void setup() {
+    hits = dataset.generate(size, Fixtures.SEED);
+    misses = dataset.generateMisses(hits, Fixtures.NUM_MISSES, Fixtures.MISS_SEED);
+    set = Fixtures.fill(target, hits);
+  }
+
+  @Benchmark
+  public boolean hit() {
+    String key = hits[nextHit];
+    nextHit = nextHit + 1 == hits.length ? 0 : nextHit + 1;
+    return set.contains(key);
+  }
+
+  @Benchmark
+  public boolean miss() {
+    String key = misses[nextMiss];
+    nextMiss = nextMiss + 1 == misses.length ? 0 : nextMiss + 1;
+    return set.contains(key);
+  }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2017-2018 Aditya Saligrama.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO
+ * EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES
+ * OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.saligrama.patricia.bench;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Dataset generates reproducible sets of distinct keys shaped like the ones trees are used for.
+ *
+ * @author Aditya Saligrama
+ * @version 1.0
+ */
+public enum Dataset {
+  /** URLs over a few thousand hosts, with two to five path segments and some query strings. */
+  URLS {
+    @Override
+    protected String key(Random _rand) {
+      StringBuilder ret = new StringBuilder(_rand.nextInt(4) == 0 ? "http://" : "https://");
+      ret.append(_rand.nextBoolean() ? "www." : "").append(word(_rand));
+      ret.append(TLDS[_rand.nextInt(TLDS.length)]);
+      int numSegments = 2 + _rand.nextInt(4);
+      for (int i = 0; i < numSegments; i++) ret.append('/').append(word(_rand));
+      if (_rand.nextInt(3) == 0) ret.append("?id=").append(_rand.nextInt(1_000_000));
+      return ret.toString();
+    }
+  },
+
+  /** Dictionary-like words of one to four syllables, some with an inflection. */
+  WORDS {
+    @Override
+    protected String key(Random _rand) {
+      return word(_rand) + SUFFIXES[_rand.nextInt(SUFFIXES.length)];
+    }
+  },
+
+  /** Uniformly random 8 to 24 byte keys; chars above U+007F take two bytes in UTF-8. */
+  BINARY {
+    @Override
+    protected String key(Random _rand) {
+      char[] ret = new char[8 + _rand.nextInt(17)];
+      for (int i = 0; i < ret.length; i++) ret[i] = (char) _rand.nextInt(256);
+      return new String(ret);
+    }
+  },
+
+  /** Keys sharing a 200 character prefix, differing only in a short suffix. */
+  SHARED_PREFIX {
+    @Override
+    protected String key(Random _rand) {
+      return PREFIX + Long.toString(_rand.nextLong() & Long.MAX_VALUE, 36);
+    }
+  };
+
+  private static final String[] SYLLABLES = {
+    "ba", "be", "bi", "bo", "bu", "ca", "ce", "co", "da", "de", "di", "do", "fa", "fe", "fi", "fo",
+    "ga", "ge", "go", "ha", "he", "hi", "ho", "ja", "jo", "ka", "ke", "ki", "la", "le", "li", "lo",
+    "lu", "ma", "me", "mi", "mo", "mu", "na", "ne", "ni", "no", "pa", "pe", "pi", "po", "ra", "re",
+    "ri", "ro", "ru", "sa", "se", "si", "so", "su", "ta", "te", "ti", "to", "tu", "va", "ve", "vi",
+    "an", "en", "in", "on", "un", "ar", "er", "or", "al", "el", "il", "ol", "st", "tr", "ch", "sh"
+  };
+  private static final String[] SUFFIXES = {"", "", "", "s", "ed", "ing", "er", "ly", "ness"};
+  private static final String[] TLDS = {".com", ".org", ".net", ".io", ".edu", ".co.uk", ".de"};
+  private static final String PREFIX = "/var/lib/storage/volumes/".repeat(8);
+
+  /**
+   * @param _rand source of randomness
+   * @return one key, possibly a repeat of an earlier one
+   */
+  protected abstract String key(Random _rand);
+
+  /**
+   * Generate distinct keys in random order. The same dataset, count and seed always give the same
+   * keys.
+   *
+   * @param _count number of keys
+   * @param _seed seed for the generator
+   * @return array of _count distinct keys
+   */
+  public String[] generate(int _count, long _seed) {
+    Random rand = new Random(_seed);
+    Set<String> seen = new HashSet<>(_count * 2);
+    String[] ret = new String[_count];
+    int n = 0;
+    while (n < _count) {
+      String k = key(rand);
+      if (seen.add(k)) ret[n++] = k;
+    }
+    return ret;
+  }
+
+  /**
+   * Generate keys guaranteed to be absent from a set of keys, for measuring misses.
+   *
+   * @param _keys keys to avoid
+   * @param _count number of keys
+   * @param _seed seed for the generator, which should differ from the one used for _keys
+   * @return array of _count keys none of which is in _keys
+   */
+  public String[] generateMisses(String[] _keys, int _count, long _seed) {
+    Set<String> present = new HashSet<>(Arrays.asList(_keys));
+    Random rand = new Random(_seed);
+    String[] ret = new String[_count];
+    int n = 0;
+    while (n < _count) {
+      String k = key(rand);
+      if (!present.contains(k)) ret[n++] = k;
+    }
+    return ret;
+  }
+
+  private static String word(Random _rand) {
+    StringBuilder ret = new StringBuilder();
+    int numSyllables = 1 + _rand.nextInt(4);
+    for (int i = 0; i < numSyllables; i++) ret.append(SYLLABLES[_rand.nextInt(SYLLABLES.length)]);
+    return ret.toString();
+  }
+}
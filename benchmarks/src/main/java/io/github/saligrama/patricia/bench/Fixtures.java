@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2017-2018 Aditya Saligrama.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO
+ * EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES
+ * OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.saligrama.patricia.bench;
+
+import io.github.saligrama.patricia.bench.Target.StringSet;
+
+/**
+ * Fixtures holds the seeds and setup code shared by the benchmarks.
+ *
+ * @author Aditya Saligrama
+ * @version 1.0
+ */
+class Fixtures {
+  protected static final long SEED = 42;
+  protected static final long MISS_SEED = 4242;
+  protected static final int NUM_MISSES = 1 << 16;
+
+  /**
+   * @param _target kind of set to create
+   * @param _keys keys to add
+   * @return a new set holding _keys
+   */
+  protected static StringSet fill(Target _target, String[] _keys) {
+    StringSet ret = _target.create();
+    for (String k : _keys) ret.add(k);
+    return ret;
+  }
+}
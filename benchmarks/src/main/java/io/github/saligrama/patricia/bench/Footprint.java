@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2017-2018 Aditya Saligrama.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO
+ * EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES
+ * OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.saligrama.patricia.bench;
+
+import io.github.saligrama.patricia.FrozenPatriciaTree;
+import io.github.saligrama.patricia.PatriciaTree;
+import io.github.saligrama.patricia.bench.Target.StringSet;
+import java.util.Arrays;
+import org.openjdk.jol.info.GraphLayout;
+
+/**
+ * Footprint reports the heap retained per key by each target, measured with JOL by walking the
+ * set's object graph. For the java.util sets this includes the String objects they hold, since
+ * they keep them alive; the trees keep only their own encoding of the keys. A frozen copy of the
+ * PatriciaTree is reported as FROZEN_PATRICIA.
+ *
+ * <p>Usage: Footprint [sizes], where sizes is a comma-separated list of key counts.
+ *
+ * @author Aditya Saligrama
+ * @version 1.0
+ */
+public class Footprint {
+  private static final String DEFAULT_SIZES = "10000,100000,1000000";
+  private static final String HEADER_FORMAT = "%-14s %-20s %10s %14s %10s%n";
+  private static final String ROW_FORMAT = "%-14s %-20s %10d %14d %10.1f%n";
+
+  /** @param _args optional comma-separated key counts */
+  public static void main(String[] _args) {
+    String sizes = _args.length > 0 ? _args[0] : DEFAULT_SIZES;
+
+    System.out.printf(HEADER_FORMAT, "dataset", "target", "keys", "bytes", "per key");
+    for (String s : sizes.split(",")) {
+      int size = Integer.parseInt(s.trim());
+      for (Dataset dataset : Dataset.values()) {
+        String[] keys = dataset.generate(size, Fixtures.SEED);
+        for (Target target : Target.values()) {
+          StringSet set = Fixtures.fill(target, keys);
+          long bytes = GraphLayout.parseInstance(set.underlying()).totalSize();
+          System.out.printf(ROW_FORMAT, dataset, target, size, bytes, (double) bytes / size);
+        }
+
+        FrozenPatriciaTree frozen = PatriciaTree.fromUnsorted(Arrays.asList(keys)).freeze();
+        long bytes = GraphLayout.parseInstance(frozen).totalSize();
+        System.out.printf(
+            ROW_FORMAT, dataset, "FROZEN_PATRICIA", size, bytes, (double) bytes / size);
+      }
+    }
+  }
+}
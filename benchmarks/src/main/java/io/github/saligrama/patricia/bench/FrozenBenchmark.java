@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2017-2018 Aditya Saligrama.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO
+ * EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES
+ * OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.saligrama.patricia.bench;
+
+import io.github.saligrama.patricia.FrozenPatriciaTree;
+import io.github.saligrama.patricia.PatriciaTree;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * FrozenBenchmark compares a PatriciaTree with its frozen copy on the read-only operations:
+ * lookups of keys that are in the tree and of keys that are not, and prefix scans taking the first
+ * few keys under the first half of a stored key. Keys are visited in random order, so large trees
+ * are measured out of cache. Footprint reports the memory of both.
+ *
+ * @author Aditya Saligrama
+ * @version 1.0
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class FrozenBenchmark {
+  private static final int SCAN_LIMIT = 10;
+
+  /** Layout is the form of the tree under measurement. */
+  public enum Layout {
+    MUTABLE,
+    FROZEN
+  }
+
+  @Param({"10000", "100000", "1000000", "10000000"})
+  private int size;
+
+  @Param private Dataset dataset;
+
+  @Param private Layout layout;
+
+  private PatriciaTree tree;
+  private FrozenPatriciaTree frozen;
+  private String[] hits;
+  private String[] misses;
+  private String[] prefixes;
+  private int nextHit;
+  private int nextMiss;
+  private int nextPrefix;
+
+  @Setup
+  public void setup() {
+    hits = dataset.generate(size, Fixtures.SEED);
+    misses = dataset.generateMisses(hits, Fixtures.NUM_MISSES, Fixtures.MISS_SEED);
+    prefixes = new String[Math.min(hits.length, Fixtures.NUM_MISSES)];
+    for (int i = 0; i < prefixes.length; i++) {
+      prefixes[i] = hits[i].substring(0, hits[i].length() / 2);
+    }
+
+    tree = PatriciaTree.fromUnsorted(Arrays.asList(hits));
+    if (layout == Layout.FROZEN) {
+      frozen = tree.freeze();
+      tree = null;
+    }
+  }
+
+  @Benchmark
+  public boolean hit() {
+    String key = hits[nextHit];
+    nextHit = nextHit + 1 == hits.length ? 0 : nextHit + 1;
+    return frozen == null ? tree.contains(key) : frozen.contains(key);
+  }
+
+  @Benchmark
+  public boolean miss() {
+    String key = misses[nextMiss];
+    nextMiss = nextMiss + 1 == misses.length ? 0 : nextMiss + 1;
+    return frozen == null ? tree.contains(key) : frozen.contains(key);
+  }
+
+  /** @param _bh consumes the keys found, so that each is actually decoded */
+  @Benchmark
+  public void prefixScan(Blackhole _bh) {
+    String prefix = prefixes[nextPrefix];
+    nextPrefix = nextPrefix + 1 == prefixes.length ? 0 : nextPrefix + 1;
+    Stream<String> found = frozen == null ? tree.prefixScan(prefix) : frozen.prefixScan(prefix);
+    found.limit(SCAN_LIMIT).forEach(_bh::consume);
+  }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2017-2018 Aditya Saligrama.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO
+ * EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES
+ * OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.saligrama.patricia.bench;
+
+import io.github.saligrama.patricia.PatriciaTree;
+import io.github.saligrama.patricia.Radix;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * FuzzyMatchBenchmark measures typo-tolerant lookups in a dictionary of words: fuzzyMatch with a
+ * stored word that had one character inserted, deleted or replaced, and matchPattern with a
+ * stored word whose middle character is replaced by '?' and which ends in '*'. Both walks drop
+ * the subtrees that can't match, so their cost should follow the number of words near the query
+ * rather than the size of the dictionary.
+ *
+ * @author Aditya Saligrama
+ * @version 1.0
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class FuzzyMatchBenchmark {
+  @Param({"100000", "1000000"})
+  private int size;
+
+  @Param({"1", "2"})
+  private int maxEdits;
+
+  @Param({"BIT", "BYTE"})
+  private Radix radix;
+
+  private PatriciaTree tree;
+  private String[] typos;
+  private String[] patterns;
+  private int nextTypo;
+  private int nextPattern;
+
+  @Setup
+  public void setup() {
+    String[] words = Dataset.WORDS.generate(size, Fixtures.SEED);
+    tree = new PatriciaTree(radix);
+    for (String w : words) tree.add(w);
+
+    Random random = new Random(Fixtures.MISS_SEED);
+    typos = new String[Math.min(words.length, Fixtures.NUM_MISSES)];
+    patterns = new String[typos.length];
+    for (int i = 0; i < typos.length; i++) {
+      String w = words[random.nextInt(words.length)];
+      int at = random.nextInt(w.length());
+      char c = (char) ('a' + random.nextInt(26));
+      switch (random.nextInt(3)) {
+        case 0:
+          typos[i] = w.substring(0, at) + c + w.substring(at);
+          break;
+        case 1:
+          typos[i] = w.substring(0, at) + w.substring(at + 1);
+          break;
+        default:
+          typos[i] = w.substring(0, at) + c + w.substring(at + 1);
+      }
+
+      int mid = w.length() / 2;
+      patterns[i] = w.substring(0, mid) + '?' + w.substring(mid + 1) + '*';
+    }
+  }
+
+  /** @param _bh consumes the words found, so that each is actually decoded */
+  @Benchmark
+  public void fuzzyMatch(Blackhole _bh) {
+    String query = typos[nextTypo];
+    nextTypo = nextTypo + 1 == typos.length ? 0 : nextTypo + 1;
+    tree.fuzzyMatch(query, maxEdits).forEach(_bh::consume);
+  }
+
+  /** @param _bh consumes the words found, so that each is actually decoded */
+  @Benchmark
+  public void matchPattern(Blackhole _bh) {
+    String pattern = patterns[nextPattern];
+    nextPattern = nextPattern + 1 == patterns.length ? 0 : nextPattern + 1;
+    tree.matchPattern(pattern).forEach(_bh::consume);
+  }
+}
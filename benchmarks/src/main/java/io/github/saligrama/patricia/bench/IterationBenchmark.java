@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2017-2018 Aditya Saligrama.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO
+ * EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES
+ * OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.saligrama.patricia.bench;
+
+import io.github.saligrama.patricia.bench.Target.StringSet;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * IterationBenchmark measures walking every key of a set, sequentially and as a parallel stream.
+ * ConcurrentPatriciaTree can't be iterated and is left out.
+ *
+ * @author Aditya Saligrama
+ * @version 1.0
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class IterationBenchmark {
+  @Param({"10000", "100000", "1000000", "10000000"})
+  private int size;
+
+  @Param private Dataset dataset;
+
+  @Param({
+    "PATRICIA",
+    "PATRICIA_DIBIT",
+    "PATRICIA_NIBBLE",
+    "PATRICIA_BYTE",
+    "COMPACT_PATRICIA",
+    "LABELED_PATRICIA",
+    "TREE_SET",
+    "HASH_SET"
+  })
+  private Target target;
+
+  private StringSet set;
+
+  @Setup
+  public void setup() {
+    set = Fixtures.fill(target, dataset.generate(size, Fixtures.SEED));
+  }
+
+  @Benchmark
+  public void iterate(Blackhole _bh) {
+    for (String s : set) _bh.consume(s);
+  }
+
+  /** @return total length of the keys, so the stream has real work to split */
+  @Benchmark
+  public long parallelStream() {
+    return set.parallelStream().mapToLong(String::length).sum();
+  }
+}
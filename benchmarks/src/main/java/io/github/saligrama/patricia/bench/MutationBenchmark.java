@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2017-2018 Aditya Saligrama.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO
+ * EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES
+ * OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.saligrama.patricia.bench;
+
+import io.github.saligrama.patricia.bench.Target.StringSet;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * MutationBenchmark measures add and remove: loading every key into an empty set, and removing
+ * then re-adding keys of a full set, which keeps its size steady.
+ *
+ * @author Aditya Saligrama
+ * @version 1.0
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class MutationBenchmark {
+  @Param({"10000", "100000", "1000000", "10000000"})
+  private int size;
+
+  @Param private Dataset dataset;
+
+  @Param private Target target;
+
+  private String[] keys;
+  private StringSet full;
+  private int next;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    keys = dataset.generate(size, Fixtures.SEED);
+    full = Fixtures.fill(target, keys);
+  }
+
+  /**
+   * @param _empty a fresh set of the benchmark's target
+   * @return the loaded set; time is for all size keys
+   */
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  @Warmup(iterations = 3)
+  @Measurement(iterations = 5)
+  public StringSet add(EmptySet _empty) {
+    for (String k : keys) _empty.set.add(k);
+    return _empty.set;
+  }
+
+  @Benchmark
+  @BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public boolean removeThenAdd() {
+    String key = keys[next];
+    next = next + 1 == keys.length ? 0 : next + 1;
+    return full.remove(key) & full.add(key);
+  }
+
+  /** EmptySet holds a new, empty set for each invocation of add. */
+  @State(Scope.Thread)
+  public static class EmptySet {
+    private StringSet set;
+
+    @Setup(Level.Invocation)
+    public void setup(MutationBenchmark _bench) {
+      set = _bench.target.create();
+    }
+  }
+}
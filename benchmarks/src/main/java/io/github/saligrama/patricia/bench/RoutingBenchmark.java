@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2017-2018 Aditya Saligrama.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO
+ * EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES
+ * OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.saligrama.patricia.bench;
+
+import io.github.saligrama.patricia.BitString;
+import io.github.saligrama.patricia.BitStringMap;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * RoutingBenchmark measures longest-prefix lookups of IPv4 addresses in a routing table of random
+ * CIDR prefixes, whose lengths follow roughly the mix of a public BGP table: mostly /24, then /22
+ * and /23, and few shorter than /16.
+ *
+ * <p>BitStringMap is compared with the usual hash-based approach, which probes one hash table
+ * entry per prefix length present, longest first. Half of the addresses fall inside a prefix of
+ * the table and the rest are random, so most of those only match a short prefix or nothing.
+ *
+ * @author Aditya Saligrama
+ * @version 1.0
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class RoutingBenchmark {
+  // prefix lengths and how many in 100 prefixes have them
+  private static final int[] PREFIX_LENGTHS = {8, 12, 16, 18, 19, 20, 21, 22, 23, 24};
+  private static final int[] PREFIX_WEIGHTS = {1, 2, 4, 3, 4, 5, 6, 12, 10, 53};
+
+  @Param({"10000", "100000", "1000000"})
+  private int size;
+
+  private BitStringMap<Integer> table;
+  private Map<Long, Integer> hashTable;
+  private int[] hashLengths;
+  private byte[][] addresses;
+  private int[] addressInts;
+  private int next;
+
+  @Setup
+  public void setup() {
+    Random random = new Random(Fixtures.SEED);
+    table = new BitStringMap<>();
+    hashTable = new HashMap<>();
+    int[] prefixes = new int[size];
+    boolean[] lengthUsed = new boolean[Integer.SIZE + 1];
+    for (int i = 0; i < size; i++) {
+      int length = randomLength(random);
+      int prefix = random.nextInt() & mask(length);
+      prefixes[i] = prefix;
+      table.put(BitString.of(toBytes(prefix), length), i);
+      hashTable.put(hashKey(prefix, length), i);
+      lengthUsed[length] = true;
+    }
+
+    hashLengths = new int[Integer.SIZE + 1];
+    int numLengths = 0;
+    for (int length = Integer.SIZE; length >= 0; length--) {
+      if (lengthUsed[length]) hashLengths[numLengths++] = length;
+    }
+    hashLengths = Arrays.copyOf(hashLengths, numLengths);
+
+    random = new Random(Fixtures.MISS_SEED);
+    addresses = new byte[Fixtures.NUM_MISSES][];
+    addressInts = new int[Fixtures.NUM_MISSES];
+    for (int i = 0; i < addresses.length; i++) {
+      int address = random.nextInt();
+      // keep the host bits random and take the network bits from a prefix of the table
+      if (random.nextBoolean()) {
+        address = (address & 0xFF) | (prefixes[random.nextInt(size)] & ~0xFF);
+      }
+      addressInts[i] = address;
+      addresses[i] = toBytes(address);
+    }
+  }
+
+  @Benchmark
+  public Integer bitStringMap() {
+    byte[] address = addresses[next];
+    next = next + 1 == addresses.length ? 0 : next + 1;
+    return table.longestPrefixValue(address);
+  }
+
+  @Benchmark
+  public Integer hashPerLength() {
+    int address = addressInts[next];
+    next = next + 1 == addressInts.length ? 0 : next + 1;
+    for (int length : hashLengths) {
+      Integer ret = hashTable.get(hashKey(address & mask(length), length));
+      if (ret != null) return ret;
+    }
+
+    return null;
+  }
+
+  private static int randomLength(Random _random) {
+    int pick = _random.nextInt(100);
+    for (int i = 0; ; i++) {
+      pick -= PREFIX_WEIGHTS[i];
+      if (pick < 0) return PREFIX_LENGTHS[i];
+    }
+  }
+
+  private static int mask(int _length) {
+    return _length == 0 ? 0 : -1 << (Integer.SIZE - _length);
+  }
+
+  private static long hashKey(int _prefix, int _length) {
+    return ((_prefix & 0xFFFFFFFFL) << Byte.SIZE) | _length;
+  }
+
+  private static byte[] toBytes(int _address) {
+    return new byte[] {
+      (byte) (_address >>> 24), (byte) (_address >>> 16), (byte) (_address >>> 8), (byte) _address
+    };
+  }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2017-2018 Aditya Saligrama.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO
+ * EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES
+ * OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.saligrama.patricia.bench;
+
+import io.github.saligrama.patricia.PatriciaTree;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * SetOperationBenchmark diffs two versions of a key set, yesterday's and today's, in which a
+ * fraction of the keys were replaced by new ones. The set operations, which walk both trees
+ * together, are compared with building the difference by looking up every key of one tree in the
+ * other.
+ *
+ * @author Aditya Saligrama
+ * @version 1.0
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class SetOperationBenchmark {
+  @Param({"100000", "1000000"})
+  private int size;
+
+  @Param({"URLS", "WORDS"})
+  private Dataset dataset;
+
+  /** Percentage of yesterday's keys replaced in today's set. */
+  @Param({"1", "10"})
+  private int churn;
+
+  private PatriciaTree yesterday;
+  private PatriciaTree today;
+  private PatriciaTree unchanged;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    String[] keys = dataset.generate(size, Fixtures.SEED);
+    String[] added = dataset.generateMisses(keys, size * churn / 100, Fixtures.MISS_SEED);
+    yesterday = PatriciaTree.fromUnsorted(Arrays.asList(keys));
+
+    Random random = new Random(Fixtures.SEED);
+    String[] current = keys.clone();
+    for (String k : added) current[random.nextInt(current.length)] = k;
+    today = PatriciaTree.fromUnsorted(Arrays.asList(current));
+    unchanged = today.intersect(yesterday);
+  }
+
+  @Benchmark
+  public PatriciaTree difference() {
+    return today.difference(yesterday);
+  }
+
+  @Benchmark
+  public PatriciaTree intersect() {
+    return today.intersect(yesterday);
+  }
+
+  @Benchmark
+  public PatriciaTree union() {
+    return today.union(yesterday);
+  }
+
+  /** @return true; the keys kept since yesterday are a subset, so the whole tree is walked */
+  @Benchmark
+  public boolean isSubsetOf() {
+    return unchanged.isSubsetOf(yesterday);
+  }
+
+  /** @return the difference, built from a contains call for each of today's keys */
+  @Benchmark
+  public PatriciaTree differenceByContains() {
+    PatriciaTree.Builder ret = new PatriciaTree.Builder();
+    for (String k : today) {
+      if (!yesterday.contains(k)) ret.add(k);
+    }
+    return ret.build();
+  }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2017-2018 Aditya Saligrama.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO
+ * EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES
+ * OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.saligrama.patricia.bench;
+
+import io.github.saligrama.patricia.ShardedPatriciaTree;
+import io.github.saligrama.patricia.ShardedPatriciaTree.Partitioning;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+
+/**
+ * ShardedBenchmark measures ShardedPatriciaTree under concurrent writers, by shard count. With no
+ * shard bits the tree is a single PatriciaTree behind one lock, the baseline the shards are meant
+ * to scale past. It runs on every core by default; pass JMH's -t to compare thread counts.
+ *
+ * <p>Each thread owns the keys at its own stride, so threads never remove or add the same key and
+ * the tree keeps its size. Writes remove then re-add keys one at a time, or a batch at a time
+ * through addAll.
+ *
+ * @author Aditya Saligrama
+ * @version 1.0
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(Threads.MAX)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ShardedBenchmark {
+  private static final int BATCH_SIZE = 100;
+
+  @Param({"100000", "1000000"})
+  private int size;
+
+  @Param({"URLS", "WORDS"})
+  private Dataset dataset;
+
+  @Param({"0", "2", "4", "6", "8"})
+  private int shardBits;
+
+  @Param private Partitioning partitioning;
+
+  private String[] keys;
+  private ShardedPatriciaTree full;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    keys = dataset.generate(size, Fixtures.SEED);
+    full = new ShardedPatriciaTree(shardBits, partitioning);
+    full.addAll(Arrays.asList(keys));
+  }
+
+  @Benchmark
+  public boolean removeThenAdd(Cursor _cursor) {
+    String key = keys[_cursor.next(keys.length)];
+    return full.remove(key) & full.add(key);
+  }
+
+  @Benchmark
+  public boolean contains(Cursor _cursor) {
+    return full.contains(keys[_cursor.next(keys.length)]);
+  }
+
+  /**
+   * @param _cursor the thread's position in the keys
+   * @return the keys re-added; throughput is per key
+   */
+  @Benchmark
+  @OperationsPerInvocation(BATCH_SIZE)
+  public BitSet removeThenAddAll(Cursor _cursor) {
+    List<String> batch = new ArrayList<>(BATCH_SIZE);
+    for (int i = 0; i < BATCH_SIZE; i++) {
+      String key = keys[_cursor.next(keys.length)];
+      full.remove(key);
+      batch.add(key);
+    }
+    return full.addAll(batch);
+  }
+
+  /** Cursor walks the keys a thread owns: those at its index modulo the thread count. */
+  @State(Scope.Thread)
+  public static class Cursor {
+    private int first;
+    private int stride;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup(ThreadParams _params) {
+      first = _params.getThreadIndex();
+      stride = _params.getThreadCount();
+      next = first;
+    }
+
+    /**
+     * @param _numKeys number of keys
+     * @return index of the thread's next key
+     */
+    private int next(int _numKeys) {
+      int ret = next;
+      next += stride;
+      if (next >= _numKeys) next = first;
+      return ret;
+    }
+  }
+}
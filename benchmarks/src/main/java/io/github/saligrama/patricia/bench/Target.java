@@ -0,0 +1,288 @@
+/*
+ * Copyright (c) 2017-2018 Aditya Saligrama.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO
+ * EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES
+ * OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.saligrama.patricia.bench;
+
+import io.github.saligrama.patricia.CompactPatriciaTree;
+import io.github.saligrama.patricia.ConcurrentPatriciaTree;
+import io.github.saligrama.patricia.LabeledPatriciaTree;
+import io.github.saligrama.patricia.PatriciaTree;
+import io.github.saligrama.patricia.Radix;
+import io.github.saligrama.patricia.ShardedPatriciaTree;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Target lists the string sets under measurement, PatriciaTree variants and the java.util
+ * baselines, behind one small interface so every benchmark runs against all of them.
+ *
+ * @author Aditya Saligrama
+ * @version 1.0
+ */
+public enum Target {
+  PATRICIA {
+    @Override
+    public StringSet create() {
+      return patricia(new PatriciaTree());
+    }
+  },
+
+  PATRICIA_DIBIT {
+    @Override
+    public StringSet create() {
+      return patricia(new PatriciaTree(Radix.DIBIT));
+    }
+  },
+
+  PATRICIA_NIBBLE {
+    @Override
+    public StringSet create() {
+      return patricia(new PatriciaTree(Radix.NIBBLE));
+    }
+  },
+
+  PATRICIA_BYTE {
+    @Override
+    public StringSet create() {
+      return patricia(new PatriciaTree(Radix.BYTE));
+    }
+  },
+
+  COMPACT_PATRICIA {
+    @Override
+    public StringSet create() {
+      CompactPatriciaTree tree = new CompactPatriciaTree();
+      return new StringSet(tree) {
+        @Override
+        public boolean add(String _key) {
+          return tree.add(_key);
+        }
+
+        @Override
+        public boolean contains(String _key) {
+          return tree.contains(_key);
+        }
+
+        @Override
+        public boolean remove(String _key) {
+          return tree.remove(_key);
+        }
+
+        @Override
+        public Iterator<String> iterator() {
+          return tree.iterator();
+        }
+      };
+    }
+  },
+
+  LABELED_PATRICIA {
+    @Override
+    public StringSet create() {
+      LabeledPatriciaTree tree = new LabeledPatriciaTree();
+      return new StringSet(tree) {
+        @Override
+        public boolean add(String _key) {
+          return tree.add(_key);
+        }
+
+        @Override
+        public boolean contains(String _key) {
+          return tree.contains(_key);
+        }
+
+        @Override
+        public boolean remove(String _key) {
+          return tree.remove(_key);
+        }
+
+        @Override
+        public Iterator<String> iterator() {
+          return tree.iterator();
+        }
+      };
+    }
+  },
+
+  CONCURRENT_PATRICIA {
+    @Override
+    public StringSet create() {
+      ConcurrentPatriciaTree tree = new ConcurrentPatriciaTree();
+      return new StringSet(tree) {
+        @Override
+        public boolean add(String _key) {
+          return tree.add(_key);
+        }
+
+        @Override
+        public boolean contains(String _key) {
+          return tree.contains(_key);
+        }
+
+        @Override
+        public boolean remove(String _key) {
+          return tree.remove(_key);
+        }
+
+        @Override
+        public Iterator<String> iterator() {
+          throw new UnsupportedOperationException("ConcurrentPatriciaTree is not iterable");
+        }
+      };
+    }
+  },
+
+  SHARDED_PATRICIA {
+    @Override
+    public StringSet create() {
+      ShardedPatriciaTree tree = new ShardedPatriciaTree();
+      return new StringSet(tree) {
+        @Override
+        public boolean add(String _key) {
+          return tree.add(_key);
+        }
+
+        @Override
+        public boolean contains(String _key) {
+          return tree.contains(_key);
+        }
+
+        @Override
+        public boolean remove(String _key) {
+          return tree.remove(_key);
+        }
+
+        @Override
+        public Iterator<String> iterator() {
+          return tree.iterator();
+        }
+      };
+    }
+  },
+
+  TREE_SET {
+    @Override
+    public StringSet create() {
+      return collection(new TreeSet<>());
+    }
+  },
+
+  HASH_SET {
+    @Override
+    public StringSet create() {
+      return collection(new HashSet<>());
+    }
+  };
+
+  /** @return a new, empty set */
+  public abstract StringSet create();
+
+  private static StringSet patricia(PatriciaTree _tree) {
+    return new StringSet(_tree) {
+      @Override
+      public boolean add(String _key) {
+        return _tree.add(_key);
+      }
+
+      @Override
+      public boolean contains(String _key) {
+        return _tree.contains(_key);
+      }
+
+      @Override
+      public boolean remove(String _key) {
+        return _tree.remove(_key);
+      }
+
+      @Override
+      public Iterator<String> iterator() {
+        return _tree.iterator();
+      }
+
+      @Override
+      public Stream<String> parallelStream() {
+        return _tree.parallelStream();
+      }
+    };
+  }
+
+  private static StringSet collection(Collection<String> _set) {
+    return new StringSet(_set) {
+      @Override
+      public boolean add(String _key) {
+        return _set.add(_key);
+      }
+
+      @Override
+      public boolean contains(String _key) {
+        return _set.contains(_key);
+      }
+
+      @Override
+      public boolean remove(String _key) {
+        return _set.remove(_key);
+      }
+
+      @Override
+      public Iterator<String> iterator() {
+        return _set.iterator();
+      }
+
+      @Override
+      public Stream<String> parallelStream() {
+        return _set.parallelStream();
+      }
+    };
+  }
+
+  /**
+   * StringSet is the common view of a target. It keeps the underlying object so that its retained
+   * heap can be measured.
+   */
+  public abstract static class StringSet implements Iterable<String> {
+    private final Object underlying;
+
+    protected StringSet(Object _underlying) {
+      underlying = _underlying;
+    }
+
+    /** @return the set being measured */
+    public Object underlying() {
+      return underlying;
+    }
+
+    public abstract boolean add(String _key);
+
+    public abstract boolean contains(String _key);
+
+    public abstract boolean remove(String _key);
+
+    /** @return parallel stream over the set, split however the set supports */
+    public Stream<String> parallelStream() {
+      return StreamSupport.stream(spliterator(), true);
+    }
+  }
+}
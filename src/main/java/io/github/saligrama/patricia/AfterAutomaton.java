@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2017-2018 Aditya Saligrama.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO
+ * EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES
+ * OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.saligrama.patricia;
+
+/**
+ * AfterAutomaton accepts the strings that come after a given key in the order of their UTF-8
+ * encodings, which is the order of their code points.
+ *
+ * <p>A state is the number of code points read so far that equal the key's, or AFTER once a read
+ * code point is greater than the key's, or the key has been read whole and followed by more. A
+ * code point less than the key's is a dead end, so a tree walk drops every subtree ordered before
+ * the key after descending once along it.
+ *
+ * @author Aditya Saligrama
+ * @version 1.0
+ */
+final class AfterAutomaton implements Automaton<Integer> {
+  private static final int AFTER = -1;
+
+  private final int[] key;
+
+  /**
+   * Construct a new AfterAutomaton.
+   *
+   * @param _key string the accepted strings come after; unpaired surrogates are read as
+   *     Constants.UTILS_REPLACEMENT_CHAR, as in keys
+   */
+  protected AfterAutomaton(CharSequence _key) {
+    key = Utils.codePoints(_key);
+  }
+
+  @Override
+  public Integer start() {
+    return 0;
+  }
+
+  @Override
+  public Integer step(Integer _state, int _codePoint) {
+    if (_state == AFTER) return AFTER;
+
+    int read = _state;
+    if (read == key.length || _codePoint > key[read]) return AFTER;
+    return _codePoint == key[read] ? Integer.valueOf(read + 1) : null;
+  }
+
+  @Override
+  public boolean accepts(Integer _state) {
+    return _state == AFTER;
+  }
+}
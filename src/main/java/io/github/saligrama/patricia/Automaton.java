@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2017-2018 Aditya Saligrama.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO
+ * EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES
+ * OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.saligrama.patricia;
+
+/**
+ * Automaton is a finite automaton over code points that a tree walk runs over the keys of the
+ * tree. Because a state reached on a prefix of a key is shared by every key starting with that
+ * prefix, a walk feeds each shared prefix once, and drops a subtree as soon as its prefix leads to
+ * a dead state, from which no key can be accepted.
+ *
+ * @param <S> type of the automaton's states, which must not be modified once returned, except when
+ *     passed back to step as the state to overwrite
+ * @author Aditya Saligrama
+ * @version 1.0
+ */
+interface Automaton<S> {
+  /** @return state before any code point is read */
+  S start();
+
+  /**
+   * @param _state current state
+   * @param _codePoint next code point of the key
+   * @return state after reading _codePoint, or null if no key continuing this way can be accepted
+   */
+  S step(S _state, int _codePoint);
+
+  /**
+   * Step into a state the caller no longer needs, rather than allocating a new one. Automata whose
+   * states are large override this so that a run alternates between two states instead of
+   * allocating one per code point; by default _into is ignored.
+   *
+   * @param _state current state
+   * @param _codePoint next code point of the key
+   * @param _into state to overwrite, other than _state, or null to allocate one
+   * @return state after reading _codePoint, which may be _into, or null if no key continuing this
+   *     way can be accepted
+   */
+  default S step(S _state, int _codePoint, S _into) {
+    return step(_state, _codePoint);
+  }
+
+  /**
+   * @param _state a state
+   * @return true if a key ending in _state is accepted
+   */
+  boolean accepts(S _state);
+
+  /**
+   * Run is the run of an automaton over the UTF-8 encoding of a key, fed bytes as a tree walk
+   * learns them. Bytes are fed whole code points at a time, so a code point split across the end of
+   * what is known is held back until the rest of it is known.
+   *
+   * <p>A run overwrites the state it left one step earlier, unless a copy of the run shares it.
+   *
+   * @param <S> type of the automaton's states
+   */
+  final class Run<S> {
+    private final Automaton<S> automaton;
+    private S state;
+
+    // true if no other run holds state, so that it may be overwritten once left
+    private boolean owned;
+
+    // state this run has left and alone holds, to step into next, or null for none
+    private S spare;
+
+    // number of bytes of the key fed so far
+    private int fed;
+
+    /** @param _automaton automaton to run, starting in its start state */
+    protected Run(Automaton<S> _automaton) {
+      this(_automaton, _automaton.start(), 0);
+    }
+
+    private Run(Automaton<S> _automaton, S _state, int _fed) {
+      automaton = _automaton;
+      state = _state;
+      fed = _fed;
+    }
+
+    /** @return number of bytes of the key fed so far */
+    protected int fed() {
+      return fed;
+    }
+
+    /**
+     * Feed the whole code points among the bytes of the key known beyond those already fed.
+     *
+     * @param _key array holding the key from its first byte on
+     * @param _known number of bytes of the key known, at least fed()
+     * @return false if the run reached a dead state, true otherwise
+     */
+    protected boolean feed(byte[] _key, int _known) {
+      while (state != null && fed < _known) {
+        int len = Utils.utf8SequenceLength(_key[fed]);
+        if (fed + len > _known) break;
+        S next = automaton.step(state, Utils.decodeUtf8(_key, fed, len), spare);
+        spare = owned ? state : null;
+        state = next;
+        owned = true;
+        fed += len;
+      }
+
+      return state != null;
+    }
+
+    /** @return true if a key ending here is accepted */
+    protected boolean accepts() {
+      return state != null && automaton.accepts(state);
+    }
+
+    /** @return a copy of the run, to continue independently down another branch */
+    protected Run<S> copy() {
+      owned = false;
+      return new Run<>(automaton, state, fed);
+    }
+  }
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright (c) 2017-2018 Aditya Saligrama.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO
+ * EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES
+ * OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.saligrama.patricia;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * BitKey is a packed, immutable bit string. Bits are stored most significant first in an array of
+ * 64-bit words, so a key of n bits takes roughly n/8 bytes rather than the 4n bytes of an
+ * int-per-bit array.
+ *
+ * <p>Any bits in the last word beyond the key's length are always zero, which allows whole words to
+ * be compared at once.
+ *
+ * <p>Keys are ordered lexicographically by their bits, with a key coming before every key it is a
+ * prefix of; this is the order in which a PatriciaTree stores them.
+ *
+ * @author Aditya Saligrama
+ * @version 1.0
+ */
+final class BitKey implements Comparable<BitKey> {
+  // packed bits, most significant bit of words[0] is bit 0
+  private final long[] words;
+
+  // number of valid bits in words
+  private final int length;
+
+  /**
+   * Construct a new BitKey. The caller hands over ownership of _words, which must have all bits
+   * past _length cleared.
+   *
+   * @param _words packed bits
+   * @param _length number of valid bits in _words
+   */
+  protected BitKey(long[] _words, int _length) {
+    words = _words;
+    length = _length;
+  }
+
+  /** @return number of bits in this key */
+  protected int length() {
+    return length;
+  }
+
+  /**
+   * Get a single bit of this key.
+   *
+   * @param _index index of the bit, from 0 to length() - 1
+   * @return 0 or 1
+   */
+  protected int bitAt(int _index) {
+    long word = words[_index >>> Constants.BITKEY_WORD_SHIFT];
+    return (int) (word >>> (~_index & Constants.BITKEY_WORD_MASK)) & 1;
+  }
+
+  /**
+   * Get 64 consecutive bits of this key.
+   *
+   * @param _index index of the word, from 0 to (length() - 1) / 64
+   * @return the word, with bits past the end of the key cleared
+   */
+  protected long word(int _index) {
+    return words[_index];
+  }
+
+  /**
+   * Get eight consecutive bits of this key. Only meaningful for keys built out of whole bytes.
+   *
+   * @param _index index of the byte, from 0 to length() / 8 - 1
+   * @return value of the byte, from 0 to 255
+   */
+  protected int byteAt(int _index) {
+    int bit = _index << 3;
+    return (int)
+            (words[bit >>> Constants.BITKEY_WORD_SHIFT]
+                >>> (Constants.BITKEY_WORD_BITLEN - Byte.SIZE - (bit & Constants.BITKEY_WORD_MASK)))
+        & 0xFF;
+  }
+
+  /**
+   * Find the first index at which this key and _other differ. Words are compared as a whole and the
+   * differing bit is found with a single leading zero count.
+   *
+   * @param _other key to compare with
+   * @return index of the first differing bit, or the length of the shorter key if one is a prefix
+   *     of the other
+   */
+  protected int mismatch(BitKey _other) {
+    int min = Math.min(length, _other.length);
+    int numWords = (min + Constants.BITKEY_WORD_MASK) >>> Constants.BITKEY_WORD_SHIFT;
+    for (int i = 0; i < numWords; i++) {
+      long diff = words[i] ^ _other.words[i];
+      if (diff != 0) {
+        return Math.min((i << Constants.BITKEY_WORD_SHIFT) + Long.numberOfLeadingZeros(diff), min);
+      }
+    }
+
+    return min;
+  }
+
+  /**
+   * Check whether this key is the bit key representation of _str, encoding _str on the fly rather
+   * than building that key.
+   *
+   * @param _str string to compare with
+   * @return true if Utils.strToBitKey(_str) would equal this key
+   */
+  protected boolean matches(CharSequence _str) {
+    int numBytes = length / Constants.UTILS_CHAR_BITLEN;
+    int ndx = 0;
+    for (int i = 0; i < _str.length(); ) {
+      int codePoint = Utils.codePointAt(_str, i);
+      int codePointBytes = Utils.utf8Length(codePoint);
+      if (ndx + codePointBytes > numBytes) return false;
+      for (int k = 0; k < codePointBytes; k++) {
+        if (byteAt(ndx++) != Utils.utf8Byte(codePoint, codePointBytes, k)) return false;
+      }
+      i += Character.charCount(codePoint);
+    }
+
+    return ndx * Constants.UTILS_CHAR_BITLEN == length;
+  }
+
+  /**
+   * Check whether this key consists of exactly the given range of bytes.
+   *
+   * @param _bytes array to compare with
+   * @param _off index of the first byte of the range
+   * @param _len number of bytes in the range
+   * @return true if the bits of this key are the bits of the range
+   */
+  protected boolean matches(byte[] _bytes, int _off, int _len) {
+    if (length != _len * Byte.SIZE) return false;
+    for (int i = 0; i < _len; i++) {
+      if (byteAt(i) != (_bytes[_off + i] & 0xFF)) return false;
+    }
+
+    return true;
+  }
+
+  /**
+   * Check whether this key consists of exactly the remaining bytes of a buffer. The buffer's
+   * position is not changed.
+   *
+   * @param _buf buffer to compare with
+   * @return true if the bits of this key are the bits between the buffer's position and limit
+   */
+  protected boolean matches(ByteBuffer _buf) {
+    int len = _buf.remaining();
+    if (length != len * Byte.SIZE) return false;
+    int off = _buf.position();
+    for (int i = 0; i < len; i++) {
+      if (byteAt(i) != (_buf.get(off + i) & 0xFF)) return false;
+    }
+
+    return true;
+  }
+
+  /**
+   * Check whether this key and _other agree on a range of bits. Whole words are compared at once,
+   * masking off the bits outside the range in the first and last word.
+   *
+   * @param _other key to compare with
+   * @param _from index of the first bit of the range
+   * @param _to index past the last bit of the range, at most the length of both keys
+   * @return true if the bits from _from to _to - 1 are the same in both keys
+   */
+  protected boolean matches(BitKey _other, int _from, int _to) {
+    if (_from >= _to) return true;
+    int first = _from >>> Constants.BITKEY_WORD_SHIFT;
+    int last = (_to - 1) >>> Constants.BITKEY_WORD_SHIFT;
+    for (int i = first; i <= last; i++) {
+      long diff = words[i] ^ _other.words[i];
+      if (i == first) diff &= -1L >>> (_from & Constants.BITKEY_WORD_MASK);
+      if (i == last) diff &= -1L << (~(_to - 1) & Constants.BITKEY_WORD_MASK);
+      if (diff != 0) return false;
+    }
+
+    return true;
+  }
+
+  /**
+   * Check whether this key and a range of bytes agree on a range of bits. Whole bytes are compared
+   * at once, masking off the bits outside the range in the first and last byte.
+   *
+   * @param _bytes array to compare with
+   * @param _off index of the byte holding bit 0
+   * @param _from index of the first bit of the range
+   * @param _to index past the last bit of the range, at most the length of this key
+   * @return true if the bits from _from to _to - 1 are the same in this key and the bytes
+   */
+  protected boolean matches(byte[] _bytes, int _off, int _from, int _to) {
+    if (_from >= _to) return true;
+    int first = _from >>> 3;
+    int last = (_to - 1) >>> 3;
+    for (int i = first; i <= last; i++) {
+      int diff = byteAt(i) ^ (_bytes[_off + i] & 0xFF);
+      if (i == first) diff &= 0xFF >>> (_from & 7);
+      if (i == last) diff &= 0xFF00 >>> (((_to - 1) & 7) + 1);
+      if (diff != 0) return false;
+    }
+
+    return true;
+  }
+
+  /**
+   * @param _prefix key to check for
+   * @return true if the first bits of this key are _prefix
+   */
+  protected boolean startsWith(BitKey _prefix) {
+    return mismatch(_prefix) == _prefix.length;
+  }
+
+  @Override
+  public int compareTo(BitKey _other) {
+    int index = mismatch(_other);
+    if (index == Math.min(length, _other.length)) return Integer.compare(length, _other.length);
+    return bitAt(index) - _other.bitAt(index);
+  }
+
+  @Override
+  public boolean equals(Object _other) {
+    if (this == _other) return true;
+    if (!(_other instanceof BitKey)) return false;
+    BitKey other = (BitKey) _other;
+    return length == other.length && Arrays.equals(words, other.words);
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * length + Arrays.hashCode(words);
+  }
+}
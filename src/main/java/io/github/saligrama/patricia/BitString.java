@@ -0,0 +1,234 @@
+/*
+ * Copyright (c) 2017-2018 Aditya Saligrama.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO
+ * EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES
+ * OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.saligrama.patricia;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * BitString is an immutable string of bits of any length, such as an IP address or a CIDR prefix.
+ * Unlike the keys of a PatriciaTree, which are whole UTF-8 bytes, a BitString may end in the middle
+ * of a byte, which is what a routing table keyed by network prefixes needs.
+ *
+ * <p>Bits are ordered most significant bit of each byte first. BitStrings are ordered
+ * lexicographically by their bits, with a BitString coming before every BitString it is a prefix
+ * of.
+ *
+ * @author Aditya Saligrama
+ * @version 1.0
+ */
+public final class BitString implements Comparable<BitString> {
+  private final BitKey key;
+
+  private BitString(BitKey _key) {
+    key = _key;
+  }
+
+  /**
+   * Get the BitString holding all bits of an array.
+   *
+   * @param _bytes bits, most significant bit of each byte first
+   * @return BitString of _bytes.length * 8 bits
+   */
+  public static BitString of(byte[] _bytes) {
+    return of(_bytes, _bytes.length * Byte.SIZE);
+  }
+
+  /**
+   * Get the BitString holding the first bits of an array. Bits past _bitLength are ignored.
+   *
+   * @param _bytes bits, most significant bit of each byte first
+   * @param _bitLength number of bits to take
+   * @return BitString of _bitLength bits
+   * @throws IllegalArgumentException if _bitLength is negative or more than _bytes holds
+   */
+  public static BitString of(byte[] _bytes, int _bitLength) {
+    if (_bitLength < 0 || _bitLength > _bytes.length * Byte.SIZE) {
+      throw new IllegalArgumentException(
+          "bit length " + _bitLength + " out of range for " + _bytes.length + " bytes");
+    }
+
+    return new BitString(Utils.bytesToBitKey(_bytes, 0, _bitLength));
+  }
+
+  /**
+   * Get the network prefix of an IP address, so 10.1.2.3 with prefix length 8 gives 10.0.0.0/8.
+   *
+   * @param _address IPv4 or IPv6 address
+   * @param _prefixLength number of leading bits of the address to take
+   * @return BitString of _prefixLength bits
+   * @throws IllegalArgumentException if _prefixLength is negative or longer than the address
+   */
+  public static BitString of(InetAddress _address, int _prefixLength) {
+    return of(_address.getAddress(), _prefixLength);
+  }
+
+  /**
+   * Parse a network prefix in CIDR notation, such as "192.168.0.0/16" or "2001:db8::/32". A
+   * missing prefix length means the whole address. Host bits past the prefix length are ignored.
+   * IPv6 literals are parsed by InetAddress, and never looked up as host names.
+   *
+   * @param _cidr address and optional prefix length, separated by '/'
+   * @return BitString of the prefix
+   * @throws IllegalArgumentException if _cidr is not a valid IPv4 or IPv6 prefix
+   */
+  public static BitString parseCidr(String _cidr) {
+    int slash = _cidr.indexOf('/');
+    String address = slash < 0 ? _cidr : _cidr.substring(0, slash);
+    byte[] bytes = address.indexOf(':') < 0 ? parseIpv4(address) : parseIpv6(address);
+    if (slash < 0) return of(bytes);
+
+    int prefixLength;
+    try {
+      prefixLength = Integer.parseInt(_cidr.substring(slash + 1));
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("invalid prefix length in " + _cidr, e);
+    }
+    return of(bytes, prefixLength);
+  }
+
+  /** @return number of bits */
+  public int length() {
+    return key.length();
+  }
+
+  /**
+   * Get a single bit.
+   *
+   * @param _index index of the bit, from 0 to length() - 1
+   * @return 0 or 1
+   * @throws IndexOutOfBoundsException if _index is out of range
+   */
+  public int bitAt(int _index) {
+    if (_index < 0 || _index >= key.length()) {
+      throw new IndexOutOfBoundsException(
+          "index " + _index + " out of bounds for length " + key.length());
+    }
+
+    return key.bitAt(_index);
+  }
+
+  /**
+   * @param _other BitString to check
+   * @return true if _other starts with the bits of this BitString
+   */
+  public boolean isPrefixOf(BitString _other) {
+    return _other.key.startsWith(key);
+  }
+
+  /** @return bits in a new array of (length() + 7) / 8 bytes, with unused bits cleared */
+  public byte[] toByteArray() {
+    byte[] ret = new byte[(key.length() + Byte.SIZE - 1) / Byte.SIZE];
+    for (int i = 0; i < ret.length; i++) ret[i] = (byte) key.byteAt(i);
+    return ret;
+  }
+
+  /** @return bit key holding the bits */
+  protected BitKey key() {
+    return key;
+  }
+
+  /**
+   * @param _key bit key to wrap
+   * @return BitString holding the bits of _key
+   */
+  protected static BitString wrap(BitKey _key) {
+    return new BitString(_key);
+  }
+
+  @Override
+  public int compareTo(BitString _other) {
+    return key.compareTo(_other.key);
+  }
+
+  @Override
+  public boolean equals(Object _other) {
+    return this == _other
+        || (_other instanceof BitString && key.equals(((BitString) _other).key));
+  }
+
+  @Override
+  public int hashCode() {
+    return key.hashCode();
+  }
+
+  /** @return the bits in hexadecimal, followed by '/' and the number of bits, such as "0a/8" */
+  @Override
+  public String toString() {
+    StringBuilder ret = new StringBuilder();
+    for (byte b : toByteArray()) {
+      ret.append(Character.forDigit((b >>> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+    }
+
+    return ret.append('/').append(key.length()).toString();
+  }
+
+  private static byte[] parseIpv4(String _address) {
+    byte[] ret = new byte[Constants.BITSTRING_IPV4_BYTES];
+    int start = 0;
+    for (int i = 0; i < ret.length; i++) {
+      int end = _address.indexOf('.', start);
+      if (end < 0) end = _address.length();
+      if (end == start || end - start > 3 || (i == ret.length - 1) != (end == _address.length())) {
+        throw new IllegalArgumentException("invalid IPv4 address " + _address);
+      }
+
+      int value = 0;
+      for (int k = start; k < end; k++) {
+        int digit = Character.digit(_address.charAt(k), 10);
+        if (digit < 0) throw new IllegalArgumentException("invalid IPv4 address " + _address);
+        value = value * 10 + digit;
+      }
+      if (value > 0xFF) throw new IllegalArgumentException("invalid IPv4 address " + _address);
+      ret[i] = (byte) value;
+      start = end + 1;
+    }
+
+    return ret;
+  }
+
+  private static byte[] parseIpv6(String _address) {
+    // InetAddress resolves anything that is not an address literal, so only pass it literals
+    for (int i = 0; i < _address.length(); i++) {
+      char c = _address.charAt(i);
+      if (c != ':' && c != '.' && Character.digit(c, 16) < 0) {
+        throw new IllegalArgumentException("invalid IPv6 address " + _address);
+      }
+    }
+
+    byte[] bytes;
+    try {
+      bytes = InetAddress.getByName(_address).getAddress();
+    } catch (UnknownHostException e) {
+      throw new IllegalArgumentException("invalid IPv6 address " + _address, e);
+    }
+    if (bytes.length == Constants.BITSTRING_IPV6_BYTES) return bytes;
+
+    // InetAddress turns IPv4-mapped addresses into IPv4 ones, but the prefix length counts all 128
+    byte[] ret = new byte[Constants.BITSTRING_IPV6_BYTES];
+    ret[Constants.BITSTRING_IPV4_MAPPED_MARKER] = (byte) 0xFF;
+    ret[Constants.BITSTRING_IPV4_MAPPED_MARKER + 1] = (byte) 0xFF;
+    System.arraycopy(bytes, 0, ret, ret.length - bytes.length, bytes.length);
+    return ret;
+  }
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright (c) 2017-2018 Aditya Saligrama.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO
+ * EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES
+ * OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.saligrama.patricia;
+
+import java.util.ConcurrentModificationException;
+import java.util.StringJoiner;
+import java.util.function.BiConsumer;
+
+/**
+ * BitStringMap maps BitStrings to values and finds the longest key that is a prefix of a given bit
+ * string, which makes it a routing table: keyed by network prefixes such as 10.0.0.0/8, it finds
+ * the most specific route for an address.
+ *
+ * <p>A longest-prefix lookup takes a single descent of the tree. Each terminal key met on the way
+ * down is a candidate, and only its bits past the previous candidate are compared, so the bits of
+ * the address are compared at most once. Lookups by byte array read the address in place and do
+ * not allocate.
+ *
+ * <p>Keys are kept in the order of BitString, and may be empty: the empty BitString, such as the
+ * default route 0.0.0.0/0, is a prefix of every bit string. Values may be null, though then a
+ * lookup returning null no longer tells an absent key from a key mapped to null.
+ *
+ * @author Aditya Saligrama
+ * @version 1.0
+ */
+public class BitStringMap<V> {
+  private static final BitString EMPTY = BitString.of(new byte[0]);
+
+  private ValueNode root;
+
+  // the tree only holds keys of at least one bit, so the empty key is kept apart
+  private boolean hasEmpty;
+  private V emptyValue;
+
+  // number of structural modifications, for detecting concurrent modification during forEach
+  private int modCount;
+
+  /** Construct a new, empty BitStringMap. */
+  public BitStringMap() {
+    root = new ValueNode(0, null);
+  }
+
+  /** @return number of keys in the map */
+  public int size() {
+    return root.size() + (hasEmpty ? 1 : 0);
+  }
+
+  /** @return true if the map has no keys */
+  public boolean isEmpty() {
+    return size() == 0;
+  }
+
+  /**
+   * Check if a key exists in the map.
+   *
+   * @param _key key to search for
+   * @return true if _key is in the map, false otherwise
+   */
+  public boolean containsKey(BitString _key) {
+    BitKey key = _key.key();
+    return key.length() == 0 ? hasEmpty : root.findNode(key) != null;
+  }
+
+  /**
+   * Get the value of a key.
+   *
+   * @param _key key to look up
+   * @return value of _key, or null if _key is not in the map
+   */
+  public V get(BitString _key) {
+    BitKey key = _key.key();
+    if (key.length() == 0) return emptyValue;
+    ValueNode holder = (ValueNode) root.findNode(key);
+    return holder == null ? null : holder.value(key.bitAt(key.length() - 1));
+  }
+
+  /**
+   * Map a key to a value, replacing any value it had.
+   *
+   * @param _key key to map
+   * @param _value value for _key
+   * @return previous value of _key, or null if it was not in the map
+   */
+  public V put(BitString _key, V _value) {
+    BitKey key = _key.key();
+    V ret;
+    if (key.length() == 0) {
+      if (!hasEmpty) modCount++;
+      hasEmpty = true;
+      ret = emptyValue;
+      emptyValue = _value;
+      return ret;
+    }
+
+    int oldSize = root.size();
+    ValueNode holder = (ValueNode) root.insert(key);
+    if (root.size() != oldSize) modCount++;
+
+    int slot = key.bitAt(key.length() - 1);
+    ret = holder.value(slot);
+    holder.setValue(slot, _value);
+    return ret;
+  }
+
+  /**
+   * Remove a key from the map.
+   *
+   * @param _key key to remove
+   * @return value _key had, or null if it was not in the map
+   */
+  public V remove(BitString _key) {
+    BitKey key = _key.key();
+    V ret;
+    if (key.length() == 0) {
+      if (hasEmpty) modCount++;
+      hasEmpty = false;
+      ret = emptyValue;
+      emptyValue = null;
+      return ret;
+    }
+
+    ValueNode holder = (ValueNode) root.detach(key);
+    if (holder == null) return null;
+    modCount++;
+
+    // the value slot is cleared so the node, which may live on, does not keep the value alive
+    int slot = key.bitAt(key.length() - 1);
+    ret = holder.value(slot);
+    holder.setValue(slot, null);
+    return ret;
+  }
+
+  /** Remove every key from the map. */
+  public void clear() {
+    root = new ValueNode(0, null);
+    hasEmpty = false;
+    emptyValue = null;
+    modCount++;
+  }
+
+  /**
+   * Find the longest key in the map that is a prefix of a bit string.
+   *
+   * @param _bits bit string to match, such as a full address
+   * @return the longest key that _bits starts with, or null if there is none
+   */
+  public BitString longestPrefixOf(BitString _bits) {
+    BitKey bits = _bits.key();
+    Node holder = root.longestPrefixNode(bits);
+    if (holder != null) return BitString.wrap(holder.terminal(bits.bitAt(holder.forkIndex())));
+    return hasEmpty ? EMPTY : null;
+  }
+
+  /**
+   * Get the value of the longest key in the map that is a prefix of a bit string. Does not
+   * allocate.
+   *
+   * @param _bits bit string to match, such as a full address
+   * @return value of the longest key that _bits starts with, or null if there is none
+   */
+  public V longestPrefixValue(BitString _bits) {
+    BitKey bits = _bits.key();
+    ValueNode holder = (ValueNode) root.longestPrefixNode(bits);
+    return holder == null ? emptyValue : holder.value(bits.bitAt(holder.forkIndex()));
+  }
+
+  /**
+   * Get the value of the longest key in the map that is a prefix of the bits of an array, such as
+   * the 4 bytes of an IPv4 address. The bits are read in place, so the lookup does not allocate.
+   *
+   * @param _bits bits to match, most significant bit of each byte first
+   * @return value of the longest key that the bits start with, or null if there is none
+   */
+  public V longestPrefixValue(byte[] _bits) {
+    return longestPrefixValue(_bits, 0, _bits.length * Byte.SIZE);
+  }
+
+  /**
+   * Get the value of the longest key in the map that is a prefix of a range of bits. The bits are
+   * read in place, so the lookup does not allocate.
+   *
+   * @param _bits array holding the bits to match, most significant bit of each byte first
+   * @param _off index of the byte holding the first bit
+   * @param _bitLength number of bits to match
+   * @return value of the longest key that the bits start with, or null if there is none
+   * @throws IndexOutOfBoundsException if _off and _bitLength do not describe a range of _bits
+   */
+  public V longestPrefixValue(byte[] _bits, int _off, int _bitLength) {
+    int numBytes = (_bitLength + Byte.SIZE - 1) / Byte.SIZE;
+    if (_off < 0 || _bitLength < 0 || _off > _bits.length - numBytes) {
+      throw new IndexOutOfBoundsException(
+          "bit range [" + _off + " * 8, " + _off + " * 8 + " + _bitLength
+              + ") out of bounds for length " + _bits.length);
+    }
+
+    ValueNode holder = (ValueNode) root.longestPrefixNode(_bits, _off, _bitLength);
+    return holder == null
+        ? emptyValue
+        : holder.value(Utils.bitAt(_bits, _off, holder.forkIndex()));
+  }
+
+  /**
+   * Pass every key and its value to an action, in key order.
+   *
+   * @param _action action taking a key and its value
+   * @throws ConcurrentModificationException if _action adds or removes keys
+   */
+  public void forEach(BiConsumer<? super BitString, ? super V> _action) {
+    int expectedModCount = modCount;
+    if (hasEmpty) {
+      _action.accept(EMPTY, emptyValue);
+      if (modCount != expectedModCount) throw new ConcurrentModificationException();
+    }
+
+    NodeCursor cursor = new NodeCursor(false);
+    cursor.start(root);
+    while (cursor.advance()) {
+      ValueNode holder = (ValueNode) cursor.node();
+      _action.accept(BitString.wrap(cursor.key()), holder.<V>value(cursor.slot()));
+      if (modCount != expectedModCount) throw new ConcurrentModificationException();
+    }
+  }
+
+  /** @return string representation of the map */
+  @Override
+  public String toString() {
+    StringJoiner ret = new StringJoiner(", ", "{", "}");
+    forEach((k, v) -> ret.add(k + "=" + v));
+    return ret.toString();
+  }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright (c) 2017-2018 Aditya Saligrama.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO
+ * EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES
+ * OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.saligrama.patricia;
+
+import java.nio.ByteBuffer;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.StringJoiner;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * CompactPatriciaTree is a PatriciaTree whose nodes are stored as fixed-width records in primitive
+ * arrays instead of as objects, with the same keys, ordering and operations.
+ *
+ * <p>A node takes 20 bytes and a key only its UTF-8 bytes, so large trees take several times less
+ * memory than a PatriciaTree, and the garbage collector has a handful of arrays to trace instead
+ * of a few objects per key. The price is that arrays grow by copying, and that iteration is
+ * sequential only.
+ *
+ * @author Aditya Saligrama
+ * @version 1.0
+ */
+public class CompactPatriciaTree implements Iterable<String> {
+  private static final int SPLITERATOR_CHARACTERISTICS =
+      Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL;
+
+  private int size;
+  private NodeArray nodes;
+
+  // number of modifications, for detecting concurrent modification during iteration
+  private int modCount;
+
+  /** Construct a new CompactPatriciaTree. */
+  public CompactPatriciaTree() {
+    nodes = new NodeArray();
+    size = 0;
+  }
+
+  /** @return size of the tree. */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Check if a string exists in the tree. The characters are read in place, so the check does not
+   * allocate.
+   *
+   * @param _toSearch string to search for within the tree
+   * @return true if _toSearch exists in the tree, false if it does not
+   */
+  public boolean contains(CharSequence _toSearch) {
+    return nodes.findChild(_toSearch);
+  }
+
+  /**
+   * Check if the string whose UTF-8 encoding is the given bytes exists in the tree. The bytes are
+   * read in place, so the check does not allocate.
+   *
+   * @param _toSearch array holding the bytes to search for
+   * @param _off index of the first byte in _toSearch
+   * @param _len number of bytes to search for
+   * @return true if the bytes exist in the tree, false if they do not
+   * @throws IndexOutOfBoundsException if _off and _len do not describe a range of _toSearch
+   */
+  public boolean contains(byte[] _toSearch, int _off, int _len) {
+    if (_off < 0 || _len < 0 || _off > _toSearch.length - _len) {
+      throw new IndexOutOfBoundsException(
+          "range [" + _off + ", " + _off + " + " + _len + ") out of bounds for length "
+              + _toSearch.length);
+    }
+
+    return nodes.findChild(_toSearch, _off, _len);
+  }
+
+  /**
+   * Check if the string whose UTF-8 encoding is the remaining bytes of a buffer exists in the tree.
+   * The bytes are read in place and the buffer's position is left unchanged, so the check does not
+   * allocate.
+   *
+   * @param _toSearch buffer whose bytes between position and limit are searched for
+   * @return true if the bytes exist in the tree, false if they do not
+   */
+  public boolean contains(ByteBuffer _toSearch) {
+    if (_toSearch.hasArray()) {
+      return nodes.findChild(
+          _toSearch.array(),
+          _toSearch.arrayOffset() + _toSearch.position(),
+          _toSearch.remaining());
+    }
+
+    return nodes.findChild(_toSearch);
+  }
+
+  /**
+   * Add a string to the tree.
+   *
+   * @param _toAdd string to add to the tree
+   * @return true if the tree was modified (i.e. _toAdd did not already exist in the tree), false
+   *     otherwise
+   * @throws IllegalArgumentException if _toAdd is empty
+   */
+  public boolean add(String _toAdd) {
+    if (_toAdd.isEmpty()) throw new IllegalArgumentException("cannot add an empty string");
+    boolean ret = nodes.addChild(Utils.strToBitKey(_toAdd));
+    if (ret) {
+      size++;
+      modCount++;
+    }
+    return ret;
+  }
+
+  /**
+   * Remove a string from the tree.
+   *
+   * @param _toRemove string to remove from the tree
+   * @return true if the tree was modified (i.e. _toRemove was in the tree), false otherwise
+   */
+  public boolean remove(String _toRemove) {
+    boolean ret = nodes.removeChild(Utils.strToBitKey(_toRemove));
+    if (ret) {
+      size--;
+      modCount++;
+    }
+    return ret;
+  }
+
+  /**
+   * Iterate over the strings in the tree in order. Strings are decoded one at a time as the
+   * iterator advances.
+   *
+   * @return iterator over the strings in the tree
+   */
+  @Override
+  public Iterator<String> iterator() {
+    return new FailFastIterator(nodes.iterator());
+  }
+
+  /** @return sequential stream over the strings in the tree, in order */
+  public Stream<String> stream() {
+    return StreamSupport.stream(
+        Spliterators.spliterator(iterator(), size, SPLITERATOR_CHARACTERISTICS), false);
+  }
+
+  /**
+   * Find the strings in the tree that start with a prefix, descending to the prefix once and then
+   * walking the nodes below it lazily.
+   *
+   * @param _prefix prefix to search for
+   * @return sequential stream over the strings starting with _prefix, in order
+   */
+  public Stream<String> prefixScan(String _prefix) {
+    Iterator<String> it = new FailFastIterator(nodes.prefixIterator(Utils.strToBitKey(_prefix)));
+    return StreamSupport.stream(
+        Spliterators.spliteratorUnknownSize(it, SPLITERATOR_CHARACTERISTICS), false);
+  }
+
+  /** @return string representation of the tree */
+  @Override
+  public String toString() {
+    StringJoiner ret = new StringJoiner(", ", "[", "]");
+    for (String s : this) ret.add(s);
+    return ret.toString();
+  }
+
+  /** FailFastIterator wraps a NodeArray iterator, failing fast if the tree is modified. */
+  private class FailFastIterator implements Iterator<String> {
+    private final Iterator<String> strings;
+    private final int expectedModCount;
+
+    private FailFastIterator(Iterator<String> _strings) {
+      strings = _strings;
+      expectedModCount = modCount;
+    }
+
+    @Override
+    public boolean hasNext() {
+      checkForComodification();
+      return strings.hasNext();
+    }
+
+    @Override
+    public String next() {
+      checkForComodification();
+      return strings.next();
+    }
+
+    private void checkForComodification() {
+      if (modCount != expectedModCount) throw new ConcurrentModificationException();
+    }
+  }
+}
@@ -0,0 +1,359 @@
+/*
+ * Copyright (c) 2017-2018 Aditya Saligrama.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO
+ * EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES
+ * OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.saligrama.patricia;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * ConcurrentNode is an individual piece of a ConcurrentPatriciaTree. It has the same layout and
+ * invariants as Node, but its children and terminal keys are read and published with
+ * acquire/release semantics so that lookups can run without locking.
+ *
+ * <p>Writers lock only the nodes whose slots they change, always ancestors before descendants.
+ * Because a node's prefix never changes while it is in the tree, a writer descends without locks,
+ * then locks the node it wants to change and checks its decision again against that node's now
+ * stable slots, retrying if a concurrent change got in the way. A node that is unlinked is marked
+ * as removed and never modified again, so a lookup that is still walking through it reaches the
+ * same keys it would have reached before.
+ *
+ * @author Aditya Saligrama
+ * @version 1.0
+ */
+class ConcurrentNode {
+  private static final VarHandle CHILDREN =
+      MethodHandles.arrayElementVarHandle(ConcurrentNode[].class);
+  private static final VarHandle TERMINATES = MethodHandles.arrayElementVarHandle(BitKey[].class);
+
+  // index of first difference between left and right child
+  private final int forkIndex;
+
+  // left child has a 0 at position forkIndex, right child has a 1
+  // elements are read with child() and written with setChild()
+  private final ConcurrentNode[] children;
+
+  // keys of length forkIndex+1 ending at this node, indexed by their last bit
+  // elements are read with terminal() and written with setTerminal()
+  private final BitKey[] terminates;
+
+  // link to parent node; only changed while holding the locks of this node's old parent
+  private volatile ConcurrentNode parent;
+
+  // set once this node has been unlinked from the tree
+  private volatile boolean removed;
+
+  /** Construct a new ConcurrentNode. */
+  protected ConcurrentNode(int _forkIndex, ConcurrentNode _parent) {
+    forkIndex = _forkIndex;
+    terminates = new BitKey[Constants.NODE_NUM_CHILDREN];
+    children = new ConcurrentNode[Constants.NODE_NUM_CHILDREN];
+    parent = _parent;
+  }
+
+  /**
+   * Search for the bit key representation of a string without locking or allocating.
+   *
+   * @param _toSearch string to search for
+   * @return true if the string was found, false otherwise
+   */
+  protected boolean findChild(CharSequence _toSearch) {
+    int last = Utils.utf8Length(_toSearch) * Constants.UTILS_CHAR_BITLEN - 1;
+    // forks only increase on the way down, so a single forward cursor reads every bit
+    long cursor = 0;
+    ConcurrentNode pointer = this;
+    while (pointer.forkIndex < last) {
+      cursor = Utils.seek(_toSearch, cursor, pointer.forkIndex / Constants.UTILS_CHAR_BITLEN);
+      pointer = pointer.child(Utils.bitAt(_toSearch, cursor, pointer.forkIndex));
+      if (pointer == null) return false;
+    }
+
+    if (pointer.forkIndex != last) return false;
+    cursor = Utils.seek(_toSearch, cursor, last / Constants.UTILS_CHAR_BITLEN);
+    BitKey comp = pointer.terminal(Utils.bitAt(_toSearch, cursor, last));
+    return comp != null && comp.matches(_toSearch);
+  }
+
+  /**
+   * Add a bit key to the tree, locking only the node that gains the key.
+   *
+   * @param _toAdd bit key to add to the tree
+   * @return true if the tree was modified (i.e. _toAdd did not already exist in the tree), false
+   *     otherwise
+   */
+  protected boolean addChild(BitKey _toAdd) {
+    int last = _toAdd.length() - 1;
+    while (true) {
+      // find a likely insertion point without locking, as in Node.addChild
+      ConcurrentNode located = locateAddChild(_toAdd);
+      BitKey comp = located.firstTerminal();
+      int j = comp == null ? last : Math.min(_toAdd.mismatch(comp), last);
+      ConcurrentNode toModify = walkDownToIndex(_toAdd, j);
+
+      synchronized (toModify) {
+        if (toModify.removed) continue;
+        int bit = _toAdd.bitAt(toModify.forkIndex);
+
+        // deal with _toAdd ending exactly at toModify
+        if (toModify.forkIndex == last) {
+          BitKey existing = toModify.terminal(bit);
+          if (existing != null) {
+            if (existing.equals(_toAdd)) return false;
+            continue;
+          }
+          if (!toModify.isPrefixOf(_toAdd)) continue;
+
+          toModify.setTerminal(bit, _toAdd);
+          return true;
+        }
+
+        // deal with an empty slot: _toAdd becomes a new leaf
+        ConcurrentNode child = toModify.child(bit);
+        if (child == null) {
+          if (!toModify.isPrefixOf(_toAdd)) continue;
+
+          toModify.setChild(bit, newLeaf(_toAdd, toModify));
+          return true;
+        }
+
+        // recompute the fork against the child now that toModify's slots cannot change, and
+        // retry if _toAdd turns out not to belong between toModify and child
+        BitKey rep = child.firstTerminal();
+        if (rep == null) continue;
+        int fork = Math.min(_toAdd.mismatch(rep), last);
+        if (fork <= toModify.forkIndex || fork >= child.forkIndex) continue;
+
+        // build the splice completely before publishing it, so lookups never see it half done
+        ConcurrentNode splice = new ConcurrentNode(fork, toModify);
+        splice.children[rep.bitAt(fork)] = child;
+        if (fork == last) {
+          splice.terminates[_toAdd.bitAt(fork)] = _toAdd;
+        } else {
+          splice.children[_toAdd.bitAt(fork)] = newLeaf(_toAdd, splice);
+        }
+        child.parent = splice;
+        toModify.setChild(bit, splice);
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Remove a bit key from the tree, locking the node holding it, its parent and its grandparent.
+   *
+   * @param _toRemove bit key to remove from the tree
+   * @return true if the tree was modified (i.e. _toRemove was in the tree), false otherwise
+   */
+  protected boolean removeChild(BitKey _toRemove) {
+    int bit = _toRemove.bitAt(_toRemove.length() - 1);
+    while (true) {
+      ConcurrentNode located = locateRemoveChild(_toRemove);
+      if (located == null || !_toRemove.equals(located.terminal(bit))) return false;
+
+      // lock top-down; a missing ancestor just locks the next node again
+      ConcurrentNode pointer = located.parent;
+      ConcurrentNode grandParent = pointer == null ? null : pointer.parent;
+      ConcurrentNode outer =
+          grandParent != null ? grandParent : pointer != null ? pointer : located;
+      ConcurrentNode middle = pointer != null ? pointer : located;
+      synchronized (outer) {
+        synchronized (middle) {
+          synchronized (located) {
+            if (located.removed
+                || located.parent != pointer
+                || (pointer != null && (pointer.removed || pointer.parent != grandParent))
+                || (grandParent != null && grandParent.removed)) {
+              continue;
+            }
+            if (!_toRemove.equals(located.terminal(bit))) return false;
+            located.setTerminal(bit, null);
+
+            // clean up the tree as in Node.removeChild; the root node is never removed
+            if (pointer == null || located.notNullTerminates() > 0) return true;
+
+            int numChildren = located.notNullChildren();
+            if (numChildren == 0) {
+              pointer.setChild(_toRemove.bitAt(pointer.forkIndex), null);
+              located.removed = true;
+              if (grandParent != null
+                  && pointer.notNullTerminates() == 0
+                  && pointer.notNullChildren() == 1) {
+                pointer.replaceWithChild(_toRemove.bitAt(grandParent.forkIndex));
+              }
+            } else if (numChildren == 1) {
+              located.replaceWithChild(_toRemove.bitAt(pointer.forkIndex));
+            }
+
+            return true;
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Create a leaf node holding a single terminal key.
+   *
+   * @param _key key to store
+   * @param _parent parent of the new leaf
+   * @return a ConcurrentNode with forkIndex at the last bit of _key
+   */
+  private static ConcurrentNode newLeaf(BitKey _key, ConcurrentNode _parent) {
+    int last = _key.length() - 1;
+    ConcurrentNode leaf = new ConcurrentNode(last, _parent);
+    leaf.terminates[_key.bitAt(last)] = _key;
+    return leaf;
+  }
+
+  /**
+   * Unlink this node, which must have exactly one child and no terminal keys, by linking its child
+   * directly to its parent. The caller holds the locks of this node and its parent.
+   *
+   * @param _childIndex index of this node in its parent's children
+   */
+  private void replaceWithChild(int _childIndex) {
+    ConcurrentNode child = child(0) != null ? child(0) : child(1);
+    child.parent = parent;
+    parent.setChild(_childIndex, child);
+    removed = true;
+  }
+
+  /**
+   * Check that a key agrees with the first forkIndex bits shared by every key below this node.
+   * Any key ever reachable from a node has that node's prefix, so this holds even while deeper
+   * nodes change.
+   *
+   * @param _key key to check
+   * @return true if _key may be stored below this node
+   */
+  private boolean isPrefixOf(BitKey _key) {
+    BitKey rep = firstTerminal();
+    return rep == null ? forkIndex == 0 : _key.mismatch(rep) >= forkIndex;
+  }
+
+  /**
+   * Find any terminal key in the subtree rooted at this node.
+   *
+   * @return a terminal key, or null if none was found
+   */
+  private BitKey firstTerminal() {
+    ConcurrentNode pointer = this;
+    while (pointer != null) {
+      BitKey ret = pointer.terminal(0);
+      if (ret == null) ret = pointer.terminal(1);
+      if (ret != null) return ret;
+      ConcurrentNode next = pointer.child(0);
+      pointer = next != null ? next : pointer.child(1);
+    }
+
+    return null;
+  }
+
+  /** @return number of terminal keys at this node */
+  private int notNullTerminates() {
+    int ret = 0;
+    for (int i = 0; i < Constants.NODE_NUM_CHILDREN; i++) {
+      if (terminal(i) != null) ret++;
+    }
+
+    return ret;
+  }
+
+  /** @return number of children of this node */
+  private int notNullChildren() {
+    int ret = 0;
+    for (int i = 0; i < Constants.NODE_NUM_CHILDREN; i++) {
+      if (child(i) != null) ret++;
+    }
+
+    return ret;
+  }
+
+  /**
+   * Walk down the path of _key to the deepest node whose forkIndex is at most _index.
+   *
+   * @param _key key whose path to follow
+   * @param _index largest forkIndex to walk down to
+   * @return a ConcurrentNode representing such a location
+   */
+  private ConcurrentNode walkDownToIndex(BitKey _key, int _index) {
+    ConcurrentNode pointer = this;
+    while (pointer.forkIndex < _index) {
+      ConcurrentNode next = pointer.child(_key.bitAt(pointer.forkIndex));
+      if (next == null || next.forkIndex > _index) break;
+      pointer = next;
+    }
+
+    return pointer;
+  }
+
+  /**
+   * Locate the deepest node on the path of _toAdd.
+   *
+   * @param _toAdd bit key whose path to follow
+   * @return a ConcurrentNode representing such a location
+   */
+  private ConcurrentNode locateAddChild(BitKey _toAdd) {
+    int last = _toAdd.length() - 1;
+    ConcurrentNode pointer = this;
+    while (pointer.forkIndex < last) {
+      ConcurrentNode next = pointer.child(_toAdd.bitAt(pointer.forkIndex));
+      if (next == null) break;
+      pointer = next;
+    }
+
+    return pointer;
+  }
+
+  /**
+   * Locate the only node that could hold _toRemove.
+   *
+   * @param _toRemove bit key whose path to follow
+   * @return such a ConcurrentNode, or null if there is none
+   */
+  private ConcurrentNode locateRemoveChild(BitKey _toRemove) {
+    int last = _toRemove.length() - 1;
+    ConcurrentNode pointer = this;
+    while (pointer.forkIndex < last) {
+      pointer = pointer.child(_toRemove.bitAt(pointer.forkIndex));
+      if (pointer == null) return null;
+    }
+
+    return pointer.forkIndex == last ? pointer : null;
+  }
+
+  private ConcurrentNode child(int _index) {
+    return (ConcurrentNode) CHILDREN.getAcquire(children, _index);
+  }
+
+  private void setChild(int _index, ConcurrentNode _child) {
+    CHILDREN.setRelease(children, _index, _child);
+  }
+
+  private BitKey terminal(int _index) {
+    return (BitKey) TERMINATES.getAcquire(terminates, _index);
+  }
+
+  private void setTerminal(int _index, BitKey _key) {
+    TERMINATES.setRelease(terminates, _index, _key);
+  }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2017-2018 Aditya Saligrama.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO
+ * EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES
+ * OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.saligrama.patricia;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ConcurrentPatriciaTree is a thread-safe PatriciaTree.
+ *
+ * <p>Lookups never lock and never see a partially linked node: new nodes are fully built before
+ * they are published, and unlinked nodes are left intact for lookups still passing through them.
+ * Additions lock only the node that gains the new key, and removals lock the node losing the key
+ * together with its parent and grandparent, so writes to different parts of the tree proceed in
+ * parallel.
+ *
+ * @author Aditya Saligrama
+ * @version 1.0
+ */
+public class ConcurrentPatriciaTree {
+  private final LongAdder size;
+  private final ConcurrentNode root;
+
+  /** Construct a new ConcurrentPatriciaTree. */
+  public ConcurrentPatriciaTree() {
+    root = new ConcurrentNode(0, null);
+    size = new LongAdder();
+  }
+
+  /**
+   * @return size of the tree; only exact when no additions or removals are running concurrently
+   */
+  public int size() {
+    return size.intValue();
+  }
+
+  /**
+   * Check if a string exists in the tree. Never blocks and does not allocate.
+   *
+   * @param _toSearch string to search for within the tree
+   * @return true if _toSearch exists in the tree, false if it does not
+   */
+  public boolean contains(CharSequence _toSearch) {
+    return root.findChild(_toSearch);
+  }
+
+  /**
+   * Add a string to the tree.
+   *
+   * @param _toAdd string to add to the tree
+   * @return true if the tree was modified (i.e. _toAdd did not already exist in the tree), false
+   *     otherwise
+   * @throws IllegalArgumentException if _toAdd is empty
+   */
+  public boolean add(String _toAdd) {
+    if (_toAdd.isEmpty()) throw new IllegalArgumentException("cannot add an empty string");
+    boolean ret = root.addChild(Utils.strToBitKey(_toAdd));
+    if (ret) size.increment();
+    return ret;
+  }
+
+  /**
+   * Remove a string from the tree.
+   *
+   * @param _toRemove string to remove from the tree
+   * @return true if the tree was modified (i.e. _toRemove was in the tree), false otherwise
+   */
+  public boolean remove(String _toRemove) {
+    if (_toRemove.isEmpty()) return false;
+    boolean ret = root.removeChild(Utils.strToBitKey(_toRemove));
+    if (ret) size.decrement();
+    return ret;
+  }
+}
@@ -27,10 +27,96 @@ package io.github.saligrama.patricia;
  * @version 1.0
  */
 class Constants {
-  // for Utils: converting from string to bit array and vice versa
+  // for Utils: converting from string to UTF-8 bit key and vice versa
   protected static final int UTILS_CHAR_BITLEN = 8;
-  protected static final int[] UTILS_BITSET = new int[] {128, 64, 32, 16, 8, 4, 2, 1};
+  protected static final char UTILS_REPLACEMENT_CHAR = '?';
 
-  // for Node
+  // for BitKey: bits are packed into longs
+  protected static final int BITKEY_WORD_BITLEN = 64;
+  protected static final int BITKEY_WORD_SHIFT = 6;
+  protected static final int BITKEY_WORD_MASK = BITKEY_WORD_BITLEN - 1;
+
+  // for Node: fan-out, initial size of the buffer keys are matched against automata in, and the
+  // number of keys in pairs of subtrees from which a set operation merges them in forked tasks
   protected static final int NODE_NUM_CHILDREN = 2;
+  protected static final int NODE_MATCH_INITIAL_KEY_BYTES = 64;
+  protected static final int NODE_MERGE_FORK_SIZE = 1 << 13;
+
+  // for Snapshot: file header and node record layout
+  protected static final int SNAPSHOT_MAGIC = 0x50415452; // "PATR"
+  protected static final int SNAPSHOT_VERSION = 1;
+  protected static final int SNAPSHOT_HEADER_LEN = 12;
+  protected static final int SNAPSHOT_RECORD_HEADER_LEN = 5;
+  protected static final int SNAPSHOT_HAS_TERMINAL = 1; // shifted left by the terminal's index
+  protected static final int SNAPSHOT_HAS_CHILD = 4; // shifted left by the child's index
+  protected static final int SNAPSHOT_BUFFER_LEN = 1 << 16;
+
+  // for NodeArray: node record layout and initial capacities
+  protected static final int NODEARRAY_RECORD_LEN = 5;
+  protected static final int NODEARRAY_FORK = 0;
+  protected static final int NODEARRAY_CHILD = 1; // plus the child's index
+  protected static final int NODEARRAY_TERMINAL = 3; // plus the terminal's index
+  protected static final int NODEARRAY_INITIAL_NODES = 16;
+  protected static final int NODEARRAY_INITIAL_KEY_BYTES = 256;
+  protected static final int NODEARRAY_KEY_PADDING = Long.BYTES;
+
+  // for MutationLog: file header and record layout
+  protected static final int LOG_MAGIC = 0x5041574C; // "PAWL"
+  protected static final int LOG_VERSION = 1;
+  protected static final int LOG_HEADER_LEN = 8;
+  protected static final int LOG_RECORD_HEADER_LEN = 5; // op byte and key length
+  protected static final int LOG_RECORD_OVERHEAD = LOG_RECORD_HEADER_LEN + Integer.BYTES; // + crc
+  protected static final byte LOG_ADD = 1;
+  protected static final byte LOG_REMOVE = 2;
+  protected static final int LOG_INITIAL_BUFFER_LEN = 1 << 12;
+  protected static final int LOG_READ_BUFFER_LEN = 1 << 16;
+
+  // for DurablePatriciaTree: file names, sync interval and compaction threshold
+  protected static final String DURABLE_SNAPSHOT_PREFIX = "snapshot-";
+  protected static final String DURABLE_LOG_PREFIX = "log-";
+  protected static final String DURABLE_TMP_SUFFIX = ".tmp";
+  protected static final String DURABLE_LOCK_FILE = "lock";
+  protected static final long DURABLE_SYNC_INTERVAL_MS = 1000;
+  protected static final long DURABLE_COMPACTION_THRESHOLD = 64L << 20;
+
+  // for FrozenPatriciaTree: node record layout, limits and initial capacities; the fork and first
+  // child fields share an int with FROZEN_FLAG_BITS flag bits
+  protected static final int FROZEN_RECORD_LEN = 3;
+  protected static final int FROZEN_FORK = 0;
+  protected static final int FROZEN_CHILDREN = 1;
+  protected static final int FROZEN_LABEL = 2;
+  protected static final int FROZEN_FLAG_BITS = 2;
+  protected static final int FROZEN_MAX_FIELD = -1 >>> FROZEN_FLAG_BITS;
+  protected static final int FROZEN_MAX_NODES = (Integer.MAX_VALUE - 8) / FROZEN_RECORD_LEN;
+  protected static final int FROZEN_INITIAL_NODES = 16;
+  protected static final int FROZEN_INITIAL_LABEL_BYTES = 256;
+
+  // for LabelNode: initial size of the buffer keys are rebuilt in
+  protected static final int LABELNODE_INITIAL_KEY_BYTES = 64;
+
+  // for RadixNode: capacities of the sorted and indexed child layouts, which must be below 256, and
+  // initial size of the buffer keys are rebuilt in
+  protected static final int RADIX_SMALL_NODE = 4;
+  protected static final int RADIX_MEDIUM_NODE = 16;
+  protected static final int RADIX_INDEXED_NODE = 48;
+  protected static final int RADIXNODE_INITIAL_KEY_BYTES = 64;
+
+  // for ShardedPatriciaTree: default shards per core, largest shard count, the multiplier that
+  // spreads a hash into the top bits, from which the shard is taken, and the number of keys an
+  // iterator reads from a shard per acquisition of its read lock
+  protected static final int SHARDED_SHARDS_PER_CORE = 4;
+  protected static final int SHARDED_MAX_SHARD_BITS = 16;
+  protected static final int SHARDED_HASH_MULTIPLIER = 0x9E3779B9; // 2^32 / golden ratio
+  protected static final int SHARDED_ITERATOR_CHUNK = 1024;
+
+  // for TreeStats and LatencyHistogram: depth table size and bucket layout; durations below
+  // HISTOGRAM_EXACT_LIMIT, which must be 2 << HISTOGRAM_SUB_BUCKET_BITS, get a bucket each
+  protected static final int STATS_INITIAL_DEPTHS = 64;
+  protected static final int HISTOGRAM_SUB_BUCKET_BITS = 3;
+  protected static final int HISTOGRAM_EXACT_LIMIT = 2 << HISTOGRAM_SUB_BUCKET_BITS;
+
+  // for BitString: address families
+  protected static final int BITSTRING_IPV4_BYTES = 4;
+  protected static final int BITSTRING_IPV6_BYTES = 16;
+  protected static final int BITSTRING_IPV4_MAPPED_MARKER = 10; // index of 0xFFFF in ::ffff:a.b.c.d
 }
@@ -0,0 +1,632 @@
+/*
+ * Copyright (c) 2017-2018 Aditya Saligrama.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO
+ * EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES
+ * OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.saligrama.patricia;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * DurablePatriciaTree is a thread-safe PatriciaTree kept in a directory as a snapshot plus an
+ * append-only log of the additions and removals made since, so that it survives a crash without
+ * being rebuilt from its source or rewritten in full after every change.
+ *
+ * <p>Mutations are applied in memory and their records appended to a shared buffer. The first
+ * thread to commit writes the whole buffer to the log through a FileChannel, and threads that
+ * mutated in the meantime find their records already written, so concurrent mutations share one
+ * write and, depending on the SyncPolicy, one force (group commit).
+ *
+ * <p>Once the log grows past a threshold, a new log is started and a background thread folds the
+ * old one into a new snapshot, written next to the old snapshot and renamed over it, so a crash
+ * at any point leaves a complete snapshot. Opening the directory loads the latest snapshot and
+ * replays the logs written after it, dropping a partly written record at the end.
+ *
+ * <p>A mutation is visible to lookups as soon as it is applied, which may be before its record
+ * reaches the log. If writing the log fails, every later mutation fails too, and the tree has to
+ * be reopened.
+ *
+ * <p>An open tree holds a lock on a file in its directory until it is closed, so that no other
+ * instance, in this process or another, opens the same directory meanwhile.
+ *
+ * @author Aditya Saligrama
+ * @version 1.0
+ */
+public class DurablePatriciaTree implements Closeable {
+  /** SyncPolicy decides when the log is forced to disk. */
+  public enum SyncPolicy {
+    /**
+     * Force the log before a mutation returns, so that it survives a crash of the machine.
+     * Mutations committed together share a force.
+     */
+    ALWAYS,
+
+    /**
+     * Force the log once every Constants.DURABLE_SYNC_INTERVAL_MS in the background. A crash of
+     * the process loses nothing, a crash of the machine at most the mutations of the last interval.
+     */
+    INTERVAL,
+
+    /** Never force the log, leaving it to the operating system. */
+    NEVER
+  }
+
+  // directories held open in this process; only one channel per lock file may be opened here,
+  // since closing any channel on a file releases every lock the process holds on it
+  private static final Set<Path> OPEN_DIRS = new HashSet<>();
+
+  private final Path dir;
+  private final FileLock dirLock;
+  private final SyncPolicy syncPolicy;
+  private final long compactionThreshold;
+  private final ScheduledExecutorService background;
+
+  // guards tree, pending and appended; records are appended under the same lock as the mutations
+  // are applied, so they are logged in the order they were applied
+  private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+  private final PatriciaTree tree;
+  private MutationLog.Records pending = new MutationLog.Records();
+  private long appended;
+
+  // guards committing, committed and compaction; only the thread that set committing touches
+  // spare, log and logGeneration
+  private final Object commitLock = new Object();
+  private boolean committing;
+  private long committed;
+  private Future<?> compaction;
+  private MutationLog.Records spare = new MutationLog.Records();
+  private FileChannel log;
+  private long logGeneration;
+
+  // only changed by compactions, which run one at a time on the background thread
+  private volatile long snapshotGeneration;
+
+  private volatile boolean closed;
+  private volatile IOException failure;
+  private volatile IOException compactionFailure;
+
+  private DurablePatriciaTree(
+      Path _dir,
+      FileLock _dirLock,
+      SyncPolicy _syncPolicy,
+      long _compactionThreshold,
+      PatriciaTree _tree,
+      FileChannel _log,
+      long _logGeneration,
+      long _snapshotGeneration) {
+    dir = _dir;
+    dirLock = _dirLock;
+    syncPolicy = _syncPolicy;
+    compactionThreshold = _compactionThreshold;
+    tree = _tree;
+    log = _log;
+    logGeneration = _logGeneration;
+    snapshotGeneration = _snapshotGeneration;
+
+    background =
+        Executors.newSingleThreadScheduledExecutor(
+            r -> {
+              Thread ret = new Thread(r, "patricia-log " + _dir);
+              ret.setDaemon(true);
+              return ret;
+            });
+    if (_syncPolicy == SyncPolicy.INTERVAL) {
+      background.scheduleWithFixedDelay(
+          this::syncQuietly,
+          Constants.DURABLE_SYNC_INTERVAL_MS,
+          Constants.DURABLE_SYNC_INTERVAL_MS,
+          TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * Open the tree kept in a directory, forcing the log before every mutation returns and folding
+   * it into the snapshot once it exceeds Constants.DURABLE_COMPACTION_THRESHOLD bytes.
+   *
+   * @param _dir directory holding the tree, created if it does not exist
+   * @return the tree as of its last logged mutation
+   * @throws IOException if the directory can't be read or written, holds a damaged snapshot, or
+   *     is held open by another instance
+   */
+  public static DurablePatriciaTree open(Path _dir) throws IOException {
+    return open(_dir, SyncPolicy.ALWAYS, Constants.DURABLE_COMPACTION_THRESHOLD);
+  }
+
+  /**
+   * Open the tree kept in a directory.
+   *
+   * @param _dir directory holding the tree, created if it does not exist
+   * @param _syncPolicy when to force the log to disk
+   * @param _compactionThreshold size in bytes past which the log is folded into the snapshot
+   * @return the tree as of its last logged mutation
+   * @throws IOException if the directory can't be read or written, holds a damaged snapshot, or
+   *     is held open by another instance
+   */
+  public static DurablePatriciaTree open(
+      Path _dir, SyncPolicy _syncPolicy, long _compactionThreshold) throws IOException {
+    Files.createDirectories(_dir);
+    Path dir = _dir.toRealPath();
+    FileLock dirLock = lockDirectory(dir);
+    try {
+      return recover(dir, dirLock, _syncPolicy, _compactionThreshold);
+    } catch (IOException | RuntimeException | Error e) {
+      unlockDirectory(dir, dirLock);
+      throw e;
+    }
+  }
+
+  /**
+   * Open the tree kept in a directory that this instance holds the lock of.
+   *
+   * @param _dir directory holding the tree
+   * @param _dirLock lock on the directory, released when the tree is closed
+   * @param _syncPolicy when to force the log to disk
+   * @param _compactionThreshold size in bytes past which the log is folded into the snapshot
+   * @return the tree as of its last logged mutation
+   */
+  private static DurablePatriciaTree recover(
+      Path _dir, FileLock _dirLock, SyncPolicy _syncPolicy, long _compactionThreshold)
+      throws IOException {
+    List<Path> files = new ArrayList<>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(_dir)) {
+      for (Path p : stream) files.add(p);
+    }
+
+    // snapshots not yet renamed into place are incomplete
+    long snapshot = 0;
+    long lastLog = 0;
+    for (Path p : files) {
+      String name = p.getFileName().toString();
+      if (name.equals(Constants.DURABLE_LOCK_FILE)) continue;
+      if (name.endsWith(Constants.DURABLE_TMP_SUFFIX)) {
+        Files.delete(p);
+        continue;
+      }
+      snapshot = Math.max(snapshot, generation(name, Constants.DURABLE_SNAPSHOT_PREFIX));
+      lastLog = Math.max(lastLog, generation(name, Constants.DURABLE_LOG_PREFIX));
+    }
+    lastLog = Math.max(lastLog, snapshot + 1);
+
+    PatriciaTree tree = load(_dir, snapshot, lastLog - 1);
+    Path lastLogPath = logPath(_dir, lastLog);
+    FileChannel log =
+        Files.exists(lastLogPath)
+            ? MutationLog.replay(tree, lastLogPath, true)
+            : MutationLog.create(lastLogPath);
+
+    // remove what a compaction interrupted by a crash left behind
+    for (Path p : files) {
+      String name = p.getFileName().toString();
+      long logGen = generation(name, Constants.DURABLE_LOG_PREFIX);
+      long snapshotGen = generation(name, Constants.DURABLE_SNAPSHOT_PREFIX);
+      if ((logGen > 0 && logGen <= snapshot) || (snapshotGen > 0 && snapshotGen < snapshot)) {
+        Files.deleteIfExists(p);
+      }
+    }
+    forceDirectory(_dir);
+
+    return new DurablePatriciaTree(
+        _dir, _dirLock, _syncPolicy, _compactionThreshold, tree, log, lastLog, snapshot);
+  }
+
+  /** @return size of the tree */
+  public int size() {
+    lock.readLock().lock();
+    try {
+      return tree.size();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Check if a string exists in the tree.
+   *
+   * @param _toSearch string to search for within the tree
+   * @return true if _toSearch exists in the tree, false if it does not
+   */
+  public boolean contains(CharSequence _toSearch) {
+    lock.readLock().lock();
+    try {
+      return tree.contains(_toSearch);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Add a string to the tree and log the addition.
+   *
+   * @param _toAdd string to add to the tree
+   * @return true if the tree was modified (i.e. _toAdd did not already exist in the tree), false
+   *     otherwise
+   * @throws IllegalArgumentException if _toAdd is empty
+   * @throws IllegalStateException if the tree is closed
+   * @throws IOException if the log can't be written
+   */
+  public boolean add(String _toAdd) throws IOException {
+    if (_toAdd.isEmpty()) throw new IllegalArgumentException("cannot add an empty string");
+    return mutate(Constants.LOG_ADD, _toAdd);
+  }
+
+  /**
+   * Remove a string from the tree and log the removal.
+   *
+   * @param _toRemove string to remove from the tree
+   * @return true if the tree was modified (i.e. _toRemove was in the tree), false otherwise
+   * @throws IllegalStateException if the tree is closed
+   * @throws IOException if the log can't be written
+   */
+  public boolean remove(String _toRemove) throws IOException {
+    if (_toRemove.isEmpty()) return false;
+    return mutate(Constants.LOG_REMOVE, _toRemove);
+  }
+
+  /**
+   * Write every logged mutation to the log and force it to disk, whatever the SyncPolicy.
+   *
+   * @throws IllegalStateException if the tree is closed
+   * @throws IOException if the log can't be written
+   */
+  public void sync() throws IOException {
+    if (closed) throw new IllegalStateException("tree is closed");
+    commit(0, true, false);
+  }
+
+  /**
+   * Start a new log and fold the current one into the snapshot now, waiting for the new snapshot
+   * to be in place.
+   *
+   * @throws IllegalStateException if the tree is closed
+   * @throws IOException if the log or the snapshot can't be written
+   */
+  public void compact() throws IOException {
+    if (closed) throw new IllegalStateException("tree is closed");
+    awaitCompaction();
+    compactionFailure = null;
+    commit(0, false, true);
+    awaitCompaction();
+    if (compactionFailure != null) throw compactionFailure;
+  }
+
+  /**
+   * Write and force the log, wait for a running compaction and close the log. Mutations after
+   * close fail.
+   *
+   * @throws IOException if the log can't be written, or the last compaction failed
+   */
+  @Override
+  public void close() throws IOException {
+    lock.writeLock().lock();
+    try {
+      if (closed) return;
+      closed = true;
+    } finally {
+      lock.writeLock().unlock();
+    }
+
+    try {
+      commit(0, true, false);
+    } finally {
+      background.shutdown();
+      try {
+        background.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      try {
+        log.close();
+      } finally {
+        unlockDirectory(dir, dirLock);
+      }
+    }
+    if (compactionFailure != null) throw compactionFailure;
+  }
+
+  /**
+   * Apply a mutation, append its record and commit it.
+   *
+   * @param _op Constants.LOG_ADD or Constants.LOG_REMOVE
+   * @param _key non-empty key to add or remove
+   * @return true if the tree was modified
+   */
+  private boolean mutate(byte _op, String _key) throws IOException {
+    long seq;
+    lock.writeLock().lock();
+    try {
+      if (closed) throw new IllegalStateException("tree is closed");
+      if (failure != null) throw logFailed();
+      boolean changed = _op == Constants.LOG_ADD ? tree.add(_key) : tree.remove(_key);
+      if (!changed) return false;
+      pending.append(_op, _key);
+      seq = ++appended;
+    } finally {
+      lock.writeLock().unlock();
+    }
+
+    commit(seq, false, false);
+    return true;
+  }
+
+  /**
+   * Make sure a record is written to the log. If no other thread is writing, this thread writes
+   * every record appended so far; otherwise it waits for the writing thread, whose write may
+   * already include the record.
+   *
+   * @param _seq sequence number of the record, counting from 1
+   * @param _force true to write and force the log even if the record is already written
+   * @param _roll true to start a new log and fold the current one into the snapshot
+   */
+  private void commit(long _seq, boolean _force, boolean _roll) throws IOException {
+    synchronized (commitLock) {
+      while (true) {
+        if (failure != null) throw logFailed();
+        if (committed >= _seq && !_force && !_roll) return;
+        if (!committing) break;
+        try {
+          commitLock.wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("interrupted waiting for the mutation log");
+        }
+      }
+      committing = true;
+    }
+
+    long end;
+    lock.writeLock().lock();
+    try {
+      MutationLog.Records batch = pending;
+      pending = spare;
+      spare = batch;
+      end = appended;
+    } finally {
+      lock.writeLock().unlock();
+    }
+
+    IOException error = null;
+    try {
+      spare.writeTo(log);
+      if (_force || syncPolicy == SyncPolicy.ALWAYS) log.force(false);
+      if (_roll || log.size() >= compactionThreshold) rollLog();
+    } catch (IOException e) {
+      error = e;
+    }
+
+    synchronized (commitLock) {
+      committing = false;
+      if (error == null) {
+        committed = end;
+      } else {
+        failure = error;
+      }
+      commitLock.notifyAll();
+    }
+    if (error != null) throw error;
+  }
+
+  /**
+   * Start a new log, and fold the current one into the snapshot in the background unless a
+   * compaction is running already. Only called by the committing thread.
+   */
+  private void rollLog() throws IOException {
+    synchronized (commitLock) {
+      if (compaction != null && !compaction.isDone()) return;
+    }
+
+    long folded = logGeneration;
+    FileChannel next = MutationLog.create(logPath(dir, folded + 1));
+    forceDirectory(dir);
+    log.close();
+    log = next;
+    logGeneration = folded + 1;
+
+    synchronized (commitLock) {
+      compaction = background.submit(() -> fold(folded));
+    }
+  }
+
+  /**
+   * Write a new snapshot holding the current snapshot and every log up to a generation, and
+   * delete the files it replaces. Runs on the background thread.
+   *
+   * @param _lastLog generation of the last log to fold in
+   */
+  private void fold(long _lastLog) {
+    try {
+      long previous = snapshotGeneration;
+      PatriciaTree folded = load(dir, previous, _lastLog);
+
+      Path snapshot = snapshotPath(dir, _lastLog);
+      Path tmp = snapshot.resolveSibling(snapshot.getFileName() + Constants.DURABLE_TMP_SUFFIX);
+      folded.writeTo(tmp);
+      try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+        channel.force(true);
+      }
+      Files.move(tmp, snapshot, StandardCopyOption.ATOMIC_MOVE);
+      forceDirectory(dir);
+      snapshotGeneration = _lastLog;
+
+      if (previous > 0) Files.deleteIfExists(snapshotPath(dir, previous));
+      for (long g = previous + 1; g <= _lastLog; g++) Files.deleteIfExists(logPath(dir, g));
+    } catch (IOException e) {
+      // the old snapshot and logs are left in place, and the next compaction folds them in too
+      compactionFailure = e;
+    }
+  }
+
+  private void awaitCompaction() throws IOException {
+    Future<?> running;
+    synchronized (commitLock) {
+      running = compaction;
+    }
+    if (running == null) return;
+
+    try {
+      running.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("interrupted waiting for compaction");
+    } catch (ExecutionException e) {
+      throw new IOException("compaction failed", e.getCause());
+    }
+  }
+
+  private void syncQuietly() {
+    try {
+      commit(0, true, false);
+    } catch (IOException e) {
+      // recorded in failure, and thrown by the next mutation
+    }
+  }
+
+  private IOException logFailed() {
+    return new IOException("mutation log failed; reopen the tree to recover", failure);
+  }
+
+  /**
+   * Load a snapshot and replay the logs following it. The snapshot is read rather than mapped, so
+   * that a compaction can delete it once it is folded into the next one.
+   *
+   * @param _dir directory holding the tree
+   * @param _snapshot generation of the snapshot, or 0 to start from an empty tree
+   * @param _lastLog generation of the last log to replay
+   * @return the tree as of the end of the last log
+   */
+  private static PatriciaTree load(Path _dir, long _snapshot, long _lastLog) throws IOException {
+    PatriciaTree ret =
+        _snapshot == 0
+            ? new PatriciaTree()
+            : PatriciaTree.fromSorted(
+                MappedPatriciaTree.read(snapshotPath(_dir, _snapshot)).iterator());
+    for (long g = _snapshot + 1; g <= _lastLog; g++) {
+      Path log = logPath(_dir, g);
+      if (Files.exists(log)) MutationLog.replay(ret, log, false);
+    }
+
+    return ret;
+  }
+
+  /**
+   * @param _name file name
+   * @param _prefix prefix of the kind of file
+   * @return generation of the file, or 0 if it is not of that kind
+   */
+  private static long generation(String _name, String _prefix) {
+    if (!_name.startsWith(_prefix)) return 0;
+    try {
+      return Long.parseLong(_name.substring(_prefix.length()));
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+
+  /**
+   * Lock a directory against other instances, in this process or another.
+   *
+   * @param _dir real path of the directory holding the tree
+   * @return lock on the directory's lock file
+   * @throws IOException if the lock file can't be opened, or another instance holds the lock
+   */
+  private static FileLock lockDirectory(Path _dir) throws IOException {
+    synchronized (OPEN_DIRS) {
+      if (!OPEN_DIRS.add(_dir)) throw heldOpen(_dir);
+    }
+
+    FileLock ret = null;
+    try {
+      FileChannel channel =
+          FileChannel.open(
+              _dir.resolve(Constants.DURABLE_LOCK_FILE),
+              StandardOpenOption.CREATE,
+              StandardOpenOption.WRITE);
+      try {
+        ret = channel.tryLock();
+      } finally {
+        if (ret == null) channel.close();
+      }
+    } finally {
+      if (ret == null) {
+        synchronized (OPEN_DIRS) {
+          OPEN_DIRS.remove(_dir);
+        }
+      }
+    }
+    if (ret == null) throw heldOpen(_dir);
+
+    return ret;
+  }
+
+  /**
+   * Release the lock taken by lockDirectory.
+   *
+   * @param _dir real path of the directory holding the tree
+   * @param _lock lock on the directory's lock file
+   */
+  private static void unlockDirectory(Path _dir, FileLock _lock) throws IOException {
+    try {
+      _lock.channel().close();
+    } finally {
+      synchronized (OPEN_DIRS) {
+        OPEN_DIRS.remove(_dir);
+      }
+    }
+  }
+
+  private static IOException heldOpen(Path _dir) {
+    return new IOException(_dir + " is held open by another instance");
+  }
+
+  private static Path snapshotPath(Path _dir, long _generation) {
+    return _dir.resolve(Constants.DURABLE_SNAPSHOT_PREFIX + _generation);
+  }
+
+  private static Path logPath(Path _dir, long _generation) {
+    return _dir.resolve(Constants.DURABLE_LOG_PREFIX + _generation);
+  }
+
+  /** Force a directory's entries to disk, so that files created or renamed in it stay put. */
+  private static void forceDirectory(Path _dir) {
+    try (FileChannel channel = FileChannel.open(_dir, StandardOpenOption.READ)) {
+      channel.force(true);
+    } catch (IOException e) {
+      // not every platform can open a directory; there, renames are as durable as they get
+    }
+  }
+}
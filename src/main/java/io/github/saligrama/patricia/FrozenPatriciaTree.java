@@ -0,0 +1,472 @@
+/*
+ * Copyright (c) 2017-2018 Aditya Saligrama.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO
+ * EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES
+ * OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.saligrama.patricia;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.StringJoiner;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * FrozenPatriciaTree is an immutable PatriciaTree laid out for reading, made by
+ * PatriciaTree.freeze(). It holds the same keys in the same order, in a fraction of the memory.
+ *
+ * <p>Nodes are numbered in breadth-first order and stored as fixed-width records in a single int
+ * array, so the top levels of the tree, which every lookup passes through, sit together in a few
+ * cache lines, and the children of a node are always adjacent. Each record holds:
+ *
+ * <ul>
+ *   <li>the node's forkIndex, shifted left by two, with bit i set if a key ends at the node with
+ *       last bit i;
+ *   <li>the index of the node's first child, shifted left by two, with bit i set if child i is
+ *       present; a right child directly follows a left one;
+ *   <li>the offset of the node's edge label in the label arena.
+ * </ul>
+ *
+ * <p>No key is stored whole. The edge label of a node holds the bits all keys below it share past
+ * its parent's fork, from the byte holding bit parentFork+1 up to the byte holding bit
+ * forkIndex-1, so a shared prefix is stored once, by the node where keys start to differ. A lookup
+ * compares the bits of each label on its way down, and reaches its answer at the last node with no
+ * key comparison left to do; iteration rebuilds keys in a single buffer as it descends.
+ *
+ * <p>A FrozenPatriciaTree never changes, so it can be used from several threads at once.
+ *
+ * @author Aditya Saligrama
+ * @version 1.0
+ */
+public final class FrozenPatriciaTree implements Iterable<String> {
+  private static final int SPLITERATOR_CHARACTERISTICS =
+      Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL | Spliterator.IMMUTABLE;
+
+  private final int[] nodes;
+  private final byte[] labels;
+  private final int size;
+
+  // length of the longest key, in bytes, for sizing the iteration buffer
+  private final int maxKeyBytes;
+
+  private FrozenPatriciaTree(int[] _nodes, byte[] _labels, int _size, int _maxKeyBytes) {
+    nodes = _nodes;
+    labels = _labels;
+    size = _size;
+    maxKeyBytes = _maxKeyBytes;
+  }
+
+  /**
+   * Lay out the tree below a node.
+   *
+   * @param _root root node of the tree
+   * @param _size number of keys in the tree
+   * @return a frozen copy of the tree
+   * @throws IllegalStateException if the tree has too many nodes, a key too long, or labels too
+   *     large in total to be addressed by the record fields
+   */
+  protected static FrozenPatriciaTree freeze(Node _root, int _size) {
+    // nodes in breadth-first order, and the forkIndex of each one's parent (-1 for the root)
+    ArrayList<Node> order = new ArrayList<>();
+    int[] parentForks = new int[Constants.FROZEN_INITIAL_NODES];
+    int[] nodes = new int[Constants.FROZEN_INITIAL_NODES * Constants.FROZEN_RECORD_LEN];
+    byte[] labels = new byte[Constants.FROZEN_INITIAL_LABEL_BYTES];
+    int labelsEnd = 0;
+    int maxFork = 0;
+
+    order.add(_root);
+    parentForks[0] = -1;
+    for (int i = 0; i < order.size(); i++) {
+      Node n = order.get(i);
+      int fork = n.forkIndex();
+      int parentFork = parentForks[i];
+      if (fork > Constants.FROZEN_MAX_FIELD) throw new IllegalStateException("key too long");
+      maxFork = Math.max(maxFork, fork);
+
+      int terminals = 0;
+      int children = 0;
+      for (int b = 0; b < Constants.NODE_NUM_CHILDREN; b++) {
+        if (n.terminal(b) != null) terminals |= 1 << b;
+        if (n.child(b) != null) children |= 1 << b;
+      }
+
+      // children are numbered in the order they are queued, right after those queued before
+      int firstChild = order.size();
+      if (firstChild + Constants.NODE_NUM_CHILDREN > Constants.FROZEN_MAX_NODES) {
+        throw new IllegalStateException("too many nodes");
+      }
+      for (int b = 0; b < Constants.NODE_NUM_CHILDREN; b++) {
+        if (n.child(b) == null) continue;
+        if (order.size() == parentForks.length) {
+          parentForks = Arrays.copyOf(parentForks, grow(parentForks.length));
+        }
+        parentForks[order.size()] = fork;
+        order.add(n.child(b));
+      }
+
+      // copy the label out of any key below the node; they all agree up to fork
+      int labelLen = labelBytes(parentFork, fork);
+      if (labelLen > 0) {
+        if (labelsEnd > Integer.MAX_VALUE - labelLen) {
+          throw new IllegalStateException("labels too large");
+        }
+        if (labelsEnd + labelLen > labels.length) {
+          labels = Arrays.copyOf(labels, Math.max(labelsEnd + labelLen, grow(labels.length)));
+        }
+        BitKey key = n.firstTerminal();
+        int first = (parentFork + 1) >>> 3;
+        for (int k = 0; k < labelLen; k++) labels[labelsEnd + k] = (byte) key.byteAt(first + k);
+      }
+
+      int record = i * Constants.FROZEN_RECORD_LEN;
+      if (record == nodes.length) nodes = Arrays.copyOf(nodes, grow(nodes.length));
+      nodes[record + Constants.FROZEN_FORK] = fork << Constants.FROZEN_FLAG_BITS | terminals;
+      nodes[record + Constants.FROZEN_CHILDREN] =
+          firstChild << Constants.FROZEN_FLAG_BITS | children;
+      nodes[record + Constants.FROZEN_LABEL] = labelsEnd;
+      labelsEnd += labelLen;
+    }
+
+    return new FrozenPatriciaTree(
+        Arrays.copyOf(nodes, order.size() * Constants.FROZEN_RECORD_LEN),
+        Arrays.copyOf(labels, labelsEnd),
+        _size,
+        Utils.terminalBytes(maxFork));
+  }
+
+  /** @return size of the tree. */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Check if a string exists in the tree, reading its characters in place. Does not allocate.
+   *
+   * @param _toSearch string to search for within the tree
+   * @return true if _toSearch exists in the tree, false if it does not
+   */
+  public boolean contains(CharSequence _toSearch) {
+    int last = Utils.utf8Length(_toSearch) * Constants.UTILS_CHAR_BITLEN - 1;
+    // forks only increase on the way down, so a single forward cursor reads every byte
+    long cursor = 0;
+    int pointer = 0;
+    int parentFork = -1;
+    while (true) {
+      int fork = forkIndex(pointer);
+      if (fork > last) return false;
+
+      // compare the label; bits before it were checked on the way here
+      int from = (parentFork + 1) >>> 3;
+      int label = label(pointer) - from;
+      int to = labelBytes(parentFork, fork) + from;
+      for (int k = from; k < to; k++) {
+        cursor = Utils.seek(_toSearch, cursor, k);
+        int diff = (labels[label + k] ^ Utils.byteAt(_toSearch, cursor, k)) & 0xFF;
+        if (k == to - 1) diff &= lastByteMask(fork);
+        if (diff != 0) return false;
+      }
+
+      cursor = Utils.seek(_toSearch, cursor, fork / Constants.UTILS_CHAR_BITLEN);
+      int bit = Utils.bitAt(_toSearch, cursor, fork);
+      if (fork == last) return hasTerminal(pointer, bit);
+      pointer = child(pointer, bit);
+      if (pointer < 0) return false;
+      parentFork = fork;
+    }
+  }
+
+  /**
+   * Check if the string whose UTF-8 encoding is the given bytes exists in the tree. Does not
+   * allocate.
+   *
+   * @param _toSearch array holding the bytes to search for
+   * @param _off index of the first byte in _toSearch
+   * @param _len number of bytes to search for
+   * @return true if the bytes exist in the tree, false if they do not
+   * @throws IndexOutOfBoundsException if _off and _len do not describe a range of _toSearch
+   */
+  public boolean contains(byte[] _toSearch, int _off, int _len) {
+    if (_off < 0 || _len < 0 || _off > _toSearch.length - _len) {
+      throw new IndexOutOfBoundsException(
+          "range [" + _off + ", " + _off + " + " + _len + ") out of bounds for length "
+              + _toSearch.length);
+    }
+
+    int last = _len * Byte.SIZE - 1;
+    int pointer = 0;
+    int parentFork = -1;
+    while (true) {
+      int fork = forkIndex(pointer);
+      if (fork > last || !labelMatches(pointer, parentFork, fork, _toSearch, _off)) return false;
+
+      int bit = Utils.bitAt(_toSearch, _off, fork);
+      if (fork == last) return hasTerminal(pointer, bit);
+      pointer = child(pointer, bit);
+      if (pointer < 0) return false;
+      parentFork = fork;
+    }
+  }
+
+  /**
+   * Iterate over the strings in the tree in order.
+   *
+   * @return iterator over the strings in the tree
+   */
+  @Override
+  public Iterator<String> iterator() {
+    KeyIterator ret = new KeyIterator(new byte[maxKeyBytes]);
+    ret.pushNode(0, -1, 0);
+    return ret;
+  }
+
+  /** @return spliterator over the strings in the tree, in order */
+  @Override
+  public Spliterator<String> spliterator() {
+    return Spliterators.spliterator(iterator(), size, SPLITERATOR_CHARACTERISTICS);
+  }
+
+  /** @return sequential stream over the strings in the tree, in order */
+  public Stream<String> stream() {
+    return StreamSupport.stream(spliterator(), false);
+  }
+
+  /**
+   * Find the strings in the tree that start with a prefix, descending to the prefix once and then
+   * walking the nodes below it lazily.
+   *
+   * @param _prefix prefix to search for
+   * @return sequential stream over the strings starting with _prefix, in order
+   */
+  public Stream<String> prefixScan(String _prefix) {
+    byte[] prefix = _prefix.getBytes(StandardCharsets.UTF_8);
+    int last = prefix.length * Byte.SIZE - 1;
+    KeyIterator it = new KeyIterator(Arrays.copyOf(prefix, Math.max(prefix.length, maxKeyBytes)));
+
+    int pointer = 0;
+    int parentFork = -1;
+    int branch = 0;
+    while (true) {
+      // only the part of the label the prefix covers has to match
+      int fork = forkIndex(pointer);
+      if (!labelMatches(pointer, parentFork, Math.min(fork, last + 1), prefix, 0)) break;
+      if (fork > last) {
+        it.pushNode(pointer, parentFork, branch);
+        break;
+      }
+
+      // the prefix ends at this fork: take the half of the node on its side
+      branch = Utils.bitAt(prefix, 0, fork);
+      int next = child(pointer, branch);
+      if (fork == last) {
+        if (next >= 0) it.pushNode(next, fork, branch);
+        if (hasTerminal(pointer, branch)) it.pushKey(pointer, branch);
+        break;
+      }
+
+      if (next < 0) break;
+      pointer = next;
+      parentFork = fork;
+    }
+
+    return StreamSupport.stream(
+        Spliterators.spliteratorUnknownSize(it, SPLITERATOR_CHARACTERISTICS), false);
+  }
+
+  /** @return string representation of the tree */
+  @Override
+  public String toString() {
+    StringJoiner ret = new StringJoiner(", ", "[", "]");
+    for (String s : this) ret.add(s);
+    return ret.toString();
+  }
+
+  /**
+   * @param _length current length of an array
+   * @return length to grow the array to, doubling it up to the largest length an array can have
+   */
+  private static int grow(int _length) {
+    return (int) Math.min(2L * _length, Integer.MAX_VALUE - 8);
+  }
+
+  /**
+   * @param _parentFork forkIndex of a node's parent, or -1 for the root
+   * @param _fork forkIndex of the node, or the end of a shorter range to compare
+   * @return number of bytes in the node's label up to bit _fork
+   */
+  private static int labelBytes(int _parentFork, int _fork) {
+    if (_fork <= _parentFork + 1) return 0;
+    return ((_fork - 1) >>> 3) - ((_parentFork + 1) >>> 3) + 1;
+  }
+
+  /**
+   * @param _end index of the first bit past a label
+   * @return mask of the bits of the label's last byte that come before _end
+   */
+  private static int lastByteMask(int _end) {
+    return (0xFF00 >>> (_end - (((_end - 1) >>> 3) << 3))) & 0xFF;
+  }
+
+  /**
+   * Compare the label of a node, up to a given bit, with a range of bytes.
+   *
+   * @param _node index of the node
+   * @param _parentFork forkIndex of the node's parent, or -1 for the root
+   * @param _end index of the first bit not to compare, at most the node's forkIndex
+   * @param _bytes array holding the bytes to compare with
+   * @param _off index of the first byte of the range
+   * @return true if the bits from _parentFork+1 up to _end agree
+   */
+  private boolean labelMatches(int _node, int _parentFork, int _end, byte[] _bytes, int _off) {
+    int from = (_parentFork + 1) >>> 3;
+    int len = labelBytes(_parentFork, _end);
+    int label = label(_node);
+    for (int k = 0; k < len; k++) {
+      int diff = (labels[label + k] ^ _bytes[_off + from + k]) & 0xFF;
+      if (k == len - 1) diff &= lastByteMask(_end);
+      if (diff != 0) return false;
+    }
+
+    return true;
+  }
+
+  /**
+   * @param _node index of a node
+   * @return forkIndex of the node
+   */
+  private int forkIndex(int _node) {
+    return nodes[_node * Constants.FROZEN_RECORD_LEN + Constants.FROZEN_FORK]
+        >>> Constants.FROZEN_FLAG_BITS;
+  }
+
+  /**
+   * @param _node index of a node
+   * @return offset of the node's label in the label arena
+   */
+  private int label(int _node) {
+    return nodes[_node * Constants.FROZEN_RECORD_LEN + Constants.FROZEN_LABEL];
+  }
+
+  /**
+   * @param _node index of a node
+   * @param _index last bit of the key
+   * @return true if a key of length forkIndex+1 with that last bit ends at the node
+   */
+  private boolean hasTerminal(int _node, int _index) {
+    return (nodes[_node * Constants.FROZEN_RECORD_LEN + Constants.FROZEN_FORK] & (1 << _index))
+        != 0;
+  }
+
+  /**
+   * @param _node index of a node
+   * @param _index 0 for the left child, 1 for the right child
+   * @return index of the child, or -1 if there is none
+   */
+  private int child(int _node, int _index) {
+    int field = nodes[_node * Constants.FROZEN_RECORD_LEN + Constants.FROZEN_CHILDREN];
+    if ((field & (1 << _index)) == 0) return -1;
+    int first = field >>> Constants.FROZEN_FLAG_BITS;
+    return _index == 1 && (field & 1) != 0 ? first + 1 : first;
+  }
+
+  /**
+   * KeyIterator walks nodes in order with an explicit stack, like MappedPatriciaTree's
+   * RecordIterator, and rebuilds each key in a single buffer: entering a node writes its branch bit
+   * and label over the buffer, which leaves the buffer holding the bits every key below the node
+   * starts with.
+   */
+  private class KeyIterator implements Iterator<String> {
+    private final byte[] buffer;
+
+    // pending nodes and keys, with the next one in order on top; a key is stored as the bitwise
+    // complement of its node's index
+    private int[] items = new int[16];
+
+    // for a node, the forkIndex of its parent shifted left by one with the branch bit taken from
+    // it, or -1 for the root; for a key, its last bit
+    private int[] forks = new int[16];
+
+    private int top;
+
+    private KeyIterator(byte[] _buffer) {
+      buffer = _buffer;
+    }
+
+    private void pushNode(int _node, int _parentFork, int _branch) {
+      push(_node, _parentFork < 0 ? -1 : _parentFork << 1 | _branch);
+    }
+
+    private void pushKey(int _node, int _index) {
+      push(~_node, _index);
+    }
+
+    private void push(int _item, int _fork) {
+      if (top == items.length) {
+        items = Arrays.copyOf(items, top * 2);
+        forks = Arrays.copyOf(forks, top * 2);
+      }
+      items[top] = _item;
+      forks[top++] = _fork;
+    }
+
+    @Override
+    public boolean hasNext() {
+      // enter nodes until a key is on top
+      while (top > 0 && items[top - 1] >= 0) {
+        int node = items[--top];
+        int parentFork = forks[top] < 0 ? -1 : forks[top] >> 1;
+        if (parentFork >= 0) setBit(parentFork, forks[top] & 1);
+        int fork = forkIndex(node);
+        int from = (parentFork + 1) >>> 3;
+        int label = label(node);
+        for (int k = labelBytes(parentFork, fork) - 1; k >= 0; k--) {
+          buffer[from + k] = labels[label + k];
+        }
+
+        for (int i = Constants.NODE_NUM_CHILDREN - 1; i >= 0; i--) {
+          int child = child(node, i);
+          if (child >= 0) pushNode(child, fork, i);
+          if (hasTerminal(node, i)) pushKey(node, i);
+        }
+      }
+
+      return top > 0;
+    }
+
+    @Override
+    public String next() {
+      if (!hasNext()) throw new NoSuchElementException();
+      top--;
+      int fork = forkIndex(~items[top]);
+      setBit(fork, forks[top]);
+      return new String(buffer, 0, Utils.terminalBytes(fork), StandardCharsets.UTF_8);
+    }
+
+    private void setBit(int _index, int _bit) {
+      int mask = 0x80 >>> (_index & 7);
+      int b = buffer[_index >>> 3];
+      buffer[_index >>> 3] = (byte) (_bit == 0 ? b & ~mask : b | mask);
+    }
+  }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) 2017-2018 Aditya Saligrama.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO
+ * EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES
+ * OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.saligrama.patricia;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * GlobAutomaton accepts the strings matching a wildcard pattern. In the pattern, '*' matches any
+ * run of code points, '?' matches any single code point, and '[...]' matches one code point of a
+ * set, given as code points and ranges like 'a-z', and complemented by a leading '!' or '^'. A
+ * ']' right after the opening bracket or its complement mark belongs to the set. A backslash makes
+ * the code point after it literal, inside a set as well as outside; every other code point matches
+ * itself.
+ *
+ * <p>The pattern is compiled into one step per token and run as an NFA: a state is the set of
+ * steps that can come next, and is dead once it is empty. A run clears and refills the set it left
+ * one step earlier rather than allocating another.
+ *
+ * @author Aditya Saligrama
+ * @version 1.0
+ */
+final class GlobAutomaton implements Automaton<BitSet> {
+  // kinds of steps; a literal step is a code point, which is never negative
+  private static final int ANY = -1;
+  private static final int ANY_RUN = -2;
+  private static final int SET = -3;
+
+  // kind or code point of each step
+  private final int[] steps;
+
+  // for a SET step, the bounds of its ranges in pairs, inclusive
+  private final int[][] ranges;
+
+  // for a SET step, true if it matches the code points outside its ranges instead
+  private final boolean[] complemented;
+
+  /**
+   * Compile a pattern.
+   *
+   * @param _pattern wildcard pattern; unpaired surrogates are read as
+   *     Constants.UTILS_REPLACEMENT_CHAR, as in keys
+   * @throws IllegalArgumentException if a set is not closed or holds a range whose bounds are
+   *     reversed, or the pattern ends in a backslash
+   */
+  protected GlobAutomaton(String _pattern) {
+    int[] codePoints = Utils.codePoints(_pattern);
+    int[] parsed = new int[codePoints.length];
+    int[][] parsedRanges = new int[codePoints.length][];
+    boolean[] parsedComplemented = new boolean[codePoints.length];
+    int n = 0;
+    for (int i = 0; i < codePoints.length; i++) {
+      int c = codePoints[i];
+      if (c == '*') {
+        // consecutive stars match the same strings as one
+        if (n == 0 || parsed[n - 1] != ANY_RUN) parsed[n++] = ANY_RUN;
+      } else if (c == '?') {
+        parsed[n++] = ANY;
+      } else if (c == '\\') {
+        if (++i == codePoints.length) {
+          throw new IllegalArgumentException("pattern ends in an escape: " + _pattern);
+        }
+        parsed[n++] = codePoints[i];
+      } else if (c == '[') {
+        int j = i + 1;
+        boolean complement =
+            j < codePoints.length && (codePoints[j] == '!' || codePoints[j] == '^');
+        if (complement) j++;
+
+        int[] bounds = new int[2 * codePoints.length];
+        int numBounds = 0;
+        // at the end of the pattern, setMember finds the set unclosed
+        for (int first = j; j == codePoints.length || codePoints[j] != ']' || j == first; ) {
+          j = setMember(codePoints, j, _pattern);
+          int lo = codePoints[j++];
+          int hi = lo;
+          if (j + 1 < codePoints.length && codePoints[j] == '-' && codePoints[j + 1] != ']') {
+            j = setMember(codePoints, j + 1, _pattern);
+            hi = codePoints[j++];
+            if (hi < lo) {
+              throw new IllegalArgumentException("reversed range in pattern: " + _pattern);
+            }
+          }
+          bounds[numBounds++] = lo;
+          bounds[numBounds++] = hi;
+        }
+
+        parsedRanges[n] = Arrays.copyOf(bounds, numBounds);
+        parsedComplemented[n] = complement;
+        parsed[n++] = SET;
+        i = j;
+      } else {
+        parsed[n++] = c;
+      }
+    }
+
+    steps = Arrays.copyOf(parsed, n);
+    ranges = Arrays.copyOf(parsedRanges, n);
+    complemented = Arrays.copyOf(parsedComplemented, n);
+  }
+
+  /**
+   * Find a member of a set, skipping the backslash escaping it if there is one.
+   *
+   * @param _codePoints code points of the pattern
+   * @param _index index of the member, or of the backslash before it
+   * @param _pattern the pattern, for error messages
+   * @return index of the member's code point
+   * @throws IllegalArgumentException if the pattern ends before the member
+   */
+  private static int setMember(int[] _codePoints, int _index, String _pattern) {
+    int ret = _index < _codePoints.length && _codePoints[_index] == '\\' ? _index + 1 : _index;
+    if (ret >= _codePoints.length) {
+      throw new IllegalArgumentException("unclosed '[' in pattern: " + _pattern);
+    }
+
+    return ret;
+  }
+
+  @Override
+  public BitSet start() {
+    BitSet ret = new BitSet(steps.length + 1);
+    ret.set(0);
+    return skipRuns(ret);
+  }
+
+  @Override
+  public BitSet step(BitSet _state, int _codePoint) {
+    return step(_state, _codePoint, null);
+  }
+
+  @Override
+  public BitSet step(BitSet _state, int _codePoint, BitSet _into) {
+    BitSet ret = _into == null ? new BitSet(steps.length + 1) : _into;
+    ret.clear();
+    for (int i = _state.nextSetBit(0); i >= 0 && i < steps.length; i = _state.nextSetBit(i + 1)) {
+      if (steps[i] == ANY_RUN) {
+        ret.set(i);
+      } else if (matches(i, _codePoint)) {
+        ret.set(i + 1);
+      }
+    }
+
+    return ret.isEmpty() ? null : skipRuns(ret);
+  }
+
+  @Override
+  public boolean accepts(BitSet _state) {
+    return _state.get(steps.length);
+  }
+
+  /**
+   * Add the steps that follow a '*' to a state holding it, since the '*' may match nothing.
+   *
+   * @param _state state to add to; steps are added in increasing order, so runs of them follow
+   * @return _state
+   */
+  private BitSet skipRuns(BitSet _state) {
+    for (int i = _state.nextSetBit(0); i >= 0 && i < steps.length; i = _state.nextSetBit(i + 1)) {
+      if (steps[i] == ANY_RUN) _state.set(i + 1);
+    }
+
+    return _state;
+  }
+
+  /**
+   * @param _step index of a step that matches a single code point
+   * @param _codePoint code point to match
+   * @return true if the step matches _codePoint
+   */
+  private boolean matches(int _step, int _codePoint) {
+    int kind = steps[_step];
+    if (kind == ANY) return true;
+    if (kind != SET) return kind == _codePoint;
+
+    int[] bounds = ranges[_step];
+    boolean inRange = false;
+    for (int i = 0; i < bounds.length && !inRange; i += 2) {
+      inRange = bounds[i] <= _codePoint && _codePoint <= bounds[i + 1];
+    }
+    return inRange != complemented[_step];
+  }
+}
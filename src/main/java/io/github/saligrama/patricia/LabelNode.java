@@ -0,0 +1,548 @@
+/*
+ * Copyright (c) 2017-2018 Aditya Saligrama.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO
+ * EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES
+ * OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.saligrama.patricia;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * LabelNode is a node of a Patricia tree that keeps the bits its keys share on the edge above it,
+ * radix-tree style, instead of keeping the keys themselves. It implements the same tree as Node:
+ * the same forks, the same terminal slots and the same order.
+ *
+ * <p>The label of a node holds the bits every key below it has between its parent's forkIndex+1
+ * and its own forkIndex-1. They are stored in place in the bytes of the key holding them, from the
+ * byte holding bit parentForkIndex+1 to the byte holding bit forkIndex-1, so labels are compared
+ * with keys a byte at a time without shifting. Bits of the first and last byte outside the label's
+ * range are masked off.
+ *
+ * <p>A lookup compares each label as it descends and stops at the first mismatch, and when it
+ * reaches the end of the key there is no stored key left to compare with. A key is a bit in its
+ * node's terminal flags, and is rebuilt from the labels on its path when iterated over. The root
+ * forks at bit 0, has no label and is never removed.
+ *
+ * @author Aditya Saligrama
+ * @version 1.0
+ */
+final class LabelNode {
+  private int forkIndex;
+
+  // bytes holding the bits from the parent's forkIndex+1 to forkIndex-1, or null if there are none
+  private byte[] label;
+
+  private LabelNode left;
+  private LabelNode right;
+
+  // bit i is set if a key of length forkIndex+1 with last bit i ends here
+  private byte terminals;
+
+  /**
+   * Construct a new LabelNode.
+   *
+   * @param _forkIndex index of the bit the node forks at
+   * @param _label bytes holding the node's label, or null if it has none
+   */
+  protected LabelNode(int _forkIndex, byte[] _label) {
+    forkIndex = _forkIndex;
+    label = _label;
+  }
+
+  /**
+   * Check if the UTF-8 encoding of a string exists below this node, which must be the root, reading
+   * its characters in place. Does not allocate.
+   *
+   * @param _toFind string to search for
+   * @return true if _toFind exists, false if it does not
+   */
+  protected boolean findChild(CharSequence _toFind) {
+    int last = Utils.utf8Length(_toFind) * Constants.UTILS_CHAR_BITLEN - 1;
+    long cursor = 0;
+    LabelNode pointer = this;
+    int parentFork = -1;
+    while (true) {
+      int fork = pointer.forkIndex;
+      if (fork > last) return false;
+
+      // compare the label a code point at a time, decoding each one once
+      int from = (parentFork + 1) >>> 3;
+      int len = labelBytes(parentFork, fork);
+      if (len > 0) {
+        cursor = Utils.seek(_toFind, cursor, from);
+        int charNdx = (int) (cursor >>> 32);
+        int byteNdx = (int) cursor;
+        int k = 0;
+        while (true) {
+          int codePoint = Utils.codePointAt(_toFind, charNdx);
+          int codePointBytes = Utils.utf8Length(codePoint);
+          for (int i = from + k - byteNdx; i < codePointBytes && k < len; i++, k++) {
+            int diff = (pointer.label[k] ^ Utils.utf8Byte(codePoint, codePointBytes, i)) & 0xFF;
+            if (k == 0) diff &= firstByteMask(parentFork);
+            if (k == len - 1) diff &= lastByteMask(fork);
+            if (diff != 0) return false;
+          }
+          if (k == len) break;
+          byteNdx += codePointBytes;
+          charNdx += Character.charCount(codePoint);
+        }
+        cursor = ((long) charNdx << 32) | byteNdx;
+      }
+
+      cursor = Utils.seek(_toFind, cursor, fork / Constants.UTILS_CHAR_BITLEN);
+      int bit = Utils.bitAt(_toFind, cursor, fork);
+      if (fork == last) return (pointer.terminals & (1 << bit)) != 0;
+      pointer = pointer.child(bit);
+      if (pointer == null) return false;
+      parentFork = fork;
+    }
+  }
+
+  /**
+   * Check if a key given as bytes exists below this node, which must be the root. Does not
+   * allocate.
+   *
+   * @param _toFind array holding the key
+   * @param _off index of the key's first byte
+   * @param _len number of bytes in the key
+   * @return true if the key exists, false if it does not
+   */
+  protected boolean findChild(byte[] _toFind, int _off, int _len) {
+    int last = _len * Byte.SIZE - 1;
+    LabelNode pointer = this;
+    int parentFork = -1;
+    while (true) {
+      int fork = pointer.forkIndex;
+      if (fork > last || pointer.mismatch(parentFork, fork, _toFind, _off) >= 0) return false;
+
+      int bit = Utils.bitAt(_toFind, _off, fork);
+      if (fork == last) return (pointer.terminals & (1 << bit)) != 0;
+      pointer = pointer.child(bit);
+      if (pointer == null) return false;
+      parentFork = fork;
+    }
+  }
+
+  /**
+   * Add a key below this node, which must be the root, as Node.addChild does.
+   *
+   * @param _toAdd bytes of a non-empty key
+   * @return true if _toAdd was added, false if it already existed
+   */
+  protected boolean addChild(byte[] _toAdd) {
+    int last = _toAdd.length * Byte.SIZE - 1;
+    LabelNode parent = null;
+    int branch = 0;
+    int parentFork = -1;
+    LabelNode pointer = this;
+    while (true) {
+      int fork = pointer.forkIndex;
+      int j = pointer.mismatch(parentFork, Math.min(fork, last + 1), _toAdd, 0);
+      if (j < 0 && fork > last) j = last;
+
+      if (j >= 0) {
+        // _toAdd leaves the edge above pointer at bit j: splice in a node forking there. The root
+        // has no label and forks at bit 0, so pointer is never the root
+        LabelNode splice = new LabelNode(j, copyLabel(_toAdd, parentFork, j));
+        int pointerBit = pointer.labelBit(parentFork, j);
+        pointer.label = pointer.trimLabel(parentFork, j);
+        splice.setChild(pointerBit, pointer);
+
+        int bit = Utils.bitAt(_toAdd, 0, j);
+        if (j == last) {
+          splice.terminals |= 1 << bit;
+        } else {
+          splice.setChild(bit, leaf(_toAdd, j));
+        }
+        parent.setChild(branch, splice);
+        return true;
+      }
+
+      int bit = Utils.bitAt(_toAdd, 0, fork);
+      if (fork == last) {
+        if ((pointer.terminals & (1 << bit)) != 0) return false;
+        pointer.terminals |= 1 << bit;
+        return true;
+      }
+
+      LabelNode next = pointer.child(bit);
+      if (next == null) {
+        pointer.setChild(bit, leaf(_toAdd, fork));
+        return true;
+      }
+      parent = pointer;
+      branch = bit;
+      parentFork = fork;
+      pointer = next;
+    }
+  }
+
+  /**
+   * Remove a key from below this node, which must be the root, cleaning up the tree as
+   * Node.detach does.
+   *
+   * @param _toRemove bytes of the key
+   * @return true if _toRemove was removed, false if it was not there
+   */
+  protected boolean removeChild(byte[] _toRemove) {
+    int last = _toRemove.length * Byte.SIZE - 1;
+    if (last < 0) return false;
+
+    // the path to the node holding _toRemove, two levels up
+    LabelNode grandparent = null;
+    LabelNode parent = null;
+    int parentBranch = 0;
+    int branch = 0;
+    int grandparentFork = -1;
+    int parentFork = -1;
+    LabelNode pointer = this;
+    int bit;
+    while (true) {
+      int fork = pointer.forkIndex;
+      if (fork > last || pointer.mismatch(parentFork, fork, _toRemove, 0) >= 0) return false;
+
+      bit = Utils.bitAt(_toRemove, 0, fork);
+      if (fork == last) break;
+      LabelNode next = pointer.child(bit);
+      if (next == null) return false;
+      grandparent = parent;
+      parentBranch = branch;
+      grandparentFork = parentFork;
+      parent = pointer;
+      branch = bit;
+      parentFork = fork;
+      pointer = next;
+    }
+
+    if ((pointer.terminals & (1 << bit)) == 0) return false;
+    pointer.terminals &= ~(1 << bit);
+
+    // clean up the tree; the root node is never removed
+    if (parent == null || pointer.terminals != 0) return true;
+    if (pointer.left == null && pointer.right == null) {
+      // pointer is orphaned and can be unlinked; if that leaves its parent with a single child and
+      // no keys, the parent is merged into that child, as long as the parent isn't the root
+      parent.setChild(branch, null);
+      if (grandparent != null
+          && parent.terminals == 0
+          && (parent.left == null) != (parent.right == null)) {
+        grandparent.setChild(parentBranch, parent.mergeIntoChild(grandparentFork));
+      }
+    } else if (pointer.left == null || pointer.right == null) {
+      parent.setChild(branch, pointer.mergeIntoChild(parentFork));
+    }
+
+    return true;
+  }
+
+  /** @return iterator over the keys below this node, which must be the root, in order */
+  protected Iterator<String> iterator() {
+    KeyIterator ret = new KeyIterator(new byte[Constants.LABELNODE_INITIAL_KEY_BYTES]);
+    ret.pushNode(this, -1, 0);
+    return ret;
+  }
+
+  /**
+   * Descend once to the keys below this node, which must be the root, that start with a prefix,
+   * and walk them.
+   *
+   * @param _prefix bytes every returned key starts with
+   * @return iterator over the matching keys, in order
+   */
+  protected Iterator<String> prefixIterator(byte[] _prefix) {
+    int last = _prefix.length * Byte.SIZE - 1;
+    KeyIterator ret =
+        new KeyIterator(
+            Arrays.copyOf(
+                _prefix, Math.max(_prefix.length, Constants.LABELNODE_INITIAL_KEY_BYTES)));
+
+    LabelNode pointer = this;
+    int parentFork = -1;
+    int branch = 0;
+    while (true) {
+      // only the part of the label the prefix covers has to match
+      int fork = pointer.forkIndex;
+      if (pointer.mismatch(parentFork, Math.min(fork, last + 1), _prefix, 0) >= 0) break;
+      if (fork > last) {
+        ret.pushNode(pointer, parentFork, branch);
+        break;
+      }
+
+      // the prefix ends at this fork: take the half of the node on its side
+      branch = Utils.bitAt(_prefix, 0, fork);
+      LabelNode next = pointer.child(branch);
+      if (fork == last) {
+        if (next != null) ret.pushNode(next, fork, branch);
+        if ((pointer.terminals & (1 << branch)) != 0) ret.pushKey(pointer, branch);
+        break;
+      }
+
+      if (next == null) break;
+      pointer = next;
+      parentFork = fork;
+    }
+
+    return ret;
+  }
+
+  /**
+   * @param _index 0 for the left child, 1 for the right child
+   * @return the child, or null if there is none
+   */
+  private LabelNode child(int _index) {
+    return _index == 0 ? left : right;
+  }
+
+  /**
+   * @param _index 0 for the left child, 1 for the right child
+   * @param _child new child, or null to remove the child
+   */
+  private void setChild(int _index, LabelNode _child) {
+    if (_index == 0) {
+      left = _child;
+    } else {
+      right = _child;
+    }
+  }
+
+  /**
+   * Find the first bit of this node's label that differs from a key.
+   *
+   * @param _parentFork forkIndex of this node's parent, or -1 for the root
+   * @param _end index of the first bit not to compare, at most forkIndex
+   * @param _key array holding the key, with at least _end bits after _off
+   * @param _off index of the key's first byte
+   * @return index of the first differing bit before _end, or -1 if there is none
+   */
+  private int mismatch(int _parentFork, int _end, byte[] _key, int _off) {
+    int from = (_parentFork + 1) >>> 3;
+    int len = labelBytes(_parentFork, _end);
+    for (int k = 0; k < len; k++) {
+      int diff = (label[k] ^ _key[_off + from + k]) & 0xFF;
+      if (k == 0) diff &= firstByteMask(_parentFork);
+      if (k == len - 1) diff &= lastByteMask(_end);
+      if (diff != 0) return ((from + k) << 3) + Integer.numberOfLeadingZeros(diff) - 24;
+    }
+
+    return -1;
+  }
+
+  /**
+   * @param _parentFork forkIndex of this node's parent
+   * @param _index index of a bit within the label
+   * @return the bit of the label at _index
+   */
+  private int labelBit(int _parentFork, int _index) {
+    return (label[(_index >>> 3) - ((_parentFork + 1) >>> 3)] >>> (~_index & 7)) & 1;
+  }
+
+  /**
+   * Cut off the start of this node's label, for a node spliced in above it.
+   *
+   * @param _parentFork forkIndex of this node's old parent
+   * @param _newParentFork forkIndex of its new parent, inside the label
+   * @return the bytes holding the label from _newParentFork+1 on, or null if that is empty
+   */
+  private byte[] trimLabel(int _parentFork, int _newParentFork) {
+    int len = labelBytes(_newParentFork, forkIndex);
+    if (len == 0) return null;
+    int start = ((_newParentFork + 1) >>> 3) - ((_parentFork + 1) >>> 3);
+    return Arrays.copyOfRange(label, start, start + len);
+  }
+
+  /**
+   * Merge this node, which must have exactly one child and no keys, into its child by giving the
+   * child the label of the whole path from this node's parent.
+   *
+   * @param _parentFork forkIndex of this node's parent
+   * @return the child, to be linked to this node's parent in its place
+   */
+  private LabelNode mergeIntoChild(int _parentFork) {
+    int childBit = left != null ? 0 : 1;
+    LabelNode child = child(childBit);
+    int len = labelBytes(_parentFork, child.forkIndex);
+    byte[] merged = new byte[len];
+
+    // this node's label, then the bit the child hangs off, then the child's label
+    int from = (_parentFork + 1) >>> 3;
+    if (label != null) System.arraycopy(label, 0, merged, 0, label.length);
+    setBit(merged, (forkIndex >>> 3) - from, forkIndex, childBit);
+    if (child.label != null) {
+      copyLabelInto(child.label, forkIndex, merged, ((forkIndex + 1) >>> 3) - from);
+    }
+
+    child.label = merged;
+    return child;
+  }
+
+  /**
+   * @param _key bytes of a key
+   * @param _parentFork forkIndex of the parent of the new leaf
+   * @return a new leaf holding _key
+   */
+  private static LabelNode leaf(byte[] _key, int _parentFork) {
+    int last = _key.length * Byte.SIZE - 1;
+    LabelNode ret = new LabelNode(last, copyLabel(_key, _parentFork, last));
+    ret.terminals = (byte) (1 << Utils.bitAt(_key, 0, last));
+    return ret;
+  }
+
+  /**
+   * @param _key bytes of a key
+   * @param _parentFork forkIndex of a node's parent
+   * @param _fork forkIndex of the node
+   * @return the bytes of _key holding the node's label, or null if the label is empty
+   */
+  private static byte[] copyLabel(byte[] _key, int _parentFork, int _fork) {
+    int len = labelBytes(_parentFork, _fork);
+    if (len == 0) return null;
+    int from = (_parentFork + 1) >>> 3;
+    return Arrays.copyOfRange(_key, from, from + len);
+  }
+
+  /**
+   * @param _parentFork forkIndex of a node's parent, or -1 for the root
+   * @param _fork forkIndex of the node, or the end of a shorter range
+   * @return number of bytes holding the node's label up to bit _fork
+   */
+  private static int labelBytes(int _parentFork, int _fork) {
+    if (_fork <= _parentFork + 1) return 0;
+    return ((_fork - 1) >>> 3) - ((_parentFork + 1) >>> 3) + 1;
+  }
+
+  /**
+   * @param _parentFork index of the last bit before a label
+   * @return mask of the bits of the label's first byte that come after _parentFork
+   */
+  private static int firstByteMask(int _parentFork) {
+    return 0xFF >>> ((_parentFork + 1) & 7);
+  }
+
+  /**
+   * Copy a label over a range of bytes, leaving the bits before the label's range as they are.
+   *
+   * @param _label bytes holding the label
+   * @param _parentFork index of the last bit before the label
+   * @param _dest array to copy to
+   * @param _destPos index in _dest of the byte to copy the label's first byte to
+   */
+  private static void copyLabelInto(byte[] _label, int _parentFork, byte[] _dest, int _destPos) {
+    int mask = firstByteMask(_parentFork);
+    _dest[_destPos] = (byte) ((_dest[_destPos] & ~mask) | (_label[0] & mask));
+    System.arraycopy(_label, 1, _dest, _destPos + 1, _label.length - 1);
+  }
+
+  /**
+   * @param _end index of the first bit past a label
+   * @return mask of the bits of the label's last byte that come before _end
+   */
+  private static int lastByteMask(int _end) {
+    return (0xFF00 >>> (_end - (((_end - 1) >>> 3) << 3))) & 0xFF;
+  }
+
+  /**
+   * @param _bytes array to write to
+   * @param _byteIndex index in _bytes of the byte holding the bit
+   * @param _index index of the bit within the key
+   * @param _bit 0 or 1
+   */
+  private static void setBit(byte[] _bytes, int _byteIndex, int _index, int _bit) {
+    int mask = 0x80 >>> (_index & 7);
+    int b = _bytes[_byteIndex];
+    _bytes[_byteIndex] = (byte) (_bit == 0 ? b & ~mask : b | mask);
+  }
+
+  /**
+   * KeyIterator walks nodes in order with an explicit stack, like FrozenPatriciaTree's, and
+   * rebuilds each key in a single buffer: entering a node writes its branch bit and label over the
+   * buffer, which leaves the buffer holding the bits every key below the node starts with. Bits
+   * after a label are overwritten by the nodes and keys below it before they are read.
+   */
+  private static class KeyIterator implements Iterator<String> {
+    private byte[] buffer;
+
+    // pending nodes and keys, with the next one in order on top
+    private LabelNode[] items = new LabelNode[16];
+
+    // for a node, the forkIndex of its parent shifted left by one with the branch bit taken from
+    // it, or -1 for the root; for a key, -2 minus its last bit
+    private int[] forks = new int[16];
+
+    private int top;
+
+    private KeyIterator(byte[] _buffer) {
+      buffer = _buffer;
+    }
+
+    private void pushNode(LabelNode _node, int _parentFork, int _branch) {
+      push(_node, _parentFork < 0 ? -1 : _parentFork << 1 | _branch);
+    }
+
+    private void pushKey(LabelNode _node, int _index) {
+      push(_node, -2 - _index);
+    }
+
+    private void push(LabelNode _item, int _fork) {
+      if (top == items.length) {
+        items = Arrays.copyOf(items, top * 2);
+        forks = Arrays.copyOf(forks, top * 2);
+      }
+      items[top] = _item;
+      forks[top++] = _fork;
+    }
+
+    @Override
+    public boolean hasNext() {
+      // enter nodes until a key is on top
+      while (top > 0 && forks[top - 1] >= -1) {
+        LabelNode node = items[--top];
+        items[top] = null;
+        int parentFork = forks[top] >> 1;
+        if ((node.forkIndex >>> 3) >= buffer.length) {
+          buffer = Arrays.copyOf(buffer, Math.max((node.forkIndex >>> 3) + 1, 2 * buffer.length));
+        }
+        if (parentFork >= 0) setBit(buffer, parentFork >>> 3, parentFork, forks[top] & 1);
+        if (node.label != null) {
+          copyLabelInto(node.label, parentFork, buffer, (parentFork + 1) >>> 3);
+        }
+
+        for (int i = Constants.NODE_NUM_CHILDREN - 1; i >= 0; i--) {
+          if (node.child(i) != null) pushNode(node.child(i), node.forkIndex, i);
+          if ((node.terminals & (1 << i)) != 0) pushKey(node, i);
+        }
+      }
+
+      return top > 0;
+    }
+
+    @Override
+    public String next() {
+      if (!hasNext()) throw new NoSuchElementException();
+      LabelNode node = items[--top];
+      items[top] = null;
+      setBit(buffer, node.forkIndex >>> 3, node.forkIndex, -2 - forks[top]);
+      return new String(
+          buffer, 0, Utils.terminalBytes(node.forkIndex), StandardCharsets.UTF_8);
+    }
+  }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) 2017-2018 Aditya Saligrama.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO
+ * EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES
+ * OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.saligrama.patricia;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.StringJoiner;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * LabeledPatriciaTree is a PatriciaTree whose nodes keep the bits their keys share as edge labels
+ * instead of keeping the keys, with the same keys, ordering and operations.
+ *
+ * <p>A PatriciaTree node knows only where its keys fork, so every lookup ends by comparing the
+ * whole key with a stored copy, and every key is kept whole. Here each node holds the bits between
+ * its parent's fork and its own, a lookup compares them on the way down and stops at the first
+ * mismatch, and a key is only a flag on the node where it ends. Bits a run of keys share are
+ * stored once, on the edge above the node where they part, which makes the tree several times
+ * smaller than a PatriciaTree for keys with long common prefixes such as URLs. Iteration rebuilds
+ * keys from the labels on their path.
+ *
+ * @author Aditya Saligrama
+ * @version 1.0
+ */
+public class LabeledPatriciaTree implements Iterable<String> {
+  private static final int SPLITERATOR_CHARACTERISTICS =
+      Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL;
+
+  private int size;
+  private final LabelNode root;
+
+  // number of modifications, for detecting concurrent modification during iteration
+  private int modCount;
+
+  /** Construct a new LabeledPatriciaTree. */
+  public LabeledPatriciaTree() {
+    root = new LabelNode(0, null);
+    size = 0;
+  }
+
+  /** @return size of the tree. */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Check if a string exists in the tree. The characters are read in place, so the check does not
+   * allocate.
+   *
+   * @param _toSearch string to search for within the tree
+   * @return true if _toSearch exists in the tree, false if it does not
+   */
+  public boolean contains(CharSequence _toSearch) {
+    return root.findChild(_toSearch);
+  }
+
+  /**
+   * Check if the string whose UTF-8 encoding is the given bytes exists in the tree. The bytes are
+   * read in place, so the check does not allocate.
+   *
+   * @param _toSearch array holding the bytes to search for
+   * @param _off index of the first byte in _toSearch
+   * @param _len number of bytes to search for
+   * @return true if the bytes exist in the tree, false if they do not
+   * @throws IndexOutOfBoundsException if _off and _len do not describe a range of _toSearch
+   */
+  public boolean contains(byte[] _toSearch, int _off, int _len) {
+    if (_off < 0 || _len < 0 || _off > _toSearch.length - _len) {
+      throw new IndexOutOfBoundsException(
+          "range [" + _off + ", " + _off + " + " + _len + ") out of bounds for length "
+              + _toSearch.length);
+    }
+
+    return root.findChild(_toSearch, _off, _len);
+  }
+
+  /**
+   * Add a string to the tree.
+   *
+   * @param _toAdd string to add to the tree
+   * @return true if the tree was modified (i.e. _toAdd did not already exist in the tree), false
+   *     otherwise
+   * @throws IllegalArgumentException if _toAdd is empty
+   */
+  public boolean add(String _toAdd) {
+    if (_toAdd.isEmpty()) throw new IllegalArgumentException("cannot add an empty string");
+    boolean ret = root.addChild(_toAdd.getBytes(StandardCharsets.UTF_8));
+    if (ret) {
+      size++;
+      modCount++;
+    }
+    return ret;
+  }
+
+  /**
+   * Remove a string from the tree.
+   *
+   * @param _toRemove string to remove from the tree
+   * @return true if the tree was modified (i.e. _toRemove was in the tree), false otherwise
+   */
+  public boolean remove(String _toRemove) {
+    boolean ret = root.removeChild(_toRemove.getBytes(StandardCharsets.UTF_8));
+    if (ret) {
+      size--;
+      modCount++;
+    }
+    return ret;
+  }
+
+  /**
+   * Iterate over the strings in the tree in order. Strings are rebuilt one at a time as the
+   * iterator advances.
+   *
+   * @return iterator over the strings in the tree
+   */
+  @Override
+  public Iterator<String> iterator() {
+    return new FailFastIterator(root.iterator());
+  }
+
+  /** @return sequential stream over the strings in the tree, in order */
+  public Stream<String> stream() {
+    return StreamSupport.stream(
+        Spliterators.spliterator(iterator(), size, SPLITERATOR_CHARACTERISTICS), false);
+  }
+
+  /**
+   * Find the strings in the tree that start with a prefix, descending to the prefix once and then
+   * walking the nodes below it lazily.
+   *
+   * @param _prefix prefix to search for
+   * @return sequential stream over the strings starting with _prefix, in order
+   */
+  public Stream<String> prefixScan(String _prefix) {
+    Iterator<String> it =
+        new FailFastIterator(root.prefixIterator(_prefix.getBytes(StandardCharsets.UTF_8)));
+    return StreamSupport.stream(
+        Spliterators.spliteratorUnknownSize(it, SPLITERATOR_CHARACTERISTICS), false);
+  }
+
+  /** @return string representation of the tree */
+  @Override
+  public String toString() {
+    StringJoiner ret = new StringJoiner(", ", "[", "]");
+    for (String s : this) ret.add(s);
+    return ret.toString();
+  }
+
+  /** FailFastIterator wraps a LabelNode iterator, failing fast if the tree is modified. */
+  private class FailFastIterator implements Iterator<String> {
+    private final Iterator<String> strings;
+    private final int expectedModCount;
+
+    private FailFastIterator(Iterator<String> _strings) {
+      strings = _strings;
+      expectedModCount = modCount;
+    }
+
+    @Override
+    public boolean hasNext() {
+      checkForComodification();
+      return strings.hasNext();
+    }
+
+    @Override
+    public String next() {
+      checkForComodification();
+      return strings.next();
+    }
+
+    private void checkForComodification() {
+      if (modCount != expectedModCount) throw new ConcurrentModificationException();
+    }
+  }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2017-2018 Aditya Saligrama.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO
+ * EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES
+ * OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.saligrama.patricia;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * LatencyHistogram counts durations in buckets whose width grows with the duration, in the manner
+ * of HdrHistogram. Durations below Constants.HISTOGRAM_EXACT_LIMIT get a bucket each; above that,
+ * every power of two is split into 2^Constants.HISTOGRAM_SUB_BUCKET_BITS buckets of equal width, so
+ * a reported percentile is never more than 1/8 above the true one. The buckets for every
+ * non-negative long fit in a few hundred counters, and recording is a bucket lookup and one atomic
+ * increment.
+ *
+ * @author Aditya Saligrama
+ * @version 1.0
+ */
+final class LatencyHistogram {
+  private static final int SUB_BUCKETS = 1 << Constants.HISTOGRAM_SUB_BUCKET_BITS;
+
+  // exponent of the highest bit of HISTOGRAM_EXACT_LIMIT, the first duration that shares a bucket
+  private static final int FIRST_EXPONENT =
+      Long.SIZE - 1 - Long.numberOfLeadingZeros(Constants.HISTOGRAM_EXACT_LIMIT);
+
+  private final AtomicLongArray counts;
+  private final LongAccumulator max;
+
+  /** Construct a new, empty LatencyHistogram. */
+  protected LatencyHistogram() {
+    counts = new AtomicLongArray(bucketOf(Long.MAX_VALUE) + 1);
+    max = new LongAccumulator(Math::max, 0);
+  }
+
+  /** @param _nanos duration to count; negative durations count as 0 */
+  protected void record(long _nanos) {
+    long value = Math.max(_nanos, 0);
+    counts.incrementAndGet(bucketOf(value));
+    max.accumulate(value);
+  }
+
+  /** Forget every duration counted so far. */
+  protected void reset() {
+    for (int i = 0; i < counts.length(); i++) counts.set(i, 0);
+    max.reset();
+  }
+
+  /** @return number of durations counted so far */
+  protected long count() {
+    long ret = 0;
+    for (int i = 0; i < counts.length(); i++) ret += counts.get(i);
+    return ret;
+  }
+
+  /** @return a summary of the durations counted so far */
+  protected LatencySummary summary() {
+    long[] snapshot = new long[counts.length()];
+    long total = 0;
+    for (int i = 0; i < snapshot.length; i++) {
+      snapshot[i] = counts.get(i);
+      total += snapshot[i];
+    }
+
+    long maxNanos = max.get();
+    return new LatencySummary(
+        total,
+        Math.min(percentile(snapshot, total, 0.5), maxNanos),
+        Math.min(percentile(snapshot, total, 0.99), maxNanos),
+        Math.min(percentile(snapshot, total, 0.999), maxNanos),
+        maxNanos);
+  }
+
+  /**
+   * @param _counts count of each bucket
+   * @param _total sum of _counts
+   * @param _fraction fraction of durations that should be at most the result
+   * @return highest duration of the bucket holding the given percentile, or 0 if nothing was
+   *     counted
+   */
+  private static long percentile(long[] _counts, long _total, double _fraction) {
+    long rank = (long) Math.ceil(_fraction * _total);
+    long seen = 0;
+    for (int i = 0; i < _counts.length; i++) {
+      seen += _counts[i];
+      if (seen >= rank && seen > 0) return highestIn(i);
+    }
+
+    return 0;
+  }
+
+  /**
+   * @param _nanos a non-negative duration
+   * @return index of the bucket counting _nanos
+   */
+  private static int bucketOf(long _nanos) {
+    if (_nanos < Constants.HISTOGRAM_EXACT_LIMIT) return (int) _nanos;
+    int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(_nanos);
+    // the bits after the highest one pick the sub-bucket
+    int shift = exponent - Constants.HISTOGRAM_SUB_BUCKET_BITS;
+    int subBucket = (int) (_nanos >>> shift) - SUB_BUCKETS;
+    return Constants.HISTOGRAM_EXACT_LIMIT + (exponent - FIRST_EXPONENT) * SUB_BUCKETS + subBucket;
+  }
+
+  /**
+   * @param _bucket index of a bucket
+   * @return highest duration counted by the bucket
+   */
+  private static long highestIn(int _bucket) {
+    if (_bucket < Constants.HISTOGRAM_EXACT_LIMIT) return _bucket;
+    int offset = _bucket - Constants.HISTOGRAM_EXACT_LIMIT;
+    int shift = offset / SUB_BUCKETS + FIRST_EXPONENT - Constants.HISTOGRAM_SUB_BUCKET_BITS;
+    long lowest = (long) (SUB_BUCKETS + offset % SUB_BUCKETS) << shift;
+    return lowest + ((1L << shift) - 1);
+  }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2017-2018 Aditya Saligrama.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO
+ * EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES
+ * OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.saligrama.patricia;
+
+/**
+ * LatencySummary holds percentiles of the durations of one kind of operation, as recorded by
+ * TreeMetrics. Durations are in nanoseconds; percentiles are rounded up to the edge of the
+ * histogram bucket they fall in, which is within 1/8 of the true value. Over JMX, a summary shows
+ * up as composite data with one item per getter.
+ *
+ * @author Aditya Saligrama
+ * @version 1.0
+ */
+public final class LatencySummary {
+  private final long count;
+  private final long medianNanos;
+  private final long p99Nanos;
+  private final long p999Nanos;
+  private final long maxNanos;
+
+  /**
+   * Construct a new LatencySummary.
+   *
+   * @param _count number of operations recorded
+   * @param _medianNanos duration at or below which half of the operations finished
+   * @param _p99Nanos duration at or below which 99% of the operations finished
+   * @param _p999Nanos duration at or below which 99.9% of the operations finished
+   * @param _maxNanos duration of the slowest operation
+   */
+  protected LatencySummary(
+      long _count, long _medianNanos, long _p99Nanos, long _p999Nanos, long _maxNanos) {
+    count = _count;
+    medianNanos = _medianNanos;
+    p99Nanos = _p99Nanos;
+    p999Nanos = _p999Nanos;
+    maxNanos = _maxNanos;
+  }
+
+  /** @return number of operations recorded */
+  public long getCount() {
+    return count;
+  }
+
+  /** @return duration at or below which half of the operations finished, in nanoseconds */
+  public long getMedianNanos() {
+    return medianNanos;
+  }
+
+  /** @return duration at or below which 99% of the operations finished, in nanoseconds */
+  public long getP99Nanos() {
+    return p99Nanos;
+  }
+
+  /** @return duration at or below which 99.9% of the operations finished, in nanoseconds */
+  public long getP999Nanos() {
+    return p999Nanos;
+  }
+
+  /** @return duration of the slowest operation, in nanoseconds */
+  public long getMaxNanos() {
+    return maxNanos;
+  }
+
+  /** @return string representation of the summary */
+  @Override
+  public String toString() {
+    return "LatencySummary[count=" + count + ", median=" + medianNanos + "ns, p99=" + p99Nanos
+        + "ns, p999=" + p999Nanos + "ns, max=" + maxNanos + "ns]";
+  }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2017-2018 Aditya Saligrama.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO
+ * EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES
+ * OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.saligrama.patricia;
+
+/**
+ * LevenshteinAutomaton accepts the strings within a given number of edits of a query, where an
+ * edit inserts, deletes or substitutes one code point.
+ *
+ * <p>The automaton is run lazily rather than compiled into a DFA up front: a state is the row of
+ * the edit distance table for the code points read so far, holding the distance to each prefix of
+ * the query, capped at maxEdits + 1. A state is dead once every entry exceeds maxEdits, since
+ * reading more code points never lowers a row's minimum. A run steps into the row it left one step
+ * earlier, so that it allocates a pair of rows rather than one per code point.
+ *
+ * @author Aditya Saligrama
+ * @version 1.0
+ */
+final class LevenshteinAutomaton implements Automaton<int[]> {
+  private final int[] query;
+  private final int maxEdits;
+
+  /**
+   * Construct a new LevenshteinAutomaton.
+   *
+   * @param _query string to match; unpaired surrogates are read as
+   *     Constants.UTILS_REPLACEMENT_CHAR, as in keys
+   * @param _maxEdits maximum number of edits, at least 0
+   */
+  protected LevenshteinAutomaton(CharSequence _query, int _maxEdits) {
+    query = Utils.codePoints(_query);
+    maxEdits = _maxEdits;
+  }
+
+  @Override
+  public int[] start() {
+    int[] ret = new int[query.length + 1];
+    for (int i = 0; i < ret.length; i++) ret[i] = Math.min(i, maxEdits + 1);
+    return ret;
+  }
+
+  @Override
+  public int[] step(int[] _state, int _codePoint) {
+    return step(_state, _codePoint, null);
+  }
+
+  @Override
+  public int[] step(int[] _state, int _codePoint, int[] _into) {
+    int[] ret = _into == null ? new int[_state.length] : _into;
+    ret[0] = Math.min(_state[0] + 1, maxEdits + 1);
+    int min = ret[0];
+    for (int i = 1; i < ret.length; i++) {
+      int substitute = _state[i - 1] + (query[i - 1] == _codePoint ? 0 : 1);
+      int delete = _state[i] + 1;
+      int insert = ret[i - 1] + 1;
+      ret[i] = Math.min(Math.min(substitute, delete), Math.min(insert, maxEdits + 1));
+      min = Math.min(min, ret[i]);
+    }
+
+    return min > maxEdits ? null : ret;
+  }
+
+  @Override
+  public boolean accepts(int[] _state) {
+    return _state[query.length] <= maxEdits;
+  }
+}
@@ -0,0 +1,381 @@
+/*
+ * Copyright (c) 2017-2018 Aditya Saligrama.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO
+ * EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES
+ * OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.saligrama.patricia;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * MappedPatriciaTree is a read-only PatriciaTree that answers queries straight off a snapshot
+ * written by PatriciaTree.writeTo, without building any nodes. Opening one is a single memory
+ * mapping, and processes mapping the same file share its pages.
+ *
+ * <p>The mapped buffer is only ever read with absolute gets, so a MappedPatriciaTree can be used
+ * from several threads at once.
+ *
+ * @author Aditya Saligrama
+ * @version 1.0
+ */
+public class MappedPatriciaTree implements Iterable<String> {
+  private static final int SPLITERATOR_CHARACTERISTICS =
+      Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL;
+
+  private final ByteBuffer buffer;
+  private final int size;
+
+  /**
+   * Construct a MappedPatriciaTree reading from a buffer holding a snapshot.
+   *
+   * @param _buffer buffer holding a snapshot at index 0
+   * @throws IOException if _buffer does not hold a snapshot of a supported version
+   */
+  protected MappedPatriciaTree(ByteBuffer _buffer) throws IOException {
+    if (_buffer.capacity() < Constants.SNAPSHOT_HEADER_LEN
+        || _buffer.getInt(0) != Constants.SNAPSHOT_MAGIC) {
+      throw new IOException("not a patricia snapshot");
+    }
+    if (_buffer.getInt(Integer.BYTES) != Constants.SNAPSHOT_VERSION) {
+      throw new IOException("unsupported snapshot version " + _buffer.getInt(Integer.BYTES));
+    }
+
+    buffer = _buffer;
+    size = _buffer.getInt(2 * Integer.BYTES);
+  }
+
+  /**
+   * Map a snapshot file into memory.
+   *
+   * @param _path snapshot file
+   * @return a tree reading from the mapped file
+   * @throws IOException if the file can't be mapped or is not a snapshot
+   */
+  protected static MappedPatriciaTree map(Path _path) throws IOException {
+    try (FileChannel channel = FileChannel.open(_path, StandardOpenOption.READ)) {
+      if (channel.size() > Integer.MAX_VALUE) throw new IOException("snapshot exceeds 2 GB");
+      return new MappedPatriciaTree(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    }
+  }
+
+  /**
+   * Read a snapshot file into a buffer on the heap. Unlike a mapping, the buffer keeps nothing of
+   * the file open, so the file can be deleted as soon as this returns.
+   *
+   * @param _path snapshot file
+   * @return a tree reading from the buffer
+   * @throws IOException if the file can't be read or is not a snapshot
+   */
+  protected static MappedPatriciaTree read(Path _path) throws IOException {
+    try (FileChannel channel = FileChannel.open(_path, StandardOpenOption.READ)) {
+      if (channel.size() > Integer.MAX_VALUE) throw new IOException("snapshot exceeds 2 GB");
+      ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+      while (buffer.hasRemaining()) {
+        if (channel.read(buffer) < 0) throw new EOFException("snapshot shrank while reading");
+      }
+      return new MappedPatriciaTree(buffer);
+    }
+  }
+
+  /** @return size of the tree. */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Check if a string exists in the tree, reading its characters in place. Does not allocate.
+   *
+   * @param _toSearch string to search for within the tree
+   * @return true if _toSearch exists in the tree, false if it does not
+   */
+  public boolean contains(CharSequence _toSearch) {
+    int last = Utils.utf8Length(_toSearch) * Constants.UTILS_CHAR_BITLEN - 1;
+    // forks only increase on the way down, so a single forward cursor reads every bit
+    long cursor = 0;
+    int pointer = Constants.SNAPSHOT_HEADER_LEN;
+    while (forkIndex(pointer) < last) {
+      cursor = Utils.seek(_toSearch, cursor, forkIndex(pointer) / Constants.UTILS_CHAR_BITLEN);
+      pointer = child(pointer, Utils.bitAt(_toSearch, cursor, forkIndex(pointer)));
+      if (pointer < 0) return false;
+    }
+
+    if (forkIndex(pointer) != last) return false;
+    cursor = Utils.seek(_toSearch, cursor, last / Constants.UTILS_CHAR_BITLEN);
+    int key = terminal(pointer, Utils.bitAt(_toSearch, cursor, last));
+    if (key < 0) return false;
+
+    // compare the stored key with the UTF-8 encoding of _toSearch, as in BitKey.matches
+    int ndx = 0;
+    for (int i = 0; i < _toSearch.length(); ) {
+      int codePoint = Utils.codePointAt(_toSearch, i);
+      int codePointBytes = Utils.utf8Length(codePoint);
+      for (int k = 0; k < codePointBytes; k++) {
+        if ((buffer.get(key + ndx++) & 0xFF) != Utils.utf8Byte(codePoint, codePointBytes, k)) {
+          return false;
+        }
+      }
+      i += Character.charCount(codePoint);
+    }
+
+    return true;
+  }
+
+  /**
+   * Check if the string whose UTF-8 encoding is the given bytes exists in the tree. Does not
+   * allocate.
+   *
+   * @param _toSearch array holding the bytes to search for
+   * @param _off index of the first byte in _toSearch
+   * @param _len number of bytes to search for
+   * @return true if the bytes exist in the tree, false if they do not
+   * @throws IndexOutOfBoundsException if _off and _len do not describe a range of _toSearch
+   */
+  public boolean contains(byte[] _toSearch, int _off, int _len) {
+    if (_off < 0 || _len < 0 || _off > _toSearch.length - _len) {
+      throw new IndexOutOfBoundsException(
+          "range [" + _off + ", " + _off + " + " + _len + ") out of bounds for length "
+              + _toSearch.length);
+    }
+
+    int last = _len * Byte.SIZE - 1;
+    int pointer = Constants.SNAPSHOT_HEADER_LEN;
+    while (forkIndex(pointer) < last) {
+      pointer = child(pointer, Utils.bitAt(_toSearch, _off, forkIndex(pointer)));
+      if (pointer < 0) return false;
+    }
+
+    if (forkIndex(pointer) != last) return false;
+    int key = terminal(pointer, Utils.bitAt(_toSearch, _off, last));
+    if (key < 0) return false;
+    for (int i = 0; i < _len; i++) {
+      if (buffer.get(key + i) != _toSearch[_off + i]) return false;
+    }
+
+    return true;
+  }
+
+  /**
+   * Iterate over the strings in the tree in order.
+   *
+   * @return iterator over the strings in the tree
+   */
+  @Override
+  public Iterator<String> iterator() {
+    RecordIterator ret = new RecordIterator();
+    ret.pushNode(Constants.SNAPSHOT_HEADER_LEN);
+    return ret;
+  }
+
+  /** @return sequential stream over the strings in the tree, in order */
+  public Stream<String> stream() {
+    return StreamSupport.stream(
+        Spliterators.spliterator(iterator(), size, SPLITERATOR_CHARACTERISTICS), false);
+  }
+
+  /**
+   * Find the strings in the tree that start with a prefix, descending to the prefix once and then
+   * walking the records below it lazily.
+   *
+   * @param _prefix prefix to search for
+   * @return sequential stream over the strings starting with _prefix, in order
+   */
+  public Stream<String> prefixScan(String _prefix) {
+    BitKey prefix = Utils.strToBitKey(_prefix);
+    int last = prefix.length() - 1;
+    RecordIterator it = new RecordIterator();
+    int pointer = Constants.SNAPSHOT_HEADER_LEN;
+    while (pointer >= 0 && forkIndex(pointer) < last) {
+      pointer = child(pointer, prefix.bitAt(forkIndex(pointer)));
+    }
+
+    // as in Node.prefixSpliterator: take the half of the node on _prefix's side if _prefix ends
+    // at its fork, then check the skipped bits against the first key found
+    if (pointer >= 0) {
+      if (forkIndex(pointer) == last) {
+        int bit = prefix.bitAt(last);
+        if (child(pointer, bit) >= 0) it.pushNode(child(pointer, bit));
+        if (terminal(pointer, bit) >= 0) it.pushKey(terminal(pointer, bit), last);
+      } else {
+        it.pushNode(pointer);
+      }
+
+      if (it.hasNext() && !startsWith(it.peekKey(), it.peekKeyFork(), prefix)) {
+        it = new RecordIterator();
+      }
+    }
+
+    return StreamSupport.stream(
+        Spliterators.spliteratorUnknownSize(it, SPLITERATOR_CHARACTERISTICS), false);
+  }
+
+  /**
+   * @param _record offset of a node record
+   * @return forkIndex of the node
+   */
+  private int forkIndex(int _record) {
+    return buffer.getInt(_record);
+  }
+
+  /**
+   * @param _record offset of a node record
+   * @return flags byte of the node
+   */
+  private int flags(int _record) {
+    return buffer.get(_record + Integer.BYTES);
+  }
+
+  /**
+   * @param _record offset of a node record
+   * @return offset of the first terminal key of the node
+   */
+  private int keys(int _record) {
+    int ret = _record + Constants.SNAPSHOT_RECORD_HEADER_LEN;
+    int bothChildren = Constants.SNAPSHOT_HAS_CHILD | (Constants.SNAPSHOT_HAS_CHILD << 1);
+    if ((flags(_record) & bothChildren) == bothChildren) ret += Integer.BYTES;
+    return ret;
+  }
+
+  /**
+   * @param _record offset of a node record
+   * @param _index 0 for the left terminal key, 1 for the right one
+   * @return offset of the terminal key, or -1 if there is none
+   */
+  private int terminal(int _record, int _index) {
+    int flags = flags(_record);
+    if ((flags & (Constants.SNAPSHOT_HAS_TERMINAL << _index)) == 0) return -1;
+    int ret = keys(_record);
+    if (_index == 1 && (flags & Constants.SNAPSHOT_HAS_TERMINAL) != 0) {
+      ret += Utils.terminalBytes(forkIndex(_record));
+    }
+    return ret;
+  }
+
+  /**
+   * @param _record offset of a node record
+   * @param _index 0 for the left child, 1 for the right child
+   * @return offset of the child's record, or -1 if there is none
+   */
+  private int child(int _record, int _index) {
+    int flags = flags(_record);
+    if ((flags & (Constants.SNAPSHOT_HAS_CHILD << _index)) == 0) return -1;
+    if (_index == 1 && (flags & Constants.SNAPSHOT_HAS_CHILD) != 0) {
+      return buffer.getInt(_record + Constants.SNAPSHOT_RECORD_HEADER_LEN);
+    }
+
+    // the only or left child directly follows this record
+    int numKeys = Integer.bitCount(flags & (Constants.SNAPSHOT_HAS_CHILD - 1));
+    return keys(_record) + numKeys * Utils.terminalBytes(forkIndex(_record));
+  }
+
+  /**
+   * Check whether a stored key starts with a prefix.
+   *
+   * @param _key offset of the stored key
+   * @param _keyFork forkIndex of the node holding the key, one less than its length in bits
+   * @param _prefix prefix to check for
+   * @return true if the first bits of the stored key are _prefix
+   */
+  private boolean startsWith(int _key, int _keyFork, BitKey _prefix) {
+    if (_keyFork + 1 < _prefix.length()) return false;
+    for (int i = 0; i < _prefix.length(); i++) {
+      int bit = (buffer.get(_key + (i >>> 3)) >>> (~i & 7)) & 1;
+      if (bit != _prefix.bitAt(i)) return false;
+    }
+
+    return true;
+  }
+
+  /**
+   * RecordIterator walks node records in order with an explicit stack of offsets, like
+   * Node.KeySpliterator does with nodes.
+   */
+  private class RecordIterator implements Iterator<String> {
+    // offsets of pending records and keys, with the next one in order on top
+    private int[] offsets = new int[16];
+
+    // -1 for a node record, otherwise the forkIndex of the node holding the key
+    private int[] forks = new int[16];
+
+    private int top;
+
+    private void pushNode(int _record) {
+      push(_record, -1);
+    }
+
+    private void pushKey(int _key, int _fork) {
+      push(_key, _fork);
+    }
+
+    private void push(int _offset, int _fork) {
+      if (top == offsets.length) {
+        offsets = Arrays.copyOf(offsets, top * 2);
+        forks = Arrays.copyOf(forks, top * 2);
+      }
+      offsets[top] = _offset;
+      forks[top++] = _fork;
+    }
+
+    @Override
+    public boolean hasNext() {
+      // expand node records until a key is on top
+      while (top > 0 && forks[top - 1] < 0) {
+        int record = offsets[--top];
+        for (int i = Constants.NODE_NUM_CHILDREN - 1; i >= 0; i--) {
+          if (child(record, i) >= 0) pushNode(child(record, i));
+          if (terminal(record, i) >= 0) pushKey(terminal(record, i), forkIndex(record));
+        }
+      }
+
+      return top > 0;
+    }
+
+    /** @return offset of the next key; only valid after hasNext() returned true */
+    private int peekKey() {
+      return offsets[top - 1];
+    }
+
+    /** @return forkIndex of the node holding the next key; only valid like peekKey() */
+    private int peekKeyFork() {
+      return forks[top - 1];
+    }
+
+    @Override
+    public String next() {
+      if (!hasNext()) throw new NoSuchElementException();
+      top--;
+      byte[] key = new byte[Utils.terminalBytes(forks[top])];
+      for (int i = 0; i < key.length; i++) key[i] = buffer.get(offsets[top] + i);
+      return new String(key, StandardCharsets.UTF_8);
+    }
+  }
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright (c) 2017-2018 Aditya Saligrama.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO
+ * EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES
+ * OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.saligrama.patricia;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+
+/**
+ * MutationLog reads and writes the append-only log of additions and removals behind a
+ * DurablePatriciaTree.
+ *
+ * <p>A log starts with a header of two big-endian ints, Constants.LOG_MAGIC and
+ * Constants.LOG_VERSION, followed by one record per mutation:
+ *
+ * <ul>
+ *   <li>the operation, Constants.LOG_ADD or Constants.LOG_REMOVE, as a byte;
+ *   <li>the length of the key's UTF-8 encoding, as an int;
+ *   <li>the UTF-8 encoding of the key;
+ *   <li>the CRC-32C of all of the above, as an int.
+ * </ul>
+ *
+ * <p>A crash can leave the last records partly written. Replay stops at the first record that is
+ * incomplete or fails its checksum, and can cut the log back to the records before it.
+ *
+ * @author Aditya Saligrama
+ * @version 1.0
+ */
+final class MutationLog {
+  private MutationLog() {}
+
+  /**
+   * Create a new, empty log, replacing the file if it exists.
+   *
+   * @param _path file to create
+   * @return channel open for appending to the log
+   * @throws IOException if the file can't be created
+   */
+  protected static FileChannel create(Path _path) throws IOException {
+    FileChannel ret =
+        FileChannel.open(
+            _path,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING);
+    ByteBuffer header = ByteBuffer.allocate(Constants.LOG_HEADER_LEN);
+    header.putInt(Constants.LOG_MAGIC).putInt(Constants.LOG_VERSION).flip();
+    while (header.hasRemaining()) ret.write(header);
+    return ret;
+  }
+
+  /**
+   * Replay a log onto a tree.
+   *
+   * @param _tree tree to apply the logged mutations to
+   * @param _path log file
+   * @param _repair true to cut the file back to its last complete record, so that appending to it
+   *     is safe; a log without a complete header is then recreated
+   * @return channel open for appending to the log if _repair is true, otherwise null
+   * @throws IOException if the file can't be read, or is not a log of a supported version
+   */
+  protected static FileChannel replay(PatriciaTree _tree, Path _path, boolean _repair)
+      throws IOException {
+    FileChannel channel =
+        _repair
+            ? FileChannel.open(_path, StandardOpenOption.READ, StandardOpenOption.WRITE)
+            : FileChannel.open(_path, StandardOpenOption.READ);
+    try {
+      if (channel.size() < Constants.LOG_HEADER_LEN && _repair) {
+        // the crash came before the header was written, so nothing was logged
+        channel.close();
+        return create(_path);
+      }
+
+      DataInputStream in =
+          new DataInputStream(
+              new BufferedInputStream(
+                  Channels.newInputStream(channel), Constants.LOG_READ_BUFFER_LEN));
+      if (in.readInt() != Constants.LOG_MAGIC) throw new IOException("not a mutation log");
+      int version = in.readInt();
+      if (version != Constants.LOG_VERSION) {
+        throw new IOException("unsupported mutation log version " + version);
+      }
+
+      long end = Constants.LOG_HEADER_LEN;
+      CRC32C crc = new CRC32C();
+      byte[] key = new byte[0];
+      while (true) {
+        byte op;
+        int len;
+        try {
+          op = in.readByte();
+          len = in.readInt();
+          if (len <= 0 || len > channel.size() - end) break;
+          if (key.length < len) key = new byte[len];
+          in.readFully(key, 0, len);
+          crc.reset();
+          crc.update(op);
+          updateInt(crc, len);
+          crc.update(key, 0, len);
+          if (in.readInt() != (int) crc.getValue()) break;
+        } catch (EOFException e) {
+          break;
+        }
+
+        String str = new String(key, 0, len, StandardCharsets.UTF_8);
+        if (op == Constants.LOG_ADD) {
+          _tree.add(str);
+        } else if (op == Constants.LOG_REMOVE) {
+          _tree.remove(str);
+        } else {
+          break;
+        }
+        end += Constants.LOG_RECORD_OVERHEAD + len;
+      }
+
+      if (!_repair) {
+        channel.close();
+        return null;
+      }
+      channel.truncate(end);
+      channel.position(end);
+      return channel;
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  private static void updateInt(CRC32C _crc, int _value) {
+    _crc.update(_value >>> 24);
+    _crc.update(_value >>> 16);
+    _crc.update(_value >>> 8);
+    _crc.update(_value);
+  }
+
+  /**
+   * Records buffers encoded records in memory until they are written to a log in one go, so that
+   * the mutations of many threads share a single write and a single force.
+   */
+  static class Records {
+    private final CRC32C crc = new CRC32C();
+    private byte[] bytes = new byte[Constants.LOG_INITIAL_BUFFER_LEN];
+    private int length;
+
+    /**
+     * Append a record.
+     *
+     * @param _op Constants.LOG_ADD or Constants.LOG_REMOVE
+     * @param _key key the mutation applies to
+     */
+    protected void append(byte _op, String _key) {
+      byte[] key = _key.getBytes(StandardCharsets.UTF_8);
+      int start = length;
+      ensureCapacity(length + Constants.LOG_RECORD_OVERHEAD + key.length);
+      bytes[length++] = _op;
+      putInt(key.length);
+      System.arraycopy(key, 0, bytes, length, key.length);
+      length += key.length;
+      crc.reset();
+      crc.update(bytes, start, length - start);
+      putInt((int) crc.getValue());
+    }
+
+    /** @return true if no records are buffered */
+    protected boolean isEmpty() {
+      return length == 0;
+    }
+
+    /**
+     * Write the buffered records to a channel and empty the buffer.
+     *
+     * @param _channel channel to write to, positioned at the end of a log
+     * @throws IOException if the records can't be written
+     */
+    protected void writeTo(FileChannel _channel) throws IOException {
+      ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, length);
+      while (buffer.hasRemaining()) _channel.write(buffer);
+      length = 0;
+    }
+
+    private void putInt(int _value) {
+      bytes[length++] = (byte) (_value >>> 24);
+      bytes[length++] = (byte) (_value >>> 16);
+      bytes[length++] = (byte) (_value >>> 8);
+      bytes[length++] = (byte) _value;
+    }
+
+    private void ensureCapacity(int _capacity) {
+      if (_capacity > bytes.length) {
+        bytes = Arrays.copyOf(bytes, Math.max(_capacity, bytes.length * 2));
+      }
+    }
+  }
+}
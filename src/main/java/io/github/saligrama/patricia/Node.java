@@ -22,15 +22,24 @@
 
 package io.github.saligrama.patricia;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.List;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Consumer;
 
 /**
  * Node is an individual piece of a PatriciaTree. It has two children, an index of separation
- * between its left and right children, and up to two bit arrays that terminate at this node (i.e.
+ * between its left and right children, and up to two bit keys that terminate at this node (i.e.
  * its length is given by forkIndex+1).
  *
+ * <p>Every key stored below a node shares its first forkIndex bits, so only the bit at forkIndex is
+ * inspected while descending; a single comparison against a stored key settles the result.
+ *
  * <p>Note that a Node could theoretically be its own independent PatriciaTree. However, to optimize
  * the tree, it is necessary to backtrack to parent nodes on removal of a string in order to make
  * sure no redundant nodes are being stored.
@@ -45,182 +54,585 @@ class Node {
   // left child has a 0 at position forkIndex, right child has a 1
   private Node[] children;
 
-  // if a string doesn't terminate here, we use null at position 0 or 1
-  // to show that; otherwise, that position is a bit array
+  // if a key doesn't terminate here, we use null at position 0 or 1
+  // to show that; otherwise, that position holds a key whose last bit is the position
   // size is always 2
-  private List<int[]> terminates;
+  private BitKey[] terminates;
 
-  // link to parent node for use in add method
+  // link to parent node for use in add and remove methods
   private Node parent;
 
+  // number of keys stored at and below this node, for splitting traversals evenly
+  private int size;
+
   /** Construct a new Node. */
   protected Node(int _forkIndex, Node _parent) {
     forkIndex = _forkIndex;
-    terminates = new ArrayList<int[]>();
+    terminates = new BitKey[Constants.NODE_NUM_CHILDREN];
     children = new Node[Constants.NODE_NUM_CHILDREN];
     parent = _parent;
+  }
 
-    // add nulls for padding and to avoid IndexOutOfBoundsExceptions
-    for (int i = 0; i < Constants.NODE_NUM_CHILDREN; i++) terminates.add(null);
+  /** @return index of first difference between left and right child */
+  protected int forkIndex() {
+    return forkIndex;
   }
 
-  /** @return string representation of the node and all child nodes */
-  @Override
-  public String toString() {
-    String ret = "";
-    for (int i = 0; i < Constants.NODE_NUM_CHILDREN; i++) {
-      if (terminates.get(i) != null) {
-        ret += Utils.bitArrToStr(terminates.get(i)) + ", ";
-      }
+  /**
+   * @param _index 0 for the left child, 1 for the right child
+   * @return the child, or null if there is none
+   */
+  protected Node child(int _index) {
+    return children[_index];
+  }
+
+  /**
+   * @param _index last bit of the key
+   * @return the key of length forkIndex+1 ending at this node with that last bit, or null
+   */
+  protected BitKey terminal(int _index) {
+    return terminates[_index];
+  }
+
+  /** @return number of keys stored at and below this node */
+  protected int size() {
+    return size;
+  }
+
+  /** @return spliterator over the keys below this node, in lexicographic order of their bits */
+  protected Spliterator<BitKey> spliterator() {
+    KeySpliterator ret = new KeySpliterator();
+    ret.push(this);
+    return ret;
+  }
+
+  /**
+   * Descend once to the keys below this node that start with _prefix, and walk them.
+   *
+   * @param _prefix bit key every returned key starts with
+   * @return spliterator over the matching keys, in lexicographic order of their bits
+   */
+  protected Spliterator<BitKey> prefixSpliterator(BitKey _prefix) {
+    int last = _prefix.length() - 1;
+    KeySpliterator ret = new KeySpliterator();
+    Node pointer = this;
+    while (pointer.forkIndex < last) {
+      pointer = pointer.children[_prefix.bitAt(pointer.forkIndex)];
+      if (pointer == null) return ret;
     }
 
-    for (int i = 0; i < Constants.NODE_NUM_CHILDREN; i++) {
-      if (children[i] != null) {
-        ret += children[i].toString();
-      }
+    // every key below pointer shares its first forkIndex bits; if _prefix ends exactly at the
+    // fork, only the keys on _prefix's side of it can match
+    BitKey rep;
+    if (pointer.forkIndex == last) {
+      int bit = _prefix.bitAt(last);
+      rep = pointer.terminates[bit];
+      if (rep == null && pointer.children[bit] != null) rep = pointer.children[bit].firstTerminal();
+      ret.push(pointer.children[bit]);
+      ret.push(pointer.terminates[bit]);
+    } else {
+      rep = pointer.firstTerminal();
+      ret.push(pointer);
     }
 
+    // the bits skipped on the way down were never checked, so one key settles all of them
+    if (rep == null || rep.mismatch(_prefix) < _prefix.length()) return new KeySpliterator();
     return ret;
   }
 
   /**
-   * Search for a bit array in this node and recursively do so in child nodes.
+   * Walk the keys below this node that an automaton accepts, dropping each subtree as soon as the
+   * bits its keys share lead the automaton to a dead state.
    *
-   * @param _toSearch bit array to search for
-   * @return true if the bit array was found, false otherwise
+   * @param _automaton automaton to run over the keys
+   * @return spliterator over the accepted keys, in lexicographic order of their bits
    */
-  protected boolean findChild(int[] _toSearch) {
-    // locateRemoveChild finds a proper child to compare with, so we use it here
-    Node toCompare = locateRemoveChild(_toSearch);
-    int[] comp = firstNotNull(toCompare.terminates);
-    if (comp == null || comp.length != _toSearch.length) {
-      return false;
-    } else {
-      return Arrays.equals(comp, _toSearch);
+  protected <S> Spliterator<BitKey> matchSpliterator(Automaton<S> _automaton) {
+    MatchSpliterator ret = new MatchSpliterator();
+    ret.push(this, new Automaton.Run<>(_automaton));
+    return ret;
+  }
+
+  /**
+   * Search for a bit key in this node and recursively do so in child nodes.
+   *
+   * @param _toSearch bit key to search for
+   * @return true if the bit key was found, false otherwise
+   */
+  protected boolean findChild(BitKey _toSearch) {
+    return findNode(_toSearch) != null;
+  }
+
+  /**
+   * Find the node holding a bit key as a terminal key.
+   *
+   * @param _toSearch bit key to search for
+   * @return the node whose terminal key at _toSearch's last bit is _toSearch, or null if the key
+   *     is not in the tree
+   */
+  protected Node findNode(BitKey _toSearch) {
+    // locateRemoveChild finds the only node that could hold _toSearch, so we use it here
+    Node located = locateRemoveChild(_toSearch);
+    if (located == null) return null;
+    BitKey comp = located.terminates[_toSearch.bitAt(located.forkIndex)];
+    return _toSearch.equals(comp) ? located : null;
+  }
+
+  /**
+   * Search for the bit key representation of a string, reading its bits in place. Mirrors
+   * findChild(BitKey) without allocating a key.
+   *
+   * @param _toSearch string to search for
+   * @return true if the string was found, false otherwise
+   */
+  protected boolean findChild(CharSequence _toSearch) {
+    return findNode(_toSearch) != null;
+  }
+
+  /**
+   * Find the node holding the bit key representation of a string, reading its bits in place.
+   * Mirrors findNode(BitKey) without allocating a key.
+   *
+   * @param _toSearch string to search for
+   * @return the node holding the string's key, or null if the string is not in the tree
+   */
+  protected Node findNode(CharSequence _toSearch) {
+    int last = Utils.utf8Length(_toSearch) * Constants.UTILS_CHAR_BITLEN - 1;
+    // forks only increase on the way down, so a single forward cursor reads every bit
+    long cursor = 0;
+    Node pointer = this;
+    while (pointer.forkIndex < last) {
+      cursor = Utils.seek(_toSearch, cursor, pointer.forkIndex / Constants.UTILS_CHAR_BITLEN);
+      pointer = pointer.children[Utils.bitAt(_toSearch, cursor, pointer.forkIndex)];
+      if (pointer == null) return null;
     }
-    return true;
+
+    if (pointer.forkIndex != last) return null;
+    cursor = Utils.seek(_toSearch, cursor, last / Constants.UTILS_CHAR_BITLEN);
+    BitKey comp = pointer.terminates[Utils.bitAt(_toSearch, cursor, last)];
+    return comp != null && comp.matches(_toSearch) ? pointer : null;
   }
 
   /**
-   * Add a bit array to the tree.
+   * Search for a range of bytes, reading its bits in place. Mirrors findChild(BitKey) without
+   * allocating a key.
    *
-   * @param _toAdd bit array to add to the tree
-   * @return true if the tree was modified (i.e. _toAdd did not already exist in the tree), false
-   *     otherwise
+   * @param _toSearch array holding the bytes to search for
+   * @param _off index of the first byte of the range
+   * @param _len number of bytes in the range
+   * @return true if the bytes were found, false otherwise
    */
-  protected boolean addChild(int[] _toAdd) {
-    Node toCompare = locateAddChild(_toAdd);
+  protected boolean findChild(byte[] _toSearch, int _off, int _len) {
+    int last = _len * Byte.SIZE - 1;
+    Node pointer = this;
+    while (pointer.forkIndex < last) {
+      pointer = pointer.children[Utils.bitAt(_toSearch, _off, pointer.forkIndex)];
+      if (pointer == null) return false;
+    }
 
-    // deal with inserting into the root node
-    if (toCompare.forkIndex == 0 && notNullSize(toCompare.children) < 2) {
-      toCompare.children[_toAdd[toCompare.forkIndex]] = new Node(_toAdd.length - 1, toCompare);
-      toCompare.children[_toAdd[toCompare.forkIndex]].terminates.set(
-          _toAdd[_toAdd.length - 1], _toAdd);
-      return true;
+    if (pointer.forkIndex != last) return false;
+    BitKey comp = pointer.terminates[Utils.bitAt(_toSearch, _off, last)];
+    return comp != null && comp.matches(_toSearch, _off, _len);
+  }
+
+  /**
+   * Search for the remaining bytes of a buffer, reading its bits in place. Mirrors
+   * findChild(BitKey) without allocating a key.
+   *
+   * @param _toSearch buffer holding the bytes to search for between its position and limit
+   * @return true if the bytes were found, false otherwise
+   */
+  protected boolean findChild(ByteBuffer _toSearch) {
+    int last = _toSearch.remaining() * Byte.SIZE - 1;
+    Node pointer = this;
+    while (pointer.forkIndex < last) {
+      pointer = pointer.children[Utils.bitAt(_toSearch, pointer.forkIndex)];
+      if (pointer == null) return false;
     }
 
-    // find first index of difference between _toAdd and comparison child
-    int j = 0;
-    int[] comp = firstNotNull(toCompare.terminates);
-    int minIndex = Math.min(comp.length, _toAdd.length) - 1;
-    boolean differenceFound = false;
+    if (pointer.forkIndex != last) return false;
+    BitKey comp = pointer.terminates[Utils.bitAt(_toSearch, last)];
+    return comp != null && comp.matches(_toSearch);
+  }
 
-    for (; j <= minIndex; j++) {
-      if (_toAdd[j] != comp[j]) {
-        differenceFound = true;
-        break;
+  /**
+   * Find the longest terminal key below this node that is a prefix of _key, in a single descent.
+   * Every terminal met on the way down is a candidate, and only the bits it has beyond the last
+   * accepted candidate need comparing, since both share the path taken so far. Once a candidate
+   * differs from _key, so does every key below it and the descent stops.
+   *
+   * @param _key bit key to match
+   * @return the node holding the match as its terminal key at _key.bitAt(forkIndex()), or null if
+   *     no key in the tree is a prefix of _key
+   */
+  protected Node longestPrefixNode(BitKey _key) {
+    int length = _key.length();
+    int verified = 0;
+    Node best = null;
+    Node pointer = this;
+    while (pointer != null && pointer.forkIndex < length) {
+      int bit = _key.bitAt(pointer.forkIndex);
+      BitKey comp = pointer.terminates[bit];
+      if (comp != null) {
+        if (!comp.matches(_key, verified, pointer.forkIndex)) break;
+        best = pointer;
+        verified = pointer.forkIndex + 1;
       }
+      pointer = pointer.children[bit];
     }
 
-    // fix indexing issue with for loop
-    if (j > minIndex) j--;
+    return best;
+  }
 
-    // deal with _toAdd already existing in some capacity:
-    // _toAdd is a substring of (or fully matches) comp,
-    // or the only difference is the last bit of _toAdd
-    if (j == minIndex) {
-      if (comp.length == _toAdd.length) {
-        // in this case, _toAdd is exactly equal to comp,
-        // or its last bit is different
-        if (!differenceFound) {
-          // if no difference was found, then _toAdd already exists
-          return false;
-        } else {
-          // set _toAdd as right child of _toCompare
-          toCompare.terminates.set(_toAdd[toCompare.forkIndex], _toAdd);
-          return true;
+  /**
+   * Find the longest terminal key below this node that is a prefix of a range of bits, reading
+   * them in place. Mirrors longestPrefixNode(BitKey) without allocating a key.
+   *
+   * @param _bits array holding the bits to match, most significant bit of each byte first
+   * @param _off index of the byte holding bit 0
+   * @param _bitLength number of bits to match
+   * @return the node holding the match as its terminal key at the bit at forkIndex(), or null if
+   *     no key in the tree is a prefix of the bits
+   */
+  protected Node longestPrefixNode(byte[] _bits, int _off, int _bitLength) {
+    int verified = 0;
+    Node best = null;
+    Node pointer = this;
+    while (pointer != null && pointer.forkIndex < _bitLength) {
+      int bit = Utils.bitAt(_bits, _off, pointer.forkIndex);
+      BitKey comp = pointer.terminates[bit];
+      if (comp != null) {
+        if (!comp.matches(_bits, _off, verified, pointer.forkIndex)) break;
+        best = pointer;
+        verified = pointer.forkIndex + 1;
+      }
+      pointer = pointer.children[bit];
+    }
+
+    return best;
+  }
+
+  /**
+   * Find the longest string below this node that is a prefix of _str, reading the bit key
+   * representation of _str in place. Mirrors longestPrefixNode(BitKey) without allocating a key;
+   * keys of strings are whole bytes, so candidates are compared a byte at a time.
+   *
+   * @param _str string to match
+   * @return the bit key of the longest prefix of _str in the tree, or null if there is none
+   */
+  protected BitKey longestPrefixOf(CharSequence _str) {
+    int length = Utils.utf8Length(_str) * Constants.UTILS_CHAR_BITLEN;
+    // one cursor reads the bits to descend by and one the bytes to verify, both moving forward
+    long cursor = 0;
+    long verifyCursor = 0;
+    int verified = 0;
+    BitKey best = null;
+    Node pointer = this;
+    outer:
+    while (pointer != null && pointer.forkIndex < length) {
+      cursor = Utils.seek(_str, cursor, pointer.forkIndex / Constants.UTILS_CHAR_BITLEN);
+      int bit = Utils.bitAt(_str, cursor, pointer.forkIndex);
+      BitKey comp = pointer.terminates[bit];
+      if (comp != null) {
+        int numBytes = comp.length() / Constants.UTILS_CHAR_BITLEN;
+        for (int i = verified; i < numBytes; i++) {
+          verifyCursor = Utils.seek(_str, verifyCursor, i);
+          if (comp.byteAt(i) != Utils.byteAt(_str, verifyCursor, i)) break outer;
         }
-      } else if (comp.length < _toAdd.length) {
-        // in this case comp is a substring of _toAdd, or its last bit is flipped
-        // insertion should be the same as inserting into the root node
-        toCompare.children[_toAdd[toCompare.forkIndex]] = new Node(_toAdd.length - 1, toCompare);
-        toCompare.children[_toAdd[toCompare.forkIndex]].terminates.set(
-            _toAdd[_toAdd.length - 1], _toAdd);
-        return true;
+        best = comp;
+        verified = numBytes;
       }
+      pointer = pointer.children[bit];
     }
 
-    // walk back to first parent node (toModify) encountered with index less than j
-    // unlink toModify's comp[j] child, substitute with splice which contains
-    // the unlinked child and another node containing _toAdd as children
-    Node toModify = toCompare.walkBackToIndex(j);
-    Node splice = new Node(j, toModify);
-    splice.children[comp[j]] = toModify.children[comp[toModify.forkIndex]];
-    splice.children[comp[j]].parent = splice;
-    toModify.children[comp[toModify.forkIndex]] = splice;
+    return best;
+  }
 
-    if (j == minIndex) {
-      // if _toAdd is a substring of comp, then _toAdd becomes a terminal string of splice
-      splice.terminates.set(_toAdd[j], _toAdd);
+  /**
+   * Add a bit key to the tree.
+   *
+   * @param _toAdd bit key to add to the tree
+   * @return true if the tree was modified (i.e. _toAdd did not already exist in the tree), false
+   *     otherwise
+   */
+  protected boolean addChild(BitKey _toAdd) {
+    return addChild(_toAdd, null);
+  }
+
+  /**
+   * Add a bit key to the tree, recording the work done in metrics.
+   *
+   * @param _toAdd bit key to add to the tree
+   * @param _metrics metrics to record the changes to the tree in, or null to record nothing
+   * @return true if the tree was modified (i.e. _toAdd did not already exist in the tree), false
+   *     otherwise
+   */
+  protected boolean addChild(BitKey _toAdd, TreeMetrics _metrics) {
+    int oldSize = size;
+    insert(_toAdd, _metrics);
+    return size != oldSize;
+  }
+
+  /**
+   * Add a bit key to the tree if it is not there yet, and find the node holding it. Called on the
+   * root, whose size tells whether the key was added.
+   *
+   * @param _toAdd bit key to add to the tree
+   * @return the node whose terminal key at _toAdd's last bit is _toAdd
+   */
+  protected Node insert(BitKey _toAdd) {
+    return insert(_toAdd, null);
+  }
+
+  /**
+   * Add a bit key to the tree if it is not there yet, recording the work done in metrics. The
+   * recording is skipped entirely when _metrics is null.
+   *
+   * @param _toAdd bit key to add to the tree
+   * @param _metrics metrics to record the changes to the tree in, or null to record nothing
+   * @return the node whose terminal key at _toAdd's last bit is _toAdd
+   */
+  protected Node insert(BitKey _toAdd, TreeMetrics _metrics) {
+    int last = _toAdd.length() - 1;
+    Node located = locateAddChild(_toAdd);
+    BitKey comp = located.firstTerminal();
+
+    // find first index of difference between _toAdd and comparison key; a key is never forked
+    // past its own last bit, so clamp to that
+    int j = comp == null ? last : Math.min(_toAdd.mismatch(comp), last);
+
+    // walk back to the deepest node (toModify) on the path whose forkIndex is at most j;
+    // _toAdd agrees with every key below it up to that node's forkIndex
+    Node toModify = located.walkBackToIndex(j);
+    int bit = _toAdd.bitAt(toModify.forkIndex);
+    if (_metrics != null) {
+      int climbs = 0;
+      for (Node pointer = located; pointer != toModify; pointer = pointer.parent) climbs++;
+      _metrics.searched(comp == null ? 0 : j + 1, climbs);
+    }
+
+    // deal with _toAdd ending exactly at toModify
+    if (toModify.forkIndex == last) {
+      if (toModify.terminates[bit] != null) {
+        // keys of equal length agreeing on every bit: _toAdd already exists
+        return toModify;
+      }
+
+      toModify.terminates[bit] = _toAdd;
+      toModify.addToSizes(1);
+      if (_metrics != null) _metrics.added(Utils.terminalBytes(last), 0, false);
+      return toModify;
+    }
+
+    // deal with an empty slot: _toAdd becomes a new leaf
+    Node child = toModify.children[bit];
+    if (child == null) {
+      Node leaf = newLeaf(_toAdd, toModify);
+      toModify.children[bit] = leaf;
+      toModify.addToSizes(1);
+      if (_metrics != null) _metrics.added(Utils.terminalBytes(last), 1, false);
+      return leaf;
+    }
+
+    // unlink toModify's child, substitute with splice which contains
+    // the unlinked child and _toAdd
+    Node splice = newNode(j, toModify);
+    splice.children[comp.bitAt(j)] = child;
+    splice.size = child.size;
+    child.parent = splice;
+    toModify.children[bit] = splice;
+
+    Node ret = splice;
+    if (j == last) {
+      // if _toAdd is a prefix of comp, then _toAdd becomes a terminal key of splice
+      splice.terminates[_toAdd.bitAt(j)] = _toAdd;
     } else {
       // otherwise we create a new child of splice that serves this purpose
-      splice.children[_toAdd[j]] = new Node(_toAdd.length - 1, splice);
-      splice.children[_toAdd[j]].terminates.set(_toAdd[_toAdd.length - 1], _toAdd);
+      ret = newLeaf(_toAdd, splice);
+      splice.children[_toAdd.bitAt(j)] = ret;
     }
+    splice.addToSizes(1);
+    if (_metrics != null) _metrics.added(Utils.terminalBytes(last), ret == splice ? 1 : 2, true);
 
-    return true;
+    return ret;
   }
 
   /**
-   * Remove a bit array from the tree.
+   * Remove a bit key from the tree.
    *
-   * @param _toRemove bit array to remove from the tree
+   * @param _toRemove bit key to remove from the tree
    * @return true if the tree was modified (i.e. _toRemove was in the tree), false otherwise
    */
-  protected boolean removeChild(int[] _toRemove) {
+  protected boolean removeChild(BitKey _toRemove) {
+    return detach(_toRemove, null) != null;
+  }
+
+  /**
+   * Remove a bit key from the tree, recording the changes in metrics.
+   *
+   * @param _toRemove bit key to remove from the tree
+   * @param _metrics metrics to record the changes to the tree in, or null to record nothing
+   * @return true if the tree was modified (i.e. _toRemove was in the tree), false otherwise
+   */
+  protected boolean removeChild(BitKey _toRemove, TreeMetrics _metrics) {
+    return detach(_toRemove, _metrics) != null;
+  }
+
+  /**
+   * Remove a bit key from the tree, and find the node that held it.
+   *
+   * @param _toRemove bit key to remove from the tree
+   * @return the node whose terminal key at _toRemove's last bit was _toRemove, which may since
+   *     have been unlinked from the tree, or null if _toRemove was not in the tree
+   */
+  protected Node detach(BitKey _toRemove) {
+    return detach(_toRemove, null);
+  }
+
+  /**
+   * Remove a bit key from the tree, recording the changes in metrics. The recording is skipped
+   * entirely when _metrics is null.
+   *
+   * @param _toRemove bit key to remove from the tree
+   * @param _metrics metrics to record the changes to the tree in, or null to record nothing
+   * @return the node whose terminal key at _toRemove's last bit was _toRemove, which may since
+   *     have been unlinked from the tree, or null if _toRemove was not in the tree
+   */
+  protected Node detach(BitKey _toRemove, TreeMetrics _metrics) {
     // find comparison node
     Node located = locateRemoveChild(_toRemove);
 
-    // if relevant child does not match _toRemove, return false as the tree did not change
-    if (_toRemove.length == located.forkIndex + 1) {
-      if (Arrays.equals(located.terminates.get(_toRemove[located.forkIndex]), _toRemove))
-        located.terminates.set(_toRemove[located.forkIndex], null);
-    } else {
-      return false;
+    // if relevant terminal key does not match _toRemove, return null as the tree did not change
+    if (located == null) return null;
+    int bit = _toRemove.bitAt(located.forkIndex);
+    if (!_toRemove.equals(located.terminates[bit])) return null;
+    located.terminates[bit] = null;
+    located.addToSizes(-1);
+
+    // clean up the tree; the root node is never removed
+    if (located.parent == null || notNullSize(located.terminates) > 0) {
+      if (_metrics != null) _metrics.removed(Utils.terminalBytes(_toRemove.length() - 1), 0, 0);
+      return located;
     }
 
-    // clean up the tree
-    if (notNullSize(located.terminates) == 0) {
-      if (notNullSize(located.children) == 0) {
-        // if located is "orphaned" in that it has no terminal strings or children,
-        // it can be removed
-        Node pointer = located.parent;
-        located.parent.children[_toRemove[located.parent.forkIndex]] = null;
-        if (notNullSize(pointer.children) == 1 && pointer.forkIndex != 0) {
-          // if located's parent has only one child, then we can merge the child into itself,
-          // as long as pointer isn't the root node
-          Node grandParent = pointer.parent;
-          int childIndex = _toRemove[grandParent.forkIndex];
-          int grandChildIndex = Math.abs(_toRemove[pointer.forkIndex] - 1);
-          grandParent.children[childIndex] =
-              grandParent.children[childIndex].children[grandChildIndex];
-          grandParent.children[childIndex].parent = grandParent;
-        }
-      } else if (notNullSize(located.children) == 1) {
-        // if located has only one child, then we can merge the child into itself
-        Node pointer = located.parent;
-        pointer.children[_toRemove[pointer.forkIndex]] = firstNotNull(located.children);
-        pointer.children[_toRemove[pointer.forkIndex]].parent = pointer;
+    Node pointer = located.parent;
+    int numChildren = notNullSize(located.children);
+    int removedNodes = 0;
+    int merges = 0;
+    if (numChildren == 0) {
+      // if located is "orphaned" in that it has no terminal keys or children,
+      // it can be removed
+      pointer.children[_toRemove.bitAt(pointer.forkIndex)] = null;
+      removedNodes++;
+      if (pointer.parent != null
+          && notNullSize(pointer.terminates) == 0
+          && notNullSize(pointer.children) == 1) {
+        // if located's parent is left with only one child, then we can merge the child into its
+        // grandparent, as long as pointer isn't the root node
+        pointer.replaceWithChild(_toRemove.bitAt(pointer.parent.forkIndex));
+        removedNodes++;
+        merges++;
+      }
+    } else if (numChildren == 1) {
+      // if located has only one child, then we can merge the child into its parent
+      located.replaceWithChild(_toRemove.bitAt(pointer.forkIndex));
+      removedNodes++;
+      merges++;
+    }
+    if (_metrics != null) {
+      _metrics.removed(Utils.terminalBytes(_toRemove.length() - 1), removedNodes, merges);
+    }
+
+    return located;
+  }
+
+  /**
+   * Merge two trees into a new tree holding the keys that a set operation keeps. Both trees are
+   * walked together by fork index. A key of each subtree is only compared where there are bits
+   * that neither tree forked on above: a pair of subtrees whose keys part there holds no key in
+   * common and is copied or dropped whole, without looking at the rest of its keys. Trees holding
+   * at least Constants.NODE_MERGE_FORK_SIZE keys between them are merged in parallel on the common
+   * ForkJoinPool. The new tree shares keys but no nodes with the two trees, which must not be
+   * modified during the merge.
+   *
+   * @param _left root of the left tree
+   * @param _right root of the right tree
+   * @param _op set operation to apply
+   * @return root of the merged tree
+   */
+  protected static Node merge(Node _left, Node _right, SetOperation _op) {
+    Node left = _left.size > 0 ? _left : null;
+    Node right = _right.size > 0 ? _right : null;
+    Merge task = new Merge(new Frame(left, null, right, null, 0, null, 0), _op);
+    Node merged =
+        _left.size + _right.size >= Constants.NODE_MERGE_FORK_SIZE
+            ? ForkJoinPool.commonPool().invoke(task)
+            : task.compute();
+
+    // a root forks at 0 even when it has a single child
+    if (merged != null && merged.forkIndex == 0) {
+      merged.parent = null;
+      return merged;
+    }
+    Node ret = new Node(0, null);
+    if (merged != null) {
+      ret.children[merged.firstTerminal().bitAt(0)] = merged;
+      merged.parent = ret;
+      ret.size = merged.size;
+    }
+    return ret;
+  }
+
+  /**
+   * Check whether every key of one tree is in another, walking both together as merge does. The
+   * walk stops at the first subtree of the left tree with a key the right tree can't hold: one
+   * with more keys than its counterpart, or whose keys part from the counterpart's before either
+   * forks.
+   *
+   * @param _left root of the tree whose keys are looked for
+   * @param _right root of the tree to look in
+   * @return true if every key below _left is below _right
+   */
+  protected static boolean isSubset(Node _left, Node _right) {
+    if (_left.size == 0) return true;
+    if (_right.size == 0) return false;
+
+    ArrayDeque<Frame> stack = new ArrayDeque<>();
+    stack.push(new Frame(_left, null, _right, null, 0, null, 0));
+    while (!stack.isEmpty()) {
+      Frame pair = stack.pop();
+      Node a = pair.left;
+      Node b = pair.right;
+      if (a.size > b.size) return false;
+      BitKey ka = pair.leftKey;
+      BitKey kb = pair.rightKey;
+      int fork = Math.min(a.forkIndex, b.forkIndex);
+      if (fork > pair.agreed) {
+        if (ka == null) ka = a.firstTerminal();
+        if (kb == null) kb = b.firstTerminal();
+        if (ka.mismatch(kb) < fork) return false;
+      }
+
+      if (a.forkIndex > b.forkIndex) {
+        // every key of a takes the same branch at b's fork
+        if (ka == null) ka = a.firstTerminal();
+        int i = ka.bitAt(fork);
+        if (b.children[i] == null) return false;
+        stack.push(new Frame(a, ka, b.children[i], childKey(b, kb, i), fork + 1, null, 0));
+        continue;
+      }
+
+      // below b's fork, b has no terminal keys and a single branch
+      boolean aligned = a.forkIndex == b.forkIndex;
+      if (!aligned && kb == null) kb = b.firstTerminal();
+      for (int i = 0; i < Constants.NODE_NUM_CHILDREN; i++) {
+        if (a.terminates[i] != null && (!aligned || b.terminates[i] == null)) return false;
+        if (a.children[i] == null) continue;
+        if (aligned ? b.children[i] == null : kb.bitAt(fork) != i) return false;
+        Node other = aligned ? b.children[i] : b;
+        BitKey otherKey = aligned ? childKey(b, kb, i) : kb;
+        BitKey key = childKey(a, ka, i);
+        stack.push(new Frame(a.children[i], key, other, otherKey, fork + 1, null, 0));
       }
     }
 
@@ -228,17 +640,129 @@ class Node {
   }
 
   /**
-   * Calculate the number of elements in _list that are not null. Used to determine various
-   * conclusions about the terminates list; i.e. it is a factor in determining whether a node is
+   * Create a node for this tree. Trees that keep more per node than keys override this to create
+   * their own kind of node.
+   *
+   * @param _forkIndex forkIndex of the new node
+   * @param _parent parent of the new node
+   * @return a new, empty node
+   */
+  protected Node newNode(int _forkIndex, Node _parent) {
+    return new Node(_forkIndex, _parent);
+  }
+
+  /**
+   * Create a leaf node holding a single terminal key.
+   *
+   * @param _key key to store
+   * @param _parent parent of the new leaf
+   * @return a Node with forkIndex at the last bit of _key
+   */
+  private Node newLeaf(BitKey _key, Node _parent) {
+    int last = _key.length() - 1;
+    Node leaf = newNode(last, _parent);
+    leaf.terminates[_key.bitAt(last)] = _key;
+    leaf.size = 1;
+    return leaf;
+  }
+
+  /**
+   * Adjust the size of this node and all of its ancestors after a key was added or removed below
+   * it.
+   *
+   * @param _delta change in the number of keys
+   */
+  private void addToSizes(int _delta) {
+    for (Node pointer = this; pointer != null; pointer = pointer.parent) {
+      pointer.size += _delta;
+    }
+  }
+
+  /**
+   * Unlink this node, which must have exactly one child and no terminal keys, by linking its child
+   * directly to its parent.
+   *
+   * @param _childIndex index of this node in its parent's children
+   */
+  private void replaceWithChild(int _childIndex) {
+    Node child = firstNotNull(children);
+    parent.children[_childIndex] = child;
+    child.parent = parent;
+  }
+
+  /**
+   * Find any terminal key in the subtree rooted at this node. All such keys agree on their first
+   * forkIndex bits, so any of them serves for comparison.
+   *
+   * @return a terminal key, or null if the subtree is empty
+   */
+  protected BitKey firstTerminal() {
+    Node pointer = this;
+    while (pointer != null) {
+      BitKey ret = firstNotNull(pointer.terminates);
+      if (ret != null) return ret;
+      pointer = firstNotNull(pointer.children);
+    }
+
+    return null;
+  }
+
+  /**
+   * Reuse a key of a parent's subtree for a child when it lies below the child. Other children are
+   * left for firstTerminal when their turn comes, so that a walk over both trees follows each
+   * leftmost path at most once, just before descending it.
+   *
+   * @param _parent a node
+   * @param _key any key below _parent, or null if none was looked up
+   * @param _index index of the child
+   * @return _key if it is below the child, null otherwise
+   */
+  private static BitKey childKey(Node _parent, BitKey _key, int _index) {
+    int fork = _parent.forkIndex;
+    if (_key == null || _key.length() <= fork + 1) return null;
+    return _key.bitAt(fork) == _index ? _key : null;
+  }
+
+  /**
+   * Copy a subtree, walking it with an explicit stack. The copy shares the keys.
+   *
+   * @param _from root of the subtree to copy
+   * @return root of the copy, with no parent
+   */
+  private static Node copy(Node _from) {
+    Node ret = new Node(_from.forkIndex, null);
+    ArrayDeque<Node> stack = new ArrayDeque<>();
+    stack.push(_from);
+    stack.push(ret);
+    while (!stack.isEmpty()) {
+      Node to = stack.pop();
+      Node from = stack.pop();
+      to.size = from.size;
+      for (int i = 0; i < Constants.NODE_NUM_CHILDREN; i++) {
+        to.terminates[i] = from.terminates[i];
+        if (from.children[i] != null) {
+          to.children[i] = new Node(from.children[i].forkIndex, to);
+          stack.push(from.children[i]);
+          stack.push(to.children[i]);
+        }
+      }
+    }
+
+    return ret;
+  }
+
+  /**
+   * Calculate the number of elements in _terminates that are not null. Used to determine various
+   * conclusions about the terminates array; i.e. it is a factor in determining whether a node is
    * orphaned.
    *
-   * @param _terminates a terminates list
-   * @return number of elements that are not null in _list
+   * @param _terminates a terminates array
+   * @return number of elements that are not null in _terminates
    */
-  private int notNullSize(List<int[]> _terminates) {
+  private int notNullSize(BitKey[] _terminates) {
     int ret = 0;
-    for (int[] i : _terminates) {
-      if (i != null) ret++;
+    for (BitKey k : _terminates) {
+      if (k != null) ret++;
     }
 
     return ret;
@@ -262,14 +786,14 @@ class Node {
   }
 
   /**
-   * Find the first non-null element in the _terminates list.
+   * Find the first non-null element in the _terminates array.
    *
-   * @param _terminates a terminates list
-   * @return first non-null bit array in _terminates
+   * @param _terminates a terminates array
+   * @return first non-null bit key in _terminates
    */
-  private int[] firstNotNull(List<int[]> _terminates) {
-    for (int[] i : _terminates) {
-      if (i != null) return i;
+  private static BitKey firstNotNull(BitKey[] _terminates) {
+    for (BitKey k : _terminates) {
+      if (k != null) return k;
     }
 
     return null;
@@ -279,9 +803,9 @@ class Node {
    * Find the first non-null element in the _children array.
    *
    * @param _children a list of child nodes
-   * @return first non-null bit array in _children
+   * @return first non-null child node in _children
    */
-  private Node firstNotNull(Node[] _children) {
+  private static Node firstNotNull(Node[] _children) {
     for (Node n : _children) {
       if (n != null) return n;
     }
@@ -290,16 +814,16 @@ class Node {
   }
 
   /**
-   * Traverse back up the tree to a node with forkIndex less than _index. Used as part of the
-   * addChild() method to clean up after inserting a bit array.
+   * Traverse back up the tree to a node with forkIndex at most _index. Used as part of the
+   * addChild() method to find where a bit key should be inserted.
    *
    * @param _index index to compare to forkIndex of parent nodes
-   * @return a Node representing the first location such that its forkIndex is less than _index
+   * @return a Node representing the first location such that its forkIndex is at most _index
    */
   private Node walkBackToIndex(int _index) {
     Node pointer = this;
-    // stop when a node with forkIndex less than _index, or the root node is reached
-    while (pointer.forkIndex >= _index && pointer.forkIndex > 0) {
+    // stop when a node with forkIndex at most _index, or the root node is reached
+    while (pointer.forkIndex > _index && pointer.parent != null) {
       pointer = pointer.parent;
     }
 
@@ -307,50 +831,723 @@ class Node {
   }
 
   /**
-   * Locate empty or terminal node for comparison and/or insertion of _toAdd.
+   * Locate the deepest node on the path of _toAdd for comparison and/or insertion of _toAdd.
    *
-   * @param _toAdd bit array to be used to search for a location to add it to the tree
+   * @param _toAdd bit key to be used to search for a location to add it to the tree
    * @return a Node representing such a location
    */
-  private Node locateAddChild(int[] _toAdd) {
+  private Node locateAddChild(BitKey _toAdd) {
+    int last = _toAdd.length() - 1;
     Node pointer = this;
-    while (pointer.forkIndex < _toAdd.length
-        && pointer.children[_toAdd[pointer.forkIndex]] != null) {
-      // find index to first stop at
-      pointer = pointer.children[_toAdd[pointer.forkIndex]];
+    while (pointer.forkIndex < last) {
+      // follow the bit at each fork until we run out of children
+      Node next = pointer.children[_toAdd.bitAt(pointer.forkIndex)];
+      if (next == null) break;
+      pointer = next;
+    }
+
+    return pointer;
+  }
+
+  /**
+   * BatchCursor looks up and adds a sequence of keys, resuming each descent from the path of the
+   * previous key rather than from the root. Two keys take the same path through every node whose
+   * forkIndex is below the first bit at which they differ, so a key only needs to climb from the
+   * previous key's node to the deepest such ancestor and descend from there. For sorted batches
+   * neighbouring keys share long prefixes, and most of each descent is skipped.
+   *
+   * <p>Unlike BulkLoader, the keys may come in any order and the tree may already hold keys.
+   */
+  static class BatchCursor {
+    private final Node root;
+
+    // node reached by the previous key; all its ancestors are on the previous key's path
+    private Node finger;
+    private BitKey previous;
+    private CharSequence previousStr;
+
+    /** @param _root root of the tree to work on */
+    protected BatchCursor(Node _root) {
+      root = _root;
+      finger = _root;
     }
 
-    // return the first node we can find with a terminal string contained within if we can proceed
-    if (notNullSize(pointer.children) > 0 && pointer.forkIndex != 0) {
-      while (notNullSize(pointer.terminates) == 0) {
-        pointer = firstNotNull(pointer.children);
+    /**
+     * Search for the bit key representation of a string, starting from the path of the previous
+     * string and reading its bits in place. Mirrors findNode(CharSequence).
+     *
+     * @param _toSearch string to search for
+     * @return true if the string was found, false otherwise
+     */
+    protected boolean findChild(CharSequence _toSearch) {
+      int shared = previousStr == null ? 0 : Utils.commonUtf8Length(_toSearch, previousStr);
+      int last = Utils.utf8Length(_toSearch) * Constants.UTILS_CHAR_BITLEN - 1;
+      long cursor = 0;
+      Node pointer = resume(shared * Constants.UTILS_CHAR_BITLEN);
+      while (pointer.forkIndex < last) {
+        cursor = Utils.seek(_toSearch, cursor, pointer.forkIndex / Constants.UTILS_CHAR_BITLEN);
+        Node next = pointer.children[Utils.bitAt(_toSearch, cursor, pointer.forkIndex)];
+        if (next == null) break;
+        pointer = next;
       }
+      finger = pointer;
+      previousStr = _toSearch;
+
+      if (pointer.forkIndex != last) return false;
+      cursor = Utils.seek(_toSearch, cursor, last / Constants.UTILS_CHAR_BITLEN);
+      BitKey comp = pointer.terminates[Utils.bitAt(_toSearch, cursor, last)];
+      return comp != null && comp.matches(_toSearch);
     }
 
-    // if we cannot continue (or we stop at the root node),
-    // return this node (useful for inserting into an empty root node)
-    return pointer;
+    /**
+     * Add a bit key to the tree, starting from the path of the previous key.
+     *
+     * @param _toAdd bit key to add to the tree
+     * @return true if the tree was modified (i.e. _toAdd did not already exist in the tree), false
+     *     otherwise
+     */
+    protected boolean addChild(BitKey _toAdd) {
+      return addChild(_toAdd, null);
+    }
+
+    /**
+     * Add a bit key to the tree, starting from the path of the previous key and recording the
+     * changes in metrics.
+     *
+     * @param _toAdd bit key to add to the tree
+     * @param _metrics metrics to record the changes to the tree in, or null to record nothing
+     * @return true if the tree was modified (i.e. _toAdd did not already exist in the tree), false
+     *     otherwise
+     */
+    protected boolean addChild(BitKey _toAdd, TreeMetrics _metrics) {
+      int oldSize = root.size;
+      // insert only looks below the node it is called on and walks back up by parent pointers, so
+      // it works from any node on the path of _toAdd
+      Node start = resume(previous == null ? 0 : _toAdd.mismatch(previous));
+      finger = start.insert(_toAdd, _metrics);
+      previous = _toAdd;
+      return root.size != oldSize;
+    }
+
+    /**
+     * @param _index number of leading bits the next key is known to share with the previous key
+     * @return the deepest ancestor of finger on the path of the next key
+     */
+    private Node resume(int _index) {
+      Node pointer = finger;
+      while (pointer.forkIndex >= _index && pointer.parent != null) pointer = pointer.parent;
+      return pointer;
+    }
   }
 
   /**
-   * Locate empty or terminal node for comparison and/or removal of _toRemove. Also used to search
-   * for a bit array to check if the tree contains it in the findChild() method
+   * BulkLoader builds a tree out of keys supplied in increasing order, without searching from the
+   * root for each key. It keeps the rightmost path of the tree on a stack: a new key can only fork
+   * off that path, and only at the first bit where it differs from the previous key, so popping
+   * the stack back to that index finds the insertion point in amortized constant time.
    *
-   * @param _toRemove bit array to be used to search for a location to remove it from the tree
-   * @return a Node representing such a location
+   * <p>A node popped off the path will never gain another key, so its size is settled as it leaves
+   * the stack rather than updating every ancestor per key.
    */
-  private Node locateRemoveChild(int[] _toRemove) {
-    Node pointer = this;
-    while (pointer.forkIndex < _toRemove.length
-        && pointer.children[_toRemove[pointer.forkIndex]] != null) {
-      // find index to first stop at
-      pointer = pointer.children[_toRemove[pointer.forkIndex]];
+  static class BulkLoader {
+    // nodes on the rightmost path, root at the bottom
+    private final ArrayDeque<Node> rightmost = new ArrayDeque<>();
+
+    // largest key loaded so far
+    private BitKey previous;
+
+    /** Construct a new BulkLoader starting from an empty root node. */
+    protected BulkLoader() {
+      rightmost.push(new Node(0, null));
     }
 
-    if (pointer.forkIndex >= _toRemove.length) {
-      pointer = pointer.parent;
+    /**
+     * Add a key that is not smaller than every key added so far.
+     *
+     * @param _toAdd bit key to add
+     * @return true if _toAdd was added, false if it equals the previous key
+     * @throws IllegalArgumentException if _toAdd is smaller than the previous key
+     */
+    protected boolean append(BitKey _toAdd) {
+      int last = _toAdd.length() - 1;
+      int j = last;
+      if (previous != null) {
+        int cmp = _toAdd.compareTo(previous);
+        if (cmp == 0) return false;
+        if (cmp < 0) throw new IllegalArgumentException("keys must be added in increasing order");
+        j = Math.min(_toAdd.mismatch(previous), last);
+      }
+
+      // walk back along the rightmost path, as walkBackToIndex does, finishing the nodes left
+      while (rightmost.peek().forkIndex > j) rightmost.pop().finishSize();
+      Node toModify = rightmost.peek();
+      int bit = _toAdd.bitAt(toModify.forkIndex);
+
+      if (toModify.forkIndex == last) {
+        // a key ending at toModify can't exist yet, as every earlier key is smaller
+        toModify.terminates[bit] = _toAdd;
+      } else if (toModify.children[bit] == null) {
+        toModify.children[bit] = toModify.newLeaf(_toAdd, toModify);
+        rightmost.push(toModify.children[bit]);
+      } else {
+        // the child is the subtree just popped off the path, which holds previous
+        Node child = toModify.children[bit];
+        Node splice = toModify.newNode(j, toModify);
+        splice.children[previous.bitAt(j)] = child;
+        child.parent = splice;
+        toModify.children[bit] = splice;
+        rightmost.push(splice);
+
+        if (j == last) {
+          splice.terminates[_toAdd.bitAt(j)] = _toAdd;
+        } else {
+          splice.children[_toAdd.bitAt(j)] = splice.newLeaf(_toAdd, splice);
+          rightmost.push(splice.children[_toAdd.bitAt(j)]);
+        }
+      }
+
+      previous = _toAdd;
+      return true;
     }
 
-    return pointer;
+    /**
+     * Finish loading. The loader must not be used afterwards.
+     *
+     * @return root of the loaded tree
+     */
+    protected Node finish() {
+      Node ret = null;
+      while (!rightmost.isEmpty()) {
+        ret = rightmost.pop();
+        ret.finishSize();
+      }
+
+      return ret;
+    }
+  }
+
+  /** Set the size of this node from its terminal keys and the sizes of its children. */
+  private void finishSize() {
+    size = notNullSize(terminates);
+    for (Node n : children) {
+      if (n != null) size += n.size;
+    }
+  }
+
+  /**
+   * KeySpliterator walks a set of subtrees in lexicographic order using an explicit stack,
+   * expanding one node at a time so that only the keys actually consumed are visited. It splits
+   * along node boundaries, using the sizes kept in each node to hand off as close to half of the
+   * remaining keys as possible, so parallel traversals stay balanced even on lopsided trees.
+   */
+  static class KeySpliterator implements Spliterator<BitKey> {
+    private static final int CHARACTERISTICS =
+        Spliterator.ORDERED
+            | Spliterator.DISTINCT
+            | Spliterator.NONNULL
+            | Spliterator.SIZED
+            | Spliterator.SUBSIZED;
+
+    // pending keys and subtrees, with the next one in order on top
+    private final ArrayDeque<Object> stack = new ArrayDeque<>();
+
+    // number of keys left to visit
+    private long remaining;
+
+    /**
+     * Schedule a key or subtree to be visited before everything already pending.
+     *
+     * @param _item a BitKey, a Node, or null for nothing
+     */
+    private void push(Object _item) {
+      if (_item == null) return;
+      stack.push(_item);
+      remaining += sizeOf(_item);
+    }
+
+    /** Replace the subtree on top of the stack with its terminal keys and children, in order. */
+    private void expandTop() {
+      Node n = (Node) stack.pop();
+      remaining -= n.size;
+      for (int i = Constants.NODE_NUM_CHILDREN - 1; i >= 0; i--) {
+        push(n.children[i]);
+        push(n.terminates[i]);
+      }
+    }
+
+    /**
+     * @param _item a BitKey or a Node
+     * @return number of keys _item stands for
+     */
+    private static long sizeOf(Object _item) {
+      return _item instanceof Node ? ((Node) _item).size : 1;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super BitKey> _action) {
+      // expand subtrees until a key is on top: a terminal key of a node is a prefix of every key
+      // on the same side of the fork, so it comes first
+      while (!stack.isEmpty() && stack.peek() instanceof Node) expandTop();
+      if (stack.isEmpty()) return false;
+
+      remaining--;
+      _action.accept((BitKey) stack.pop());
+      return true;
+    }
+
+    @Override
+    public Spliterator<BitKey> trySplit() {
+      if (remaining < 2) return null;
+
+      // hand off the earlier items, keeping their order, until half of the keys are handed off;
+      // a subtree that would overshoot is opened up first
+      long target = remaining >>> 1;
+      KeySpliterator ret = new KeySpliterator();
+      while (ret.remaining < target) {
+        Object top = stack.peek();
+        long topSize = sizeOf(top);
+        if (ret.remaining + topSize > target && top instanceof Node) {
+          expandTop();
+          continue;
+        }
+
+        stack.pop();
+        remaining -= topSize;
+        ret.stack.addLast(top);
+        ret.remaining += topSize;
+      }
+
+      return ret;
+    }
+
+    @Override
+    public long estimateSize() {
+      return remaining;
+    }
+
+    @Override
+    public int characteristics() {
+      return CHARACTERISTICS;
+    }
+  }
+
+  /**
+   * MatchSpliterator walks the keys of a subtree that an automaton accepts, in lexicographic order.
+   * Each pending key or subtree carries the automaton's run over the bytes its keys share with the
+   * rest of the walk, and a subtree is expanded by feeding the run the bytes shared below it, which
+   * are read from any of its keys. It does not split, since the number of matches is not known.
+   */
+  private static class MatchSpliterator implements Spliterator<BitKey> {
+    private static final int CHARACTERISTICS =
+        Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL;
+
+    // pending keys and subtrees, with the next one in order on top, and their runs
+    private final ArrayDeque<Object> stack = new ArrayDeque<>();
+    private final ArrayDeque<Automaton.Run<?>> runs = new ArrayDeque<>();
+
+    // bytes of the keys on the current path, as far as they are known
+    private byte[] buffer = new byte[Constants.NODE_MATCH_INITIAL_KEY_BYTES];
+
+    /**
+     * @param _item a BitKey, a Node, or null for nothing
+     * @param _run run over the bytes before _item
+     */
+    private void push(Object _item, Automaton.Run<?> _run) {
+      if (_item == null) return;
+      stack.push(_item);
+      runs.push(_run);
+    }
+
+    /**
+     * Copy bytes of a key into the buffer.
+     *
+     * @param _key key to copy from
+     * @param _from index of the first byte to copy
+     * @param _to index after the last byte to copy
+     */
+    private void copy(BitKey _key, int _from, int _to) {
+      if (_to > buffer.length) buffer = Arrays.copyOf(buffer, Math.max(_to, 2 * buffer.length));
+      for (int i = _from; i < _to; i++) buffer[i] = (byte) _key.byteAt(i);
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super BitKey> _action) {
+      while (!stack.isEmpty()) {
+        Object item = stack.pop();
+        Automaton.Run<?> run = runs.pop();
+        if (item instanceof BitKey) {
+          BitKey key = (BitKey) item;
+          int len = key.length() / Constants.UTILS_CHAR_BITLEN;
+          copy(key, run.fed(), len);
+          if (run.feed(buffer, len) && run.accepts()) {
+            _action.accept(key);
+            return true;
+          }
+          continue;
+        }
+
+        // the keys below n share their first forkIndex bits, so the bytes before the one holding
+        // the fork are known
+        Node n = (Node) item;
+        int shared = n.forkIndex / Constants.UTILS_CHAR_BITLEN;
+        if (shared > run.fed()) {
+          copy(n.firstTerminal(), run.fed(), shared);
+          if (!run.feed(buffer, shared)) continue;
+        }
+        for (int i = Constants.NODE_NUM_CHILDREN - 1; i >= 0; i--) {
+          push(n.children[i], run.copy());
+          push(n.terminates[i], run.copy());
+        }
+      }
+
+      return false;
+    }
+
+    @Override
+    public Spliterator<BitKey> trySplit() {
+      return null;
+    }
+
+    @Override
+    public long estimateSize() {
+      return Long.MAX_VALUE;
+    }
+
+    @Override
+    public int characteristics() {
+      return CHARACTERISTICS;
+    }
+  }
+
+  /**
+   * SetOperation names a set operation by the keys it keeps: those only in the left tree, those
+   * only in the right tree, and those in both.
+   */
+  enum SetOperation {
+    UNION(true, true, true),
+    INTERSECTION(false, false, true),
+    DIFFERENCE(true, false, false);
+
+    private final boolean keepsLeft;
+    private final boolean keepsRight;
+    private final boolean keepsBoth;
+
+    SetOperation(boolean _keepsLeft, boolean _keepsRight, boolean _keepsBoth) {
+      keepsLeft = _keepsLeft;
+      keepsRight = _keepsRight;
+      keepsBoth = _keepsBoth;
+    }
+
+    /**
+     * @param _inLeft whether a key is in the left tree
+     * @param _inRight whether the key is in the right tree
+     * @return whether the result of the operation holds the key
+     */
+    protected boolean keeps(boolean _inLeft, boolean _inRight) {
+      if (_inLeft && _inRight) return keepsBoth;
+      return _inLeft ? keepsLeft : _inRight && keepsRight;
+    }
+  }
+
+  /**
+   * Merge merges a pair of subtrees with an explicit stack of frames, one per pair of subtrees
+   * being merged, so that deep trees do not overflow the call stack. A frame builds its merged node
+   * once the frames of its children are done. When running in a ForkJoinPool and both pairs of
+   * children hold at least Constants.NODE_MERGE_FORK_SIZE keys, the smaller pair is forked as a
+   * task of its own instead, and joined when the frame is built.
+   */
+  static class Merge extends RecursiveTask<Node> {
+    private static final long serialVersionUID = 1L;
+
+    private final Frame top;
+    private final SetOperation op;
+
+    /**
+     * Construct a new Merge of two subtrees.
+     *
+     * @param _top frame of the two subtrees, with no parent
+     * @param _op set operation to apply
+     */
+    protected Merge(Frame _top, SetOperation _op) {
+      top = _top;
+      op = _op;
+    }
+
+    /** @return root of the merged subtree, with no parent, or null if it is empty */
+    @Override
+    protected Node compute() {
+      ArrayDeque<Frame> stack = new ArrayDeque<>();
+      stack.push(top);
+      while (!stack.isEmpty()) {
+        Frame frame = stack.peek();
+        if (!frame.expanded) {
+          expand(frame, stack);
+          continue;
+        }
+
+        stack.pop();
+        Node merged = frame.finish();
+        if (frame.parent != null) frame.parent.out.children[frame.slot] = merged;
+        else return merged;
+      }
+
+      throw new IllegalStateException("merge ended without a result");
+    }
+
+    /**
+     * Start merging a pair of subtrees: settle it at once if one is empty or their keys part before
+     * either forks, otherwise create the merged node with its terminal keys and start merging each
+     * pair of children.
+     *
+     * @param _frame frame of the pair
+     * @param _stack stack to push the frames of child pairs on
+     */
+    private void expand(Frame _frame, ArrayDeque<Frame> _stack) {
+      _frame.expanded = true;
+      Node a = _frame.left;
+      Node b = _frame.right;
+      if (a == null || b == null) {
+        _frame.out = settle(a, b);
+        return;
+      }
+
+      // keys are only looked up to check bits that neither parent forked on, or to find a branch
+      BitKey ka = _frame.leftKey;
+      BitKey kb = _frame.rightKey;
+      int m = Math.min(a.forkIndex, b.forkIndex);
+      if (m > _frame.agreed) {
+        if (ka == null) ka = a.firstTerminal();
+        if (kb == null) kb = b.firstTerminal();
+        m = Math.min(m, ka.mismatch(kb));
+      }
+      if (m < Math.min(a.forkIndex, b.forkIndex)) {
+        // no key in common: keep either subtree whole, under a new fork where they part
+        Node l = op.keepsLeft ? copy(a) : null;
+        Node r = op.keepsRight ? copy(b) : null;
+        if (l == null || r == null) {
+          _frame.out = l == null ? r : l;
+          return;
+        }
+        _frame.out = new Node(m, null);
+        _frame.out.children[ka.bitAt(m)] = l;
+        _frame.out.children[kb.bitAt(m)] = r;
+        _frame.building = true;
+        return;
+      }
+
+      _frame.building = true;
+      int agreed = m + 1;
+      if (a.forkIndex == b.forkIndex) {
+        _frame.out = new Node(a.forkIndex, null);
+        for (int i = 0; i < Constants.NODE_NUM_CHILDREN; i++) {
+          BitKey ta = a.terminates[i];
+          BitKey tb = b.terminates[i];
+          if (ta != null && tb != null) _frame.out.terminates[i] = op.keepsBoth ? ta : null;
+          else if (ta != null) _frame.out.terminates[i] = op.keepsLeft ? ta : null;
+          else if (tb != null) _frame.out.terminates[i] = op.keepsRight ? tb : null;
+        }
+        // fork the smaller pair of children when both are large, so that a task forked inside
+        // a forked task holds at most half of its keys, and joins nest only logarithmically deep
+        int size0 = pairSize(a.children[0], b.children[0]);
+        int size1 = pairSize(a.children[1], b.children[1]);
+        int fork =
+            Math.min(size0, size1) >= Constants.NODE_MERGE_FORK_SIZE
+                    && ForkJoinTask.inForkJoinPool()
+                ? (size0 < size1 ? 0 : 1)
+                : -1;
+        for (int i = 0; i < Constants.NODE_NUM_CHILDREN; i++) {
+          start(
+              _frame,
+              i,
+              a.children[i],
+              childKey(a, ka, i),
+              b.children[i],
+              childKey(b, kb, i),
+              agreed,
+              i == fork,
+              _stack);
+        }
+      } else if (a.forkIndex < b.forkIndex) {
+        // every key of b takes the same branch at a's fork, and none ends there
+        _frame.out = new Node(a.forkIndex, null);
+        if (kb == null) kb = b.firstTerminal();
+        int branch = kb.bitAt(a.forkIndex);
+        for (int i = 0; i < Constants.NODE_NUM_CHILDREN; i++) {
+          if (op.keepsLeft) _frame.out.terminates[i] = a.terminates[i];
+          Node other = i == branch ? b : null;
+          BitKey otherKey = i == branch ? kb : null;
+          BitKey key = childKey(a, ka, i);
+          start(_frame, i, a.children[i], key, other, otherKey, agreed, false, _stack);
+        }
+      } else {
+        _frame.out = new Node(b.forkIndex, null);
+        if (ka == null) ka = a.firstTerminal();
+        int branch = ka.bitAt(b.forkIndex);
+        for (int i = 0; i < Constants.NODE_NUM_CHILDREN; i++) {
+          if (op.keepsRight) _frame.out.terminates[i] = b.terminates[i];
+          Node other = i == branch ? a : null;
+          BitKey otherKey = i == branch ? ka : null;
+          BitKey key = childKey(b, kb, i);
+          start(_frame, i, other, otherKey, b.children[i], key, agreed, false, _stack);
+        }
+      }
+    }
+
+    /**
+     * Start merging a pair of children of a frame's subtrees: settle it at once if either is
+     * empty, otherwise fork it or push a frame for it.
+     *
+     * @param _parent frame the pair belongs to
+     * @param _slot index of the merged child in _parent's merged node
+     * @param _left left child, or null
+     * @param _leftKey a key below _left, or null if not known yet
+     * @param _right right child, or null
+     * @param _rightKey a key below _right, or null if not known yet
+     * @param _agreed number of leading bits the keys of both children are known to agree on
+     * @param _fork true to merge the pair in a forked task
+     * @param _stack stack to push the frame on
+     */
+    private void start(
+        Frame _parent,
+        int _slot,
+        Node _left,
+        BitKey _leftKey,
+        Node _right,
+        BitKey _rightKey,
+        int _agreed,
+        boolean _fork,
+        ArrayDeque<Frame> _stack) {
+      if (_left == null || _right == null) {
+        _parent.out.children[_slot] = settle(_left, _right);
+      } else if (_fork) {
+        if (_parent.forked == null) _parent.forked = new Merge[Constants.NODE_NUM_CHILDREN];
+        Frame top = new Frame(_left, _leftKey, _right, _rightKey, _agreed, null, 0);
+        _parent.forked[_slot] = new Merge(top, op);
+        _parent.forked[_slot].fork();
+      } else {
+        _stack.push(new Frame(_left, _leftKey, _right, _rightKey, _agreed, _parent, _slot));
+      }
+    }
+
+    /**
+     * @param _left left subtree, or null
+     * @param _right right subtree, or null
+     * @return number of keys in both subtrees
+     */
+    private static int pairSize(Node _left, Node _right) {
+      return (_left == null ? 0 : _left.size) + (_right == null ? 0 : _right.size);
+    }
+
+    /**
+     * @param _left left subtree, or null
+     * @param _right right subtree, or null
+     * @return merge of two subtrees of which at least one is empty
+     */
+    private Node settle(Node _left, Node _right) {
+      if (_left != null) return op.keepsLeft ? copy(_left) : null;
+      if (_right != null) return op.keepsRight ? copy(_right) : null;
+      return null;
+    }
+  }
+
+  /**
+   * Frame is a pair of subtrees being merged or compared, with a key below each once one is looked
+   * up, and the node they are merged into.
+   */
+  private static class Frame {
+    private final Node left;
+    private final BitKey leftKey;
+    private final Node right;
+    private final BitKey rightKey;
+    private final int agreed;
+
+    // frame whose merged node takes this frame's result as the child at slot, or null at the top
+    private final Frame parent;
+    private final int slot;
+
+    // children merged in forked tasks, to be joined when the merged node is finished, or null if
+    // none were forked
+    private Merge[] forked;
+
+    // merged subtree, or the node being built when building is true
+    private Node out;
+    private boolean building;
+    private boolean expanded;
+
+    /**
+     * Construct a new Frame.
+     *
+     * @param _left left subtree, or null if empty
+     * @param _leftKey a key below _left, or null if not known yet
+     * @param _right right subtree, or null if empty
+     * @param _rightKey a key below _right, or null if not known yet
+     * @param _agreed number of leading bits the keys of both subtrees are known to agree on
+     * @param _parent frame to hand the merged subtree to, or null
+     * @param _slot index of the merged subtree in _parent's merged node
+     */
+    private Frame(
+        Node _left,
+        BitKey _leftKey,
+        Node _right,
+        BitKey _rightKey,
+        int _agreed,
+        Frame _parent,
+        int _slot) {
+      left = _left;
+      leftKey = _leftKey;
+      right = _right;
+      rightKey = _rightKey;
+      agreed = _agreed;
+      parent = _parent;
+      slot = _slot;
+    }
+
+    /**
+     * Finish the merged node once its children are merged, dropping it if it ends up empty and
+     * replacing it with its child if that is all it holds.
+     *
+     * @return merged subtree, with no parent, or null if it is empty
+     */
+    private Node finish() {
+      if (!building) return out;
+
+      int numTerminals = out.notNullSize(out.terminates);
+      out.size = numTerminals;
+      for (int i = 0; i < Constants.NODE_NUM_CHILDREN; i++) {
+        if (forked != null && forked[i] != null) out.children[i] = forked[i].join();
+        if (out.children[i] != null) {
+          out.children[i].parent = out;
+          out.size += out.children[i].size;
+        }
+      }
+
+      if (numTerminals > 0) return out;
+      int numChildren = out.notNullSize(out.children);
+      if (numChildren == 0) return null;
+      if (numChildren == 1) {
+        Node child = firstNotNull(out.children);
+        child.parent = null;
+        return child;
+      }
+      return out;
+    }
+  }
+
+  /**
+   * Locate the terminal node for comparison and/or removal of _toRemove. Also used to search for a
+   * bit key to check if the tree contains it in the findChild() method
+   *
+   * @param _toRemove bit key to be used to search for a location to remove it from the tree
+   * @return the only Node that could hold _toRemove, or null if there is none
+   */
+  private Node locateRemoveChild(BitKey _toRemove) {
+    int last = _toRemove.length() - 1;
+    Node pointer = this;
+    while (pointer.forkIndex < last) {
+      pointer = pointer.children[_toRemove.bitAt(pointer.forkIndex)];
+      if (pointer == null) return null;
+    }
+
+    return pointer.forkIndex == last ? pointer : null;
   }
 }
@@ -0,0 +1,582 @@
+/*
+ * Copyright (c) 2017-2018 Aditya Saligrama.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO
+ * EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES
+ * OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.saligrama.patricia;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * NodeArray is a storage engine for a Patricia tree that keeps its nodes as fixed-width records in
+ * a single int array rather than as objects. It implements the same algorithms as Node.
+ *
+ * <p>Each record holds a node's forkIndex, the indexes of its two children and references to its
+ * two terminal keys, with 0 standing for none; the root is record 0, which is never anyone's
+ * child. Terminal keys are stored back to back in a byte arena, and as a terminal key is always
+ * forkIndex+1 bits long, a reference is just its offset in the arena plus one. Records of removed
+ * nodes are reused, and the arena is compacted once most of it belongs to removed keys.
+ *
+ * <p>Without per-node headers, child and key arrays and BitKey objects a tree takes a fraction of
+ * the memory of a Node tree, and the garbage collector sees three arrays instead of millions of
+ * objects.
+ *
+ * @author Aditya Saligrama
+ * @version 1.0
+ */
+class NodeArray {
+  // reads eight arena bytes at once, for comparing keys a word at a time like BitKey.mismatch
+  private static final VarHandle LONGS =
+      MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+  private int[] nodes;
+
+  // number of records in use or on the free list
+  private int numNodes;
+
+  // first record on the free list, 0 if none; a free record's fork slot links to the next
+  private int freeNode;
+
+  // terminal keys, followed by at least NODEARRAY_KEY_PADDING bytes so a word can be read anywhere
+  private byte[] keys;
+  private int keysEnd;
+  private int deadKeyBytes;
+
+  // records on the path from the root to the node found by the last locate(), root first
+  private int[] path;
+  private int depth;
+
+  /** Construct a new NodeArray holding an empty root. */
+  protected NodeArray() {
+    nodes = new int[Constants.NODEARRAY_INITIAL_NODES * Constants.NODEARRAY_RECORD_LEN];
+    numNodes = 1;
+    keys = new byte[Constants.NODEARRAY_INITIAL_KEY_BYTES + Constants.NODEARRAY_KEY_PADDING];
+    path = new int[Constants.NODEARRAY_INITIAL_NODES];
+  }
+
+  /**
+   * Check if a key exists below the root.
+   *
+   * @param _toFind key to search for
+   * @return true if _toFind exists, false if it does not
+   */
+  protected boolean findChild(BitKey _toFind) {
+    int last = _toFind.length() - 1;
+    int pointer = 0;
+    while (forkIndex(pointer) < last) {
+      pointer = child(pointer, _toFind.bitAt(forkIndex(pointer)));
+      if (pointer == 0) return false;
+    }
+
+    if (forkIndex(pointer) != last) return false;
+    int key = terminal(pointer, _toFind.bitAt(last));
+    return key != 0 && mismatch(key, last + 1, _toFind) == _toFind.length();
+  }
+
+  /**
+   * Check if the UTF-8 encoding of a string exists below the root, reading its characters in place
+   * as Node.findChild(CharSequence) does. Does not allocate.
+   *
+   * @param _toFind string to search for
+   * @return true if _toFind exists, false if it does not
+   */
+  protected boolean findChild(CharSequence _toFind) {
+    int last = Utils.utf8Length(_toFind) * Constants.UTILS_CHAR_BITLEN - 1;
+    long cursor = 0;
+    int pointer = 0;
+    while (forkIndex(pointer) < last) {
+      cursor = Utils.seek(_toFind, cursor, forkIndex(pointer) / Constants.UTILS_CHAR_BITLEN);
+      pointer = child(pointer, Utils.bitAt(_toFind, cursor, forkIndex(pointer)));
+      if (pointer == 0) return false;
+    }
+
+    if (forkIndex(pointer) != last) return false;
+    cursor = Utils.seek(_toFind, cursor, last / Constants.UTILS_CHAR_BITLEN);
+    int key = terminal(pointer, Utils.bitAt(_toFind, cursor, last));
+    if (key == 0) return false;
+
+    int ndx = key - 1;
+    for (int i = 0; i < _toFind.length(); ) {
+      int codePoint = Utils.codePointAt(_toFind, i);
+      int codePointBytes = Utils.utf8Length(codePoint);
+      for (int k = 0; k < codePointBytes; k++) {
+        if ((keys[ndx++] & 0xFF) != Utils.utf8Byte(codePoint, codePointBytes, k)) return false;
+      }
+      i += Character.charCount(codePoint);
+    }
+
+    return true;
+  }
+
+  /**
+   * Check if a key given as bytes exists below the root. Does not allocate.
+   *
+   * @param _toFind array holding the key
+   * @param _off index of the key's first byte
+   * @param _len number of bytes in the key
+   * @return true if the key exists, false if it does not
+   */
+  protected boolean findChild(byte[] _toFind, int _off, int _len) {
+    int last = _len * Byte.SIZE - 1;
+    int pointer = 0;
+    while (forkIndex(pointer) < last) {
+      pointer = child(pointer, Utils.bitAt(_toFind, _off, forkIndex(pointer)));
+      if (pointer == 0) return false;
+    }
+
+    if (forkIndex(pointer) != last) return false;
+    int key = terminal(pointer, Utils.bitAt(_toFind, _off, last));
+    return key != 0 && Arrays.equals(keys, key - 1, key - 1 + _len, _toFind, _off, _off + _len);
+  }
+
+  /**
+   * Check if the remaining bytes of a buffer exist as a key below the root. Does not allocate.
+   *
+   * @param _toFind buffer whose bytes between position and limit are the key
+   * @return true if the key exists, false if it does not
+   */
+  protected boolean findChild(ByteBuffer _toFind) {
+    int last = _toFind.remaining() * Byte.SIZE - 1;
+    int pointer = 0;
+    while (forkIndex(pointer) < last) {
+      pointer = child(pointer, Utils.bitAt(_toFind, forkIndex(pointer)));
+      if (pointer == 0) return false;
+    }
+
+    if (forkIndex(pointer) != last) return false;
+    int key = terminal(pointer, Utils.bitAt(_toFind, last));
+    if (key == 0) return false;
+    for (int i = 0; i < _toFind.remaining(); i++) {
+      if (keys[key - 1 + i] != _toFind.get(_toFind.position() + i)) return false;
+    }
+
+    return true;
+  }
+
+  /**
+   * Add a key below the root, as Node.addChild does.
+   *
+   * @param _toAdd key to add
+   * @return true if _toAdd was added, false if it already existed
+   */
+  protected boolean addChild(BitKey _toAdd) {
+    int last = _toAdd.length() - 1;
+    locate(_toAdd, false);
+
+    // any key below the last node reached shares its bits up to that node's fork, so it tells
+    // where _toAdd branches off
+    int holder = firstTerminal(path[depth - 1]);
+    int comp = holder < 0 ? 0 : anyTerminal(holder);
+    int j = comp == 0 ? last : Math.min(mismatch(comp, forkIndex(holder) + 1, _toAdd), last);
+
+    // walk back up to the deepest node that forks at or before j
+    int i = depth - 1;
+    while (i > 0 && forkIndex(path[i]) > j) i--;
+    int toModify = path[i];
+    int bit = _toAdd.bitAt(forkIndex(toModify));
+
+    if (forkIndex(toModify) == last) {
+      if (terminal(toModify, bit) != 0) return false;
+      setTerminal(toModify, bit, storeKey(_toAdd));
+      return true;
+    }
+
+    int child = child(toModify, bit);
+    if (child == 0) {
+      setChild(toModify, bit, newLeaf(_toAdd));
+      return true;
+    }
+
+    // splice a node forking at j between toModify and child
+    int splice = newNode(j);
+    setChild(splice, bitAt(comp, j), child);
+    if (j == last) {
+      setTerminal(splice, _toAdd.bitAt(j), storeKey(_toAdd));
+    } else {
+      setChild(splice, _toAdd.bitAt(j), newLeaf(_toAdd));
+    }
+    setChild(toModify, bit, splice);
+    return true;
+  }
+
+  /**
+   * Remove a key from below the root, merging away nodes left with no keys and at most one child
+   * as Node.removeChild does.
+   *
+   * @param _toRemove key to remove
+   * @return true if _toRemove was removed, false if it did not exist
+   */
+  protected boolean removeChild(BitKey _toRemove) {
+    int last = _toRemove.length() - 1;
+    if (!locate(_toRemove, true)) return false;
+    int located = path[depth - 1];
+    if (forkIndex(located) != last) return false;
+
+    int bit = _toRemove.bitAt(last);
+    int key = terminal(located, bit);
+    if (key == 0 || mismatch(key, last + 1, _toRemove) != _toRemove.length()) return false;
+    setTerminal(located, bit, 0);
+    releaseKey(last);
+
+    if (located == 0 || numTerminals(located) > 0) return true;
+    int parent = path[depth - 2];
+    int numChildren = numChildren(located);
+    if (numChildren == 0) {
+      setChild(parent, _toRemove.bitAt(forkIndex(parent)), 0);
+      freeNode(located);
+
+      // the parent may now be a non-root node with no keys and only one child
+      if (parent != 0 && numTerminals(parent) == 0 && numChildren(parent) == 1) {
+        int grandParent = path[depth - 3];
+        setChild(grandParent, _toRemove.bitAt(forkIndex(grandParent)), onlyChild(parent));
+        freeNode(parent);
+      }
+    } else if (numChildren == 1) {
+      setChild(parent, _toRemove.bitAt(forkIndex(parent)), onlyChild(located));
+      freeNode(located);
+    }
+
+    return true;
+  }
+
+  /**
+   * Iterate over the keys below the root in order.
+   *
+   * @return iterator over the decoded keys
+   */
+  protected Iterator<String> iterator() {
+    KeyIterator ret = new KeyIterator();
+    ret.pushNode(0);
+    return ret;
+  }
+
+  /**
+   * Iterate over the keys starting with a prefix in order, as Node.prefixSpliterator does.
+   *
+   * @param _prefix prefix to search for
+   * @return iterator over the decoded keys starting with _prefix
+   */
+  protected Iterator<String> prefixIterator(BitKey _prefix) {
+    int last = _prefix.length() - 1;
+    KeyIterator ret = new KeyIterator();
+    int pointer = 0;
+    while (forkIndex(pointer) < last) {
+      pointer = child(pointer, _prefix.bitAt(forkIndex(pointer)));
+      if (pointer == 0) return ret;
+    }
+
+    if (forkIndex(pointer) == last) {
+      int bit = _prefix.bitAt(last);
+      if (child(pointer, bit) != 0) ret.pushNode(child(pointer, bit));
+      if (terminal(pointer, bit) != 0) ret.pushKey(terminal(pointer, bit), last);
+    } else {
+      ret.pushNode(pointer);
+    }
+
+    // the bits between forks were skipped on the way down, so check them against the first key
+    if (ret.hasNext()
+        && mismatch(ret.peekKey(), ret.peekKeyFork() + 1, _prefix) < _prefix.length()) {
+      return new KeyIterator();
+    }
+    return ret;
+  }
+
+  /**
+   * Descend towards a key, recording the nodes passed in path.
+   *
+   * @param _key key to descend towards
+   * @param _exact true to fail if a child on the way is missing
+   * @return false if _exact and a child on the way was missing, true otherwise
+   */
+  private boolean locate(BitKey _key, boolean _exact) {
+    int last = _key.length() - 1;
+    int pointer = 0;
+    depth = 0;
+    pushPath(pointer);
+    while (forkIndex(pointer) < last) {
+      int next = child(pointer, _key.bitAt(forkIndex(pointer)));
+      if (next == 0) return !_exact;
+      pointer = next;
+      pushPath(pointer);
+    }
+
+    return true;
+  }
+
+  private void pushPath(int _node) {
+    if (depth == path.length) path = Arrays.copyOf(path, depth * 2);
+    path[depth++] = _node;
+  }
+
+  /**
+   * Count the bits a stored key shares with another key, comparing a word at a time.
+   *
+   * @param _key reference to the stored key
+   * @param _keyLen length of the stored key in bits
+   * @param _other key to compare with
+   * @return index of the first differing bit, or the shorter length if one is a prefix of the
+   *     other
+   */
+  private int mismatch(int _key, int _keyLen, BitKey _other) {
+    int min = Math.min(_keyLen, _other.length());
+    int numWords = (min + Constants.BITKEY_WORD_MASK) >>> Constants.BITKEY_WORD_SHIFT;
+    for (int w = 0; w < numWords; w++) {
+      // the word may run into the next key or the padding; a difference there is past min
+      long diff = (long) LONGS.get(keys, _key - 1 + w * Long.BYTES) ^ _other.word(w);
+      if (diff != 0) {
+        return Math.min(
+            (w << Constants.BITKEY_WORD_SHIFT) + Long.numberOfLeadingZeros(diff), min);
+      }
+    }
+
+    return min;
+  }
+
+  /**
+   * @param _key reference to a stored key
+   * @param _index index of the bit
+   * @return bit of the stored key at _index
+   */
+  private int bitAt(int _key, int _index) {
+    return (keys[_key - 1 + (_index >>> 3)] >>> (~_index & 7)) & 1;
+  }
+
+  /**
+   * @param _node index of a node record
+   * @return index of the first node on the leftmost path from _node that has a terminal key, or -1
+   *     if there is none
+   */
+  private int firstTerminal(int _node) {
+    int pointer = _node;
+    while (numTerminals(pointer) == 0) {
+      pointer = onlyChild(pointer);
+      if (pointer == 0) return -1;
+    }
+    return pointer;
+  }
+
+  /**
+   * @param _node index of a node record with at least one terminal key
+   * @return reference to the node's left terminal key if it has one, otherwise its right one
+   */
+  private int anyTerminal(int _node) {
+    return terminal(_node, 0) != 0 ? terminal(_node, 0) : terminal(_node, 1);
+  }
+
+  private int newLeaf(BitKey _key) {
+    int last = _key.length() - 1;
+    int ret = newNode(last);
+    setTerminal(ret, _key.bitAt(last), storeKey(_key));
+    return ret;
+  }
+
+  /**
+   * @param _forkIndex forkIndex of the new node
+   * @return index of a cleared record, taken from the free list if possible
+   */
+  private int newNode(int _forkIndex) {
+    int ret;
+    if (freeNode != 0) {
+      ret = freeNode;
+      freeNode = forkIndex(ret);
+    } else {
+      if ((numNodes + 1) * Constants.NODEARRAY_RECORD_LEN > nodes.length) {
+        nodes = Arrays.copyOf(nodes, nodes.length * 2);
+      }
+      ret = numNodes++;
+    }
+
+    int off = ret * Constants.NODEARRAY_RECORD_LEN;
+    Arrays.fill(nodes, off, off + Constants.NODEARRAY_RECORD_LEN, 0);
+    nodes[off + Constants.NODEARRAY_FORK] = _forkIndex;
+    return ret;
+  }
+
+  private void freeNode(int _node) {
+    nodes[_node * Constants.NODEARRAY_RECORD_LEN + Constants.NODEARRAY_FORK] = freeNode;
+    freeNode = _node;
+  }
+
+  /**
+   * Copy a key to the end of the arena.
+   *
+   * @param _key key to store
+   * @return reference to the stored key
+   */
+  private int storeKey(BitKey _key) {
+    int numBytes = Utils.terminalBytes(_key.length() - 1);
+    int needed = keysEnd + numBytes + Constants.NODEARRAY_KEY_PADDING;
+    if (needed > keys.length) keys = Arrays.copyOf(keys, Math.max(needed, keys.length * 2));
+    for (int i = 0; i < numBytes; i++) keys[keysEnd + i] = (byte) _key.byteAt(i);
+
+    int ret = keysEnd + 1;
+    keysEnd += numBytes;
+    return ret;
+  }
+
+  /**
+   * Account for a key dropped from its node, compacting the arena if most of it is dead.
+   *
+   * @param _forkIndex forkIndex of the node that held the key
+   */
+  private void releaseKey(int _forkIndex) {
+    deadKeyBytes += Utils.terminalBytes(_forkIndex);
+    if (deadKeyBytes > keysEnd / 2 && keysEnd > Constants.NODEARRAY_INITIAL_KEY_BYTES) {
+      compactKeys();
+    }
+  }
+
+  /** Copy the live keys into a fresh arena, updating references to them. */
+  private void compactKeys() {
+    int liveBytes = keysEnd - deadKeyBytes;
+    byte[] compacted = new byte[liveBytes * 2 + Constants.NODEARRAY_KEY_PADDING];
+    int end = 0;
+
+    int[] stack = new int[Constants.NODEARRAY_INITIAL_NODES];
+    int top = 0;
+    stack[top++] = 0;
+    while (top > 0) {
+      int node = stack[--top];
+      int numBytes = Utils.terminalBytes(forkIndex(node));
+      for (int i = 0; i < Constants.NODE_NUM_CHILDREN; i++) {
+        int key = terminal(node, i);
+        if (key != 0) {
+          System.arraycopy(keys, key - 1, compacted, end, numBytes);
+          setTerminal(node, i, end + 1);
+          end += numBytes;
+        }
+        if (child(node, i) != 0) {
+          if (top == stack.length) stack = Arrays.copyOf(stack, top * 2);
+          stack[top++] = child(node, i);
+        }
+      }
+    }
+
+    keys = compacted;
+    keysEnd = end;
+    deadKeyBytes = 0;
+  }
+
+  private int forkIndex(int _node) {
+    return nodes[_node * Constants.NODEARRAY_RECORD_LEN + Constants.NODEARRAY_FORK];
+  }
+
+  private int child(int _node, int _index) {
+    return nodes[_node * Constants.NODEARRAY_RECORD_LEN + Constants.NODEARRAY_CHILD + _index];
+  }
+
+  private void setChild(int _node, int _index, int _child) {
+    nodes[_node * Constants.NODEARRAY_RECORD_LEN + Constants.NODEARRAY_CHILD + _index] = _child;
+  }
+
+  private int terminal(int _node, int _index) {
+    return nodes[_node * Constants.NODEARRAY_RECORD_LEN + Constants.NODEARRAY_TERMINAL + _index];
+  }
+
+  private void setTerminal(int _node, int _index, int _key) {
+    nodes[_node * Constants.NODEARRAY_RECORD_LEN + Constants.NODEARRAY_TERMINAL + _index] = _key;
+  }
+
+  private int numTerminals(int _node) {
+    return (terminal(_node, 0) != 0 ? 1 : 0) + (terminal(_node, 1) != 0 ? 1 : 0);
+  }
+
+  private int numChildren(int _node) {
+    return (child(_node, 0) != 0 ? 1 : 0) + (child(_node, 1) != 0 ? 1 : 0);
+  }
+
+  /**
+   * @param _node index of a node record
+   * @return the node's left child if it has one, otherwise its right child or 0
+   */
+  private int onlyChild(int _node) {
+    return child(_node, 0) != 0 ? child(_node, 0) : child(_node, 1);
+  }
+
+  /**
+   * KeyIterator walks node records in order with an explicit stack, like
+   * MappedPatriciaTree.RecordIterator does with snapshot records.
+   */
+  private class KeyIterator implements Iterator<String> {
+    // pending node indexes and key references, with the next one in order on top
+    private int[] items = new int[16];
+
+    // -1 for a node, otherwise the forkIndex of the node holding the key
+    private int[] forks = new int[16];
+
+    private int top;
+
+    private void pushNode(int _node) {
+      push(_node, -1);
+    }
+
+    private void pushKey(int _key, int _fork) {
+      push(_key, _fork);
+    }
+
+    private void push(int _item, int _fork) {
+      if (top == items.length) {
+        items = Arrays.copyOf(items, top * 2);
+        forks = Arrays.copyOf(forks, top * 2);
+      }
+      items[top] = _item;
+      forks[top++] = _fork;
+    }
+
+    @Override
+    public boolean hasNext() {
+      // expand nodes until a key is on top
+      while (top > 0 && forks[top - 1] < 0) {
+        int node = items[--top];
+        for (int i = Constants.NODE_NUM_CHILDREN - 1; i >= 0; i--) {
+          if (child(node, i) != 0) pushNode(child(node, i));
+          if (terminal(node, i) != 0) pushKey(terminal(node, i), forkIndex(node));
+        }
+      }
+
+      return top > 0;
+    }
+
+    /** @return reference to the next key; only valid after hasNext() returned true */
+    private int peekKey() {
+      return items[top - 1];
+    }
+
+    /** @return forkIndex of the node holding the next key; only valid like peekKey() */
+    private int peekKeyFork() {
+      return forks[top - 1];
+    }
+
+    @Override
+    public String next() {
+      if (!hasNext()) throw new NoSuchElementException();
+      top--;
+      int numBytes = Utils.terminalBytes(forks[top]);
+      return new String(keys, items[top] - 1, numBytes, StandardCharsets.UTF_8);
+    }
+  }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2017-2018 Aditya Saligrama.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO
+ * EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES
+ * OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.saligrama.patricia;
+
+import java.util.Arrays;
+
+/**
+ * NodeCursor walks the terminal keys below a node one at a time, in lexicographic order of their
+ * bits or in the reverse order, and can be positioned at the first key on either side of any bit
+ * key. It is what ordered maps use to answer ceiling and floor queries and to iterate over ranges.
+ *
+ * <p>A node's keys come in the order: left terminal, left child, right terminal, right child. The
+ * cursor keeps the path to the current key as a stack of nodes, each with the index of the next of
+ * those four items to visit (the items are taken the other way round when descending), so moving
+ * to the next key allocates nothing.
+ *
+ * @author Aditya Saligrama
+ * @version 1.0
+ */
+class NodeCursor {
+  private static final int ITEMS_PER_NODE = 2 * Constants.NODE_NUM_CHILDREN;
+
+  private final boolean descending;
+
+  private Node[] nodes = new Node[16];
+  private int[] next = new int[16];
+  private int top;
+
+  // position after a successful advance()
+  private Node node;
+  private int slot;
+
+  /**
+   * Construct a NodeCursor with nothing left to visit.
+   *
+   * @param _descending true to walk keys in reverse order
+   */
+  protected NodeCursor(boolean _descending) {
+    descending = _descending;
+  }
+
+  /**
+   * Position the cursor before the first key below a node.
+   *
+   * @param _root node to walk
+   */
+  protected void start(Node _root) {
+    top = 0;
+    node = null;
+    push(_root, 0);
+  }
+
+  /**
+   * Position the cursor before the first key, in the cursor's order, that is not before a bound.
+   * Ascending, that is the first key at least _bound (ceiling); descending, the last key at most
+   * _bound (floor).
+   *
+   * @param _root node to walk
+   * @param _bound bit key to seek to
+   * @param _inclusive true if a key equal to _bound may be visited
+   * @param _wholePrefix true to treat every key starting with _bound as equal to it, which ends
+   *     ascending walks past them and starts descending walks at the last of them; _inclusive is
+   *     then ignored
+   */
+  protected void seek(Node _root, BitKey _bound, boolean _inclusive, boolean _wholePrefix) {
+    top = 0;
+    node = null;
+    int len = _bound.length();
+
+    // as in Node.addChild, a key below the deepest node on _bound's path is below every node on
+    // it, so one comparison tells how _bound relates to the shared bits of all of them
+    Node located = _root;
+    while (located.forkIndex() < len - 1) {
+      Node child = located.child(_bound.bitAt(located.forkIndex()));
+      if (child == null) break;
+      located = child;
+    }
+    BitKey rep = located.firstTerminal();
+    if (rep == null) return;
+    int m = _bound.mismatch(rep);
+
+    Node pointer = _root;
+    while (pointer != null) {
+      // every key below pointer shares its first f bits with rep
+      int f = pointer.forkIndex();
+      if (m < f || len == f) {
+        // _bound leaves the shared bits, so it is before or after every key below pointer
+        boolean allAfter = m == len ? !_wholePrefix : _bound.bitAt(m) < rep.bitAt(m);
+        if (allAfter != descending) push(pointer, 0);
+        return;
+      }
+
+      int bit = _bound.bitAt(f);
+      if (len == f + 1) {
+        // _bound is the key of the terminal at bit, and a prefix of everything in the child there
+        if (_wholePrefix) {
+          push(pointer, childItem(bit) + (descending ? 0 : 1));
+        } else {
+          push(pointer, terminalItem(bit) + (_inclusive ? 0 : 1));
+        }
+        return;
+      }
+
+      // _bound is after the terminal at bit and before the other side's keys, in key order; the
+      // child at bit holds keys on both sides of it
+      push(pointer, childItem(bit) + 1);
+      pointer = pointer.child(bit);
+    }
+  }
+
+  /**
+   * Move to the next key.
+   *
+   * @return true if there was one, false if the walk is over
+   */
+  protected boolean advance() {
+    while (top > 0) {
+      int item = next[top - 1];
+      if (item == ITEMS_PER_NODE) {
+        top--;
+        continue;
+      }
+
+      Node pointer = nodes[top - 1];
+      next[top - 1] = item + 1;
+      int bit = descending ? 1 - (item >>> 1) : item >>> 1;
+      boolean isTerminal = (item & 1) == (descending ? 1 : 0);
+      if (isTerminal) {
+        if (pointer.terminal(bit) != null) {
+          node = pointer;
+          slot = bit;
+          return true;
+        }
+      } else if (pointer.child(bit) != null) {
+        push(pointer.child(bit), 0);
+      }
+    }
+
+    node = null;
+    return false;
+  }
+
+  /** @return node holding the current key; only valid after advance() returned true */
+  protected Node node() {
+    return node;
+  }
+
+  /** @return last bit of the current key, its index in node()'s terminal keys */
+  protected int slot() {
+    return slot;
+  }
+
+  /** @return the current key */
+  protected BitKey key() {
+    return node.terminal(slot);
+  }
+
+  /** @return index of a node's terminal at _bit among the node's items, in the cursor's order */
+  private int terminalItem(int _bit) {
+    return descending ? 3 - 2 * _bit : 2 * _bit;
+  }
+
+  /** @return index of a node's child at _bit among the node's items, in the cursor's order */
+  private int childItem(int _bit) {
+    return descending ? 2 - 2 * _bit : 2 * _bit + 1;
+  }
+
+  private void push(Node _node, int _next) {
+    if (top == nodes.length) {
+      nodes = Arrays.copyOf(nodes, top * 2);
+      next = Arrays.copyOf(next, top * 2);
+    }
+    nodes[top] = _node;
+    next[top++] = _next;
+  }
+}
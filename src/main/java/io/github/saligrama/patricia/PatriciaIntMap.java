@@ -0,0 +1,245 @@
+/*
+ * Copyright (c) 2017-2018 Aditya Saligrama.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO
+ * EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES
+ * OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.saligrama.patricia;
+
+import java.util.ConcurrentModificationException;
+import java.util.StringJoiner;
+import java.util.function.ObjIntConsumer;
+import java.util.function.ToIntFunction;
+
+/**
+ * PatriciaIntMap is a PatriciaMap specialized to int values, which are stored unboxed next to their
+ * keys. It suits counters: addTo increments a key's value in a single descent.
+ *
+ * <p>Keys are kept in lexicographic order of their UTF-8 encoding, and may not be empty or null.
+ * Absent keys read as 0 unless a default is given.
+ *
+ * @author Aditya Saligrama
+ * @version 1.0
+ */
+public class PatriciaIntMap {
+  private IntNode root;
+
+  // number of structural modifications, for detecting concurrent modification during forEach
+  private int modCount;
+
+  /** Construct a new, empty PatriciaIntMap. */
+  public PatriciaIntMap() {
+    root = new IntNode(0, null);
+  }
+
+  /** @return number of keys in the map */
+  public int size() {
+    return root.size();
+  }
+
+  /** @return true if the map has no keys */
+  public boolean isEmpty() {
+    return root.size() == 0;
+  }
+
+  /**
+   * Check if a key exists in the map. Does not allocate.
+   *
+   * @param _key key to search for
+   * @return true if _key is in the map, false otherwise
+   */
+  public boolean containsKey(CharSequence _key) {
+    return root.findNode(_key) != null;
+  }
+
+  /**
+   * Get the value of a key. Does not allocate.
+   *
+   * @param _key key to look up
+   * @return value of _key, or 0 if _key is not in the map
+   */
+  public int get(CharSequence _key) {
+    return getOrDefault(_key, 0);
+  }
+
+  /**
+   * Get the value of a key, or a default if the key is not in the map. Does not allocate.
+   *
+   * @param _key key to look up
+   * @param _default value to return if _key is not in the map
+   * @return value of _key, or _default if _key is not in the map
+   */
+  public int getOrDefault(CharSequence _key, int _default) {
+    IntNode holder = (IntNode) root.findNode(_key);
+    return holder == null ? _default : holder.values[Utils.lastBit(_key)];
+  }
+
+  /**
+   * Map a key to a value, replacing any value it had.
+   *
+   * @param _key key to map
+   * @param _value value for _key
+   * @return previous value of _key, or 0 if it was not in the map
+   * @throws IllegalArgumentException if _key is empty
+   */
+  public int put(String _key, int _value) {
+    BitKey key = toKey(_key);
+    int slot = key.bitAt(key.length() - 1);
+    IntNode holder = insert(key);
+    int ret = holder.values[slot];
+    holder.values[slot] = _value;
+    return ret;
+  }
+
+  /**
+   * Add to the value of a key, adding the key with value 0 first if it is not in the map.
+   *
+   * @param _key key whose value to change
+   * @param _delta amount to add
+   * @return value of _key after the addition
+   * @throws IllegalArgumentException if _key is empty
+   */
+  public int addTo(String _key, int _delta) {
+    BitKey key = toKey(_key);
+    int slot = key.bitAt(key.length() - 1);
+    return insert(key).values[slot] += _delta;
+  }
+
+  /**
+   * Get the value of a key, computing and storing it first if the key is not in the map. A key
+   * found in the map is looked up without allocating.
+   *
+   * @param _key key to look up
+   * @param _mapping function computing a value for _key
+   * @return the value of _key after the call
+   * @throws IllegalArgumentException if _key is empty
+   */
+  public int computeIfAbsent(String _key, ToIntFunction<? super String> _mapping) {
+    IntNode holder = (IntNode) root.findNode(_key);
+    if (holder != null) return holder.values[Utils.lastBit(_key)];
+
+    int ret = _mapping.applyAsInt(_key);
+    put(_key, ret);
+    return ret;
+  }
+
+  /**
+   * Remove a key and its value.
+   *
+   * @param _key key to remove
+   * @return value _key had, or 0 if it was not in the map
+   */
+  public int remove(CharSequence _key) {
+    BitKey key = Utils.strToBitKey(_key);
+    IntNode holder = (IntNode) root.detach(key);
+    if (holder == null) return 0;
+    modCount++;
+
+    int slot = key.bitAt(key.length() - 1);
+    int ret = holder.values[slot];
+    holder.values[slot] = 0;
+    return ret;
+  }
+
+  /** Remove every key from the map. */
+  public void clear() {
+    root = new IntNode(0, null);
+    modCount++;
+  }
+
+  /**
+   * Pass every key and its value to an action, in key order.
+   *
+   * @param _action action taking a key and its value
+   * @throws ConcurrentModificationException if _action adds or removes keys
+   */
+  public void forEach(ObjIntConsumer<? super String> _action) {
+    NodeCursor cursor = new NodeCursor(false);
+    cursor.start(root);
+    forEach(cursor, null, _action);
+  }
+
+  /**
+   * Pass every key starting with a prefix and its value to an action, in key order. The cursor
+   * seeks straight to the prefix, so only the matching keys are visited.
+   *
+   * @param _prefix prefix of the keys to visit
+   * @param _action action taking a key and its value
+   * @throws ConcurrentModificationException if _action adds or removes keys
+   */
+  public void forEach(String _prefix, ObjIntConsumer<? super String> _action) {
+    BitKey prefix = Utils.strToBitKey(_prefix);
+    NodeCursor cursor = new NodeCursor(false);
+    cursor.seek(root, prefix, true, false);
+    forEach(cursor, prefix, _action);
+  }
+
+  /** @return string representation of the map */
+  @Override
+  public String toString() {
+    StringJoiner ret = new StringJoiner(", ", "{", "}");
+    forEach((k, v) -> ret.add(k + "=" + v));
+    return ret.toString();
+  }
+
+  /**
+   * @param _cursor cursor positioned before the first key to visit
+   * @param _prefix prefix of the keys to visit, or null to visit every key after the cursor
+   * @param _action action taking a key and its value
+   */
+  private void forEach(
+      NodeCursor _cursor, BitKey _prefix, ObjIntConsumer<? super String> _action) {
+    int expectedModCount = modCount;
+    while (_cursor.advance() && (_prefix == null || _cursor.key().startsWith(_prefix))) {
+      IntNode holder = (IntNode) _cursor.node();
+      _action.accept(Utils.bitKeyToStr(_cursor.key()), holder.values[_cursor.slot()]);
+      if (modCount != expectedModCount) throw new ConcurrentModificationException();
+    }
+  }
+
+  private static BitKey toKey(String _key) {
+    if (_key.isEmpty()) throw new IllegalArgumentException("cannot add an empty string");
+    return Utils.strToBitKey(_key);
+  }
+
+  /**
+   * @param _key non-empty key to add
+   * @return node holding _key
+   */
+  private IntNode insert(BitKey _key) {
+    int oldSize = root.size();
+    IntNode ret = (IntNode) root.insert(_key);
+    if (root.size() != oldSize) modCount++;
+    return ret;
+  }
+
+  /** IntNode is a Node with an int value slot next to each of its terminal keys. */
+  private static class IntNode extends Node {
+    private final int[] values = new int[Constants.NODE_NUM_CHILDREN];
+
+    private IntNode(int _forkIndex, Node _parent) {
+      super(_forkIndex, _parent);
+    }
+
+    @Override
+    protected Node newNode(int _forkIndex, Node _parent) {
+      return new IntNode(_forkIndex, _parent);
+    }
+  }
+}
@@ -0,0 +1,1028 @@
+/*
+ * Copyright (c) 2017-2018 Aditya Saligrama.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO
+ * EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES
+ * OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.saligrama.patricia;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.function.Function;
+
+/**
+ * PatriciaMap is a map from strings to values built on a PatriciaTree, with each value stored in a
+ * slot next to its key's terminal in the node holding it. Keys are not stored twice, as they would
+ * be in a tree kept alongside a HashMap.
+ *
+ * <p>Keys are kept in lexicographic order of their UTF-8 encoding, the order of their Unicode code
+ * points, and PatriciaMap is a NavigableMap in that order; it can replace a
+ * TreeMap&lt;String, V&gt; wherever that order is acceptable. It differs from String.compareTo only
+ * for strings containing surrogate pairs. Keys may not be empty or null; values may be null.
+ *
+ * <p>Views of ranges of the map, including prefixMap for the keys starting with a prefix, write
+ * through to the map. Iterators fail fast if the map is structurally modified other than through
+ * them.
+ *
+ * @param <V> type of the values
+ * @author Aditya Saligrama
+ * @version 1.0
+ */
+public class PatriciaMap<V> extends AbstractMap<String, V> implements NavigableMap<String, V> {
+  private static final Comparator<String> ORDER = Utils::compareUtf8;
+
+  private ValueNode root;
+
+  // number of structural modifications, for detecting concurrent modification during iteration
+  private int modCount;
+
+  // view of the whole map, which the navigation methods delegate to
+  private final View whole;
+
+  /** Construct a new, empty PatriciaMap. */
+  public PatriciaMap() {
+    root = new ValueNode(0, null);
+    whole = new View(null, false, null, false, false, false);
+  }
+
+  /**
+   * Construct a PatriciaMap holding the mappings of another map.
+   *
+   * @param _map mappings to copy
+   * @throws IllegalArgumentException if a key of _map is empty
+   */
+  public PatriciaMap(Map<? extends String, ? extends V> _map) {
+    this();
+    putAll(_map);
+  }
+
+  /** @return number of keys in the map */
+  @Override
+  public int size() {
+    return root.size();
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return root.size() == 0;
+  }
+
+  /**
+   * Check if a key exists in the map. The characters are read in place, so the check does not
+   * allocate.
+   *
+   * @param _key key to search for
+   * @return true if _key is a string in the map, false otherwise
+   */
+  @Override
+  public boolean containsKey(Object _key) {
+    return _key instanceof CharSequence && root.findNode((CharSequence) _key) != null;
+  }
+
+  /**
+   * Get the value of a key. The characters are read in place, so the lookup does not allocate.
+   *
+   * @param _key key to look up
+   * @return value of _key, or null if _key is not in the map
+   */
+  @Override
+  public V get(Object _key) {
+    return getOrDefault(_key, null);
+  }
+
+  /**
+   * Get the value of a key, or a default if the key is not in the map. Does not allocate.
+   *
+   * @param _key key to look up
+   * @param _default value to return if _key is not in the map
+   * @return value of _key, which may be null, or _default if _key is not in the map
+   */
+  @Override
+  public V getOrDefault(Object _key, V _default) {
+    if (!(_key instanceof CharSequence)) return _default;
+    CharSequence key = (CharSequence) _key;
+    ValueNode holder = (ValueNode) root.findNode(key);
+    return holder == null ? _default : holder.value(Utils.lastBit(key));
+  }
+
+  /**
+   * Map a key to a value, replacing any value it had.
+   *
+   * @param _key key to map
+   * @param _value value for _key
+   * @return previous value of _key, or null if it was not in the map
+   * @throws IllegalArgumentException if _key is empty
+   */
+  @Override
+  public V put(String _key, V _value) {
+    if (_key.isEmpty()) throw new IllegalArgumentException("cannot add an empty string");
+    return put(Utils.strToBitKey(_key), _value);
+  }
+
+  /**
+   * Remove a key and its value.
+   *
+   * @param _key key to remove
+   * @return value _key had, or null if it was not in the map
+   */
+  @Override
+  public V remove(Object _key) {
+    if (!(_key instanceof CharSequence)) return null;
+    return remove(Utils.strToBitKey((CharSequence) _key));
+  }
+
+  /**
+   * Get the value of a key, computing and storing it first if the key is not in the map or maps to
+   * null. A key found in the map is looked up without allocating.
+   *
+   * @param _key key to look up
+   * @param _mapping function computing a value for _key; if it returns null, nothing is stored
+   * @return the value of _key after the call, or null if none was computed
+   * @throws IllegalArgumentException if a value is computed for an empty _key
+   */
+  @Override
+  public V computeIfAbsent(String _key, Function<? super String, ? extends V> _mapping) {
+    ValueNode holder = (ValueNode) root.findNode(_key);
+    if (holder != null) {
+      V ret = holder.value(Utils.lastBit(_key));
+      if (ret != null) return ret;
+    }
+
+    V ret = _mapping.apply(_key);
+    if (ret != null) put(_key, ret);
+    return ret;
+  }
+
+  /** Remove every key from the map. */
+  @Override
+  public void clear() {
+    root = new ValueNode(0, null);
+    modCount++;
+  }
+
+  /**
+   * Get a view of the keys starting with a prefix. The prefix's subtree is located once per
+   * operation, so size() of the view takes time proportional to the prefix rather than to the
+   * number of keys in it.
+   *
+   * @param _prefix prefix of the keys in the view
+   * @return view of the mappings whose keys start with _prefix, in order
+   */
+  public NavigableMap<String, V> prefixMap(String _prefix) {
+    BitKey prefix = Utils.strToBitKey(_prefix);
+    return new View(prefix, true, prefix, true, true, false);
+  }
+
+  @Override
+  public Comparator<? super String> comparator() {
+    return ORDER;
+  }
+
+  @Override
+  public Set<Map.Entry<String, V>> entrySet() {
+    return whole.entrySet();
+  }
+
+  @Override
+  public NavigableSet<String> keySet() {
+    return navigableKeySet();
+  }
+
+  @Override
+  public NavigableSet<String> navigableKeySet() {
+    return new KeySet(whole);
+  }
+
+  @Override
+  public NavigableSet<String> descendingKeySet() {
+    return new KeySet(descendingMap());
+  }
+
+  @Override
+  public NavigableMap<String, V> descendingMap() {
+    return whole.descendingMap();
+  }
+
+  @Override
+  public Map.Entry<String, V> firstEntry() {
+    return whole.firstEntry();
+  }
+
+  @Override
+  public Map.Entry<String, V> lastEntry() {
+    return whole.lastEntry();
+  }
+
+  @Override
+  public Map.Entry<String, V> pollFirstEntry() {
+    return whole.pollFirstEntry();
+  }
+
+  @Override
+  public Map.Entry<String, V> pollLastEntry() {
+    return whole.pollLastEntry();
+  }
+
+  @Override
+  public String firstKey() {
+    return whole.firstKey();
+  }
+
+  @Override
+  public String lastKey() {
+    return whole.lastKey();
+  }
+
+  @Override
+  public Map.Entry<String, V> lowerEntry(String _key) {
+    return whole.lowerEntry(_key);
+  }
+
+  @Override
+  public String lowerKey(String _key) {
+    return whole.lowerKey(_key);
+  }
+
+  @Override
+  public Map.Entry<String, V> floorEntry(String _key) {
+    return whole.floorEntry(_key);
+  }
+
+  @Override
+  public String floorKey(String _key) {
+    return whole.floorKey(_key);
+  }
+
+  @Override
+  public Map.Entry<String, V> ceilingEntry(String _key) {
+    return whole.ceilingEntry(_key);
+  }
+
+  @Override
+  public String ceilingKey(String _key) {
+    return whole.ceilingKey(_key);
+  }
+
+  @Override
+  public Map.Entry<String, V> higherEntry(String _key) {
+    return whole.higherEntry(_key);
+  }
+
+  @Override
+  public String higherKey(String _key) {
+    return whole.higherKey(_key);
+  }
+
+  @Override
+  public NavigableMap<String, V> subMap(
+      String _fromKey, boolean _fromInclusive, String _toKey, boolean _toInclusive) {
+    return whole.subMap(_fromKey, _fromInclusive, _toKey, _toInclusive);
+  }
+
+  @Override
+  public NavigableMap<String, V> headMap(String _toKey, boolean _inclusive) {
+    return whole.headMap(_toKey, _inclusive);
+  }
+
+  @Override
+  public NavigableMap<String, V> tailMap(String _fromKey, boolean _inclusive) {
+    return whole.tailMap(_fromKey, _inclusive);
+  }
+
+  @Override
+  public SortedMap<String, V> subMap(String _fromKey, String _toKey) {
+    return subMap(_fromKey, true, _toKey, false);
+  }
+
+  @Override
+  public SortedMap<String, V> headMap(String _toKey) {
+    return headMap(_toKey, false);
+  }
+
+  @Override
+  public SortedMap<String, V> tailMap(String _fromKey) {
+    return tailMap(_fromKey, true);
+  }
+
+  /**
+   * @param _key non-empty key to map
+   * @param _value value for _key
+   * @return previous value of _key, or null if it was not in the map
+   */
+  private V put(BitKey _key, V _value) {
+    int oldSize = root.size();
+    ValueNode holder = (ValueNode) root.insert(_key);
+    if (root.size() != oldSize) modCount++;
+
+    int slot = _key.bitAt(_key.length() - 1);
+    V ret = holder.value(slot);
+    holder.setValue(slot, _value);
+    return ret;
+  }
+
+  /**
+   * @param _key key to remove
+   * @return value _key had, or null if it was not in the map
+   */
+  private V remove(BitKey _key) {
+    ValueNode holder = (ValueNode) root.detach(_key);
+    if (holder == null) return null;
+    modCount++;
+
+    // the value slot is cleared so the node, which may live on, does not keep the value alive
+    int slot = _key.bitAt(_key.length() - 1);
+    V ret = holder.value(slot);
+    holder.setValue(slot, null);
+    return ret;
+  }
+
+  /**
+   * View is the map restricted to a range of keys, in increasing or decreasing order. The whole
+   * map is a View without bounds, to which PatriciaMap delegates navigation.
+   *
+   * <p>Bounds are kept in increasing key order whatever the view's order: lo is the low bound and
+   * hi the high one, either of which may be null for none. If hiPrefix is set, every key starting
+   * with hi is below the high bound; prefixMap is the range from its prefix to that bound.
+   */
+  private class View extends AbstractMap<String, V> implements NavigableMap<String, V> {
+    private final BitKey lo;
+    private final boolean loInclusive;
+    private final BitKey hi;
+    private final boolean hiInclusive;
+    private final boolean hiPrefix;
+    private final boolean descending;
+
+    private View(
+        BitKey _lo,
+        boolean _loInclusive,
+        BitKey _hi,
+        boolean _hiInclusive,
+        boolean _hiPrefix,
+        boolean _descending) {
+      lo = _lo;
+      loInclusive = _loInclusive;
+      hi = _hi;
+      hiInclusive = _hiInclusive;
+      hiPrefix = _hiPrefix;
+      descending = _descending;
+    }
+
+    @Override
+    public int size() {
+      if (lo == null && hi == null) return root.size();
+      if (hiPrefix && loInclusive && lo.equals(hi)) {
+        return (int) root.prefixSpliterator(hi).estimateSize();
+      }
+
+      int ret = 0;
+      for (Iterator<Map.Entry<String, V>> it = entrySet().iterator(); it.hasNext(); it.next()) {
+        ret++;
+      }
+      return ret;
+    }
+
+    @Override
+    public boolean isEmpty() {
+      return lowest() == null;
+    }
+
+    @Override
+    public boolean containsKey(Object _key) {
+      return inRange(_key) && PatriciaMap.this.containsKey(_key);
+    }
+
+    @Override
+    public V get(Object _key) {
+      return inRange(_key) ? PatriciaMap.this.get(_key) : null;
+    }
+
+    @Override
+    public V put(String _key, V _value) {
+      if (_key.isEmpty()) throw new IllegalArgumentException("cannot add an empty string");
+      BitKey key = Utils.strToBitKey(_key);
+      if (!inRange(key)) throw new IllegalArgumentException("key out of range");
+      return PatriciaMap.this.put(key, _value);
+    }
+
+    @Override
+    public V remove(Object _key) {
+      return inRange(_key) ? PatriciaMap.this.remove(_key) : null;
+    }
+
+    @Override
+    public Comparator<? super String> comparator() {
+      return descending ? ORDER.reversed() : ORDER;
+    }
+
+    @Override
+    public Set<Map.Entry<String, V>> entrySet() {
+      return new EntrySet();
+    }
+
+    @Override
+    public NavigableSet<String> keySet() {
+      return navigableKeySet();
+    }
+
+    @Override
+    public NavigableSet<String> navigableKeySet() {
+      return new KeySet(this);
+    }
+
+    @Override
+    public NavigableSet<String> descendingKeySet() {
+      return new KeySet(descendingMap());
+    }
+
+    @Override
+    public NavigableMap<String, V> descendingMap() {
+      return new View(lo, loInclusive, hi, hiInclusive, hiPrefix, !descending);
+    }
+
+    @Override
+    public Map.Entry<String, V> firstEntry() {
+      return entry(descending ? highest() : lowest());
+    }
+
+    @Override
+    public Map.Entry<String, V> lastEntry() {
+      return entry(descending ? lowest() : highest());
+    }
+
+    @Override
+    public Map.Entry<String, V> pollFirstEntry() {
+      return poll(firstEntry());
+    }
+
+    @Override
+    public Map.Entry<String, V> pollLastEntry() {
+      return poll(lastEntry());
+    }
+
+    @Override
+    public String firstKey() {
+      return key(descending ? highest() : lowest());
+    }
+
+    @Override
+    public String lastKey() {
+      return key(descending ? lowest() : highest());
+    }
+
+    @Override
+    public Map.Entry<String, V> lowerEntry(String _key) {
+      return entry(before(_key, false));
+    }
+
+    @Override
+    public String lowerKey(String _key) {
+      return keyOrNull(before(_key, false));
+    }
+
+    @Override
+    public Map.Entry<String, V> floorEntry(String _key) {
+      return entry(before(_key, true));
+    }
+
+    @Override
+    public String floorKey(String _key) {
+      return keyOrNull(before(_key, true));
+    }
+
+    @Override
+    public Map.Entry<String, V> ceilingEntry(String _key) {
+      return entry(after(_key, true));
+    }
+
+    @Override
+    public String ceilingKey(String _key) {
+      return keyOrNull(after(_key, true));
+    }
+
+    @Override
+    public Map.Entry<String, V> higherEntry(String _key) {
+      return entry(after(_key, false));
+    }
+
+    @Override
+    public String higherKey(String _key) {
+      return keyOrNull(after(_key, false));
+    }
+
+    @Override
+    public NavigableMap<String, V> subMap(
+        String _fromKey, boolean _fromInclusive, String _toKey, boolean _toInclusive) {
+      return restrict(
+          Utils.strToBitKey(_fromKey),
+          _fromInclusive,
+          Utils.strToBitKey(_toKey),
+          _toInclusive);
+    }
+
+    @Override
+    public NavigableMap<String, V> headMap(String _toKey, boolean _inclusive) {
+      return restrict(null, false, Utils.strToBitKey(_toKey), _inclusive);
+    }
+
+    @Override
+    public NavigableMap<String, V> tailMap(String _fromKey, boolean _inclusive) {
+      return restrict(Utils.strToBitKey(_fromKey), _inclusive, null, false);
+    }
+
+    @Override
+    public SortedMap<String, V> subMap(String _fromKey, String _toKey) {
+      return subMap(_fromKey, true, _toKey, false);
+    }
+
+    @Override
+    public SortedMap<String, V> headMap(String _toKey) {
+      return headMap(_toKey, false);
+    }
+
+    @Override
+    public SortedMap<String, V> tailMap(String _fromKey) {
+      return tailMap(_fromKey, true);
+    }
+
+    /**
+     * Narrow this view. Bounds are given in the view's own order, and must lie within its range.
+     *
+     * @param _from new first bound, or null to keep the current one
+     * @param _fromInclusive true if _from is in the new view
+     * @param _to new last bound, or null to keep the current one
+     * @param _toInclusive true if _to is in the new view
+     * @return the narrowed view
+     * @throws IllegalArgumentException if a bound is out of range, or _from is after _to
+     */
+    private View restrict(BitKey _from, boolean _fromInclusive, BitKey _to, boolean _toInclusive) {
+      BitKey lower = descending ? _to : _from;
+      boolean lowerInclusive = descending ? _toInclusive : _fromInclusive;
+      BitKey upper = descending ? _from : _to;
+      boolean upperInclusive = descending ? _fromInclusive : _toInclusive;
+
+      BitKey newLo = lo;
+      boolean newLoInclusive = loInclusive;
+      if (lower != null) {
+        checkBound(lower, lowerInclusive);
+        newLo = lower;
+        newLoInclusive = lowerInclusive;
+      }
+
+      BitKey newHi = hi;
+      boolean newHiInclusive = hiInclusive;
+      boolean newHiPrefix = hiPrefix;
+      if (upper != null) {
+        checkBound(upper, upperInclusive);
+        newHi = upper;
+        newHiInclusive = upperInclusive;
+        newHiPrefix = false;
+      }
+
+      if (newLo != null && newHi != null && !newHiPrefix && newLo.compareTo(newHi) > 0) {
+        throw new IllegalArgumentException("fromKey > toKey");
+      }
+      return new View(newLo, newLoInclusive, newHi, newHiInclusive, newHiPrefix, descending);
+    }
+
+    /**
+     * @param _bound new bound for a narrower view
+     * @param _inclusive true if _bound itself would be in the narrower view
+     * @throws IllegalArgumentException if _bound is outside this view; an exclusive bound may equal
+     *     an exclusive bound of this view
+     */
+    private void checkBound(BitKey _bound, boolean _inclusive) {
+      boolean outside = _inclusive ? !inRange(_bound) : belowClosed(_bound) || aboveClosed(_bound);
+      if (outside) throw new IllegalArgumentException("key out of range");
+    }
+
+    private boolean inRange(Object _key) {
+      if (lo == null && hi == null) return true;
+      return _key instanceof CharSequence && inRange(Utils.strToBitKey((CharSequence) _key));
+    }
+
+    private boolean inRange(BitKey _key) {
+      return !tooLow(_key) && !tooHigh(_key);
+    }
+
+    /** @return true if _key is below the low bound */
+    private boolean tooLow(BitKey _key) {
+      if (lo == null) return false;
+      int cmp = _key.compareTo(lo);
+      return cmp < 0 || (cmp == 0 && !loInclusive);
+    }
+
+    /** @return true if _key is above the high bound */
+    private boolean tooHigh(BitKey _key) {
+      if (hi == null) return false;
+      int cmp = _key.compareTo(hi);
+      if (hiPrefix) return cmp > 0 && !_key.startsWith(hi);
+      return cmp > 0 || (cmp == 0 && !hiInclusive);
+    }
+
+    /** @return true if _key is below the low bound, even if the bound were inclusive */
+    private boolean belowClosed(BitKey _key) {
+      return lo != null && _key.compareTo(lo) < 0;
+    }
+
+    /** @return true if _key is above the high bound, even if the bound were inclusive */
+    private boolean aboveClosed(BitKey _key) {
+      if (hi == null) return false;
+      if (hiPrefix) return _key.compareTo(hi) > 0 && !_key.startsWith(hi);
+      return _key.compareTo(hi) > 0;
+    }
+
+    /**
+     * Start a cursor at one end of the view, before the lowest key when ascending or the highest
+     * when descending.
+     *
+     * @param _cursor cursor to position
+     * @param _descending direction of _cursor
+     */
+    private void start(NodeCursor _cursor, boolean _descending) {
+      BitKey bound = _descending ? hi : lo;
+      if (bound == null) {
+        _cursor.start(root);
+      } else if (_descending) {
+        _cursor.seek(root, hi, hiInclusive, hiPrefix);
+      } else {
+        _cursor.seek(root, lo, loInclusive, false);
+      }
+    }
+
+    /**
+     * @param _cursor cursor that may have walked past the far end of the view
+     * @param _descending direction of _cursor
+     * @return true if _cursor is on a key, and that key is in the view
+     */
+    private boolean advance(NodeCursor _cursor, boolean _descending) {
+      if (!_cursor.advance()) return false;
+      return _descending ? !tooLow(_cursor.key()) : !tooHigh(_cursor.key());
+    }
+
+    /** @return cursor on the lowest key in the view, or null if the view is empty */
+    private NodeCursor lowest() {
+      NodeCursor ret = new NodeCursor(false);
+      start(ret, false);
+      return advance(ret, false) ? ret : null;
+    }
+
+    /** @return cursor on the highest key in the view, or null if the view is empty */
+    private NodeCursor highest() {
+      NodeCursor ret = new NodeCursor(true);
+      start(ret, true);
+      return advance(ret, true) ? ret : null;
+    }
+
+    /**
+     * @param _key key to search from
+     * @param _inclusive true if _key itself may be found
+     * @return cursor on the first key in the view that is not before _key in the view's order, or
+     *     null if there is none
+     */
+    private NodeCursor after(String _key, boolean _inclusive) {
+      return descending ? floor(_key, _inclusive) : ceiling(_key, _inclusive);
+    }
+
+    /**
+     * @param _key key to search from
+     * @param _inclusive true if _key itself may be found
+     * @return cursor on the last key in the view that is not after _key in the view's order, or
+     *     null if there is none
+     */
+    private NodeCursor before(String _key, boolean _inclusive) {
+      return descending ? ceiling(_key, _inclusive) : floor(_key, _inclusive);
+    }
+
+    /** @return cursor on the lowest key in the view at least (or above) _key, or null */
+    private NodeCursor ceiling(String _key, boolean _inclusive) {
+      BitKey key = Utils.strToBitKey(_key);
+      if (tooLow(key)) return lowest();
+      NodeCursor ret = new NodeCursor(false);
+      ret.seek(root, key, _inclusive, false);
+      return advance(ret, false) ? ret : null;
+    }
+
+    /** @return cursor on the highest key in the view at most (or below) _key, or null */
+    private NodeCursor floor(String _key, boolean _inclusive) {
+      BitKey key = Utils.strToBitKey(_key);
+      if (tooHigh(key)) return highest();
+      NodeCursor ret = new NodeCursor(true);
+      ret.seek(root, key, _inclusive, false);
+      return advance(ret, true) ? ret : null;
+    }
+
+    private Map.Entry<String, V> entry(NodeCursor _cursor) {
+      if (_cursor == null) return null;
+      V value = ((ValueNode) _cursor.node()).value(_cursor.slot());
+      return new AbstractMap.SimpleImmutableEntry<>(Utils.bitKeyToStr(_cursor.key()), value);
+    }
+
+    private String keyOrNull(NodeCursor _cursor) {
+      return _cursor == null ? null : Utils.bitKeyToStr(_cursor.key());
+    }
+
+    private String key(NodeCursor _cursor) {
+      if (_cursor == null) throw new NoSuchElementException();
+      return Utils.bitKeyToStr(_cursor.key());
+    }
+
+    private Map.Entry<String, V> poll(Map.Entry<String, V> _entry) {
+      if (_entry != null) PatriciaMap.this.remove(_entry.getKey());
+      return _entry;
+    }
+
+    /** EntrySet is the entries of the view, in the view's order. */
+    private class EntrySet extends AbstractSet<Map.Entry<String, V>> {
+      @Override
+      public Iterator<Map.Entry<String, V>> iterator() {
+        return new EntryIterator();
+      }
+
+      @Override
+      public int size() {
+        return View.this.size();
+      }
+
+      @Override
+      public boolean isEmpty() {
+        return View.this.isEmpty();
+      }
+
+      @Override
+      public boolean contains(Object _entry) {
+        if (!(_entry instanceof Map.Entry)) return false;
+        Map.Entry<?, ?> entry = (Map.Entry<?, ?>) _entry;
+        return containsKey(entry.getKey()) && Objects.equals(get(entry.getKey()), entry.getValue());
+      }
+
+      @Override
+      public boolean remove(Object _entry) {
+        if (!contains(_entry)) return false;
+        View.this.remove(((Map.Entry<?, ?>) _entry).getKey());
+        return true;
+      }
+    }
+
+    /**
+     * EntryIterator walks the view with a NodeCursor. Removing through it re-seeks the cursor past
+     * the removed key, since removal may merge nodes on the cursor's path.
+     */
+    private class EntryIterator implements Iterator<Map.Entry<String, V>> {
+      private final NodeCursor cursor = new NodeCursor(descending);
+      private boolean hasNext;
+      private BitKey lastKey;
+      private int expectedModCount = modCount;
+
+      private EntryIterator() {
+        start(cursor, descending);
+        hasNext = advance(cursor, descending);
+      }
+
+      @Override
+      public boolean hasNext() {
+        return hasNext;
+      }
+
+      @Override
+      public Map.Entry<String, V> next() {
+        if (modCount != expectedModCount) throw new ConcurrentModificationException();
+        if (!hasNext) throw new NoSuchElementException();
+        lastKey = cursor.key();
+        Map.Entry<String, V> ret = new NodeEntry((ValueNode) cursor.node(), cursor.slot());
+        hasNext = advance(cursor, descending);
+        return ret;
+      }
+
+      @Override
+      public void remove() {
+        if (lastKey == null) throw new IllegalStateException();
+        if (modCount != expectedModCount) throw new ConcurrentModificationException();
+        PatriciaMap.this.remove(lastKey);
+        expectedModCount = modCount;
+
+        cursor.seek(root, lastKey, false, false);
+        hasNext = advance(cursor, descending);
+        lastKey = null;
+      }
+    }
+  }
+
+  /** NodeEntry is a mapping read from, and written through to, its key's value slot. */
+  private class NodeEntry implements Map.Entry<String, V> {
+    private final ValueNode node;
+    private final int slot;
+    private final String key;
+
+    private NodeEntry(ValueNode _node, int _slot) {
+      node = _node;
+      slot = _slot;
+      key = Utils.bitKeyToStr(_node.terminal(_slot));
+    }
+
+    @Override
+    public String getKey() {
+      return key;
+    }
+
+    @Override
+    public V getValue() {
+      return node.value(slot);
+    }
+
+    @Override
+    public V setValue(V _value) {
+      V ret = node.value(slot);
+      node.setValue(slot, _value);
+      return ret;
+    }
+
+    @Override
+    public boolean equals(Object _other) {
+      if (!(_other instanceof Map.Entry)) return false;
+      Map.Entry<?, ?> other = (Map.Entry<?, ?>) _other;
+      return key.equals(other.getKey()) && Objects.equals(getValue(), other.getValue());
+    }
+
+    @Override
+    public int hashCode() {
+      return key.hashCode() ^ Objects.hashCode(getValue());
+    }
+
+    @Override
+    public String toString() {
+      return key + "=" + getValue();
+    }
+  }
+
+  /** KeySet is the keys of a map or view, as a NavigableSet backed by it. */
+  private static class KeySet extends AbstractSet<String> implements NavigableSet<String> {
+    private final NavigableMap<String, ?> map;
+
+    private KeySet(NavigableMap<String, ?> _map) {
+      map = _map;
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+      Iterator<? extends Map.Entry<String, ?>> entries = map.entrySet().iterator();
+      return new Iterator<String>() {
+        @Override
+        public boolean hasNext() {
+          return entries.hasNext();
+        }
+
+        @Override
+        public String next() {
+          return entries.next().getKey();
+        }
+
+        @Override
+        public void remove() {
+          entries.remove();
+        }
+      };
+    }
+
+    @Override
+    public int size() {
+      return map.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+      return map.isEmpty();
+    }
+
+    @Override
+    public boolean contains(Object _key) {
+      return map.containsKey(_key);
+    }
+
+    @Override
+    public boolean remove(Object _key) {
+      if (!map.containsKey(_key)) return false;
+      map.remove(_key);
+      return true;
+    }
+
+    @Override
+    public void clear() {
+      map.clear();
+    }
+
+    @Override
+    public Comparator<? super String> comparator() {
+      return map.comparator();
+    }
+
+    @Override
+    public String first() {
+      return map.firstKey();
+    }
+
+    @Override
+    public String last() {
+      return map.lastKey();
+    }
+
+    @Override
+    public String lower(String _key) {
+      return map.lowerKey(_key);
+    }
+
+    @Override
+    public String floor(String _key) {
+      return map.floorKey(_key);
+    }
+
+    @Override
+    public String ceiling(String _key) {
+      return map.ceilingKey(_key);
+    }
+
+    @Override
+    public String higher(String _key) {
+      return map.higherKey(_key);
+    }
+
+    @Override
+    public String pollFirst() {
+      Map.Entry<String, ?> ret = map.pollFirstEntry();
+      return ret == null ? null : ret.getKey();
+    }
+
+    @Override
+    public String pollLast() {
+      Map.Entry<String, ?> ret = map.pollLastEntry();
+      return ret == null ? null : ret.getKey();
+    }
+
+    @Override
+    public NavigableSet<String> descendingSet() {
+      return new KeySet(map.descendingMap());
+    }
+
+    @Override
+    public Iterator<String> descendingIterator() {
+      return descendingSet().iterator();
+    }
+
+    @Override
+    public NavigableSet<String> subSet(
+        String _fromKey, boolean _fromInclusive, String _toKey, boolean _toInclusive) {
+      return new KeySet(map.subMap(_fromKey, _fromInclusive, _toKey, _toInclusive));
+    }
+
+    @Override
+    public NavigableSet<String> headSet(String _toKey, boolean _inclusive) {
+      return new KeySet(map.headMap(_toKey, _inclusive));
+    }
+
+    @Override
+    public NavigableSet<String> tailSet(String _fromKey, boolean _inclusive) {
+      return new KeySet(map.tailMap(_fromKey, _inclusive));
+    }
+
+    @Override
+    public SortedSet<String> subSet(String _fromKey, String _toKey) {
+      return subSet(_fromKey, true, _toKey, false);
+    }
+
+    @Override
+    public SortedSet<String> headSet(String _toKey) {
+      return headSet(_toKey, false);
+    }
+
+    @Override
+    public SortedSet<String> tailSet(String _fromKey) {
+      return tailSet(_fromKey, true);
+    }
+  }
+}
@@ -22,6 +22,23 @@
 
 package io.github.saligrama.patricia;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.StringJoiner;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
 /**
  * PatriciaTree is a bit-alphabet based, space-optimized trie for string storage.
  *
@@ -30,35 +47,222 @@ package io.github.saligrama.patricia;
  * Therefore, no unnecessary nodes and edges are stored, cutting down on both storage and in steps
  * needed to traverse the trie.
  *
- * <p>This PatriciaTree operates on a bit alphabet and can store any type of ASCII text. It operates
- * similarly to a Radix Tree, with radix r=2.
+ * <p>This PatriciaTree operates on a bit alphabet and can store any Unicode text, keyed on its
+ * UTF-8 encoding so that ASCII text still takes 8 bits per character. It operates similarly to a
+ * Radix Tree, with radix r=2.
+ *
+ * <p>Keys are iterated in lexicographic order of their UTF-8 encoding, which is the order of their
+ * Unicode code points.
+ *
+ * <p>A tree can instead be constructed with a wider Radix, forking on 2, 4 or 8 bits at a time with
+ * nodes sized to their children, which cuts the number of nodes a lookup passes by the same factor.
+ * Such a tree supports the same operations. Since freeze and writeTo lay out single-bit forks,
+ * they go through a binary copy of the tree, loaded from its keys in order; so do the set
+ * operations between trees of different radixes.
  *
  * @author Aditya Saligrama
  * @version 1.0
  */
-public class PatriciaTree {
+public class PatriciaTree implements Iterable<String> {
+  private static final int WIDE_SPLITERATOR_CHARACTERISTICS =
+      Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL;
+
   private int size;
+  private final Radix radix;
+
+  // root of a binary tree, or null if the radix is wider
   private Node root;
 
-  /** Construct a new PatriciaTree. */
+  // root of a tree of a wider radix, or null if the radix is Radix.BIT
+  private final RadixNode wideRoot;
+
+  // number of modifications, for detecting concurrent modification during iteration
+  private int modCount;
+
+  // metrics to record operations in, or null if metrics are disabled
+  private TreeMetrics metrics;
+
+  /** Construct a new binary PatriciaTree. */
   public PatriciaTree() {
-    root = new Node(0, null);
+    this(Radix.BIT);
+  }
+
+  /**
+   * Construct a new PatriciaTree forking on a given number of bits at a time.
+   *
+   * @param _radix radix of the tree
+   */
+  public PatriciaTree(Radix _radix) {
+    radix = _radix;
+    if (_radix == Radix.BIT) {
+      root = new Node(0, null);
+      wideRoot = null;
+    } else {
+      root = null;
+      wideRoot = new RadixNode(null);
+    }
     size = 0;
   }
 
+  /**
+   * Construct a PatriciaTree around an already built root node.
+   *
+   * @param _root root node of the tree
+   * @param _size number of keys below _root
+   */
+  private PatriciaTree(Node _root, int _size) {
+    radix = Radix.BIT;
+    root = _root;
+    wideRoot = null;
+    size = _size;
+  }
+
+  /**
+   * Construct a PatriciaTree of a wider radix around an already built root node.
+   *
+   * @param _radix radix of the tree, wider than Radix.BIT
+   * @param _wideRoot root node of the tree
+   * @param _size number of keys below _wideRoot
+   */
+  private PatriciaTree(Radix _radix, RadixNode _wideRoot, int _size) {
+    radix = _radix;
+    root = null;
+    wideRoot = _wideRoot;
+    size = _size;
+  }
+
+  /**
+   * Build a tree from strings given in increasing order. The tree is built bottom-up along its
+   * rightmost path, comparing each string only with the one before it, so loading takes time
+   * linear in the total length of the strings.
+   *
+   * @param _sorted strings in increasing order of their UTF-8 encoding (the order of
+   *     String.compareTo, except for strings containing surrogate pairs); duplicates are skipped
+   * @return a tree holding the strings
+   * @throws IllegalArgumentException if a string is empty or out of order
+   */
+  public static PatriciaTree fromSorted(Iterator<? extends CharSequence> _sorted) {
+    Builder builder = new Builder();
+    while (_sorted.hasNext()) builder.add(_sorted.next());
+    return builder.build();
+  }
+
+  /**
+   * Build a tree from strings in any order. The strings are encoded and sorted in parallel, then
+   * loaded as in fromSorted.
+   *
+   * @param _strings strings to add; duplicates are skipped
+   * @return a tree holding the strings
+   * @throws IllegalArgumentException if a string is empty
+   */
+  public static PatriciaTree fromUnsorted(Collection<? extends CharSequence> _strings) {
+    BitKey[] keys = _strings.parallelStream().map(Utils::strToBitKey).toArray(BitKey[]::new);
+    Arrays.parallelSort(keys);
+
+    Builder builder = new Builder();
+    for (BitKey k : keys) builder.add(k);
+    return builder.build();
+  }
+
+  /**
+   * Open a snapshot written by writeTo as a read-only tree. The file is memory-mapped and queried
+   * in place, so no nodes are built and processes mapping the same file share its pages.
+   *
+   * @param _path snapshot file
+   * @return a read-only tree backed by the mapped file
+   * @throws IOException if the file can't be mapped, or is not a snapshot of a supported version
+   */
+  public static MappedPatriciaTree mapFrom(Path _path) throws IOException {
+    return MappedPatriciaTree.map(_path);
+  }
+
+  /** @return radix the tree was constructed with */
+  public Radix radix() {
+    return radix;
+  }
+
   /** @return size of the tree. */
   public int size() {
     return size;
   }
 
   /**
-   * Check if a string exists in the tree.
+   * Check if a string exists in the tree. The characters are read in place, so the check does not
+   * allocate.
    *
    * @param _toSearch string to search for within the tree
-   * @return true if _toAdd exists in the tree, false if it does not
+   * @return true if _toSearch exists in the tree, false if it does not
+   */
+  public boolean contains(CharSequence _toSearch) {
+    TreeMetrics m = metrics;
+    if (m == null) return findChild(_toSearch);
+
+    long start = System.nanoTime();
+    boolean ret = findChild(_toSearch);
+    m.containsTook(System.nanoTime() - start);
+    return ret;
+  }
+
+  /**
+   * Find the longest string in the tree that is a prefix of _str, such as the most specific route
+   * for a path. The search takes a single descent and reads _str in place, allocating only the
+   * returned string.
+   *
+   * @param _str string to find a prefix of
+   * @return the longest string in the tree that _str starts with, or null if there is none
+   */
+  public String longestPrefixOf(CharSequence _str) {
+    if (wideRoot != null) {
+      int len = wideRoot.longestPrefixOf(radix, _str);
+      return len < 0 ? null : utf8Prefix(_str, len);
+    }
+
+    BitKey found = root.longestPrefixOf(_str);
+    return found == null ? null : Utils.bitKeyToStr(found);
+  }
+
+  /**
+   * Check if the string whose UTF-8 encoding is the given bytes exists in the tree. The bytes are
+   * read in place, so the check does not allocate.
+   *
+   * @param _toSearch array holding the bytes to search for
+   * @param _off index of the first byte in _toSearch
+   * @param _len number of bytes to search for
+   * @return true if the bytes exist in the tree, false if they do not
+   * @throws IndexOutOfBoundsException if _off and _len do not describe a range of _toSearch
+   */
+  public boolean contains(byte[] _toSearch, int _off, int _len) {
+    if (_off < 0 || _len < 0 || _off > _toSearch.length - _len) {
+      throw new IndexOutOfBoundsException(
+          "range [" + _off + ", " + _off + " + " + _len + ") out of bounds for length "
+              + _toSearch.length);
+    }
+
+    TreeMetrics m = metrics;
+    if (m == null) return findChild(_toSearch, _off, _len);
+
+    long start = System.nanoTime();
+    boolean ret = findChild(_toSearch, _off, _len);
+    m.containsTook(System.nanoTime() - start);
+    return ret;
+  }
+
+  /**
+   * Check if the string whose UTF-8 encoding is the remaining bytes of a buffer exists in the tree.
+   * The bytes are read in place and the buffer's position is left unchanged, so the check does not
+   * allocate.
+   *
+   * @param _toSearch buffer whose bytes between position and limit are searched for
+   * @return true if the bytes exist in the tree, false if they do not
    */
-  public boolean contains(String _toSearch) {
-    return root.findChild(Utils.strToBitArr(_toSearch));
+  public boolean contains(ByteBuffer _toSearch) {
+    TreeMetrics m = metrics;
+    if (m == null) return findChild(_toSearch);
+
+    long start = System.nanoTime();
+    boolean ret = findChild(_toSearch);
+    m.containsTook(System.nanoTime() - start);
+    return ret;
   }
 
   /**
@@ -67,10 +271,79 @@ public class PatriciaTree {
    * @param _toAdd string to add to the tree
    * @return true if the tree was modified (i.e. _toAdd did not already exist in the tree), false
    *     otherwise
+   * @throws IllegalArgumentException if _toAdd is empty
    */
   public boolean add(String _toAdd) {
-    boolean ret = root.addChild(Utils.strToBitArr(_toAdd));
-    if (ret) size++;
+    if (_toAdd.isEmpty()) throw new IllegalArgumentException("cannot add an empty string");
+    TreeMetrics m = metrics;
+    long start = m == null ? 0 : System.nanoTime();
+    boolean ret =
+        wideRoot == null
+            ? root.addChild(Utils.strToBitKey(_toAdd), m)
+            : wideRoot.addChild(radix, _toAdd.getBytes(StandardCharsets.UTF_8), m);
+    if (ret) {
+      size++;
+      modCount++;
+    }
+    if (m != null) m.addTook(System.nanoTime() - start);
+    return ret;
+  }
+
+  /**
+   * Check which of a batch of strings exist in the tree. The strings are looked up in sorted
+   * order, sorting the batch only if it is not sorted already, and each lookup resumes from the
+   * path of the previous one instead of starting at the root, which skips the part of the path
+   * neighbouring strings share.
+   *
+   * @param _toSearch strings to search for
+   * @return a set with bit i set if the i-th string of _toSearch exists in the tree
+   */
+  public BitSet containsAll(Collection<? extends CharSequence> _toSearch) {
+    CharSequence[] strings = _toSearch.toArray(new CharSequence[0]);
+    BitSet ret = new BitSet(strings.length);
+    if (wideRoot != null) {
+      RadixNode.BatchCursor cursor = new RadixNode.BatchCursor(radix, wideRoot);
+      for (int i : sortedOrder(strings, Utils::compareUtf8)) {
+        if (cursor.findChild(strings[i])) ret.set(i);
+      }
+      return ret;
+    }
+
+    Node.BatchCursor cursor = new Node.BatchCursor(root);
+    for (int i : sortedOrder(strings, Utils::compareUtf8)) {
+      if (cursor.findChild(strings[i])) ret.set(i);
+    }
+
+    return ret;
+  }
+
+  /**
+   * Add a batch of strings to the tree. The strings are added in sorted order, sorting the batch
+   * only if it is not sorted already, and each insertion resumes from the path of the previous one
+   * instead of starting at the root. The batch is checked for empty strings before any is added.
+   *
+   * @param _toAdd strings to add to the tree
+   * @return a set with bit i set if the i-th string of _toAdd was added, i.e. it was neither in the
+   *     tree nor earlier in _toAdd
+   * @throws IllegalArgumentException if a string is empty
+   */
+  public BitSet addAll(Collection<? extends CharSequence> _toAdd) {
+    if (wideRoot != null) return addAllWide(_toAdd);
+    BitKey[] keys = toBitKeys(_toAdd);
+    for (BitKey k : keys) {
+      if (k.length() == 0) throw new IllegalArgumentException("cannot add an empty string");
+    }
+
+    BitSet ret = new BitSet(keys.length);
+    Node.BatchCursor cursor = new Node.BatchCursor(root);
+    for (int i : sortedOrder(keys, BitKey::compareTo)) {
+      if (cursor.addChild(keys[i], metrics)) {
+        ret.set(i);
+        size++;
+      }
+    }
+    if (!ret.isEmpty()) modCount++;
+
     return ret;
   }
 
@@ -81,15 +354,560 @@ public class PatriciaTree {
    * @return true if the tree was modified (i.e. _toRemove was in the tree), false otherwise
    */
   public boolean remove(String _toRemove) {
-    boolean ret = root.removeChild(Utils.strToBitArr(_toRemove));
-    if (ret) size--;
+    TreeMetrics m = metrics;
+    long start = m == null ? 0 : System.nanoTime();
+    boolean ret =
+        wideRoot == null
+            ? root.removeChild(Utils.strToBitKey(_toRemove), m)
+            : wideRoot.removeChild(radix, _toRemove.getBytes(StandardCharsets.UTF_8), m);
+    if (ret) {
+      size--;
+      modCount++;
+    }
+    if (m != null) m.removeTook(System.nanoTime() - start);
     return ret;
   }
 
+  /**
+   * Get the strings in this tree, the other tree, or both, as a new tree. The two trees are walked
+   * together: subtrees whose strings part before either forks share no string and are copied
+   * whole, and large binary trees are merged in parallel on the common ForkJoinPool. A tree of a
+   * different radix is first copied into this tree's radix. Neither tree may be modified during
+   * the merge.
+   *
+   * @param _other tree to merge with
+   * @return a tree holding the strings of both trees, of this tree's radix
+   */
+  public PatriciaTree union(PatriciaTree _other) {
+    return merge(_other, Node.SetOperation.UNION);
+  }
+
+  /**
+   * Get the strings in both this tree and the other tree, as a new tree. Subtrees whose strings
+   * part from the other tree's before either forks are skipped without looking at their strings.
+   * See union.
+   *
+   * @param _other tree to merge with
+   * @return a tree holding the strings in both trees, of this tree's radix
+   */
+  public PatriciaTree intersect(PatriciaTree _other) {
+    return merge(_other, Node.SetOperation.INTERSECTION);
+  }
+
+  /**
+   * Get the strings in this tree that are not in the other tree, as a new tree. See union.
+   *
+   * @param _other tree whose strings to leave out
+   * @return a tree holding the strings of this tree missing from _other, of this tree's radix
+   */
+  public PatriciaTree difference(PatriciaTree _other) {
+    return merge(_other, Node.SetOperation.DIFFERENCE);
+  }
+
+  /**
+   * Check whether every string in this tree is in the other tree, walking both trees together.
+   * The walk stops at the first subtree that holds more strings than its counterpart in _other, or
+   * whose strings part from the counterpart's before either forks.
+   *
+   * @param _other tree to look in
+   * @return true if every string in this tree is in _other
+   */
+  public boolean isSubsetOf(PatriciaTree _other) {
+    if (size > _other.size) return false;
+    if (wideRoot != null) return RadixNode.isSubset(radix, wideRoot, wideRootOf(_other));
+    return Node.isSubset(root, _other.binaryRoot());
+  }
+
+  /**
+   * Make an immutable copy of the tree laid out for reading: nodes are packed into a primitive
+   * array in breadth-first order, and keys are kept only as the labels of the edges where they
+   * part, so shared prefixes are stored once. Lookups and prefix scans on the copy are faster than
+   * on this tree, and it takes a fraction of the memory. Later changes to this tree do not affect
+   * the copy. A tree of a wider radix is first copied into a binary tree, since the copy forks on
+   * single bits.
+   *
+   * @return a frozen copy of the tree
+   */
+  public FrozenPatriciaTree freeze() {
+    if (wideRoot != null) return binaryCopy().freeze();
+    return FrozenPatriciaTree.freeze(root, size);
+  }
+
+  /**
+   * Walk the tree to summarize its shape: node count, key bytes and the depth of its keys. The
+   * walk takes time linear in the size of the tree and is not needed for anything else, so it
+   * costs nothing until it is asked for.
+   *
+   * @return statistics of the tree as it is now
+   */
+  public TreeStats stats() {
+    if (wideRoot != null) return wideRoot.stats(radix, size);
+    return TreeStats.of(root);
+  }
+
+  /**
+   * Start recording operation counts, durations and structural changes. Until this is called,
+   * operations only check that no metrics are set. Calling it again keeps the current metrics.
+   *
+   * @return metrics of the tree, which can be registered with an MBean server as a
+   *     TreeMetricsMXBean
+   */
+  public TreeMetrics enableMetrics() {
+    if (metrics == null) metrics = new TreeMetrics(stats());
+    return metrics;
+  }
+
+  /** Stop recording metrics. Metrics returned by enableMetrics keep their last values. */
+  public void disableMetrics() {
+    metrics = null;
+  }
+
+  /** @return metrics being recorded, or null if metrics are disabled */
+  public TreeMetrics metrics() {
+    return metrics;
+  }
+
+  /**
+   * Write a snapshot of the tree to a file, replacing the file if it exists. The snapshot is a
+   * compact, versioned binary layout of the tree's fork indexes and packed keys in pre-order, which
+   * mapFrom opens without deserializing. A tree of a wider radix is written as a binary copy, so
+   * that it is mapped as a binary tree.
+   *
+   * @param _path file to write to
+   * @throws IOException if the file can't be written, or the snapshot would exceed 2 GB
+   */
+  public void writeTo(Path _path) throws IOException {
+    if (wideRoot != null) {
+      binaryCopy().writeTo(_path);
+      return;
+    }
+    Snapshot.write(root, size, _path);
+  }
+
+  /**
+   * Iterate over the strings in the tree in order. Strings are decoded one at a time as the
+   * iterator advances.
+   *
+   * @return iterator over the strings in the tree
+   */
+  @Override
+  public Iterator<String> iterator() {
+    return Spliterators.iterator(spliterator());
+  }
+
+  /**
+   * Walk the strings in the tree in order. The spliterator splits along the tree's own structure,
+   * handing whole subtrees to each half, and knows the exact number of strings in each part. In a
+   * tree of a wider radix it splits off batches of strings instead.
+   *
+   * @return spliterator over the strings in the tree
+   */
+  @Override
+  public Spliterator<String> spliterator() {
+    if (wideRoot != null) {
+      return Spliterators.spliterator(
+          new FailFastIterator(wideRoot.iterator(radix)), size, WIDE_SPLITERATOR_CHARACTERISTICS);
+    }
+    return new StringSpliterator(root.spliterator());
+  }
+
+  /** @return sequential stream over the strings in the tree, in order */
+  public Stream<String> stream() {
+    return StreamSupport.stream(spliterator(), false);
+  }
+
+  /**
+   * Get a parallel stream over the tree, for bulk passes over many strings on the common
+   * ForkJoinPool. The tree must not be modified while the stream is running.
+   *
+   * @return possibly parallel stream over the strings in the tree, in order
+   */
+  public Stream<String> parallelStream() {
+    return StreamSupport.stream(spliterator(), true);
+  }
+
+  /**
+   * Find the strings in the tree that start with a prefix. The tree is descended once to the
+   * subtree holding the prefix, which is then walked lazily, so taking the first n results costs
+   * time proportional to n rather than to the size of the tree.
+   *
+   * @param _prefix prefix to search for
+   * @return sequential stream over the strings starting with _prefix, in order
+   */
+  public Stream<String> prefixScan(String _prefix) {
+    if (wideRoot != null) {
+      Iterator<String> it =
+          new FailFastIterator(
+              wideRoot.prefixIterator(radix, _prefix.getBytes(StandardCharsets.UTF_8)));
+      return StreamSupport.stream(
+          Spliterators.spliteratorUnknownSize(it, WIDE_SPLITERATOR_CHARACTERISTICS), false);
+    }
+    Spliterator<BitKey> keys = root.prefixSpliterator(Utils.strToBitKey(_prefix));
+    return StreamSupport.stream(new StringSpliterator(keys), false);
+  }
+
+  /**
+   * Find the strings in the tree within a number of edits of a query, where an edit inserts,
+   * deletes or substitutes one code point. The tree is walked with a Levenshtein automaton for the
+   * query, and a subtree is dropped as soon as the prefix its strings share is too far from every
+   * prefix of the query, so the walk visits only the paths near the query rather than the whole
+   * tree.
+   *
+   * @param _query string to match
+   * @param _maxEdits maximum number of edits
+   * @return sequential stream over the strings within _maxEdits edits of _query, in order
+   * @throws IllegalArgumentException if _maxEdits is negative
+   */
+  public Stream<String> fuzzyMatch(CharSequence _query, int _maxEdits) {
+    if (_maxEdits < 0) throw new IllegalArgumentException("negative edit count: " + _maxEdits);
+    return match(new LevenshteinAutomaton(_query, _maxEdits));
+  }
+
+  /**
+   * Find the strings in the tree matching a wildcard pattern. '*' matches any run of characters,
+   * '?' matches any single character, and '[...]' matches one character of a set, such as '[abc]'
+   * or '[a-z]', or of its complement, such as '[!0-9]'. A backslash makes the character after it
+   * literal, inside a set as well as outside, so '[\]]' matches ']'. As in fuzzyMatch, a subtree
+   * is dropped as soon as the prefix its strings share can't match the pattern.
+   *
+   * @param _glob wildcard pattern
+   * @return sequential stream over the strings matching _glob, in order
+   * @throws IllegalArgumentException if a set is not closed or holds a range whose bounds are
+   *     reversed, such as '[z-a]', or _glob ends in a backslash
+   */
+  public Stream<String> matchPattern(String _glob) {
+    return match(new GlobAutomaton(_glob));
+  }
+
+  /**
+   * Find the strings in the tree that come after a string in order. The tree is descended once
+   * along the string, dropping the subtrees before it, and the rest is walked lazily, so a walk
+   * can be resumed from the last string it returned at the cost of one descent.
+   *
+   * @param _after string the returned strings come after
+   * @return sequential stream over the strings after _after, in order
+   */
+  Stream<String> after(String _after) {
+    return match(new AfterAutomaton(_after));
+  }
+
   /** @return string representation of the tree */
   @Override
   public String toString() {
-    String ret = root.toString();
-    return "[" + ret.substring(0, ret.length() - 2) + "]";
+    StringJoiner ret = new StringJoiner(", ", "[", "]");
+    for (String s : this) ret.add(s);
+    return ret.toString();
+  }
+
+  /**
+   * Add a batch of strings to a tree of a wider radix in sorted order, resuming each insertion
+   * from the path of the previous one.
+   *
+   * @param _toAdd strings to add to the tree
+   * @return a set with bit i set if the i-th string of _toAdd was added
+   * @throws IllegalArgumentException if a string is empty
+   */
+  private BitSet addAllWide(Collection<? extends CharSequence> _toAdd) {
+    byte[][] keys = new byte[_toAdd.size()][];
+    int n = 0;
+    for (CharSequence s : _toAdd) {
+      if (s.length() == 0) throw new IllegalArgumentException("cannot add an empty string");
+      keys[n++] = s.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    BitSet ret = new BitSet(keys.length);
+    RadixNode.BatchCursor cursor = new RadixNode.BatchCursor(radix, wideRoot);
+    for (int i : sortedOrder(keys, Arrays::compareUnsigned)) {
+      if (cursor.addChild(keys[i], metrics)) {
+        ret.set(i);
+        size++;
+      }
+    }
+    if (!ret.isEmpty()) modCount++;
+
+    return ret;
+  }
+
+  /**
+   * @param _automaton automaton to run over the strings in the tree
+   * @return sequential stream over the strings _automaton accepts, in order
+   */
+  private <S> Stream<String> match(Automaton<S> _automaton) {
+    if (wideRoot != null) {
+      Iterator<String> it = new FailFastIterator(wideRoot.matchIterator(radix, _automaton));
+      return StreamSupport.stream(
+          Spliterators.spliteratorUnknownSize(it, WIDE_SPLITERATOR_CHARACTERISTICS), false);
+    }
+
+    return StreamSupport.stream(
+        new StringSpliterator(root.matchSpliterator(_automaton)), false);
+  }
+
+  /**
+   * Merge this tree with another into a new tree.
+   *
+   * @param _other tree to merge with
+   * @param _op set operation to apply
+   * @return merged tree, of this tree's radix
+   */
+  private PatriciaTree merge(PatriciaTree _other, Node.SetOperation _op) {
+    if (wideRoot == null) {
+      Node merged = Node.merge(root, _other.binaryRoot(), _op);
+      return new PatriciaTree(merged, merged.size());
+    }
+
+    RadixNode.Merge merge = new RadixNode.Merge(radix, _op);
+    RadixNode merged = merge.merge(wideRoot, wideRootOf(_other));
+    return new PatriciaTree(radix, merged, merge.size());
+  }
+
+  /** @return root of this tree, or of a binary copy if the radix is wider */
+  private Node binaryRoot() {
+    return wideRoot == null ? root : wideRoot.toBinary(radix);
+  }
+
+  /** @return a binary tree holding the strings of this tree */
+  private PatriciaTree binaryCopy() {
+    return new PatriciaTree(binaryRoot(), size);
+  }
+
+  /**
+   * @param _other a tree of any radix
+   * @return root of _other if it has this tree's radix, which is wider than Radix.BIT, or else of a
+   *     copy of it in this tree's radix
+   */
+  private RadixNode wideRootOf(PatriciaTree _other) {
+    if (_other.radix == radix) return _other.wideRoot;
+    if (_other.wideRoot != null) return _other.wideRoot.toRadix(_other.radix, radix);
+
+    RadixNode.BulkLoader loader = new RadixNode.BulkLoader(radix);
+    byte[] bytes = new byte[Constants.RADIXNODE_INITIAL_KEY_BYTES];
+    Iterator<BitKey> keys = Spliterators.iterator(_other.root.spliterator());
+    while (keys.hasNext()) {
+      BitKey k = keys.next();
+      int len = k.length() / Byte.SIZE;
+      if (len > bytes.length) bytes = new byte[Math.max(len, 2 * bytes.length)];
+      for (int i = 0; i < len; i++) bytes[i] = (byte) k.byteAt(i);
+      loader.append(bytes, len);
+    }
+    return loader.finish();
+  }
+
+  /**
+   * @param _str a string
+   * @param _numBytes length of a prefix of the UTF-8 encoding of _str that ends on a code point
+   * @return the prefix, decoded
+   */
+  private static String utf8Prefix(CharSequence _str, int _numBytes) {
+    if (_numBytes == 0) return "";
+    int charNdx = (int) (Utils.seek(_str, 0, _numBytes - 1) >>> 32);
+    String ret =
+        _str.subSequence(0, charNdx + Character.charCount(Utils.codePointAt(_str, charNdx)))
+            .toString();
+
+    // an unpaired surrogate is stored as the replacement character String.getBytes writes for it
+    for (int i = 0; i < ret.length(); i++) {
+      if (Character.isSurrogate(ret.charAt(i))) {
+        return new String(ret.getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8);
+      }
+    }
+    return ret;
+  }
+
+  /**
+   * @param _toSearch string to search for
+   * @return true if _toSearch exists in the tree, false if it does not
+   */
+  private boolean findChild(CharSequence _toSearch) {
+    return wideRoot == null ? root.findChild(_toSearch) : wideRoot.findChild(radix, _toSearch);
+  }
+
+  /**
+   * @param _toSearch array holding the bytes to search for
+   * @param _off index of the first byte in _toSearch
+   * @param _len number of bytes to search for
+   * @return true if the bytes exist in the tree, false if they do not
+   */
+  private boolean findChild(byte[] _toSearch, int _off, int _len) {
+    if (wideRoot != null) return wideRoot.findChild(radix, _toSearch, _off, _len);
+    return root.findChild(_toSearch, _off, _len);
+  }
+
+  /**
+   * @param _toSearch buffer whose bytes between position and limit are searched for
+   * @return true if the bytes exist in the tree, false if they do not
+   */
+  private boolean findChild(ByteBuffer _toSearch) {
+    if (wideRoot != null) {
+      if (_toSearch.hasArray()) {
+        return wideRoot.findChild(
+            radix,
+            _toSearch.array(),
+            _toSearch.arrayOffset() + _toSearch.position(),
+            _toSearch.remaining());
+      }
+
+      // a tree of a wider radix reads keys from arrays only
+      byte[] bytes = new byte[_toSearch.remaining()];
+      _toSearch.duplicate().get(bytes);
+      return wideRoot.findChild(radix, bytes, 0, bytes.length);
+    }
+
+    if (_toSearch.hasArray()) {
+      return root.findChild(
+          _toSearch.array(),
+          _toSearch.arrayOffset() + _toSearch.position(),
+          _toSearch.remaining());
+    }
+
+    return root.findChild(_toSearch);
+  }
+
+  /**
+   * @param _strings strings to convert
+   * @return bit keys of _strings, in iteration order
+   */
+  private static BitKey[] toBitKeys(Collection<? extends CharSequence> _strings) {
+    BitKey[] ret = new BitKey[_strings.size()];
+    int i = 0;
+    for (CharSequence s : _strings) ret[i++] = Utils.strToBitKey(s);
+    return ret;
+  }
+
+  /**
+   * @param _keys keys to visit
+   * @param _order order in which to visit them
+   * @return indexes of _keys in _order, keeping equal keys in their original order
+   */
+  private static <T> int[] sortedOrder(T[] _keys, Comparator<? super T> _order) {
+    int[] ret = new int[_keys.length];
+    boolean sorted = true;
+    for (int i = 0; i < ret.length; i++) {
+      ret[i] = i;
+      if (i > 0 && _order.compare(_keys[i - 1], _keys[i]) > 0) sorted = false;
+    }
+    if (sorted) return ret;
+
+    Integer[] indexes = new Integer[ret.length];
+    for (int i = 0; i < indexes.length; i++) indexes[i] = i;
+    Arrays.sort(indexes, (a, b) -> _order.compare(_keys[a], _keys[b]));
+    for (int i = 0; i < ret.length; i++) ret[i] = indexes[i];
+    return ret;
+  }
+
+  /**
+   * Builder loads strings given in increasing order into a new tree, as in fromSorted.
+   *
+   * @author Aditya Saligrama
+   * @version 1.0
+   */
+  public static class Builder {
+    private Node.BulkLoader loader;
+    private int size;
+
+    /** Construct a new Builder. */
+    public Builder() {
+      loader = new Node.BulkLoader();
+      size = 0;
+    }
+
+    /**
+     * Add a string that is not smaller than any string added before.
+     *
+     * @param _toAdd string to add; a repeat of the previous string is skipped
+     * @return this builder
+     * @throws IllegalArgumentException if _toAdd is empty or smaller than the previous string
+     * @throws IllegalStateException if build() was already called
+     */
+    public Builder add(CharSequence _toAdd) {
+      if (_toAdd.length() == 0) throw new IllegalArgumentException("cannot add an empty string");
+      return add(Utils.strToBitKey(_toAdd));
+    }
+
+    private Builder add(BitKey _toAdd) {
+      if (loader == null) throw new IllegalStateException("tree was already built");
+      if (loader.append(_toAdd)) size++;
+      return this;
+    }
+
+    /**
+     * Finish loading. The builder can't be used afterwards.
+     *
+     * @return a tree holding the added strings
+     * @throws IllegalStateException if build() was already called
+     */
+    public PatriciaTree build() {
+      if (loader == null) throw new IllegalStateException("tree was already built");
+      Node root = loader.finish();
+      loader = null;
+      return new PatriciaTree(root, size);
+    }
+  }
+
+  /**
+   * StringSpliterator decodes the keys of a Node spliterator, failing fast if the tree is modified.
+   */
+  private class StringSpliterator implements Spliterator<String> {
+    private final Spliterator<BitKey> keys;
+    private final int expectedModCount;
+
+    private StringSpliterator(Spliterator<BitKey> _keys) {
+      keys = _keys;
+      expectedModCount = modCount;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super String> _action) {
+      checkForComodification();
+      return keys.tryAdvance(k -> _action.accept(Utils.bitKeyToStr(k)));
+    }
+
+    @Override
+    public Spliterator<String> trySplit() {
+      checkForComodification();
+      Spliterator<BitKey> prefix = keys.trySplit();
+      return prefix == null ? null : new StringSpliterator(prefix);
+    }
+
+    @Override
+    public long estimateSize() {
+      return keys.estimateSize();
+    }
+
+    @Override
+    public int characteristics() {
+      return keys.characteristics();
+    }
+
+    private void checkForComodification() {
+      if (modCount != expectedModCount) throw new ConcurrentModificationException();
+    }
+  }
+
+  /** FailFastIterator wraps a RadixNode iterator, failing fast if the tree is modified. */
+  private class FailFastIterator implements Iterator<String> {
+    private final Iterator<String> strings;
+    private final int expectedModCount;
+
+    private FailFastIterator(Iterator<String> _strings) {
+      strings = _strings;
+      expectedModCount = modCount;
+    }
+
+    @Override
+    public boolean hasNext() {
+      checkForComodification();
+      return strings.hasNext();
+    }
+
+    @Override
+    public String next() {
+      checkForComodification();
+      return strings.next();
+    }
+
+    private void checkForComodification() {
+      if (modCount != expectedModCount) throw new ConcurrentModificationException();
+    }
   }
 }
@@ -0,0 +1,314 @@
+/*
+ * Copyright (c) 2017-2018 Aditya Saligrama.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO
+ * EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES
+ * OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.saligrama.patricia;
+
+import java.util.Arrays;
+
+/**
+ * PersistentNode is an immutable node of a PersistentPatriciaTree. It has the layout of Node, but
+ * no parent pointer and no setters: a node may be shared by any number of versions of a tree, so
+ * it can't know its parent, and is never changed once built.
+ *
+ * <p>add and remove copy only the nodes on the path of the key they change and return a new root,
+ * sharing every other subtree with the old one. Node walks back up the tree by parent pointers;
+ * here the descent is recorded on a stack instead, and the copies are built from the bottom up.
+ *
+ * @author Aditya Saligrama
+ * @version 1.0
+ */
+final class PersistentNode {
+  // initial capacity of the stack recording a descent
+  private static final int INITIAL_PATH_LEN = 32;
+
+  private final int forkIndex;
+  private final PersistentNode[] children;
+  private final BitKey[] terminates;
+
+  // number of terminal keys in the subtree rooted at this node
+  private final int size;
+
+  private PersistentNode(
+      int _forkIndex, PersistentNode[] _children, BitKey[] _terminates, int _size) {
+    forkIndex = _forkIndex;
+    children = _children;
+    terminates = _terminates;
+    size = _size;
+  }
+
+  /** @return a new, empty root node */
+  protected static PersistentNode emptyRoot() {
+    return new PersistentNode(
+        0,
+        new PersistentNode[Constants.NODE_NUM_CHILDREN],
+        new BitKey[Constants.NODE_NUM_CHILDREN],
+        0);
+  }
+
+  /** @return index of the bit this node forks on */
+  protected int forkIndex() {
+    return forkIndex;
+  }
+
+  /**
+   * @param _index bit to follow
+   * @return child of this node at _index, or null if there is none
+   */
+  protected PersistentNode child(int _index) {
+    return children[_index];
+  }
+
+  /**
+   * @param _index last bit of the terminal key
+   * @return terminal key of this node at _index, or null if there is none
+   */
+  protected BitKey terminal(int _index) {
+    return terminates[_index];
+  }
+
+  /** @return number of keys in the subtree rooted at this node */
+  protected int size() {
+    return size;
+  }
+
+  /**
+   * Search for the bit key representation of a string, reading its bits in place. Mirrors
+   * Node.findNode(CharSequence).
+   *
+   * @param _toSearch string to search for
+   * @return true if the string was found, false otherwise
+   */
+  protected boolean findChild(CharSequence _toSearch) {
+    int last = Utils.utf8Length(_toSearch) * Constants.UTILS_CHAR_BITLEN - 1;
+    long cursor = 0;
+    PersistentNode pointer = this;
+    while (pointer.forkIndex < last) {
+      cursor = Utils.seek(_toSearch, cursor, pointer.forkIndex / Constants.UTILS_CHAR_BITLEN);
+      pointer = pointer.children[Utils.bitAt(_toSearch, cursor, pointer.forkIndex)];
+      if (pointer == null) return false;
+    }
+
+    if (pointer.forkIndex != last) return false;
+    cursor = Utils.seek(_toSearch, cursor, last / Constants.UTILS_CHAR_BITLEN);
+    BitKey comp = pointer.terminates[Utils.bitAt(_toSearch, cursor, last)];
+    return comp != null && comp.matches(_toSearch);
+  }
+
+  /**
+   * Add a bit key to the tree rooted at this node, which must be a root. Follows Node.insert, but
+   * copies the nodes on the path of _toAdd instead of changing them.
+   *
+   * @param _toAdd bit key to add
+   * @return root of a tree holding the keys of this one and _toAdd, or this node if _toAdd was
+   *     already in the tree
+   */
+  protected PersistentNode insert(BitKey _toAdd) {
+    int last = _toAdd.length() - 1;
+
+    // descend as in Node.locateAddChild, recording the path
+    PersistentNode[] path = new PersistentNode[INITIAL_PATH_LEN];
+    int depth = 0;
+    PersistentNode pointer = this;
+    while (true) {
+      if (depth == path.length) path = Arrays.copyOf(path, depth * 2);
+      path[depth++] = pointer;
+      if (pointer.forkIndex >= last) break;
+      PersistentNode next = pointer.children[_toAdd.bitAt(pointer.forkIndex)];
+      if (next == null) break;
+      pointer = next;
+    }
+
+    BitKey comp = pointer.firstTerminal();
+    int j = comp == null ? last : Math.min(_toAdd.mismatch(comp), last);
+
+    // walk back to the deepest node on the path whose forkIndex is at most j
+    int top = depth - 1;
+    while (top > 0 && path[top].forkIndex > j) top--;
+    PersistentNode toModify = path[top];
+    int bit = _toAdd.bitAt(toModify.forkIndex);
+
+    PersistentNode replacement;
+    if (toModify.forkIndex == last) {
+      if (toModify.terminates[bit] != null) return this;
+      replacement = toModify.withTerminal(bit, _toAdd, 1);
+    } else {
+      PersistentNode child = toModify.children[bit];
+      if (child == null) {
+        replacement = toModify.withChild(bit, leaf(_toAdd), 1);
+      } else {
+        // splice a node forking at j between toModify and its child
+        PersistentNode[] spliceChildren = new PersistentNode[Constants.NODE_NUM_CHILDREN];
+        BitKey[] spliceTerminates = new BitKey[Constants.NODE_NUM_CHILDREN];
+        spliceChildren[comp.bitAt(j)] = child;
+        if (j == last) {
+          spliceTerminates[_toAdd.bitAt(j)] = _toAdd;
+        } else {
+          spliceChildren[_toAdd.bitAt(j)] = leaf(_toAdd);
+        }
+        PersistentNode splice =
+            new PersistentNode(j, spliceChildren, spliceTerminates, child.size + 1);
+        replacement = toModify.withChild(bit, splice, 1);
+      }
+    }
+
+    return copyPath(path, top - 1, replacement, _toAdd, 1);
+  }
+
+  /**
+   * Remove a bit key from the tree rooted at this node, which must be a root. Follows Node.detach,
+   * but copies the nodes on the path of _toRemove instead of changing them.
+   *
+   * @param _toRemove bit key to remove
+   * @return root of a tree holding the keys of this one but _toRemove, or this node if _toRemove
+   *     was not in the tree
+   */
+  protected PersistentNode remove(BitKey _toRemove) {
+    int last = _toRemove.length() - 1;
+
+    // descend as in Node.locateRemoveChild, recording the path
+    PersistentNode[] path = new PersistentNode[INITIAL_PATH_LEN];
+    int depth = 0;
+    PersistentNode pointer = this;
+    while (true) {
+      if (depth == path.length) path = Arrays.copyOf(path, depth * 2);
+      path[depth++] = pointer;
+      if (pointer.forkIndex >= last) break;
+      pointer = pointer.children[_toRemove.bitAt(pointer.forkIndex)];
+      if (pointer == null) return this;
+    }
+
+    if (pointer.forkIndex != last) return this;
+    int bit = _toRemove.bitAt(last);
+    if (!_toRemove.equals(pointer.terminates[bit])) return this;
+
+    PersistentNode located = pointer.withTerminal(bit, null, -1);
+    int top = depth - 1;
+
+    // clean up the tree as Node.detach does; the root node is never removed
+    if (top == 0 || located.terminates[1 - bit] != null) {
+      return copyPath(path, top - 1, located, _toRemove, -1);
+    }
+
+    int numChildren = located.numChildren();
+    if (numChildren == 2) return copyPath(path, top - 1, located, _toRemove, -1);
+    if (numChildren == 1) {
+      // located is left with a single child, which takes its place
+      return copyPath(path, top - 1, located.onlyChild(), _toRemove, -1);
+    }
+
+    // located is left empty, so it is unlinked from its parent
+    PersistentNode parent = path[top - 1];
+    PersistentNode replacement =
+        parent.withChild(_toRemove.bitAt(parent.forkIndex), null, -1);
+    if (top - 1 > 0
+        && replacement.terminates[0] == null
+        && replacement.terminates[1] == null
+        && replacement.numChildren() == 1) {
+      // the parent, if not the root, is left with only a child, which takes its place
+      replacement = replacement.onlyChild();
+    }
+
+    return copyPath(path, top - 2, replacement, _toRemove, -1);
+  }
+
+  /**
+   * Find any terminal key in the subtree rooted at this node, as Node.firstTerminal does.
+   *
+   * @return a terminal key, or null if the subtree is empty
+   */
+  protected BitKey firstTerminal() {
+    PersistentNode pointer = this;
+    while (pointer != null) {
+      if (pointer.terminates[0] != null) return pointer.terminates[0];
+      if (pointer.terminates[1] != null) return pointer.terminates[1];
+      pointer = pointer.children[0] != null ? pointer.children[0] : pointer.children[1];
+    }
+
+    return null;
+  }
+
+  /**
+   * Copy the nodes on a recorded path from the bottom up, linking each copy to the replacement of
+   * the node below it.
+   *
+   * @param _path recorded path, root first
+   * @param _from index in _path of the deepest node to copy
+   * @param _replacement new subtree to link below _path[_from]
+   * @param _key key whose path was recorded
+   * @param _sizeDelta change in the number of keys
+   * @return copy of the root, or _replacement if _from is below 0
+   */
+  private static PersistentNode copyPath(
+      PersistentNode[] _path, int _from, PersistentNode _replacement, BitKey _key, int _sizeDelta) {
+    PersistentNode ret = _replacement;
+    for (int i = _from; i >= 0; i--) {
+      ret = _path[i].withChild(_key.bitAt(_path[i].forkIndex), ret, _sizeDelta);
+    }
+
+    return ret;
+  }
+
+  /**
+   * @param _index index of the terminal key to replace
+   * @param _key new terminal key, or null
+   * @param _sizeDelta change in the number of keys
+   * @return a copy of this node with the terminal key at _index replaced
+   */
+  private PersistentNode withTerminal(int _index, BitKey _key, int _sizeDelta) {
+    BitKey[] newTerminates = terminates.clone();
+    newTerminates[_index] = _key;
+    return new PersistentNode(forkIndex, children, newTerminates, size + _sizeDelta);
+  }
+
+  /**
+   * @param _index index of the child to replace
+   * @param _child new child, or null
+   * @param _sizeDelta change in the number of keys
+   * @return a copy of this node with the child at _index replaced
+   */
+  private PersistentNode withChild(int _index, PersistentNode _child, int _sizeDelta) {
+    PersistentNode[] newChildren = children.clone();
+    newChildren[_index] = _child;
+    return new PersistentNode(forkIndex, newChildren, terminates, size + _sizeDelta);
+  }
+
+  /** @return number of children of this node */
+  private int numChildren() {
+    return (children[0] == null ? 0 : 1) + (children[1] == null ? 0 : 1);
+  }
+
+  /** @return the child of a node with exactly one child */
+  private PersistentNode onlyChild() {
+    return children[0] != null ? children[0] : children[1];
+  }
+
+  /**
+   * @param _key key to store
+   * @return a new node holding only _key, with forkIndex at the last bit of _key
+   */
+  private static PersistentNode leaf(BitKey _key) {
+    int last = _key.length() - 1;
+    BitKey[] terminates = new BitKey[Constants.NODE_NUM_CHILDREN];
+    terminates[_key.bitAt(last)] = _key;
+    return new PersistentNode(last, new PersistentNode[Constants.NODE_NUM_CHILDREN], terminates, 1);
+  }
+}
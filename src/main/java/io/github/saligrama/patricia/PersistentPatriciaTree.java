@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2017-2018 Aditya Saligrama.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO
+ * EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES
+ * OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.saligrama.patricia;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.StringJoiner;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * PersistentPatriciaTree is an immutable PatriciaTree. add and remove leave the tree they are
+ * called on unchanged and return a new version, which copies only the nodes on the path of the
+ * changed key and shares every other node with the old version. A change therefore costs time and
+ * space proportional to the depth of the tree, and any number of versions can be kept and read
+ * from any number of threads without locks or copying.
+ *
+ * <p>Keys are iterated in lexicographic order of their UTF-8 encoding, which is the order of their
+ * Unicode code points.
+ *
+ * @author Aditya Saligrama
+ * @version 1.0
+ */
+public final class PersistentPatriciaTree implements Iterable<String> {
+  private static final PersistentPatriciaTree EMPTY =
+      new PersistentPatriciaTree(PersistentNode.emptyRoot());
+
+  private final PersistentNode root;
+
+  private PersistentPatriciaTree(PersistentNode _root) {
+    root = _root;
+  }
+
+  /** @return the empty tree */
+  public static PersistentPatriciaTree empty() {
+    return EMPTY;
+  }
+
+  /**
+   * Build a tree holding some strings.
+   *
+   * @param _strings strings to add; duplicates are skipped
+   * @return a tree holding _strings
+   * @throws IllegalArgumentException if a string is empty
+   */
+  public static PersistentPatriciaTree of(Iterable<? extends CharSequence> _strings) {
+    PersistentNode root = PersistentNode.emptyRoot();
+    for (CharSequence s : _strings) root = root.insert(toKey(s));
+    return new PersistentPatriciaTree(root);
+  }
+
+  /** @return number of strings in the tree */
+  public int size() {
+    return root.size();
+  }
+
+  /** @return true if the tree holds no strings */
+  public boolean isEmpty() {
+    return root.size() == 0;
+  }
+
+  /**
+   * Check if a string exists in the tree. The characters are read in place, so the check does not
+   * allocate.
+   *
+   * @param _toSearch string to search for within the tree
+   * @return true if _toSearch exists in the tree, false if it does not
+   */
+  public boolean contains(CharSequence _toSearch) {
+    return root.findChild(_toSearch);
+  }
+
+  /**
+   * Get a version of the tree with a string added.
+   *
+   * @param _toAdd string to add
+   * @return a tree holding the strings of this one and _toAdd, or this tree if it holds _toAdd
+   * @throws IllegalArgumentException if _toAdd is empty
+   */
+  public PersistentPatriciaTree add(CharSequence _toAdd) {
+    PersistentNode ret = root.insert(toKey(_toAdd));
+    return ret == root ? this : new PersistentPatriciaTree(ret);
+  }
+
+  /**
+   * Get a version of the tree with a string removed.
+   *
+   * @param _toRemove string to remove
+   * @return a tree holding the strings of this one but _toRemove, or this tree if it does not hold
+   *     _toRemove
+   */
+  public PersistentPatriciaTree remove(CharSequence _toRemove) {
+    if (_toRemove.length() == 0) return this;
+    PersistentNode ret = root.remove(Utils.strToBitKey(_toRemove));
+    return ret == root ? this : new PersistentPatriciaTree(ret);
+  }
+
+  /**
+   * Iterate over the strings in the tree in order. Versions never change, so the iterator can't
+   * be invalidated.
+   *
+   * @return iterator over the strings in the tree
+   */
+  @Override
+  public Iterator<String> iterator() {
+    return new KeyIterator(root);
+  }
+
+  @Override
+  public Spliterator<String> spliterator() {
+    return Spliterators.spliterator(
+        iterator(),
+        root.size(),
+        Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL | Spliterator.IMMUTABLE);
+  }
+
+  /** @return sequential stream over the strings in the tree, in order */
+  public Stream<String> stream() {
+    return StreamSupport.stream(spliterator(), false);
+  }
+
+  /** @return string representation of the tree */
+  @Override
+  public String toString() {
+    StringJoiner ret = new StringJoiner(", ", "[", "]");
+    for (String s : this) ret.add(s);
+    return ret.toString();
+  }
+
+  private static BitKey toKey(CharSequence _key) {
+    if (_key.length() == 0) throw new IllegalArgumentException("cannot add an empty string");
+    return Utils.strToBitKey(_key);
+  }
+
+  /**
+   * KeyIterator walks a subtree in order with an explicit stack of the nodes and terminal keys
+   * still to visit, so it needs no parent pointers.
+   */
+  private static class KeyIterator implements Iterator<String> {
+    private final ArrayDeque<Object> stack = new ArrayDeque<>();
+
+    private KeyIterator(PersistentNode _root) {
+      stack.push(_root);
+    }
+
+    @Override
+    public boolean hasNext() {
+      while (!stack.isEmpty() && !(stack.peek() instanceof BitKey)) {
+        // items are pushed in reverse of the order they are visited in: t0, c0, t1, c1
+        PersistentNode node = (PersistentNode) stack.pop();
+        for (int i = Constants.NODE_NUM_CHILDREN - 1; i >= 0; i--) {
+          if (node.child(i) != null) stack.push(node.child(i));
+          if (node.terminal(i) != null) stack.push(node.terminal(i));
+        }
+      }
+
+      return !stack.isEmpty();
+    }
+
+    @Override
+    public String next() {
+      if (!hasNext()) throw new NoSuchElementException();
+      return Utils.bitKeyToStr((BitKey) stack.pop());
+    }
+  }
+}
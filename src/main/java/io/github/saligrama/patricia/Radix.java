@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2017-2018 Aditya Saligrama.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO
+ * EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES
+ * OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.saligrama.patricia;
+
+/**
+ * Radix is the number of children a node of a PatriciaTree can fork into, chosen when the tree is
+ * constructed. A binary tree forks on single bits of a key; a wider radix forks on chunks of
+ * several bits, so a key is found after passing fewer nodes.
+ *
+ * <p>Trees of a wider radix size their nodes to the children they have, as an Adaptive Radix Tree
+ * does: a node starts with room for 4 children and grows to 16, 48 and 256 as the radix allows, so
+ * sparse nodes stay small while dense ones are indexed directly.
+ *
+ * @author Aditya Saligrama
+ * @version 1.0
+ */
+public enum Radix {
+  /** Fork on single bits, 2 children per node. */
+  BIT(1),
+
+  /** Fork on pairs of bits, up to 4 children per node. */
+  DIBIT(2),
+
+  /** Fork on half bytes, up to 16 children per node. */
+  NIBBLE(4),
+
+  /** Fork on whole bytes, up to 256 children per node. */
+  BYTE(8);
+
+  private final int bits;
+
+  /** @param _bits number of key bits a node forks on */
+  Radix(int _bits) {
+    bits = _bits;
+  }
+
+  /** @return number of key bits a node forks on */
+  public int bits() {
+    return bits;
+  }
+
+  /** @return number of children a node can fork into */
+  public int fanout() {
+    return 1 << bits;
+  }
+}
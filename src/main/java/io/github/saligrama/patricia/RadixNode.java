@@ -0,0 +1,1415 @@
+/*
+ * Copyright (c) 2017-2018 Aditya Saligrama.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO
+ * EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES
+ * OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.saligrama.patricia;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * RadixNode is a node of a radix tree that forks on chunks of several bits of a key, called
+ * symbols, rather than on single bits. It backs PatriciaTree for radixes wider than Radix.BIT.
+ *
+ * <p>Nodes are path-compressed: the prefix of a node holds the symbols every key below it has
+ * between the symbol its parent branched on and the symbol it branches on itself, one symbol per
+ * byte. A key is a flag on the node its last symbol leads to, and is rebuilt from the symbols on
+ * its path when iterated over, so keys are not stored whole anywhere. The root has no prefix and is
+ * never removed.
+ *
+ * <p>Children are kept as in an Adaptive Radix Tree. Up to Constants.RADIX_MEDIUM_NODE children
+ * are kept in a sorted array of symbols with a parallel array of children, up to
+ * Constants.RADIX_INDEXED_NODE in an array of children with an index from symbol to slot, and
+ * beyond that in an array indexed by symbol directly. A node takes the smallest layout its children
+ * fit in, capped at the radix's fanout, which is always laid out directly; it grows when full and
+ * shrinks when a quarter of the smaller layout would be left free.
+ *
+ * @author Aditya Saligrama
+ * @version 1.0
+ */
+final class RadixNode {
+  // symbols between the parent's branch and this node's children, one per byte, or null if none
+  private byte[] prefix;
+
+  // true if a key ends at this node
+  private boolean terminal;
+
+  private int count;
+
+  // for a sorted layout, the symbols of the children in increasing order; for an indexed layout,
+  // the slot of each symbol's child plus one, indexed by symbol; null for a direct layout
+  private byte[] keys;
+
+  // children in the layout given by keys, or null if the node has none
+  private RadixNode[] children;
+
+  /**
+   * Construct a new RadixNode without children.
+   *
+   * @param _prefix symbols of the node's prefix, or null if it has none
+   */
+  protected RadixNode(byte[] _prefix) {
+    prefix = _prefix;
+  }
+
+  /**
+   * Check if the UTF-8 encoding of a string exists below this node, which must be the root, reading
+   * its characters in place. Does not allocate.
+   *
+   * @param _radix radix of the tree
+   * @param _toFind string to search for
+   * @return true if _toFind exists, false if it does not
+   */
+  protected boolean findChild(Radix _radix, CharSequence _toFind) {
+    return find(_radix, _toFind, 0, null);
+  }
+
+  /**
+   * Check if a key given as bytes exists below this node, which must be the root. Does not
+   * allocate.
+   *
+   * @param _radix radix of the tree
+   * @param _toFind array holding the key
+   * @param _off index of the key's first byte
+   * @param _len number of bytes in the key
+   * @return true if the key exists, false if it does not
+   */
+  protected boolean findChild(Radix _radix, byte[] _toFind, int _off, int _len) {
+    int bits = _radix.bits();
+    int length = _len * Byte.SIZE / bits;
+    RadixNode pointer = this;
+    int depth = 0;
+    while (true) {
+      byte[] p = pointer.prefix;
+      if (p != null) {
+        if (depth + p.length > length) return false;
+        for (int i = 0; i < p.length; i++, depth++) {
+          if (symbolAt(_toFind, _off, depth, bits) != (p[i] & 0xFF)) return false;
+        }
+      }
+      if (depth == length) return pointer.terminal;
+
+      pointer = pointer.child(symbolAt(_toFind, _off, depth, bits));
+      if (pointer == null) return false;
+      depth++;
+    }
+  }
+
+  /**
+   * Find the longest key below this node, which must be the root, that is a prefix of the UTF-8
+   * encoding of a string, reading its characters in place. Does not allocate.
+   *
+   * @param _radix radix of the tree
+   * @param _str string to find a prefix of
+   * @return number of bytes in the longest such key, or -1 if there is none
+   */
+  protected int longestPrefixOf(Radix _radix, CharSequence _str) {
+    int bits = _radix.bits();
+    int length = Utils.utf8Length(_str) * Byte.SIZE / bits;
+    int found = -1;
+    long cursor = 0;
+    RadixNode pointer = this;
+    int depth = 0;
+    while (true) {
+      byte[] p = pointer.prefix;
+      if (p != null) {
+        if (depth + p.length > length) break;
+        for (int i = 0; i < p.length; i++, depth++) {
+          int bitNdx = depth * bits;
+          cursor = Utils.seek(_str, cursor, bitNdx >>> 3);
+          int b = Utils.byteAt(_str, cursor, bitNdx >>> 3);
+          if (symbol(b, bitNdx, bits) != (p[i] & 0xFF)) return toBytes(found, bits);
+        }
+      }
+      if (pointer.terminal) found = depth;
+      if (depth == length) break;
+
+      int bitNdx = depth * bits;
+      cursor = Utils.seek(_str, cursor, bitNdx >>> 3);
+      pointer = pointer.child(symbol(Utils.byteAt(_str, cursor, bitNdx >>> 3), bitNdx, bits));
+      if (pointer == null) break;
+      depth++;
+    }
+
+    return toBytes(found, bits);
+  }
+
+  /**
+   * Add a key below this node, which must be the root, recording the changes in metrics.
+   *
+   * @param _radix radix of the tree
+   * @param _toAdd bytes of a non-empty key
+   * @param _metrics metrics to record the changes to the tree in, or null to record nothing
+   * @return true if _toAdd was added, false if it already existed
+   */
+  protected boolean addChild(Radix _radix, byte[] _toAdd, TreeMetrics _metrics) {
+    return insert(_radix, _toAdd, 0, null, _metrics);
+  }
+
+  /**
+   * Remove a key from below this node, which must be the root, merging nodes left with a single
+   * child and no key into that child, and recording the changes in metrics.
+   *
+   * @param _radix radix of the tree
+   * @param _toRemove bytes of the key
+   * @param _metrics metrics to record the changes to the tree in, or null to record nothing
+   * @return true if _toRemove was removed, false if it was not there
+   */
+  protected boolean removeChild(Radix _radix, byte[] _toRemove, TreeMetrics _metrics) {
+    int bits = _radix.bits();
+    int length = _toRemove.length * Byte.SIZE / bits;
+
+    // the path to the node holding _toRemove, two levels up
+    RadixNode grandparent = null;
+    RadixNode parent = null;
+    int parentBranch = 0;
+    int branch = 0;
+    RadixNode pointer = this;
+    int depth = 0;
+    while (true) {
+      byte[] p = pointer.prefix;
+      if (p != null) {
+        if (depth + p.length > length) return false;
+        for (int i = 0; i < p.length; i++, depth++) {
+          if (symbolAt(_toRemove, 0, depth, bits) != (p[i] & 0xFF)) return false;
+        }
+      }
+      if (depth == length) break;
+
+      int symbol = symbolAt(_toRemove, 0, depth, bits);
+      RadixNode next = pointer.child(symbol);
+      if (next == null) return false;
+      grandparent = parent;
+      parentBranch = branch;
+      parent = pointer;
+      branch = symbol;
+      pointer = next;
+      depth++;
+    }
+
+    if (!pointer.terminal) return false;
+    pointer.terminal = false;
+
+    // clean up the tree; the root node is never removed
+    int removedNodes = 0;
+    int merges = 0;
+    if (parent != null && pointer.count == 0) {
+      // pointer is orphaned and can be unlinked; if that leaves its parent with a single child and
+      // no key, the parent is merged into that child, as long as the parent isn't the root
+      parent.delete(_radix, branch);
+      removedNodes++;
+      if (grandparent != null && !parent.terminal && parent.count == 1) {
+        grandparent.replace(parentBranch, parent.mergeIntoChild(_radix));
+        removedNodes++;
+        merges++;
+      }
+    } else if (parent != null && pointer.count == 1) {
+      parent.replace(branch, pointer.mergeIntoChild(_radix));
+      removedNodes++;
+      merges++;
+    }
+    if (_metrics != null) _metrics.removed(_toRemove.length, removedNodes, merges);
+
+    return true;
+  }
+
+  /**
+   * @param _radix radix of the tree
+   * @return iterator over the keys below this node, which must be the root, in order
+   */
+  protected Iterator<String> iterator(Radix _radix) {
+    KeyIterator ret = new KeyIterator(_radix, new byte[Constants.RADIXNODE_INITIAL_KEY_BYTES]);
+    ret.push(this, 0, 0, null);
+    return ret;
+  }
+
+  /**
+   * Walk the keys below this node, which must be the root, that an automaton accepts, dropping each
+   * subtree as soon as the symbols its keys share lead the automaton to a dead state.
+   *
+   * @param _radix radix of the tree
+   * @param _automaton automaton to run over the keys
+   * @return iterator over the accepted keys, in order
+   */
+  protected <S> Iterator<String> matchIterator(Radix _radix, Automaton<S> _automaton) {
+    KeyIterator ret = new KeyIterator(_radix, new byte[Constants.RADIXNODE_INITIAL_KEY_BYTES]);
+    ret.push(this, 0, 0, new Automaton.Run<>(_automaton));
+    return ret;
+  }
+
+  /**
+   * Descend once to the keys below this node, which must be the root, that start with a prefix,
+   * and walk them.
+   *
+   * @param _radix radix of the tree
+   * @param _prefix bytes every returned key starts with
+   * @return iterator over the matching keys, in order
+   */
+  protected Iterator<String> prefixIterator(Radix _radix, byte[] _prefix) {
+    int bits = _radix.bits();
+    int length = _prefix.length * Byte.SIZE / bits;
+    KeyIterator ret =
+        new KeyIterator(
+            _radix,
+            Arrays.copyOf(
+                _prefix, Math.max(_prefix.length, Constants.RADIXNODE_INITIAL_KEY_BYTES)));
+
+    RadixNode pointer = this;
+    int branch = 0;
+    int depth = 0;
+    while (true) {
+      // only the part of the prefix of pointer that _prefix covers has to match
+      byte[] p = pointer.prefix;
+      int plen = p == null ? 0 : p.length;
+      for (int i = 0; i < plen && depth + i < length; i++) {
+        if (symbolAt(_prefix, 0, depth + i, bits) != (p[i] & 0xFF)) return ret;
+      }
+      if (depth + plen >= length) {
+        ret.push(pointer, depth, branch, null);
+        return ret;
+      }
+
+      depth += plen;
+      branch = symbolAt(_prefix, 0, depth, bits);
+      pointer = pointer.child(branch);
+      if (pointer == null) return ret;
+      depth++;
+    }
+  }
+
+  /**
+   * Walk the tree below this node, which must be the root, to summarize its shape.
+   *
+   * @param _radix radix of the tree
+   * @param _size number of keys in the tree
+   * @return statistics of the tree
+   */
+  protected TreeStats stats(Radix _radix, int _size) {
+    long nodeCount = 0;
+    long keyBytes = 0;
+    long[] depthCounts = new long[Constants.STATS_INITIAL_DEPTHS];
+    int maxDepth = -1;
+
+    // nodes are pushed along with the number of nodes above them and the number of symbols before
+    // their prefix, which are kept in parallel stacks
+    RadixNode[] nodes = new RadixNode[Constants.STATS_INITIAL_DEPTHS];
+    int[] depths = new int[nodes.length];
+    int[] offsets = new int[nodes.length];
+    int[] symbols = new int[_radix.fanout()];
+    RadixNode[] kids = new RadixNode[_radix.fanout()];
+    int top = 0;
+    nodes[top++] = this;
+    while (top > 0) {
+      RadixNode n = nodes[--top];
+      nodes[top] = null;
+      int depth = depths[top];
+      int end = offsets[top] + (n.prefix == null ? 0 : n.prefix.length);
+      nodeCount++;
+
+      if (n.terminal) {
+        if (depth >= depthCounts.length) {
+          depthCounts = Arrays.copyOf(depthCounts, Math.max(depth + 1, 2 * depthCounts.length));
+        }
+        depthCounts[depth]++;
+        maxDepth = Math.max(maxDepth, depth);
+        keyBytes += toBytes(end, _radix.bits());
+      }
+
+      int numChildren = n.collectChildren(_radix, symbols, kids);
+      if (top + numChildren > nodes.length) {
+        int len = Math.max(top + numChildren, 2 * nodes.length);
+        nodes = Arrays.copyOf(nodes, len);
+        depths = Arrays.copyOf(depths, len);
+        offsets = Arrays.copyOf(offsets, len);
+      }
+      for (int i = 0; i < numChildren; i++, top++) {
+        nodes[top] = kids[i];
+        depths[top] = depth + 1;
+        offsets[top] = end + 1;
+      }
+    }
+
+    depthCounts = Arrays.copyOf(depthCounts, maxDepth + 1);
+    return new TreeStats(_size, nodeCount, keyBytes, depthCounts);
+  }
+
+  /**
+   * Check whether every key below one root is below another of the same radix, walking both trees
+   * together as Merge does. The walk stops at the first key of the left tree the right tree can't
+   * hold: one that parts from the right tree's keys within a prefix, or ends where the right tree
+   * has no key.
+   *
+   * @param _radix radix of both trees
+   * @param _left root of the tree whose keys are looked for
+   * @param _right root of the tree to look in
+   * @return true if every key below _left is below _right
+   */
+  protected static boolean isSubset(Radix _radix, RadixNode _left, RadixNode _right) {
+    int[] symbols = new int[_radix.fanout()];
+    RadixNode[] kids = new RadixNode[_radix.fanout()];
+    ArrayDeque<Frame> stack = new ArrayDeque<>();
+    stack.push(new Frame(_left, 0, _right, 0, null, 0));
+    while (!stack.isEmpty()) {
+      Frame pair = stack.pop();
+      RadixNode a = pair.left;
+      RadixNode b = pair.right;
+      int la = length(a.prefix) - pair.leftFrom;
+      int lb = length(b.prefix) - pair.rightFrom;
+      int c = common(a.prefix, pair.leftFrom, b.prefix, pair.rightFrom);
+
+      // a node below the root always has a key below it
+      if (c < la && c < lb) return false;
+      if (c < la) {
+        // every key of a takes the same branch at the end of b's prefix
+        RadixNode next = b.child(a.prefix[pair.leftFrom + c] & 0xFF);
+        if (next == null) return false;
+        stack.push(new Frame(a, pair.leftFrom + c + 1, next, 0, null, 0));
+        continue;
+      }
+
+      // below the end of a's prefix, b either ends too or has a single branch
+      boolean aligned = c == lb;
+      if (a.terminal && (!aligned || !b.terminal)) return false;
+      int n = a.collectChildren(_radix, symbols, kids);
+      for (int i = 0; i < n; i++) {
+        RadixNode next = kids[i];
+        kids[i] = null;
+        if (aligned) {
+          RadixNode other = b.child(symbols[i]);
+          if (other == null) return false;
+          stack.push(new Frame(next, 0, other, 0, null, 0));
+        } else {
+          if (symbols[i] != (b.prefix[pair.rightFrom + c] & 0xFF)) return false;
+          stack.push(new Frame(next, 0, b, pair.rightFrom + c + 1, null, 0));
+        }
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * Copy the keys below this node, which must be the root, into a binary tree, loading their bytes
+   * in order without decoding them to strings.
+   *
+   * @param _radix radix of the tree
+   * @return root of the binary tree
+   */
+  protected Node toBinary(Radix _radix) {
+    KeyIterator it = new KeyIterator(_radix, new byte[Constants.RADIXNODE_INITIAL_KEY_BYTES]);
+    it.push(this, 0, 0, null);
+    Node.BulkLoader loader = new Node.BulkLoader();
+    while (it.hasNext()) {
+      int len = it.nextBytes();
+      loader.append(Utils.bytesToBitKey(it.buffer, 0, len * Byte.SIZE));
+    }
+    return loader.finish();
+  }
+
+  /**
+   * Copy the keys below this node, which must be the root, into a tree of another radix, loading
+   * their bytes in order without decoding them to strings.
+   *
+   * @param _radix radix of the tree
+   * @param _to radix of the copy, wider than Radix.BIT
+   * @return root of the copy
+   */
+  protected RadixNode toRadix(Radix _radix, Radix _to) {
+    KeyIterator it = new KeyIterator(_radix, new byte[Constants.RADIXNODE_INITIAL_KEY_BYTES]);
+    it.push(this, 0, 0, null);
+    BulkLoader loader = new BulkLoader(_to);
+    while (it.hasNext()) {
+      int len = it.nextBytes();
+      loader.append(it.buffer, len);
+    }
+    return loader.finish();
+  }
+
+  /**
+   * @param _symbol symbol to branch on
+   * @return the child for _symbol, or null if there is none
+   */
+  private RadixNode child(int _symbol) {
+    int slot = slot(_symbol);
+    return slot < 0 ? null : children[slot];
+  }
+
+  /**
+   * @param _symbol symbol to branch on
+   * @return index of the child for _symbol in children, or -1 if there is no room for it
+   */
+  private int slot(int _symbol) {
+    if (children == null) return -1;
+    if (keys == null) return _symbol;
+    if (keys.length > children.length) return keys[_symbol] - 1;
+
+    for (int i = 0; i < count; i++) {
+      int k = keys[i] & 0xFF;
+      if (k >= _symbol) return k == _symbol ? i : -1;
+    }
+    return -1;
+  }
+
+  /**
+   * @param _symbol symbol of an existing child
+   * @param _child node to replace it with
+   */
+  private void replace(int _symbol, RadixNode _child) {
+    children[slot(_symbol)] = _child;
+  }
+
+  /**
+   * Add a child, growing the node if it is full.
+   *
+   * @param _radix radix of the tree
+   * @param _symbol symbol the node has no child for yet
+   * @param _child new child
+   */
+  private void put(Radix _radix, int _symbol, RadixNode _child) {
+    if (children == null) {
+      resize(_radix, Math.min(Constants.RADIX_SMALL_NODE, _radix.fanout()));
+    } else if (count == children.length) {
+      int capacity =
+          count < Constants.RADIX_MEDIUM_NODE
+              ? Constants.RADIX_MEDIUM_NODE
+              : count < Constants.RADIX_INDEXED_NODE
+                  ? Constants.RADIX_INDEXED_NODE
+                  : _radix.fanout();
+      resize(_radix, Math.min(capacity, _radix.fanout()));
+    }
+
+    if (keys == null) {
+      children[_symbol] = _child;
+    } else if (keys.length > children.length) {
+      int slot = 0;
+      while (children[slot] != null) slot++;
+      children[slot] = _child;
+      keys[_symbol] = (byte) (slot + 1);
+    } else {
+      int i = count;
+      for (; i > 0 && (keys[i - 1] & 0xFF) > _symbol; i--) {
+        keys[i] = keys[i - 1];
+        children[i] = children[i - 1];
+      }
+      keys[i] = (byte) _symbol;
+      children[i] = _child;
+    }
+    count++;
+  }
+
+  /**
+   * Remove a child, shrinking the node once it fits a smaller layout with a quarter of it free.
+   *
+   * @param _radix radix of the tree
+   * @param _symbol symbol of an existing child
+   */
+  private void delete(Radix _radix, int _symbol) {
+    int slot = slot(_symbol);
+    if (keys == null) {
+      children[slot] = null;
+    } else if (keys.length > children.length) {
+      children[slot] = null;
+      keys[_symbol] = 0;
+    } else {
+      System.arraycopy(keys, slot + 1, keys, slot, count - slot - 1);
+      System.arraycopy(children, slot + 1, children, slot, count - slot - 1);
+      children[count - 1] = null;
+    }
+    count--;
+
+    int capacity = children.length;
+    int smaller =
+        capacity > Constants.RADIX_INDEXED_NODE
+            ? Constants.RADIX_INDEXED_NODE
+            : capacity > Constants.RADIX_MEDIUM_NODE
+                ? Constants.RADIX_MEDIUM_NODE
+                : Constants.RADIX_SMALL_NODE;
+    if (count == 0) {
+      keys = null;
+      children = null;
+    } else if (smaller < capacity && count <= smaller - smaller / 4) {
+      resize(_radix, smaller);
+    }
+  }
+
+  /**
+   * Move the children to a layout of a given capacity.
+   *
+   * @param _radix radix of the tree
+   * @param _capacity number of children the new layout has room for, at least count
+   */
+  private void resize(Radix _radix, int _capacity) {
+    int[] symbols = new int[count];
+    RadixNode[] kids = new RadixNode[count];
+    int n = collectChildren(_radix, symbols, kids);
+    layOut(_radix, _capacity, symbols, kids, n);
+  }
+
+  /**
+   * Replace the children with the given ones, in a layout of a given capacity.
+   *
+   * @param _radix radix of the tree
+   * @param _capacity number of children the layout has room for, at least _count
+   * @param _symbols symbols of the children, in increasing order
+   * @param _children the children
+   * @param _count number of children
+   */
+  private void layOut(
+      Radix _radix, int _capacity, int[] _symbols, RadixNode[] _children, int _count) {
+    int fanout = _radix.fanout();
+    count = _count;
+    children = new RadixNode[_capacity];
+    if (_capacity == fanout) {
+      keys = null;
+      for (int i = 0; i < _count; i++) children[_symbols[i]] = _children[i];
+    } else if (_capacity == Constants.RADIX_INDEXED_NODE) {
+      keys = new byte[fanout];
+      for (int i = 0; i < _count; i++) {
+        children[i] = _children[i];
+        keys[_symbols[i]] = (byte) (i + 1);
+      }
+    } else {
+      keys = new byte[_capacity];
+      for (int i = 0; i < _count; i++) {
+        children[i] = _children[i];
+        keys[i] = (byte) _symbols[i];
+      }
+    }
+  }
+
+  /**
+   * Copy out the children in order of their symbols.
+   *
+   * @param _radix radix of the tree
+   * @param _symbols array to put the symbols of the children in, with room for all of them
+   * @param _children array to put the children in, with room for all of them
+   * @return number of children
+   */
+  private int collectChildren(Radix _radix, int[] _symbols, RadixNode[] _children) {
+    if (children == null) return 0;
+    if (keys != null && keys.length <= children.length) {
+      for (int i = 0; i < count; i++) {
+        _symbols[i] = keys[i] & 0xFF;
+        _children[i] = children[i];
+      }
+      return count;
+    }
+
+    int n = 0;
+    for (int s = 0; s < _radix.fanout() && n < count; s++) {
+      int slot = keys == null ? s : keys[s] - 1;
+      if (slot >= 0 && children[slot] != null) {
+        _symbols[n] = s;
+        _children[n++] = children[slot];
+      }
+    }
+    return n;
+  }
+
+  /**
+   * Merge this node, which has a single child and no key, into its child.
+   *
+   * @param _radix radix of the tree
+   * @return the child, now holding this node's prefix and branch ahead of its own prefix
+   */
+  private RadixNode mergeIntoChild(Radix _radix) {
+    int[] symbol = new int[1];
+    RadixNode[] child = new RadixNode[1];
+    collectChildren(_radix, symbol, child);
+
+    RadixNode ret = child[0];
+    ret.prefix = join(prefix, symbol[0], ret.prefix);
+    return ret;
+  }
+
+  /**
+   * @param _prefix symbols of a node's prefix, or null
+   * @param _symbol symbol the node branches on to its child
+   * @param _childPrefix symbols of the child's prefix, or null
+   * @return the symbols of both prefixes with the branch between them
+   */
+  private static byte[] join(byte[] _prefix, int _symbol, byte[] _childPrefix) {
+    int len = length(_prefix);
+    int childLen = length(_childPrefix);
+    byte[] ret = new byte[len + 1 + childLen];
+    if (_prefix != null) System.arraycopy(_prefix, 0, ret, 0, len);
+    ret[len] = (byte) _symbol;
+    if (_childPrefix != null) System.arraycopy(_childPrefix, 0, ret, len + 1, childLen);
+    return ret;
+  }
+
+  /**
+   * Search for the UTF-8 encoding of a string below this node, reading its characters in place.
+   *
+   * @param _radix radix of the tree
+   * @param _toFind string to search for, whose encoding starts with the symbols up to this node
+   * @param _depth number of symbols up to this node, including its prefix
+   * @param _path cursor to record the nodes passed on, or null
+   * @return true if _toFind exists, false if it does not
+   */
+  private boolean find(Radix _radix, CharSequence _toFind, int _depth, BatchCursor _path) {
+    int bits = _radix.bits();
+    int length = Utils.utf8Length(_toFind) * Byte.SIZE / bits;
+    long cursor = 0;
+    RadixNode pointer = this;
+    int depth = _depth;
+    while (true) {
+      if (_path != null) _path.push(pointer, depth);
+      if (depth == length) return pointer.terminal;
+
+      int bitNdx = depth * bits;
+      cursor = Utils.seek(_toFind, cursor, bitNdx >>> 3);
+      pointer = pointer.child(symbol(Utils.byteAt(_toFind, cursor, bitNdx >>> 3), bitNdx, bits));
+      if (pointer == null) return false;
+      depth++;
+
+      byte[] p = pointer.prefix;
+      if (p != null) {
+        if (depth + p.length > length) return false;
+        for (int i = 0; i < p.length; i++, depth++) {
+          bitNdx = depth * bits;
+          cursor = Utils.seek(_toFind, cursor, bitNdx >>> 3);
+          int b = Utils.byteAt(_toFind, cursor, bitNdx >>> 3);
+          if (symbol(b, bitNdx, bits) != (p[i] & 0xFF)) return false;
+        }
+      }
+    }
+  }
+
+  /**
+   * Add a key below this node, splicing in a node where the key leaves the prefix of a child.
+   *
+   * @param _radix radix of the tree
+   * @param _toAdd bytes of a non-empty key, starting with the symbols up to this node
+   * @param _depth number of symbols up to this node, including its prefix
+   * @param _path cursor to record the nodes passed on, or null
+   * @param _metrics metrics to record the changes to the tree in, or null to record nothing
+   * @return true if _toAdd was added, false if it already existed
+   */
+  private boolean insert(
+      Radix _radix, byte[] _toAdd, int _depth, BatchCursor _path, TreeMetrics _metrics) {
+    int bits = _radix.bits();
+    int length = _toAdd.length * Byte.SIZE / bits;
+    int compared = 0;
+    RadixNode pointer = this;
+    int depth = _depth;
+    while (true) {
+      if (_path != null) _path.push(pointer, depth);
+      if (depth == length) {
+        if (_metrics != null) _metrics.searched(compared * bits, 0);
+        if (pointer.terminal) return false;
+        pointer.terminal = true;
+        if (_metrics != null) _metrics.added(_toAdd.length, 0, false);
+        return true;
+      }
+
+      int symbol = symbolAt(_toAdd, 0, depth, bits);
+      RadixNode next = pointer.child(symbol);
+      if (next == null) {
+        pointer.put(_radix, symbol, leaf(_toAdd, depth + 1, length, bits));
+        if (_metrics != null) {
+          _metrics.searched(compared * bits, 0);
+          _metrics.added(_toAdd.length, 1, false);
+        }
+        return true;
+      }
+      depth++;
+
+      byte[] p = next.prefix;
+      if (p != null) {
+        int common = 0;
+        int max = Math.min(p.length, length - depth);
+        while (common < max && (p[common] & 0xFF) == symbolAt(_toAdd, 0, depth + common, bits)) {
+          common++;
+        }
+        compared += common < max ? common + 1 : common;
+
+        if (common < p.length) {
+          // _toAdd leaves the prefix of next: splice in a node branching there
+          RadixNode splice = new RadixNode(common == 0 ? null : Arrays.copyOf(p, common));
+          next.prefix = common + 1 == p.length ? null : Arrays.copyOfRange(p, common + 1, p.length);
+          splice.put(_radix, p[common] & 0xFF, next);
+
+          depth += common;
+          if (depth == length) {
+            splice.terminal = true;
+          } else {
+            int branch = symbolAt(_toAdd, 0, depth, bits);
+            splice.put(_radix, branch, leaf(_toAdd, depth + 1, length, bits));
+          }
+          pointer.replace(symbol, splice);
+          if (_metrics != null) {
+            _metrics.searched(compared * bits, 0);
+            _metrics.added(_toAdd.length, depth == length ? 1 : 2, true);
+          }
+          return true;
+        }
+        depth += p.length;
+      }
+      pointer = next;
+    }
+  }
+
+  /**
+   * @param _key bytes of a key
+   * @param _from index of the first symbol of the leaf's prefix
+   * @param _length number of symbols in the key
+   * @param _bits number of bits in a symbol
+   * @return a leaf holding the key, with the symbols from _from on as its prefix
+   */
+  private static RadixNode leaf(byte[] _key, int _from, int _length, int _bits) {
+    byte[] prefix = null;
+    if (_from < _length) {
+      prefix = new byte[_length - _from];
+      for (int i = 0; i < prefix.length; i++) {
+        prefix[i] = (byte) symbolAt(_key, 0, _from + i, _bits);
+      }
+    }
+
+    RadixNode ret = new RadixNode(prefix);
+    ret.terminal = true;
+    return ret;
+  }
+
+  /**
+   * @param _bytes array holding a key
+   * @param _off index of the key's first byte
+   * @param _index index of a symbol of the key
+   * @param _bits number of bits in a symbol
+   * @return the symbol
+   */
+  private static int symbolAt(byte[] _bytes, int _off, int _index, int _bits) {
+    int bitNdx = _index * _bits;
+    return symbol(_bytes[_off + (bitNdx >>> 3)] & 0xFF, bitNdx, _bits);
+  }
+
+  /**
+   * @param _byte byte holding a symbol
+   * @param _bitNdx index of the symbol's first bit within the key
+   * @param _bits number of bits in a symbol
+   * @return the symbol
+   */
+  private static int symbol(int _byte, int _bitNdx, int _bits) {
+    return (_byte >>> (Byte.SIZE - _bits - (_bitNdx & 7))) & ((1 << _bits) - 1);
+  }
+
+  /**
+   * @param _symbols number of symbols, or -1
+   * @param _bits number of bits in a symbol
+   * @return number of bytes the symbols take, or -1
+   */
+  private static int toBytes(int _symbols, int _bits) {
+    return _symbols < 0 ? -1 : _symbols * _bits / Byte.SIZE;
+  }
+
+  /**
+   * @param _radix radix of the tree
+   * @param _count number of children
+   * @return capacity of the smallest layout the children fit in
+   */
+  private static int capacityFor(Radix _radix, int _count) {
+    int capacity =
+        _count <= Constants.RADIX_SMALL_NODE
+            ? Constants.RADIX_SMALL_NODE
+            : _count <= Constants.RADIX_MEDIUM_NODE
+                ? Constants.RADIX_MEDIUM_NODE
+                : _count <= Constants.RADIX_INDEXED_NODE
+                    ? Constants.RADIX_INDEXED_NODE
+                    : _radix.fanout();
+    return Math.min(capacity, _radix.fanout());
+  }
+
+  /**
+   * @param _prefix symbols of a prefix, or null
+   * @return number of symbols in _prefix
+   */
+  private static int length(byte[] _prefix) {
+    return _prefix == null ? 0 : _prefix.length;
+  }
+
+  /**
+   * @param _first symbols of a prefix, or null
+   * @param _firstFrom index of the first symbol of _first to compare
+   * @param _second symbols of another prefix, or null
+   * @param _secondFrom index of the first symbol of _second to compare
+   * @return number of symbols the two prefixes share from those indexes on
+   */
+  private static int common(byte[] _first, int _firstFrom, byte[] _second, int _secondFrom) {
+    int max = Math.min(length(_first) - _firstFrom, length(_second) - _secondFrom);
+    int ret = 0;
+    while (ret < max && _first[_firstFrom + ret] == _second[_secondFrom + ret]) ret++;
+    return ret;
+  }
+
+  /**
+   * BatchCursor looks up and adds a sequence of keys, resuming each descent from the path of the
+   * previous key rather than from the root. Two keys take the same path through every node whose
+   * prefix ends before the first symbol at which they differ, so a key only needs to descend from
+   * the deepest such node on the previous key's path. For sorted batches neighbouring keys share
+   * long prefixes, and most of each descent is skipped.
+   *
+   * <p>The path is a stack of the nodes the previous key passed, each with the number of symbols
+   * up to the end of its prefix. Adding a key never changes the prefix of a node on the path, since
+   * a splice only shortens the prefix of the node below the last one passed.
+   */
+  static final class BatchCursor {
+    private final Radix radix;
+
+    // nodes on the path of the previous key, from the root down, and the symbols up to each one
+    private RadixNode[] nodes = new RadixNode[16];
+    private int[] ends = new int[16];
+    private int top;
+
+    private byte[] previous;
+    private CharSequence previousStr;
+
+    /**
+     * @param _radix radix of the tree to work on
+     * @param _root root of the tree to work on
+     */
+    protected BatchCursor(Radix _radix, RadixNode _root) {
+      radix = _radix;
+      push(_root, 0);
+    }
+
+    /**
+     * Search for the UTF-8 encoding of a string, starting from the path of the previous string and
+     * reading its characters in place. Mirrors RadixNode.findChild(Radix, CharSequence).
+     *
+     * @param _toSearch string to search for
+     * @return true if the string was found, false otherwise
+     */
+    protected boolean findChild(CharSequence _toSearch) {
+      int shared = previousStr == null ? 0 : Utils.commonUtf8Length(_toSearch, previousStr);
+      RadixNode start = resume(shared * Byte.SIZE / radix.bits());
+      previousStr = _toSearch;
+      return start.find(radix, _toSearch, ends[top], this);
+    }
+
+    /**
+     * Add a key to the tree, starting from the path of the previous key and recording the changes
+     * in metrics.
+     *
+     * @param _toAdd bytes of a non-empty key
+     * @param _metrics metrics to record the changes to the tree in, or null to record nothing
+     * @return true if _toAdd was added, false if it already existed
+     */
+    protected boolean addChild(byte[] _toAdd, TreeMetrics _metrics) {
+      int shared = 0;
+      if (previous != null) {
+        shared = Arrays.mismatch(_toAdd, previous);
+        if (shared < 0) shared = _toAdd.length;
+      }
+      RadixNode start = resume(shared * Byte.SIZE / radix.bits());
+      previous = _toAdd;
+      return start.insert(radix, _toAdd, ends[top], this, _metrics);
+    }
+
+    /**
+     * Pop the path back to the deepest node on the path of the next key, and pop that node too, so
+     * that the descent from it pushes it again. Its number of symbols is left at ends[top].
+     *
+     * @param _shared number of leading symbols the next key is known to share with the previous key
+     * @return the deepest node on the path of the next key
+     */
+    private RadixNode resume(int _shared) {
+      // the root ends at 0 symbols, so it is never popped here
+      while (ends[top - 1] > _shared) nodes[--top] = null;
+      RadixNode ret = nodes[--top];
+      nodes[top] = null;
+      return ret;
+    }
+
+    /**
+     * @param _node node passed by the current key
+     * @param _end number of symbols up to the end of the prefix of _node
+     */
+    private void push(RadixNode _node, int _end) {
+      if (top == nodes.length) {
+        nodes = Arrays.copyOf(nodes, top * 2);
+        ends = Arrays.copyOf(ends, top * 2);
+      }
+      nodes[top] = _node;
+      ends[top++] = _end;
+    }
+  }
+
+  /**
+   * BulkLoader builds a tree bottom-up from keys given in increasing order, as Node.BulkLoader does
+   * for binary trees. Only the rightmost path of the tree can change, so it is kept as a stack of
+   * nodes, each with the index of the first symbol of its prefix, and each key is compared only
+   * with the one before it: it splits the deepest node on the path whose prefix it leaves, or
+   * hangs below the last node if it extends the previous key.
+   */
+  static final class BulkLoader {
+    private final Radix radix;
+    private final RadixNode root = new RadixNode(null);
+
+    // rightmost path from the root down, and the index of the first symbol of each one's prefix
+    private RadixNode[] nodes = new RadixNode[16];
+    private int[] starts = new int[16];
+    private int top;
+
+    // bytes of the previous key, of which the first previousBytes are used, or -1 before the first
+    private byte[] previous = new byte[Constants.RADIXNODE_INITIAL_KEY_BYTES];
+    private int previousBytes = -1;
+
+    /** @param _radix radix of the tree to build */
+    protected BulkLoader(Radix _radix) {
+      radix = _radix;
+      nodes[top++] = root;
+    }
+
+    /**
+     * Append a key that is not smaller than any key appended before.
+     *
+     * @param _key array holding the bytes of a non-empty key, which is copied
+     * @param _len number of bytes in the key
+     * @return true if the key was added, false if it repeats the previous key
+     * @throws IllegalArgumentException if the key is smaller than the previous key
+     */
+    protected boolean append(byte[] _key, int _len) {
+      int bits = radix.bits();
+      int length = _len * Byte.SIZE / bits;
+      int shared = 0;
+      if (previousBytes >= 0) {
+        int m = Arrays.mismatch(_key, 0, _len, previous, 0, previousBytes);
+        if (m < 0) return false;
+
+        int previousLength = previousBytes * Byte.SIZE / bits;
+        int max = Math.min(length, previousLength);
+        shared = m * Byte.SIZE / bits;
+        while (shared < max
+            && symbolAt(_key, 0, shared, bits) == symbolAt(previous, 0, shared, bits)) {
+          shared++;
+        }
+        if (shared == length
+            || (shared < previousLength
+                && symbolAt(_key, 0, shared, bits) < symbolAt(previous, 0, shared, bits))) {
+          throw new IllegalArgumentException("keys out of order");
+        }
+      }
+
+      // the deepest node on the path whose prefix starts within the shared symbols ends at or
+      // after them, since its child on the path starts past them
+      while (starts[top - 1] > shared) nodes[--top] = null;
+      RadixNode last = nodes[top - 1];
+      int from = shared - starts[top - 1];
+      if (from < length(last.prefix)) {
+        // the key leaves the prefix of last: split it there. The root has no prefix, so last is
+        // never the root
+        byte[] p = last.prefix;
+        RadixNode splice = new RadixNode(from == 0 ? null : Arrays.copyOf(p, from));
+        last.prefix = from + 1 == p.length ? null : Arrays.copyOfRange(p, from + 1, p.length);
+        splice.put(radix, p[from] & 0xFF, last);
+        nodes[top - 2].replace(symbolAt(previous, 0, starts[top - 1] - 1, bits), splice);
+        nodes[top - 1] = splice;
+        last = splice;
+      }
+
+      RadixNode leaf = leaf(_key, shared + 1, length, bits);
+      last.put(radix, symbolAt(_key, 0, shared, bits), leaf);
+      if (top == nodes.length) {
+        nodes = Arrays.copyOf(nodes, top * 2);
+        starts = Arrays.copyOf(starts, top * 2);
+      }
+      nodes[top] = leaf;
+      starts[top++] = shared + 1;
+
+      if (_len > previous.length) previous = new byte[Math.max(_len, 2 * previous.length)];
+      System.arraycopy(_key, 0, previous, 0, _len);
+      previousBytes = _len;
+      return true;
+    }
+
+    /** @return root of the tree holding the appended keys */
+    protected RadixNode finish() {
+      return root;
+    }
+  }
+
+  /**
+   * Merge merges two trees of the same radix with an explicit stack of frames, one per pair of
+   * subtrees being merged, so that deep trees do not overflow the call stack. A frame builds its
+   * merged node once the frames of its children are done. Unlike Node.Merge it runs on the calling
+   * thread, since radix nodes keep no subtree sizes to split the work by.
+   */
+  static final class Merge {
+    private final Radix radix;
+    private final boolean keepsLeft;
+    private final boolean keepsRight;
+    private final Node.SetOperation op;
+    private int size;
+
+    // children of the pair being expanded
+    private final int[] leftSymbols;
+    private final RadixNode[] leftKids;
+    private final int[] rightSymbols;
+    private final RadixNode[] rightKids;
+
+    /**
+     * Construct a new Merge.
+     *
+     * @param _radix radix of both trees
+     * @param _op set operation to apply
+     */
+    protected Merge(Radix _radix, Node.SetOperation _op) {
+      radix = _radix;
+      op = _op;
+      keepsLeft = _op.keeps(true, false);
+      keepsRight = _op.keeps(false, true);
+      leftSymbols = new int[_radix.fanout()];
+      leftKids = new RadixNode[_radix.fanout()];
+      rightSymbols = new int[_radix.fanout()];
+      rightKids = new RadixNode[_radix.fanout()];
+    }
+
+    /**
+     * Merge two trees into a new tree holding the keys that the set operation keeps. Both trees
+     * are walked together by symbol. Where the prefixes of a pair of subtrees part, the pair holds
+     * no key in common and each is copied or dropped whole, without looking at its keys. The new
+     * tree shares prefixes but no nodes with the two trees, which must not be modified during the
+     * merge.
+     *
+     * @param _left root of the left tree
+     * @param _right root of the right tree
+     * @return root of the merged tree
+     */
+    protected RadixNode merge(RadixNode _left, RadixNode _right) {
+      ArrayDeque<Frame> stack = new ArrayDeque<>();
+      stack.push(new Frame(_left, 0, _right, 0, null, 0));
+      while (!stack.isEmpty()) {
+        Frame frame = stack.peek();
+        if (!frame.expanded) {
+          expand(frame, stack);
+          continue;
+        }
+
+        stack.pop();
+        RadixNode merged = finish(frame);
+        if (frame.parent != null) frame.parent.kids[frame.slot] = merged;
+        else return merged;
+      }
+
+      throw new IllegalStateException("merge ended without a result");
+    }
+
+    /** @return number of keys in the merged tree */
+    protected int size() {
+      return size;
+    }
+
+    /**
+     * Start merging a pair of subtrees: take the prefix they share, and pair up the branches below
+     * it. A subtree whose prefix goes on past the shared part is a single branch on its next
+     * symbol; a subtree whose prefix ends there branches to its children. Branches on a symbol
+     * only one side has are settled at once, and each pair of branches gets a frame of its own.
+     *
+     * @param _frame frame of the pair
+     * @param _stack stack to push the frames of child pairs on
+     */
+    private void expand(Frame _frame, ArrayDeque<Frame> _stack) {
+      _frame.expanded = true;
+      RadixNode a = _frame.left;
+      RadixNode b = _frame.right;
+      int la = length(a.prefix) - _frame.leftFrom;
+      int lb = length(b.prefix) - _frame.rightFrom;
+      int c = common(a.prefix, _frame.leftFrom, b.prefix, _frame.rightFrom);
+      if (c > 0) {
+        _frame.prefix = Arrays.copyOfRange(a.prefix, _frame.leftFrom, _frame.leftFrom + c);
+      }
+      _frame.terminal = op.keeps(c == la && a.terminal, c == lb && b.terminal);
+
+      int na;
+      int aFrom = 0;
+      if (c < la) {
+        leftSymbols[0] = a.prefix[_frame.leftFrom + c] & 0xFF;
+        leftKids[0] = a;
+        aFrom = _frame.leftFrom + c + 1;
+        na = 1;
+      } else {
+        na = a.collectChildren(radix, leftSymbols, leftKids);
+      }
+      int nb;
+      int bFrom = 0;
+      if (c < lb) {
+        rightSymbols[0] = b.prefix[_frame.rightFrom + c] & 0xFF;
+        rightKids[0] = b;
+        bFrom = _frame.rightFrom + c + 1;
+        nb = 1;
+      } else {
+        nb = b.collectChildren(radix, rightSymbols, rightKids);
+      }
+
+      _frame.symbols = new int[na + nb];
+      _frame.kids = new RadixNode[na + nb];
+      int i = 0;
+      int j = 0;
+      while (i < na || j < nb) {
+        int sa = i < na ? leftSymbols[i] : Integer.MAX_VALUE;
+        int sb = j < nb ? rightSymbols[j] : Integer.MAX_VALUE;
+        int slot = _frame.count++;
+        _frame.symbols[slot] = Math.min(sa, sb);
+        if (sa == sb) {
+          _stack.push(new Frame(leftKids[i++], aFrom, rightKids[j++], bFrom, _frame, slot));
+        } else if (sa < sb) {
+          _frame.kids[slot] = keepsLeft ? copy(leftKids[i], aFrom) : null;
+          i++;
+        } else {
+          _frame.kids[slot] = keepsRight ? copy(rightKids[j], bFrom) : null;
+          j++;
+        }
+      }
+      Arrays.fill(leftKids, 0, na, null);
+      Arrays.fill(rightKids, 0, nb, null);
+    }
+
+    /**
+     * Finish the merged node of a frame once its children are merged, dropping it if it ends up
+     * empty and merging it into its child if that is all it holds. The root is always kept.
+     *
+     * @param _frame frame of the pair
+     * @return merged subtree, or null if it is empty
+     */
+    private RadixNode finish(Frame _frame) {
+      int n = 0;
+      for (int i = 0; i < _frame.count; i++) {
+        if (_frame.kids[i] == null) continue;
+        _frame.symbols[n] = _frame.symbols[i];
+        _frame.kids[n++] = _frame.kids[i];
+      }
+
+      if (_frame.parent != null && !_frame.terminal) {
+        if (n == 0) return null;
+        if (n == 1) {
+          RadixNode child = _frame.kids[0];
+          child.prefix = join(_frame.prefix, _frame.symbols[0], child.prefix);
+          return child;
+        }
+      }
+
+      RadixNode ret = new RadixNode(_frame.prefix);
+      if (_frame.terminal) {
+        ret.terminal = true;
+        size++;
+      }
+      if (n > 0) ret.layOut(radix, capacityFor(radix, n), _frame.symbols, _frame.kids, n);
+      return ret;
+    }
+
+    /**
+     * Copy a subtree without recursing.
+     *
+     * @param _node root of the subtree
+     * @param _from index of the first symbol of the prefix of _node to keep
+     * @return copy of the subtree, sharing its prefixes but none of its nodes
+     */
+    private RadixNode copy(RadixNode _node, int _from) {
+      byte[] p = _node.prefix;
+      int len = length(p);
+      RadixNode ret =
+          new RadixNode(
+              _from == 0 ? p : _from == len ? null : Arrays.copyOfRange(p, _from, len));
+
+      // nodes are pushed in pairs of the original and its copy
+      ArrayDeque<RadixNode> stack = new ArrayDeque<>();
+      stack.push(_node);
+      stack.push(ret);
+      while (!stack.isEmpty()) {
+        RadixNode to = stack.pop();
+        RadixNode from = stack.pop();
+        if (from.terminal) {
+          to.terminal = true;
+          size++;
+        }
+        to.count = from.count;
+        if (from.keys != null) to.keys = from.keys.clone();
+        if (from.children == null) continue;
+
+        to.children = new RadixNode[from.children.length];
+        for (int i = 0; i < from.children.length; i++) {
+          if (from.children[i] == null) continue;
+          to.children[i] = new RadixNode(from.children[i].prefix);
+          stack.push(from.children[i]);
+          stack.push(to.children[i]);
+        }
+      }
+
+      return ret;
+    }
+  }
+
+  /**
+   * Frame is a pair of subtrees being merged or compared, each starting partway into the prefix of
+   * its node, and the parts of the node they are merged into.
+   */
+  private static final class Frame {
+    private final RadixNode left;
+    private final int leftFrom;
+    private final RadixNode right;
+    private final int rightFrom;
+
+    // frame whose merged node takes this frame's result as the child at slot, or null at the top
+    private final Frame parent;
+    private final int slot;
+
+    // prefix, key and children of the merged node, of which the first count are used
+    private byte[] prefix;
+    private boolean terminal;
+    private int[] symbols;
+    private RadixNode[] kids;
+    private int count;
+    private boolean expanded;
+
+    /**
+     * Construct a new Frame.
+     *
+     * @param _left left subtree
+     * @param _leftFrom index of the first symbol of the prefix of _left that is part of the pair
+     * @param _right right subtree
+     * @param _rightFrom index of the first symbol of the prefix of _right that is part of the pair
+     * @param _parent frame to hand the merged subtree to, or null
+     * @param _slot index of the merged subtree in _parent's children
+     */
+    private Frame(
+        RadixNode _left,
+        int _leftFrom,
+        RadixNode _right,
+        int _rightFrom,
+        Frame _parent,
+        int _slot) {
+      left = _left;
+      leftFrom = _leftFrom;
+      right = _right;
+      rightFrom = _rightFrom;
+      parent = _parent;
+      slot = _slot;
+    }
+  }
+
+  /**
+   * KeyIterator walks the keys below a node in order using an explicit stack, rebuilding each key
+   * in a buffer from the symbols on its path. When walking with an automaton, each pending node
+   * carries the automaton's run over the bytes above it, and keys are pushed only if accepted.
+   */
+  private static class KeyIterator implements Iterator<String> {
+    private final Radix radix;
+    private final int[] symbols;
+    private final RadixNode[] kids;
+    private byte[] buffer;
+
+    // pending nodes and keys, with the next one in order on top
+    private RadixNode[] items = new RadixNode[16];
+
+    // for a node, the number of symbols before its prefix; for a key, -1 minus its number of
+    // symbols
+    private int[] depths = new int[16];
+
+    // for a node, the symbol its parent branched on
+    private int[] branches = new int[16];
+
+    // for a node, the run of the automaton over the bytes before it, or null if walking without one
+    private Automaton.Run<?>[] runs = new Automaton.Run<?>[16];
+
+    private int top;
+
+    private KeyIterator(Radix _radix, byte[] _buffer) {
+      radix = _radix;
+      symbols = new int[_radix.fanout()];
+      kids = new RadixNode[_radix.fanout()];
+      buffer = _buffer;
+    }
+
+    private void pushKey(RadixNode _node, int _length) {
+      push(_node, -1 - _length, 0, null);
+    }
+
+    private void push(RadixNode _item, int _depth, int _branch, Automaton.Run<?> _run) {
+      if (top == items.length) {
+        items = Arrays.copyOf(items, top * 2);
+        depths = Arrays.copyOf(depths, top * 2);
+        branches = Arrays.copyOf(branches, top * 2);
+        runs = Arrays.copyOf(runs, top * 2);
+      }
+      items[top] = _item;
+      depths[top] = _depth;
+      branches[top] = _branch;
+      runs[top++] = _run;
+    }
+
+    private void setSymbol(int _index, int _symbol) {
+      int bits = radix.bits();
+      int bitNdx = _index * bits;
+      int shift = Byte.SIZE - bits - (bitNdx & 7);
+      int mask = ((1 << bits) - 1) << shift;
+      buffer[bitNdx >>> 3] = (byte) ((buffer[bitNdx >>> 3] & ~mask) | (_symbol << shift));
+    }
+
+    @Override
+    public boolean hasNext() {
+      // enter nodes until a key is on top
+      while (top > 0 && depths[top - 1] >= 0) {
+        RadixNode node = items[--top];
+        items[top] = null;
+        Automaton.Run<?> run = runs[top];
+        runs[top] = null;
+        int depth = depths[top];
+        int end = depth + (node.prefix == null ? 0 : node.prefix.length);
+        int needed = toBytes(end + 1, radix.bits()) + 1;
+        if (needed > buffer.length) {
+          buffer = Arrays.copyOf(buffer, Math.max(needed, 2 * buffer.length));
+        }
+
+        if (depth > 0) setSymbol(depth - 1, branches[top]);
+        for (int i = depth; i < end; i++) setSymbol(i, node.prefix[i - depth] & 0xFF);
+        if (run != null && !run.feed(buffer, toBytes(end, radix.bits()))) continue;
+
+        int n = node.collectChildren(radix, symbols, kids);
+        for (int i = n - 1; i >= 0; i--) {
+          push(kids[i], end + 1, symbols[i], run == null ? null : run.copy());
+          kids[i] = null;
+        }
+        if (node.terminal && (run == null || run.accepts())) pushKey(node, end);
+      }
+
+      return top > 0;
+    }
+
+    @Override
+    public String next() {
+      return new String(buffer, 0, nextBytes(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Move past the next key, leaving its bytes at the start of the buffer.
+     *
+     * @return number of bytes in the key
+     */
+    private int nextBytes() {
+      if (!hasNext()) throw new NoSuchElementException();
+      items[--top] = null;
+      return toBytes(-1 - depths[top], radix.bits());
+    }
+  }
+}
@@ -0,0 +1,459 @@
+/*
+ * Copyright (c) 2017-2018 Aditya Saligrama.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO
+ * EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES
+ * OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.saligrama.patricia;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.StringJoiner;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * ShardedPatriciaTree is a thread-safe set of strings split over independent PatriciaTree shards,
+ * each behind its own read-write lock, so that writes to different shards never wait for each
+ * other. With enough shards per core, concurrent writers rarely meet on the same lock.
+ *
+ * <p>Keys are routed to a shard by their leading bits or by a hash, as chosen by Partitioning. A
+ * key always lives in the same shard, so operations on a single key lock a single shard. Batches
+ * are split by shard and each shard's part is applied under one acquisition of its lock, taking
+ * free shards first.
+ *
+ * <p>Iteration is in order and lazy: each shard is read under its read lock in chunks of
+ * Constants.SHARDED_ITERATOR_CHUNK keys, each chunk resuming after the last key of the one before,
+ * and the chunks are merged, so an iterator holds at most a chunk per shard. It is weakly
+ * consistent: it returns every key present throughout, and a key added or removed meanwhile may or
+ * may not be returned.
+ *
+ * @author Aditya Saligrama
+ * @version 1.0
+ */
+public class ShardedPatriciaTree implements Iterable<String> {
+  private static final int SPLITERATOR_CHARACTERISTICS =
+      Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL;
+
+  /** Partitioning decides which shard a key belongs to. */
+  public enum Partitioning {
+    /**
+     * Route keys by the first shardBits bits of their UTF-8 encoding, so that each shard holds a
+     * range of keys and iteration reads the shards one after another. Keys sharing a long prefix,
+     * such as URLs of one site, all land in one shard.
+     */
+    PREFIX,
+
+    /** Route keys by a hash of their code points, spreading them evenly over the shards. */
+    HASH
+  }
+
+  private final int shardBits;
+  private final Partitioning partitioning;
+  private final PatriciaTree[] shards;
+  private final ReentrantReadWriteLock[] locks;
+  private final LongAdder size;
+
+  /**
+   * Construct a new ShardedPatriciaTree partitioned by hash, with Constants.SHARDED_SHARDS_PER_CORE
+   * shards per available processor, rounded up to a power of two.
+   */
+  public ShardedPatriciaTree() {
+    this(
+        Math.min(
+            Constants.SHARDED_MAX_SHARD_BITS,
+            Integer.SIZE
+                - Integer.numberOfLeadingZeros(
+                    Constants.SHARDED_SHARDS_PER_CORE * Runtime.getRuntime().availableProcessors()
+                        - 1)),
+        Partitioning.HASH);
+  }
+
+  /**
+   * Construct a new ShardedPatriciaTree.
+   *
+   * @param _shardBits number of bits a shard is chosen by; the tree has 2^_shardBits shards
+   * @param _partitioning how keys are routed to shards
+   * @throws IllegalArgumentException if _shardBits is negative or above
+   *     Constants.SHARDED_MAX_SHARD_BITS
+   */
+  public ShardedPatriciaTree(int _shardBits, Partitioning _partitioning) {
+    if (_shardBits < 0 || _shardBits > Constants.SHARDED_MAX_SHARD_BITS) {
+      throw new IllegalArgumentException(
+          "shard bits must be between 0 and "
+              + Constants.SHARDED_MAX_SHARD_BITS
+              + ": "
+              + _shardBits);
+    }
+
+    shardBits = _shardBits;
+    partitioning = _partitioning;
+    shards = new PatriciaTree[1 << _shardBits];
+    locks = new ReentrantReadWriteLock[shards.length];
+    for (int i = 0; i < shards.length; i++) {
+      shards[i] = new PatriciaTree();
+      locks[i] = new ReentrantReadWriteLock();
+    }
+    size = new LongAdder();
+  }
+
+  /** @return number of shards */
+  public int shardCount() {
+    return shards.length;
+  }
+
+  /** @return how keys are routed to shards */
+  public Partitioning partitioning() {
+    return partitioning;
+  }
+
+  /**
+   * @return size of the tree; only exact when no additions or removals are running concurrently
+   */
+  public int size() {
+    return size.intValue();
+  }
+
+  /**
+   * Check if a string exists in the tree, locking only its shard for reading.
+   *
+   * @param _toSearch string to search for within the tree
+   * @return true if _toSearch exists in the tree, false if it does not
+   */
+  public boolean contains(CharSequence _toSearch) {
+    int shard = shardOf(_toSearch);
+    Lock lock = locks[shard].readLock();
+    lock.lock();
+    try {
+      return shards[shard].contains(_toSearch);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Add a string to the tree, locking only its shard.
+   *
+   * @param _toAdd string to add to the tree
+   * @return true if the tree was modified (i.e. _toAdd did not already exist in the tree), false
+   *     otherwise
+   * @throws IllegalArgumentException if _toAdd is empty
+   */
+  public boolean add(String _toAdd) {
+    if (_toAdd.isEmpty()) throw new IllegalArgumentException("cannot add an empty string");
+    int shard = shardOf(_toAdd);
+    boolean ret;
+    Lock lock = locks[shard].writeLock();
+    lock.lock();
+    try {
+      ret = shards[shard].add(_toAdd);
+    } finally {
+      lock.unlock();
+    }
+
+    if (ret) size.increment();
+    return ret;
+  }
+
+  /**
+   * Remove a string from the tree, locking only its shard.
+   *
+   * @param _toRemove string to remove from the tree
+   * @return true if the tree was modified (i.e. _toRemove was in the tree), false otherwise
+   */
+  public boolean remove(String _toRemove) {
+    int shard = shardOf(_toRemove);
+    boolean ret;
+    Lock lock = locks[shard].writeLock();
+    lock.lock();
+    try {
+      ret = shards[shard].remove(_toRemove);
+    } finally {
+      lock.unlock();
+    }
+
+    if (ret) size.decrement();
+    return ret;
+  }
+
+  /**
+   * Check which of a batch of strings exist in the tree. The batch is split by shard, and each
+   * shard's part is looked up as in PatriciaTree.containsAll under one acquisition of its read
+   * lock.
+   *
+   * @param _toSearch strings to search for
+   * @return a set with bit i set if the i-th string of _toSearch exists in the tree
+   */
+  public BitSet containsAll(Collection<? extends CharSequence> _toSearch) {
+    CharSequence[] strings = _toSearch.toArray(new CharSequence[0]);
+    BitSet ret = new BitSet(strings.length);
+    applyByShard(strings, false, ret);
+    return ret;
+  }
+
+  /**
+   * Add a batch of strings to the tree. The batch is split by shard, and each shard's part is added
+   * as in PatriciaTree.addAll under one acquisition of its lock. Shards whose lock is free are
+   * written first, so concurrent batches work on different shards instead of queueing on the
+   * same one. The batch is checked for empty strings before any is added.
+   *
+   * @param _toAdd strings to add to the tree
+   * @return a set with bit i set if the i-th string of _toAdd was added, i.e. it was neither in the
+   *     tree nor earlier in _toAdd
+   * @throws IllegalArgumentException if a string is empty
+   */
+  public BitSet addAll(Collection<? extends CharSequence> _toAdd) {
+    CharSequence[] strings = _toAdd.toArray(new CharSequence[0]);
+    for (CharSequence s : strings) {
+      if (s.length() == 0) throw new IllegalArgumentException("cannot add an empty string");
+    }
+
+    BitSet ret = new BitSet(strings.length);
+    applyByShard(strings, true, ret);
+    size.add(ret.cardinality());
+    return ret;
+  }
+
+  /**
+   * Iterate over the strings in the tree in order, reading each shard a chunk at a time as the
+   * iteration needs it. With Partitioning.PREFIX the shards are read one after another; with
+   * Partitioning.HASH a chunk of every shard is held at once and merged.
+   *
+   * @return iterator over the strings in the tree
+   */
+  @Override
+  public Iterator<String> iterator() {
+    return new MergeIterator();
+  }
+
+  /** @return spliterator over the strings in the tree, in order */
+  @Override
+  public Spliterator<String> spliterator() {
+    return Spliterators.spliteratorUnknownSize(iterator(), SPLITERATOR_CHARACTERISTICS);
+  }
+
+  /** @return sequential stream over the strings in the tree, in order */
+  public Stream<String> stream() {
+    return StreamSupport.stream(spliterator(), false);
+  }
+
+  /** @return string representation of the tree */
+  @Override
+  public String toString() {
+    StringJoiner ret = new StringJoiner(", ", "[", "]");
+    for (String s : this) ret.add(s);
+    return ret.toString();
+  }
+
+  /**
+   * Split a batch by shard and look up or add each shard's part under one acquisition of its lock.
+   * Each pass over the pending shards takes only the locks that are free; a pass that finds none
+   * free waits for the first pending shard.
+   *
+   * @param _strings strings of the batch
+   * @param _add true to add the strings, false to look them up
+   * @param _ret set to set bit i of if the i-th string was found or added
+   */
+  private void applyByShard(CharSequence[] _strings, boolean _add, BitSet _ret) {
+    // indexes of the strings of each shard, grouped by counting sort
+    int[] starts = new int[shards.length + 1];
+    int[] shardOf = new int[_strings.length];
+    for (int i = 0; i < _strings.length; i++) {
+      shardOf[i] = shardOf(_strings[i]);
+      starts[shardOf[i] + 1]++;
+    }
+    for (int s = 0; s < shards.length; s++) starts[s + 1] += starts[s];
+    int[] order = new int[_strings.length];
+    int[] fill = Arrays.copyOf(starts, shards.length);
+    for (int i = 0; i < _strings.length; i++) order[fill[shardOf[i]]++] = i;
+
+    // pending shards, starting at a random one so that concurrent batches spread out
+    int[] pending = new int[shards.length];
+    int numPending = 0;
+    int offset = ThreadLocalRandom.current().nextInt(shards.length);
+    for (int k = 0; k < shards.length; k++) {
+      int s = (offset + k) & (shards.length - 1);
+      if (starts[s + 1] > starts[s]) pending[numPending++] = s;
+    }
+
+    while (numPending > 0) {
+      int left = 0;
+      for (int k = 0; k < numPending; k++) {
+        int s = pending[k];
+        Lock lock = _add ? locks[s].writeLock() : locks[s].readLock();
+        // the last pending shard has nothing left to overlap with, so wait for it
+        if (numPending == 1) {
+          lock.lock();
+        } else if (!lock.tryLock()) {
+          pending[left++] = s;
+          continue;
+        }
+
+        BitSet found;
+        try {
+          CharSequence[] part = new CharSequence[starts[s + 1] - starts[s]];
+          for (int j = 0; j < part.length; j++) part[j] = _strings[order[starts[s] + j]];
+          found =
+              _add
+                  ? shards[s].addAll(Arrays.asList(part))
+                  : shards[s].containsAll(Arrays.asList(part));
+        } finally {
+          lock.unlock();
+        }
+        for (int j = found.nextSetBit(0); j >= 0; j = found.nextSetBit(j + 1)) {
+          _ret.set(order[starts[s] + j]);
+        }
+      }
+
+      // when no lock was free, wait for the first shard on the next pass
+      if (left == numPending) {
+        int s = pending[0];
+        Lock lock = _add ? locks[s].writeLock() : locks[s].readLock();
+        lock.lock();
+        lock.unlock();
+      }
+      numPending = left;
+    }
+  }
+
+  /**
+   * @param _key a key
+   * @return index of the shard _key belongs to
+   */
+  private int shardOf(CharSequence _key) {
+    if (shardBits == 0) return 0;
+
+    if (partitioning == Partitioning.HASH) {
+      // hash code points rather than chars, so that strings encoding to the same key agree
+      int h = 0;
+      for (int i = 0; i < _key.length(); ) {
+        int codePoint = Utils.codePointAt(_key, i);
+        h = 31 * h + codePoint;
+        i += Character.charCount(codePoint);
+      }
+      return (h * Constants.SHARDED_HASH_MULTIPLIER) >>> (Integer.SIZE - shardBits);
+    }
+
+    // the first shardBits bits of the encoding, padded with zeros, which keeps shards in key order
+    int ret = 0;
+    int bits = 0;
+    for (int i = 0; i < _key.length() && bits < shardBits; ) {
+      int codePoint = Utils.codePointAt(_key, i);
+      int numBytes = Utils.utf8Length(codePoint);
+      for (int j = 0; j < numBytes && bits < shardBits; j++, bits += Byte.SIZE) {
+        ret = (ret << Byte.SIZE) | Utils.utf8Byte(codePoint, numBytes, j);
+      }
+      i += Character.charCount(codePoint);
+    }
+    return bits < shardBits ? ret << (shardBits - bits) : ret >>> (bits - shardBits);
+  }
+
+  /**
+   * MergeIterator merges the shards lazily, keeping the next key of each open shard in a priority
+   * queue. With Partitioning.PREFIX a shard's keys all come before those of the next shard, so a
+   * shard is only opened once the ones before it are drained.
+   */
+  private class MergeIterator implements Iterator<String> {
+    private final PriorityQueue<ShardCursor> heads =
+        new PriorityQueue<>(Comparator.comparing((ShardCursor c) -> c.key, Utils::compareUtf8));
+    private int nextShard;
+
+    @Override
+    public boolean hasNext() {
+      int batch = partitioning == Partitioning.PREFIX ? 1 : shards.length;
+      while (heads.isEmpty() && nextShard < shards.length) {
+        for (int end = Math.min(shards.length, nextShard + batch); nextShard < end; nextShard++) {
+          ShardCursor cursor = new ShardCursor(nextShard);
+          if (cursor.advance()) heads.add(cursor);
+        }
+      }
+
+      return !heads.isEmpty();
+    }
+
+    @Override
+    public String next() {
+      if (!hasNext()) throw new NoSuchElementException();
+      ShardCursor head = heads.poll();
+      String ret = head.key;
+      if (head.advance()) heads.add(head);
+      return ret;
+    }
+  }
+
+  /**
+   * ShardCursor is the next key of a shard in a merge. It holds a chunk of the shard's keys read
+   * under its read lock, and reads the next chunk, after the last key of this one, once it is
+   * drained.
+   */
+  private class ShardCursor {
+    private final int shard;
+    private final List<String> chunk = new ArrayList<>(Constants.SHARDED_ITERATOR_CHUNK);
+    private int next;
+    private String key;
+    private boolean drained;
+
+    private ShardCursor(int _shard) {
+      shard = _shard;
+    }
+
+    /** @return true if key was moved to the shard's next key, false if the shard has no more */
+    private boolean advance() {
+      if (next == chunk.size()) {
+        if (drained) return false;
+        read();
+        if (chunk.isEmpty()) return false;
+      }
+
+      key = chunk.get(next++);
+      return true;
+    }
+
+    /** Read the next chunk of keys, after the current key if there is one. */
+    private void read() {
+      chunk.clear();
+      next = 0;
+      Lock lock = locks[shard].readLock();
+      lock.lock();
+      try {
+        Iterator<String> keys =
+            key == null ? shards[shard].iterator() : shards[shard].after(key).iterator();
+        while (chunk.size() < Constants.SHARDED_ITERATOR_CHUNK && keys.hasNext()) {
+          chunk.add(keys.next());
+        }
+        drained = !keys.hasNext();
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2017-2018 Aditya Saligrama.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO
+ * EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES
+ * OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.saligrama.patricia;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+
+/**
+ * Snapshot writes a tree to a file in the binary layout read by MappedPatriciaTree.
+ *
+ * <p>A snapshot starts with a header of three big-endian ints: Constants.SNAPSHOT_MAGIC,
+ * Constants.SNAPSHOT_VERSION and the number of keys. The nodes follow in pre-order, root first,
+ * each as a record of:
+ *
+ * <ul>
+ *   <li>its forkIndex, as an int;
+ *   <li>a flags byte, with SNAPSHOT_HAS_TERMINAL &lt;&lt; i set if terminal key i is present and
+ *       SNAPSHOT_HAS_CHILD &lt;&lt; i set if child i is present;
+ *   <li>the offset of the right child's record, as an int, only if both children are present;
+ *   <li>the packed bits of each present terminal key, left one first. A terminal key is
+ *       forkIndex+1 bits long, so it takes Utils.terminalBytes(forkIndex) bytes and needs no
+ *       length.
+ * </ul>
+ *
+ * <p>The first child's record directly follows its parent's, and the right child's record follows
+ * the whole left subtree. Offsets are ints, so a snapshot is limited to 2 GB, which is also the
+ * most a single mapped buffer can hold.
+ *
+ * @author Aditya Saligrama
+ * @version 1.0
+ */
+final class Snapshot {
+  private Snapshot() {}
+
+  /**
+   * Write the tree below a node to a file, replacing the file if it exists.
+   *
+   * @param _root root node of the tree
+   * @param _size number of keys in the tree
+   * @param _path file to write to
+   * @throws IOException if the file can't be written, or the snapshot would exceed 2 GB
+   */
+  protected static void write(Node _root, int _size, Path _path) throws IOException {
+    try (FileChannel channel =
+        FileChannel.open(
+            _path,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING)) {
+      Output out = new Output(channel);
+      out.putInt(Constants.SNAPSHOT_MAGIC);
+      out.putInt(Constants.SNAPSHOT_VERSION);
+      out.putInt(_size);
+
+      // pending nodes, and positions of right child offsets to fill in once the left subtree
+      // before them is written
+      ArrayDeque<Object> stack = new ArrayDeque<>();
+      stack.push(_root);
+      while (!stack.isEmpty()) {
+        Object top = stack.pop();
+        if (top instanceof Long) {
+          out.patchInt((Long) top, out.offset());
+          continue;
+        }
+
+        Node n = (Node) top;
+        int flags = 0;
+        for (int i = 0; i < Constants.NODE_NUM_CHILDREN; i++) {
+          if (n.terminal(i) != null) flags |= Constants.SNAPSHOT_HAS_TERMINAL << i;
+          if (n.child(i) != null) flags |= Constants.SNAPSHOT_HAS_CHILD << i;
+        }
+
+        out.putInt(n.forkIndex());
+        out.put((byte) flags);
+        if (n.child(0) != null && n.child(1) != null) {
+          stack.push(n.child(1));
+          stack.push(out.offset());
+          out.putInt(0);
+          stack.push(n.child(0));
+        } else if (n.child(0) != null || n.child(1) != null) {
+          stack.push(n.child(0) != null ? n.child(0) : n.child(1));
+        }
+
+        int numBytes = Utils.terminalBytes(n.forkIndex());
+        for (int i = 0; i < Constants.NODE_NUM_CHILDREN; i++) {
+          BitKey key = n.terminal(i);
+          if (key == null) continue;
+          for (int k = 0; k < numBytes; k++) out.put((byte) key.byteAt(k));
+        }
+      }
+
+      out.flush();
+    }
+  }
+
+  /** Output buffers writes to a channel, and can fill in ints it has already written. */
+  private static class Output {
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(Constants.SNAPSHOT_BUFFER_LEN);
+
+    // number of bytes already written to the channel
+    private long flushed;
+
+    private Output(FileChannel _channel) {
+      channel = _channel;
+    }
+
+    /** @return offset of the next byte to be written */
+    private long offset() throws IOException {
+      long ret = flushed + buffer.position();
+      if (ret > Integer.MAX_VALUE) throw new IOException("snapshot would exceed 2 GB");
+      return ret;
+    }
+
+    private void put(byte _b) throws IOException {
+      if (!buffer.hasRemaining()) flush();
+      buffer.put(_b);
+    }
+
+    private void putInt(int _value) throws IOException {
+      if (buffer.remaining() < Integer.BYTES) flush();
+      buffer.putInt(_value);
+    }
+
+    /**
+     * Overwrite an int written earlier.
+     *
+     * @param _offset offset the int was written at
+     * @param _value new value of the int
+     */
+    private void patchInt(long _offset, long _value) throws IOException {
+      if (_offset >= flushed) {
+        buffer.putInt((int) (_offset - flushed), (int) _value);
+        return;
+      }
+
+      ByteBuffer b = ByteBuffer.allocate(Integer.BYTES).putInt(0, (int) _value);
+      while (b.hasRemaining()) channel.write(b, _offset + b.position());
+    }
+
+    private void flush() throws IOException {
+      buffer.flip();
+      while (buffer.hasRemaining()) flushed += channel.write(buffer);
+      buffer.clear();
+    }
+  }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2017-2018 Aditya Saligrama.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO
+ * EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES
+ * OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.saligrama.patricia;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * TreeMetrics records what a PatriciaTree does while metrics are enabled: how many operations of
+ * each kind it serves and how long they take, and how its structure changes. Node count and key
+ * bytes are gauges, seeded from a walk of the tree when metrics are enabled and kept up to date by
+ * every insertion and removal after that; the rest are counters.
+ *
+ * <p>Operation counts and durations cover the single-key add, remove and contains methods. Batch
+ * additions update the gauges and structural counters, but are not timed per key.
+ *
+ * <p>Counters may be read from any thread, such as a JMX client's, while the tree is in use.
+ *
+ * @author Aditya Saligrama
+ * @version 1.0
+ */
+public final class TreeMetrics implements TreeMetricsMXBean {
+  private final LongAdder nodeCount = new LongAdder();
+  private final LongAdder keyBytes = new LongAdder();
+
+  private final LatencyHistogram addLatency = new LatencyHistogram();
+  private final LatencyHistogram removeLatency = new LatencyHistogram();
+  private final LatencyHistogram containsLatency = new LatencyHistogram();
+
+  private final LongAdder splices = new LongAdder();
+  private final LongAdder merges = new LongAdder();
+  private final LongAdder walkBackClimbs = new LongAdder();
+  private final LongAdder bitsCompared = new LongAdder();
+
+  /**
+   * Construct a new TreeMetrics.
+   *
+   * @param _stats statistics of the tree at the time metrics are enabled
+   */
+  protected TreeMetrics(TreeStats _stats) {
+    nodeCount.add(_stats.nodeCount());
+    keyBytes.add(_stats.keyBytes());
+  }
+
+  @Override
+  public long getAddCount() {
+    return addLatency.count();
+  }
+
+  @Override
+  public long getRemoveCount() {
+    return removeLatency.count();
+  }
+
+  @Override
+  public long getContainsCount() {
+    return containsLatency.count();
+  }
+
+  @Override
+  public LatencySummary getAddLatency() {
+    return addLatency.summary();
+  }
+
+  @Override
+  public LatencySummary getRemoveLatency() {
+    return removeLatency.summary();
+  }
+
+  @Override
+  public LatencySummary getContainsLatency() {
+    return containsLatency.summary();
+  }
+
+  @Override
+  public long getNodeCount() {
+    return nodeCount.sum();
+  }
+
+  @Override
+  public long getKeyBytes() {
+    return keyBytes.sum();
+  }
+
+  @Override
+  public long getSplices() {
+    return splices.sum();
+  }
+
+  @Override
+  public long getMerges() {
+    return merges.sum();
+  }
+
+  @Override
+  public long getWalkBackClimbs() {
+    return walkBackClimbs.sum();
+  }
+
+  @Override
+  public long getBitsCompared() {
+    return bitsCompared.sum();
+  }
+
+  @Override
+  public void reset() {
+    addLatency.reset();
+    removeLatency.reset();
+    containsLatency.reset();
+    splices.reset();
+    merges.reset();
+    walkBackClimbs.reset();
+    bitsCompared.reset();
+  }
+
+  /** @return string representation of the metrics */
+  @Override
+  public String toString() {
+    return "TreeMetrics[nodeCount=" + getNodeCount() + ", keyBytes=" + getKeyBytes()
+        + ", splices=" + getSplices() + ", merges=" + getMerges() + ", walkBackClimbs="
+        + getWalkBackClimbs() + ", bitsCompared=" + getBitsCompared() + ", add="
+        + getAddLatency() + ", remove=" + getRemoveLatency() + ", contains="
+        + getContainsLatency() + "]";
+  }
+
+  /** @param _nanos duration of a call to add */
+  protected void addTook(long _nanos) {
+    addLatency.record(_nanos);
+  }
+
+  /** @param _nanos duration of a call to remove */
+  protected void removeTook(long _nanos) {
+    removeLatency.record(_nanos);
+  }
+
+  /** @param _nanos duration of a call to contains */
+  protected void containsTook(long _nanos) {
+    containsLatency.record(_nanos);
+  }
+
+  /**
+   * Record the search an insertion made for the fork of its key.
+   *
+   * @param _bitsCompared number of bits compared against a stored key
+   * @param _climbs number of parent links climbed back from the deepest node reached
+   */
+  protected void searched(int _bitsCompared, int _climbs) {
+    bitsCompared.add(_bitsCompared);
+    walkBackClimbs.add(_climbs);
+  }
+
+  /**
+   * Record a key added to the tree.
+   *
+   * @param _keyBytes number of bytes in the key
+   * @param _newNodes number of nodes created to hold it
+   * @param _spliced whether one of those nodes was spliced in above an existing subtree
+   */
+  protected void added(int _keyBytes, int _newNodes, boolean _spliced) {
+    keyBytes.add(_keyBytes);
+    if (_newNodes != 0) nodeCount.add(_newNodes);
+    if (_spliced) splices.increment();
+  }
+
+  /**
+   * Record a key removed from the tree.
+   *
+   * @param _keyBytes number of bytes in the key
+   * @param _removedNodes number of nodes unlinked from the tree
+   * @param _merges number of those nodes that were merged into their only child
+   */
+  protected void removed(int _keyBytes, int _removedNodes, int _merges) {
+    keyBytes.add(-_keyBytes);
+    if (_removedNodes != 0) nodeCount.add(-_removedNodes);
+    if (_merges != 0) merges.add(_merges);
+  }
+}
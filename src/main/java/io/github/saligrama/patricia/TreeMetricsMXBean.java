@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2017-2018 Aditya Saligrama.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO
+ * EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES
+ * OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.saligrama.patricia;
+
+/**
+ * TreeMetricsMXBean is the management interface of TreeMetrics, for watching a tree through JMX.
+ * Register the metrics of a tree with the platform MBean server to expose them:
+ *
+ * <pre>{@code
+ * TreeMetrics metrics = tree.enableMetrics();
+ * ManagementFactory.getPlatformMBeanServer()
+ *     .registerMBean(metrics, new ObjectName("io.github.saligrama.patricia:type=TreeMetrics"));
+ * }</pre>
+ *
+ * @author Aditya Saligrama
+ * @version 1.0
+ */
+public interface TreeMetricsMXBean {
+  /** @return number of calls to add */
+  long getAddCount();
+
+  /** @return number of calls to remove */
+  long getRemoveCount();
+
+  /** @return number of calls to contains */
+  long getContainsCount();
+
+  /** @return durations of calls to add */
+  LatencySummary getAddLatency();
+
+  /** @return durations of calls to remove */
+  LatencySummary getRemoveLatency();
+
+  /** @return durations of calls to contains */
+  LatencySummary getContainsLatency();
+
+  /** @return number of nodes in the tree, including the root */
+  long getNodeCount();
+
+  /** @return total length of the keys in the tree, in bytes of their UTF-8 encoding */
+  long getKeyBytes();
+
+  /** @return number of nodes spliced in above an existing subtree to fork off a new key */
+  long getSplices();
+
+  /** @return number of nodes merged away into their only child after a key was removed */
+  long getMerges();
+
+  /** @return number of parent links climbed by insertions from the deepest node reached */
+  long getWalkBackClimbs();
+
+  /** @return number of bits compared by insertions to find where a new key forks off */
+  long getBitsCompared();
+
+  /** Clear the operation counts, durations and structural counters, but not the size gauges. */
+  void reset();
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2017-2018 Aditya Saligrama.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO
+ * EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES
+ * OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.saligrama.patricia;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * TreeStats is a point-in-time summary of the shape of a tree: how many nodes it is made of, how
+ * many bytes of keys it holds and how deep its keys sit. It is computed by a single walk over the
+ * tree when asked for, so it costs nothing while the tree is in use.
+ *
+ * <p>The depth of a key is the number of nodes passed on the way to the node holding it, so a key
+ * held by the root has depth 0.
+ *
+ * @author Aditya Saligrama
+ * @version 1.0
+ */
+public final class TreeStats {
+  private final int size;
+  private final long nodeCount;
+  private final long keyBytes;
+  private final long[] depthCounts;
+  private final long depthSum;
+
+  /**
+   * Construct statistics from the figures of a walk.
+   *
+   * @param _size number of keys in the tree
+   * @param _nodeCount number of nodes in the tree, including the root
+   * @param _keyBytes total length of the keys, in bytes
+   * @param _depthCounts number of keys at each depth, up to the depth of the deepest key
+   */
+  protected TreeStats(int _size, long _nodeCount, long _keyBytes, long[] _depthCounts) {
+    size = _size;
+    nodeCount = _nodeCount;
+    keyBytes = _keyBytes;
+    depthCounts = _depthCounts;
+
+    long sum = 0;
+    for (int d = 0; d < _depthCounts.length; d++) sum += d * _depthCounts[d];
+    depthSum = sum;
+  }
+
+  /**
+   * Walk the tree below a node.
+   *
+   * @param _root root node of the tree
+   * @return statistics of the tree
+   */
+  protected static TreeStats of(Node _root) {
+    long nodeCount = 0;
+    long keyBytes = 0;
+    long[] depthCounts = new long[Constants.STATS_INITIAL_DEPTHS];
+    int maxDepth = -1;
+
+    // nodes are pushed along with their depth, which is kept in a parallel stack
+    ArrayDeque<Node> nodes = new ArrayDeque<>();
+    ArrayDeque<Integer> depths = new ArrayDeque<>();
+    nodes.push(_root);
+    depths.push(0);
+    while (!nodes.isEmpty()) {
+      Node n = nodes.pop();
+      int depth = depths.pop();
+      nodeCount++;
+
+      for (int i = 0; i < Constants.NODE_NUM_CHILDREN; i++) {
+        if (n.terminal(i) != null) {
+          if (depth >= depthCounts.length) {
+            depthCounts = Arrays.copyOf(depthCounts, Math.max(depth + 1, 2 * depthCounts.length));
+          }
+          depthCounts[depth]++;
+          maxDepth = Math.max(maxDepth, depth);
+          keyBytes += Utils.terminalBytes(n.forkIndex());
+        }
+
+        if (n.child(i) != null) {
+          nodes.push(n.child(i));
+          depths.push(depth + 1);
+        }
+      }
+    }
+
+    depthCounts = Arrays.copyOf(depthCounts, maxDepth + 1);
+    return new TreeStats(_root.size(), nodeCount, keyBytes, depthCounts);
+  }
+
+  /** @return number of keys in the tree */
+  public int size() {
+    return size;
+  }
+
+  /** @return number of nodes in the tree, including the root */
+  public long nodeCount() {
+    return nodeCount;
+  }
+
+  /** @return total length of the keys in the tree, in bytes of their UTF-8 encoding */
+  public long keyBytes() {
+    return keyBytes;
+  }
+
+  /** @return depth of the deepest key, or -1 if the tree is empty */
+  public int maxDepth() {
+    return depthCounts.length - 1;
+  }
+
+  /** @return average depth of the keys, or 0 if the tree is empty */
+  public double averageDepth() {
+    return size == 0 ? 0 : (double) depthSum / size;
+  }
+
+  /** @return number of keys at each depth, indexed by depth up to maxDepth() */
+  public long[] depthCounts() {
+    return depthCounts.clone();
+  }
+
+  /** @return string representation of the statistics */
+  @Override
+  public String toString() {
+    return String.format(
+        "TreeStats[size=%d, nodeCount=%d, keyBytes=%d, maxDepth=%d, averageDepth=%.2f]",
+        size, nodeCount, keyBytes, maxDepth(), averageDepth());
+  }
+}
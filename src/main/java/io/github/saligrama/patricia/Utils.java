@@ -22,6 +22,9 @@
 
 package io.github.saligrama.patricia;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
 /**
  * @author Aditya Saligrama
  * @version 1.0
@@ -29,51 +32,359 @@ package io.github.saligrama.patricia;
 class Utils {
 
   /**
-   * Greedily convert string to contiguous array of 8 bits (or whatever is defined in
-   * Constants.UTILS_CHAR_BITLEN).
+   * Convert string to a packed bit key holding its UTF-8 encoding, 8 bits (or whatever is defined
+   * in Constants.UTILS_CHAR_BITLEN) per encoded byte. ASCII characters therefore take 8 bits each,
+   * and the encoding is written straight into the key's words. Unpaired surrogates are encoded as
+   * Constants.UTILS_REPLACEMENT_CHAR, like String.getBytes does.
    *
-   * @param _str string to convert to bit array
-   * @return bit array representation of _str
+   * @param _str string to convert to bit key
+   * @return bit key representation of _str
    */
-  public static int[] strToBitArr(String _str) {
-    int[] ret = new int[_str.length() * Constants.UTILS_CHAR_BITLEN];
+  public static BitKey strToBitKey(CharSequence _str) {
+    int length = utf8Length(_str) * Constants.UTILS_CHAR_BITLEN;
+    long[] words = new long[(length + Constants.BITKEY_WORD_MASK) >>> Constants.BITKEY_WORD_SHIFT];
 
-    for (int i = 0; i < _str.length(); i++) {
-      int asciiConvert = ((int) _str.charAt(i));
-      int ndx = i * Constants.UTILS_CHAR_BITLEN;
-      for (int j = 0; j < Constants.UTILS_CHAR_BITLEN; j++) {
-        if (asciiConvert >= Constants.UTILS_BITSET[j]) {
-          asciiConvert -= Constants.UTILS_BITSET[j];
-          ret[ndx + j] = 1;
-        }
+    int ndx = 0;
+    for (int i = 0; i < _str.length(); ) {
+      int codePoint = codePointAt(_str, i);
+      int numBytes = utf8Length(codePoint);
+      for (int k = 0; k < numBytes; k++, ndx += Constants.UTILS_CHAR_BITLEN) {
+        words[ndx >>> Constants.BITKEY_WORD_SHIFT] |=
+            (long) utf8Byte(codePoint, numBytes, k)
+                << (Constants.BITKEY_WORD_BITLEN
+                    - Constants.UTILS_CHAR_BITLEN
+                    - (ndx & Constants.BITKEY_WORD_MASK));
       }
+      i += Character.charCount(codePoint);
     }
 
-    return ret;
+    return new BitKey(words, length);
+  }
+
+  /**
+   * Convert a range of bits to a packed bit key, most significant bit of each byte first. Bits of
+   * the last byte past the end of the range are dropped.
+   *
+   * @param _bytes array holding the bits
+   * @param _off index of the byte holding bit 0
+   * @param _bitLength number of bits to convert
+   * @return bit key holding the bits
+   */
+  public static BitKey bytesToBitKey(byte[] _bytes, int _off, int _bitLength) {
+    long[] words =
+        new long[(_bitLength + Constants.BITKEY_WORD_MASK) >>> Constants.BITKEY_WORD_SHIFT];
+    int numBytes = (_bitLength + Byte.SIZE - 1) / Byte.SIZE;
+    for (int i = 0; i < numBytes; i++) {
+      int bit = i * Byte.SIZE;
+      words[bit >>> Constants.BITKEY_WORD_SHIFT] |=
+          (_bytes[_off + i] & 0xFFL)
+              << (Constants.BITKEY_WORD_BITLEN - Byte.SIZE - (bit & Constants.BITKEY_WORD_MASK));
+    }
+    if ((_bitLength & Constants.BITKEY_WORD_MASK) != 0) {
+      words[words.length - 1] &= -1L << (-_bitLength & Constants.BITKEY_WORD_MASK);
+    }
+
+    return new BitKey(words, _bitLength);
   }
 
   /**
-   * Convert bit array back to string
+   * Convert bit key back to string by decoding its UTF-8 bytes directly into characters.
    *
-   * @param _bits bit array to convert to string
+   * @param _bits bit key to convert to string, as created by strToBitKey
    * @return string representation of _bits
    */
-  public static String bitArrToStr(int[] _bits) {
-    // bit array should be a concatenation of bit representations of characters of a set length
-    assert _bits.length % Constants.UTILS_CHAR_BITLEN == 0;
+  public static String bitKeyToStr(BitKey _bits) {
+    // bit key should be a concatenation of bit representations of bytes of a set length
+    assert _bits.length() % Constants.UTILS_CHAR_BITLEN == 0;
 
-    String ret = "";
-    int next = 0;
-    for (int i = 0; i < _bits.length; i++) {
-      if (i > 0 && i % Constants.UTILS_CHAR_BITLEN == 0) {
-        ret += Character.toString((char) next);
-        next = 0;
+    // a string never has more chars than its UTF-8 encoding has bytes
+    int numBytes = _bits.length() / Constants.UTILS_CHAR_BITLEN;
+    char[] ret = new char[numBytes];
+    int len = 0;
+    for (int i = 0; i < numBytes; ) {
+      int lead = _bits.byteAt(i++);
+      int codePoint;
+      int numContinuation;
+      if (lead < 0x80) {
+        codePoint = lead;
+        numContinuation = 0;
+      } else if (lead < 0xE0) {
+        codePoint = lead & 0x1F;
+        numContinuation = 1;
+      } else if (lead < 0xF0) {
+        codePoint = lead & 0x0F;
+        numContinuation = 2;
+      } else {
+        codePoint = lead & 0x07;
+        numContinuation = 3;
       }
 
-      if (_bits[i] == 1) next += Constants.UTILS_BITSET[i % Constants.UTILS_CHAR_BITLEN];
+      for (int k = 0; k < numContinuation; k++) {
+        codePoint = (codePoint << 6) | (_bits.byteAt(i++) & 0x3F);
+      }
+      len += Character.toChars(codePoint, ret, len);
+    }
+
+    return new String(ret, 0, len);
+  }
+
+  /**
+   * Calculate the length of the UTF-8 encoding of a string without encoding it.
+   *
+   * @param _str string to measure
+   * @return number of bytes in the UTF-8 encoding of _str
+   */
+  public static int utf8Length(CharSequence _str) {
+    int ret = 0;
+    for (int i = 0; i < _str.length(); ) {
+      int codePoint = codePointAt(_str, i);
+      ret += utf8Length(codePoint);
+      i += Character.charCount(codePoint);
+    }
+
+    return ret;
+  }
+
+  /**
+   * Calculate the length of the UTF-8 encoding of a single code point.
+   *
+   * @param _codePoint code point to measure
+   * @return 1 to 4
+   */
+  public static int utf8Length(int _codePoint) {
+    if (_codePoint < 0x80) return 1;
+    if (_codePoint < 0x800) return 2;
+    if (_codePoint < 0x10000) return 3;
+    return 4;
+  }
+
+  /**
+   * Get one byte of the UTF-8 encoding of a code point.
+   *
+   * @param _codePoint code point to encode
+   * @param _numBytes length of the encoding, as given by utf8Length(_codePoint)
+   * @param _index index of the byte within the encoding
+   * @return value of the byte, from 0 to 255
+   */
+  public static int utf8Byte(int _codePoint, int _numBytes, int _index) {
+    int shift = 6 * (_numBytes - 1 - _index);
+    if (_index > 0) return 0x80 | ((_codePoint >>> shift) & 0x3F);
+    if (_numBytes == 1) return _codePoint;
+    // lead byte carries one marker bit per byte of the encoding
+    return ((0xF00 >>> _numBytes) & 0xFF) | (_codePoint >>> shift);
+  }
+
+  /**
+   * Get the code points of a string, treating an unpaired surrogate as
+   * Constants.UTILS_REPLACEMENT_CHAR.
+   *
+   * @param _str string to read from
+   * @return code points of _str
+   */
+  public static int[] codePoints(CharSequence _str) {
+    int[] ret = new int[_str.length()];
+    int n = 0;
+    for (int i = 0; i < _str.length(); n++) {
+      ret[n] = codePointAt(_str, i);
+      i += Character.charCount(ret[n]);
+    }
+
+    return n == ret.length ? ret : Arrays.copyOf(ret, n);
+  }
+
+  /**
+   * Get the length of a UTF-8 sequence from its first byte.
+   *
+   * @param _leadByte first byte of the sequence
+   * @return 1 to 4
+   */
+  public static int utf8SequenceLength(int _leadByte) {
+    int b = _leadByte & 0xFF;
+    if (b < 0x80) return 1;
+    if (b < 0xE0) return 2;
+    if (b < 0xF0) return 3;
+    return 4;
+  }
+
+  /**
+   * Decode the code point of a UTF-8 sequence.
+   *
+   * @param _bytes array holding the sequence
+   * @param _off index of the sequence's first byte
+   * @param _numBytes length of the sequence, as given by utf8SequenceLength
+   * @return code point the sequence encodes
+   */
+  public static int decodeUtf8(byte[] _bytes, int _off, int _numBytes) {
+    if (_numBytes == 1) return _bytes[_off];
+    // strip the marker bits of the lead byte, then append six bits per continuation byte
+    int ret = _bytes[_off] & (0xFF >>> (_numBytes + 1));
+    for (int i = 1; i < _numBytes; i++) ret = (ret << 6) | (_bytes[_off + i] & 0x3F);
+    return ret;
+  }
+
+  /**
+   * Get the code point starting at a char index, treating an unpaired surrogate as
+   * Constants.UTILS_REPLACEMENT_CHAR.
+   *
+   * @param _str string to read from
+   * @param _index index of the first char of the code point
+   * @return code point at _index
+   */
+  public static int codePointAt(CharSequence _str, int _index) {
+    char c = _str.charAt(_index);
+    if (!Character.isSurrogate(c)) return c;
+    if (Character.isHighSurrogate(c) && _index + 1 < _str.length()) {
+      char low = _str.charAt(_index + 1);
+      if (Character.isLowSurrogate(low)) return Character.toCodePoint(c, low);
+    }
+
+    return Constants.UTILS_REPLACEMENT_CHAR;
+  }
+
+  /**
+   * Get the last bit of a string's UTF-8 encoding without encoding it. The last byte of a code
+   * point's encoding always ends in the code point's own lowest bit.
+   *
+   * @param _str non-empty string to read from
+   * @return last bit of the encoding of _str
+   */
+  public static int lastBit(CharSequence _str) {
+    int index = _str.length() - 1;
+    if (index > 0
+        && Character.isLowSurrogate(_str.charAt(index))
+        && Character.isHighSurrogate(_str.charAt(index - 1))) {
+      index--;
+    }
+
+    return codePointAt(_str, index) & 1;
+  }
+
+  /**
+   * Compare two strings in lexicographic order of their UTF-8 encodings, which is the order of
+   * their code points and the order in which trees keep their keys.
+   *
+   * @param _first first string to compare
+   * @param _second second string to compare
+   * @return negative, zero or positive as _first is before, equal to or after _second
+   */
+  public static int compareUtf8(CharSequence _first, CharSequence _second) {
+    int i = 0;
+    int j = 0;
+    while (i < _first.length() && j < _second.length()) {
+      int first = codePointAt(_first, i);
+      int second = codePointAt(_second, j);
+      if (first != second) return Integer.compare(first, second);
+      i += Character.charCount(first);
+      j += Character.charCount(second);
+    }
+
+    return Integer.compare(_first.length() - i, _second.length() - j);
+  }
+
+  /**
+   * Calculate the length of the longest common prefix of the UTF-8 encodings of two strings,
+   * counting whole code points only.
+   *
+   * @param _first first string to compare
+   * @param _second second string to compare
+   * @return number of leading bytes the encodings of both strings share, at least
+   */
+  public static int commonUtf8Length(CharSequence _first, CharSequence _second) {
+    int min = Math.min(_first.length(), _second.length());
+    int ret = 0;
+    for (int i = 0; i < min; ) {
+      int codePoint = codePointAt(_first, i);
+      if (codePoint != codePointAt(_second, i)) break;
+      ret += utf8Length(codePoint);
+      i += Character.charCount(codePoint);
+    }
+
+    return ret;
+  }
+
+  /**
+   * Move a cursor over a string forward to the character whose UTF-8 encoding contains the byte at
+   * _byteIndex. A cursor packs the index of a char into its upper 32 bits and the offset of that
+   * char's first encoded byte into its lower 32 bits, so walking a string in increasing byte order
+   * needs no allocation; a fresh cursor is 0.
+   *
+   * @param _str string the cursor walks over
+   * @param _cursor current cursor, which must not be past _byteIndex
+   * @param _byteIndex index of a byte of the UTF-8 encoding of _str
+   * @return cursor at the character containing _byteIndex
+   */
+  public static long seek(CharSequence _str, long _cursor, int _byteIndex) {
+    int charNdx = (int) (_cursor >>> 32);
+    int byteNdx = (int) _cursor;
+    while (true) {
+      int codePoint = codePointAt(_str, charNdx);
+      int numBytes = utf8Length(codePoint);
+      if (byteNdx + numBytes > _byteIndex) break;
+      byteNdx += numBytes;
+      charNdx += Character.charCount(codePoint);
     }
 
-    // account for last char
-    return ret + Character.toString((char) next);
+    return ((long) charNdx << 32) | byteNdx;
+  }
+
+  /**
+   * Read a single bit of the bit key representation of _str without building the key.
+   *
+   * @param _str string to read from
+   * @param _cursor cursor at the character containing the bit, as returned by seek
+   * @param _index index of the bit, as in strToBitKey(_str).bitAt(_index)
+   * @return 0 or 1
+   */
+  public static int bitAt(CharSequence _str, long _cursor, int _index) {
+    int b = byteAt(_str, _cursor, _index / Constants.UTILS_CHAR_BITLEN);
+    return (b >>> (Constants.UTILS_CHAR_BITLEN - 1 - _index % Constants.UTILS_CHAR_BITLEN)) & 1;
+  }
+
+  /**
+   * Read a single byte of the UTF-8 encoding of _str without encoding it.
+   *
+   * @param _str string to read from
+   * @param _cursor cursor at the character containing the byte, as returned by seek
+   * @param _byteIndex index of the byte within the encoding of _str
+   * @return value of the byte, from 0 to 255
+   */
+  public static int byteAt(CharSequence _str, long _cursor, int _byteIndex) {
+    int codePoint = codePointAt(_str, (int) (_cursor >>> 32));
+    return utf8Byte(codePoint, utf8Length(codePoint), _byteIndex - (int) _cursor);
+  }
+
+  /**
+   * Read a single bit out of a range of bytes, most significant bit of each byte first.
+   *
+   * @param _bytes array to read from
+   * @param _off index of the first byte of the range
+   * @param _index index of the bit within the range
+   * @return 0 or 1
+   */
+  public static int bitAt(byte[] _bytes, int _off, int _index) {
+    return (_bytes[_off + (_index >>> 3)] >>> (~_index & 7)) & 1;
+  }
+
+  /**
+   * Read a single bit out of the remaining bytes of a buffer, most significant bit of each byte
+   * first. The buffer's position is not changed.
+   *
+   * @param _buf buffer to read from
+   * @param _index index of the bit, counted from the buffer's position
+   * @return 0 or 1
+   */
+  public static int bitAt(ByteBuffer _buf, int _index) {
+    return (_buf.get(_buf.position() + (_index >>> 3)) >>> (~_index & 7)) & 1;
+  }
+
+  /**
+   * Calculate the number of bytes needed to hold a terminal key of a node. Such a key is always
+   * forkIndex+1 bits long, so stored copies of it need no length of their own.
+   *
+   * @param _forkIndex forkIndex of the node
+   * @return number of bytes in the key, rounded up
+   */
+  public static int terminalBytes(int _forkIndex) {
+    return (_forkIndex + Byte.SIZE) / Byte.SIZE;
   }
 }
@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2017-2018 Aditya Saligrama.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO
+ * EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES
+ * OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.saligrama.patricia;
+
+/**
+ * ValueNode is a Node with a value slot next to each of its terminal keys, for trees that map keys
+ * to values. Slots are cleared when their key is removed, so a node that lives on does not keep a
+ * value reachable.
+ *
+ * @author Aditya Saligrama
+ * @version 1.0
+ */
+class ValueNode extends Node {
+  private final Object[] values = new Object[Constants.NODE_NUM_CHILDREN];
+
+  /** Construct a new ValueNode. */
+  protected ValueNode(int _forkIndex, Node _parent) {
+    super(_forkIndex, _parent);
+  }
+
+  @Override
+  protected Node newNode(int _forkIndex, Node _parent) {
+    return new ValueNode(_forkIndex, _parent);
+  }
+
+  /**
+   * @param _index last bit of the terminal key
+   * @return value of the terminal key
+   */
+  @SuppressWarnings("unchecked")
+  protected <V> V value(int _index) {
+    return (V) values[_index];
+  }
+
+  /**
+   * @param _index last bit of the terminal key
+   * @param _value new value of the terminal key
+   */
+  protected void setValue(int _index, Object _value) {
+    values[_index] = _value;
+  }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) 2017-2018 Aditya Saligrama.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO
+ * EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES
+ * OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.saligrama.patricia;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.jupiter.api.Test;
+
+/**
+ * ConcurrentPatriciaTreeTest runs writers against one tree from several threads. Each thread owns
+ * the keys whose number is its index modulo the thread count, so its own reference set predicts
+ * every result it sees, while the keys of all threads are neighbours in the tree and contend for
+ * the same nodes. Keys added before the threads start are never removed, and every lookup of one
+ * of them must succeed.
+ *
+ * <p>In the overlapping rounds every thread adds and removes the same keys, each a prefix of
+ * others and of some of the keys added first. No thread can predict its own results there, but the
+ * additions and removals of a key that succeeded, summed over the threads, must leave it present
+ * once or not at all, as the tree finds it at the end.
+ *
+ * @author Aditya Saligrama
+ * @version 1.0
+ */
+public class ConcurrentPatriciaTreeTest {
+  private static final int NUM_THREADS = 8;
+  private static final int NUM_ROUNDS = 20;
+  private static final int OPS_PER_THREAD = 20_000;
+  private static final int KEYS_PER_THREAD = 512;
+  private static final int NUM_PRESENT = 512;
+  private static final int SHARED_KEY_BITS = 6;
+
+  // "key" followed by every string of up to SHARED_KEY_BITS binary digits
+  private static final String[] SHARED_KEYS = sharedKeys();
+
+  @Test
+  public void operationsMatchReferenceSets() throws Exception {
+    ExecutorService pool = Executors.newFixedThreadPool(NUM_THREADS);
+    try {
+      for (int round = 0; round < NUM_ROUNDS; round++) runRound(pool, round);
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  @Test
+  public void overlappingOperationsBalance() throws Exception {
+    ExecutorService pool = Executors.newFixedThreadPool(NUM_THREADS);
+    try {
+      for (int round = 0; round < NUM_ROUNDS; round++) runSharedRound(pool, round);
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  private static void runRound(ExecutorService _pool, long _seed) throws Exception {
+    ConcurrentPatriciaTree tree = new ConcurrentPatriciaTree();
+    for (int i = 0; i < NUM_PRESENT; i++) tree.add(presentKey(i));
+
+    CyclicBarrier start = new CyclicBarrier(NUM_THREADS);
+    List<Future<Set<String>>> results = new ArrayList<>();
+    for (int t = 0; t < NUM_THREADS; t++) {
+      int thread = t;
+      results.add(_pool.submit(() -> runThread(tree, thread, _seed, start)));
+    }
+
+    Set<String> expected = new HashSet<>();
+    for (Future<Set<String>> f : results) expected.addAll(f.get());
+    for (int t = 0; t < NUM_THREADS; t++) {
+      for (int i = 0; i < KEYS_PER_THREAD; i++) {
+        String key = ownedKey(t, i);
+        assertEquals(expected.contains(key), tree.contains(key), key);
+      }
+    }
+    for (int i = 0; i < NUM_PRESENT; i++) assertEquals(true, tree.contains(presentKey(i)));
+    assertEquals(expected.size() + NUM_PRESENT, tree.size());
+  }
+
+  /** @return the keys the thread left in the tree */
+  private static Set<String> runThread(
+      ConcurrentPatriciaTree _tree, int _thread, long _seed, CyclicBarrier _start)
+      throws Exception {
+    Random random = new Random(_seed * NUM_THREADS + _thread);
+    Set<String> reference = new HashSet<>();
+    _start.await();
+    for (int op = 0; op < OPS_PER_THREAD; op++) {
+      String key = ownedKey(_thread, random.nextInt(KEYS_PER_THREAD));
+      switch (random.nextInt(4)) {
+        case 0:
+          assertEquals(reference.add(key), _tree.add(key), key);
+          break;
+        case 1:
+          assertEquals(reference.remove(key), _tree.remove(key), key);
+          break;
+        case 2:
+          assertEquals(reference.contains(key), _tree.contains(key), key);
+          break;
+        default:
+          String present = presentKey(random.nextInt(NUM_PRESENT));
+          assertEquals(true, _tree.contains(present), present);
+      }
+    }
+    return reference;
+  }
+
+  private static void runSharedRound(ExecutorService _pool, long _seed) throws Exception {
+    ConcurrentPatriciaTree tree = new ConcurrentPatriciaTree();
+    for (int i = 0; i < NUM_PRESENT; i++) tree.add(presentKey(i));
+
+    CyclicBarrier start = new CyclicBarrier(NUM_THREADS);
+    List<Future<int[]>> results = new ArrayList<>();
+    for (int t = 0; t < NUM_THREADS; t++) {
+      int thread = t;
+      results.add(_pool.submit(() -> runSharedThread(tree, thread, _seed, start)));
+    }
+
+    int[] net = new int[SHARED_KEYS.length];
+    for (Future<int[]> f : results) {
+      int[] changes = f.get();
+      for (int i = 0; i < net.length; i++) net[i] += changes[i];
+    }
+    int expectedSize = NUM_PRESENT;
+    for (int i = 0; i < net.length; i++) {
+      assertEquals(tree.contains(SHARED_KEYS[i]) ? 1 : 0, net[i], SHARED_KEYS[i]);
+      expectedSize += net[i];
+    }
+    for (int i = 0; i < NUM_PRESENT; i++) assertEquals(true, tree.contains(presentKey(i)));
+    assertEquals(expectedSize, tree.size());
+  }
+
+  /**
+   * @return for each shared key, the number of times the thread added it less the number of times
+   *     it removed it
+   */
+  private static int[] runSharedThread(
+      ConcurrentPatriciaTree _tree, int _thread, long _seed, CyclicBarrier _start)
+      throws Exception {
+    Random random = new Random(_seed * NUM_THREADS + _thread);
+    int[] ret = new int[SHARED_KEYS.length];
+    _start.await();
+    for (int op = 0; op < OPS_PER_THREAD; op++) {
+      int key = random.nextInt(SHARED_KEYS.length);
+      switch (random.nextInt(3)) {
+        case 0:
+          if (_tree.add(SHARED_KEYS[key])) ret[key]++;
+          break;
+        case 1:
+          if (_tree.remove(SHARED_KEYS[key])) ret[key]--;
+          break;
+        default:
+          String present = presentKey(random.nextInt(NUM_PRESENT));
+          assertEquals(true, _tree.contains(present), present);
+      }
+    }
+    return ret;
+  }
+
+  private static String[] sharedKeys() {
+    List<String> ret = new ArrayList<>();
+    ret.add("key");
+    for (int i = 0; i < ret.size(); i++) {
+      if (ret.get(i).length() < "key".length() + SHARED_KEY_BITS) {
+        ret.add(ret.get(i) + "0");
+        ret.add(ret.get(i) + "1");
+      }
+    }
+    return ret.toArray(new String[0]);
+  }
+
+  private static String ownedKey(int _thread, int _index) {
+    return "key" + (_index * NUM_THREADS + _thread);
+  }
+
+  private static String presentKey(int _index) {
+    return "key" + _index * NUM_THREADS + "/present";
+  }
+}
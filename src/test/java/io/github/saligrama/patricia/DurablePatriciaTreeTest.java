@@ -0,0 +1,296 @@
+/*
+ * Copyright (c) 2017-2018 Aditya Saligrama.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO
+ * EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES
+ * OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.saligrama.patricia;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+/**
+ * DurablePatriciaTreeTest checks that a tree reopened from its directory holds exactly what was
+ * logged. A crash is simulated by copying the files of a tree that is still open, so the copy is
+ * what a crash at that point would leave behind, and a torn write by damaging the end of the
+ * copied log.
+ *
+ * @author Aditya Saligrama
+ * @version 1.0
+ */
+public class DurablePatriciaTreeTest {
+  private static final int NUM_KEYS = 2_000;
+  private static final int NUM_THREADS = 8;
+  private static final int OPS_PER_THREAD = 2_000;
+  private static final long SMALL_THRESHOLD = 4_096;
+
+  @TempDir Path tmp;
+
+  @Test
+  public void replaysLogAfterUncleanClose() throws IOException {
+    Path dir = tmp.resolve("tree");
+    Path crashed = tmp.resolve("crashed");
+    Set<String> expected = new TreeSet<>();
+    try (DurablePatriciaTree tree = DurablePatriciaTree.open(dir)) {
+      applyRandom(tree, expected, new Random(1), NUM_KEYS);
+      copyFiles(dir, crashed);
+    }
+
+    try (DurablePatriciaTree tree = DurablePatriciaTree.open(crashed)) {
+      assertHolds(expected, tree);
+    }
+  }
+
+  @Test
+  public void dropsTornFinalRecord() throws IOException {
+    Path dir = tmp.resolve("tree");
+    Path crashed = tmp.resolve("crashed");
+    Set<String> expected = new TreeSet<>();
+    try (DurablePatriciaTree tree = DurablePatriciaTree.open(dir)) {
+      applyRandom(tree, expected, new Random(2), NUM_KEYS);
+      assertTrue(tree.add("torn"));
+      copyFiles(dir, crashed);
+    }
+
+    // cut the last record off partway through its key
+    Path log = onlyFile(crashed, Constants.DURABLE_LOG_PREFIX);
+    long complete = Files.size(log) - recordLength("torn");
+    try (FileChannel channel = FileChannel.open(log, StandardOpenOption.WRITE)) {
+      channel.truncate(complete + Constants.LOG_RECORD_HEADER_LEN + 2);
+    }
+
+    reopenAndAppend(crashed, expected, log, complete);
+  }
+
+  @Test
+  public void dropsCorruptFinalRecord() throws IOException {
+    Path dir = tmp.resolve("tree");
+    Path crashed = tmp.resolve("crashed");
+    Set<String> expected = new TreeSet<>();
+    try (DurablePatriciaTree tree = DurablePatriciaTree.open(dir)) {
+      applyRandom(tree, expected, new Random(3), NUM_KEYS);
+      assertTrue(tree.add("corrupt"));
+      copyFiles(dir, crashed);
+    }
+
+    // flip a bit of the last record's key, so that its checksum no longer matches
+    Path log = onlyFile(crashed, Constants.DURABLE_LOG_PREFIX);
+    long complete = Files.size(log) - recordLength("corrupt");
+    try (FileChannel channel =
+        FileChannel.open(log, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      ByteBuffer b = ByteBuffer.allocate(1);
+      long pos = complete + Constants.LOG_RECORD_HEADER_LEN;
+      channel.read(b, pos);
+      b.put(0, (byte) (b.get(0) ^ 1)).rewind();
+      channel.write(b, pos);
+    }
+
+    reopenAndAppend(crashed, expected, log, complete);
+  }
+
+  @ParameterizedTest
+  @EnumSource(DurablePatriciaTree.SyncPolicy.class)
+  public void concurrentWritersAreAllLogged(DurablePatriciaTree.SyncPolicy _policy)
+      throws Exception {
+    Path dir = tmp.resolve("tree");
+    Set<String> expected = ConcurrentHashMap.newKeySet();
+    ExecutorService pool = Executors.newFixedThreadPool(NUM_THREADS);
+    try (DurablePatriciaTree tree = DurablePatriciaTree.open(dir, _policy, SMALL_THRESHOLD)) {
+      CyclicBarrier start = new CyclicBarrier(NUM_THREADS);
+      List<Future<?>> results = new ArrayList<>();
+      for (int t = 0; t < NUM_THREADS; t++) {
+        int thread = t;
+        results.add(
+            pool.submit(
+                () -> {
+                  // each thread owns its keys, so its own view of them is exact
+                  Random random = new Random(thread);
+                  Set<String> reference = new TreeSet<>();
+                  start.await();
+                  for (int op = 0; op < OPS_PER_THREAD; op++) {
+                    String key = "t" + thread + "/" + random.nextInt(OPS_PER_THREAD / 4);
+                    if (random.nextInt(3) == 0) {
+                      assertEquals(reference.remove(key), tree.remove(key), key);
+                    } else {
+                      assertEquals(reference.add(key), tree.add(key), key);
+                    }
+                  }
+                  expected.addAll(reference);
+                  return null;
+                }));
+      }
+      for (Future<?> f : results) f.get();
+      assertEquals(expected.size(), tree.size());
+    } finally {
+      pool.shutdownNow();
+    }
+
+    try (DurablePatriciaTree tree = DurablePatriciaTree.open(dir)) {
+      assertHolds(new TreeSet<>(expected), tree);
+    }
+  }
+
+  @Test
+  public void compactionReplacesSnapshotAndLogs() throws IOException {
+    Path dir = tmp.resolve("tree");
+    Set<String> expected = new TreeSet<>();
+    Random random = new Random(4);
+    try (DurablePatriciaTree tree =
+        DurablePatriciaTree.open(dir, DurablePatriciaTree.SyncPolicy.NEVER, SMALL_THRESHOLD)) {
+      // enough for several compactions on the way, each folding the previous snapshot in
+      applyRandom(tree, expected, random, NUM_KEYS);
+      tree.compact();
+      assertCompacted(dir);
+      assertHolds(expected, tree);
+
+      applyRandom(tree, expected, random, NUM_KEYS / 10);
+      tree.compact();
+      assertCompacted(dir);
+    }
+
+    try (DurablePatriciaTree tree = DurablePatriciaTree.open(dir)) {
+      assertHolds(expected, tree);
+    }
+  }
+
+  @Test
+  public void secondOpenOfLockedDirectoryFails() throws IOException {
+    Path dir = tmp.resolve("tree");
+    try (DurablePatriciaTree tree = DurablePatriciaTree.open(dir)) {
+      tree.add("held");
+      assertThrows(IOException.class, () -> DurablePatriciaTree.open(dir));
+      assertThrows(IOException.class, () -> DurablePatriciaTree.open(dir.resolve(".")));
+      assertTrue(tree.add("still open"));
+    }
+
+    try (DurablePatriciaTree tree = DurablePatriciaTree.open(dir)) {
+      assertTrue(tree.contains("held"));
+      assertTrue(tree.contains("still open"));
+    }
+  }
+
+  /**
+   * Reopen a tree whose last record was damaged, check that the record is dropped and cut off,
+   * and that records appended after it survive another reopen.
+   */
+  private static void reopenAndAppend(Path _dir, Set<String> _expected, Path _log, long _complete)
+      throws IOException {
+    try (DurablePatriciaTree tree = DurablePatriciaTree.open(_dir)) {
+      assertHolds(_expected, tree);
+      assertEquals(_complete, Files.size(_log));
+      assertTrue(tree.add("after"));
+      _expected.add("after");
+    }
+
+    try (DurablePatriciaTree tree = DurablePatriciaTree.open(_dir)) {
+      assertHolds(_expected, tree);
+    }
+  }
+
+  /** Add and remove random keys, keeping the expected set up to date. */
+  private static void applyRandom(
+      DurablePatriciaTree _tree, Set<String> _expected, Random _random, int _numOps)
+      throws IOException {
+    for (int i = 0; i < _numOps; i++) {
+      String key = "key" + _random.nextInt(_numOps / 2) + (_random.nextBoolean() ? "/\u00fc" : "");
+      if (_random.nextInt(4) == 0) {
+        assertEquals(_expected.remove(key), _tree.remove(key), key);
+      } else {
+        assertEquals(_expected.add(key), _tree.add(key), key);
+      }
+    }
+  }
+
+  private static void assertHolds(Set<String> _expected, DurablePatriciaTree _tree) {
+    assertEquals(_expected.size(), _tree.size());
+    for (String key : _expected) assertTrue(_tree.contains(key), key);
+    assertFalse(_tree.contains("torn"));
+    assertFalse(_tree.contains("corrupt"));
+  }
+
+  /** Check that a compaction left only the new snapshot and the log started after it. */
+  private static void assertCompacted(Path _dir) throws IOException {
+    long snapshot = generation(onlyFile(_dir, Constants.DURABLE_SNAPSHOT_PREFIX));
+    long log = generation(onlyFile(_dir, Constants.DURABLE_LOG_PREFIX));
+    assertEquals(snapshot + 1, log);
+    for (Path p : list(_dir)) {
+      assertFalse(p.toString().endsWith(Constants.DURABLE_TMP_SUFFIX), p.toString());
+    }
+  }
+
+  private static long recordLength(String _key) {
+    return Constants.LOG_RECORD_OVERHEAD + _key.getBytes(StandardCharsets.UTF_8).length;
+  }
+
+  private static long generation(Path _file) {
+    String name = _file.getFileName().toString();
+    return Long.parseLong(name.substring(name.indexOf('-') + 1));
+  }
+
+  private static Path onlyFile(Path _dir, String _prefix) throws IOException {
+    List<Path> ret = new ArrayList<>();
+    for (Path p : list(_dir)) {
+      if (p.getFileName().toString().startsWith(_prefix)) ret.add(p);
+    }
+    assertEquals(1, ret.size(), ret.toString());
+    return ret.get(0);
+  }
+
+  private static List<Path> list(Path _dir) throws IOException {
+    List<Path> ret = new ArrayList<>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(_dir)) {
+      for (Path p : stream) ret.add(p);
+    }
+    return ret;
+  }
+
+  /** Copy every file but the lock of an open tree, as a crash at this point would leave them. */
+  private static void copyFiles(Path _from, Path _to) throws IOException {
+    Files.createDirectories(_to);
+    for (Path p : list(_from)) {
+      if (p.getFileName().toString().equals(Constants.DURABLE_LOCK_FILE)) continue;
+      Files.copy(p, _to.resolve(p.getFileName()));
+    }
+  }
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright (c) 2017-2018 Aditya Saligrama.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO
+ * EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES
+ * OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.saligrama.patricia;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+/**
+ * MatchTest checks fuzzyMatch and matchPattern against filtering every key of the tree: by an edit
+ * distance table for fuzzyMatch, and by the pattern translated into a regular expression for
+ * matchPattern. Keys and patterns share an alphabet holding the wildcard and set characters, so
+ * that escaped and unescaped uses of them both come up.
+ *
+ * @author Aditya Saligrama
+ * @version 1.0
+ */
+public class MatchTest {
+  private static final String[] KEY_CODE_POINTS = {
+    "a", "b", "c", "\u00e9", "\ud83d\ude00", "*", "?", "[", "]", "-", "\\"
+  };
+  private static final String[] LITERALS = {"a", "b", "c", "\u00e9", "\ud83d\ude00", "-"};
+  private static final String[] ESCAPED = {"\\*", "\\?", "\\[", "\\]", "\\\\", "\\-"};
+  private static final int NUM_SEEDS = 100;
+  private static final int NUM_QUERIES = 30;
+  private static final int MAX_EDITS = 3;
+
+  @ParameterizedTest
+  @EnumSource(Radix.class)
+  public void fuzzyMatchesMatchEditDistance(Radix _radix) {
+    for (int seed = 0; seed < NUM_SEEDS; seed++) {
+      Random random = new Random(seed);
+      int maxLength = 1 + random.nextInt(6);
+      TreeSet<String> keys = randomKeys(random, random.nextInt(300), maxLength);
+      PatriciaTree tree = build(keys, _radix);
+      for (int i = 0; i < NUM_QUERIES; i++) {
+        String query = random.nextInt(10) == 0 ? "" : randomKey(random, maxLength);
+        int maxEdits = random.nextInt(MAX_EDITS + 1);
+        List<String> expected =
+            keys.stream()
+                .filter(k -> editDistance(k, query) <= maxEdits)
+                .collect(Collectors.toList());
+        assertEquals(expected, tree.fuzzyMatch(query, maxEdits).collect(Collectors.toList()));
+      }
+    }
+  }
+
+  @ParameterizedTest
+  @EnumSource(Radix.class)
+  public void patternMatchesMatchRegex(Radix _radix) {
+    for (int seed = 0; seed < NUM_SEEDS; seed++) {
+      Random random = new Random(seed);
+      int maxLength = 1 + random.nextInt(6);
+      TreeSet<String> keys = randomKeys(random, random.nextInt(300), maxLength);
+      PatriciaTree tree = build(keys, _radix);
+      for (int i = 0; i < NUM_QUERIES; i++) {
+        String glob = randomPattern(random, maxLength);
+        Pattern regex = Pattern.compile(toRegex(glob), Pattern.DOTALL);
+        List<String> expected =
+            keys.stream().filter(k -> regex.matcher(k).matches()).collect(Collectors.toList());
+        assertEquals(
+            expected, tree.matchPattern(glob).collect(Collectors.toList()), "pattern " + glob);
+      }
+    }
+  }
+
+  @Test
+  public void setsHoldBracketsAndDashes() {
+    TreeSet<String> keys = new TreeSet<>(Utils::compareUtf8);
+    keys.addAll(List.of("]", "-", "a", "b", "\\", "!", "^"));
+    for (Radix r : Radix.values()) {
+      PatriciaTree tree = build(keys, r);
+      assertEquals(List.of("]"), match(tree, "[\\]]"));
+      assertEquals(List.of("]"), match(tree, "[]]"));
+      assertEquals(List.of("-", "]", "a"), match(tree, "[]a-]"));
+      assertEquals(List.of("\\", "]", "^", "b"), match(tree, "[!!a-]"));
+      assertEquals(List.of("\\"), match(tree, "[\\\\]"));
+      assertEquals(List.of("-", "\\", "]"), match(tree, "[\\--\\]]"));
+    }
+  }
+
+  @Test
+  public void malformedPatternsAreRejected() {
+    PatriciaTree tree = new PatriciaTree();
+    assertThrows(IllegalArgumentException.class, () -> tree.matchPattern("[z-a]"));
+    assertThrows(IllegalArgumentException.class, () -> tree.matchPattern("[a-\\]]"));
+    assertThrows(IllegalArgumentException.class, () -> tree.matchPattern("[ab"));
+    assertThrows(IllegalArgumentException.class, () -> tree.matchPattern("[]"));
+    assertThrows(IllegalArgumentException.class, () -> tree.matchPattern("[a\\]"));
+    assertThrows(IllegalArgumentException.class, () -> tree.matchPattern("ab\\"));
+    assertThrows(IllegalArgumentException.class, () -> tree.fuzzyMatch("ab", -1));
+  }
+
+  private static List<String> match(PatriciaTree _tree, String _glob) {
+    return _tree.matchPattern(_glob).collect(Collectors.toList());
+  }
+
+  /** @return number of code point insertions, deletions and substitutions turning _a into _b */
+  private static int editDistance(String _a, String _b) {
+    int[] a = _a.codePoints().toArray();
+    int[] b = _b.codePoints().toArray();
+    int[][] table = new int[a.length + 1][b.length + 1];
+    for (int i = 0; i <= a.length; i++) {
+      for (int j = 0; j <= b.length; j++) {
+        if (i == 0 || j == 0) {
+          table[i][j] = i + j;
+        } else {
+          int substitute = table[i - 1][j - 1] + (a[i - 1] == b[j - 1] ? 0 : 1);
+          table[i][j] = Math.min(substitute, Math.min(table[i - 1][j], table[i][j - 1]) + 1);
+        }
+      }
+    }
+    return table[a.length][b.length];
+  }
+
+  /**
+   * Translate a well-formed wildcard pattern into a regular expression, quoting every code point
+   * the pattern reads literally.
+   */
+  private static String toRegex(String _glob) {
+    int[] glob = _glob.codePoints().toArray();
+    StringBuilder ret = new StringBuilder();
+    for (int i = 0; i < glob.length; i++) {
+      if (glob[i] == '*') {
+        ret.append(".*");
+      } else if (glob[i] == '?') {
+        ret.append('.');
+      } else if (glob[i] == '\\') {
+        ret.append(quote(glob[++i]));
+      } else if (glob[i] == '[') {
+        ret.append('[');
+        if (glob[i + 1] == '!' || glob[i + 1] == '^') {
+          ret.append('^');
+          i++;
+        }
+        // a ']' first in the set is a member
+        for (int first = ++i; glob[i] != ']' || i == first; i++) {
+          if (glob[i] == '\\') i++;
+          ret.append(quote(glob[i]));
+          if (glob[i + 1] == '-' && glob[i + 2] != ']') {
+            i += glob[i + 2] == '\\' ? 3 : 2;
+            ret.append('-').append(quote(glob[i]));
+          }
+        }
+        ret.append(']');
+      } else {
+        ret.append(quote(glob[i]));
+      }
+    }
+    return ret.toString();
+  }
+
+  private static String quote(int _codePoint) {
+    return "\\x{" + Integer.toHexString(_codePoint) + "}";
+  }
+
+  private static String randomPattern(Random _random, int _maxLength) {
+    int length = 1 + _random.nextInt(_maxLength);
+    StringBuilder ret = new StringBuilder();
+    for (int i = 0; i < length; i++) {
+      int kind = _random.nextInt(10);
+      if (kind < 4) {
+        ret.append(LITERALS[_random.nextInt(LITERALS.length)]);
+      } else if (kind < 5) {
+        ret.append(ESCAPED[_random.nextInt(ESCAPED.length)]);
+      } else if (kind < 6) {
+        ret.append('*');
+      } else if (kind < 7) {
+        ret.append('?');
+      } else {
+        ret.append(randomSet(_random));
+      }
+    }
+    return ret.toString();
+  }
+
+  private static String randomSet(Random _random) {
+    StringBuilder ret = new StringBuilder("[");
+    if (_random.nextInt(3) == 0) ret.append(_random.nextBoolean() ? '!' : '^');
+    if (_random.nextInt(4) == 0) ret.append(']');
+    for (int i = 0, n = 1 + _random.nextInt(3); i < n; i++) {
+      if (_random.nextInt(3) == 0) {
+        ret.append(ESCAPED[_random.nextInt(ESCAPED.length)]);
+      } else {
+        String lo = KEY_CODE_POINTS[_random.nextInt(3)];
+        ret.append(lo);
+        if (_random.nextBoolean()) ret.append('-').append(KEY_CODE_POINTS[2 + _random.nextInt(3)]);
+      }
+    }
+    if (_random.nextInt(4) == 0) ret.append('-');
+    return ret.append(']').toString();
+  }
+
+  private static PatriciaTree build(TreeSet<String> _keys, Radix _radix) {
+    PatriciaTree ret = new PatriciaTree(_radix);
+    for (String s : _keys) ret.add(s);
+    return ret;
+  }
+
+  private static TreeSet<String> randomKeys(Random _random, int _count, int _maxLength) {
+    TreeSet<String> ret = new TreeSet<>(Utils::compareUtf8);
+    for (int i = 0; i < _count; i++) ret.add(randomKey(_random, _maxLength));
+    return ret;
+  }
+
+  private static String randomKey(Random _random, int _maxLength) {
+    int length = 1 + _random.nextInt(_maxLength);
+    StringBuilder ret = new StringBuilder();
+    for (int i = 0; i < length; i++) {
+      ret.append(KEY_CODE_POINTS[_random.nextInt(KEY_CODE_POINTS.length)]);
+    }
+    return ret.toString();
+  }
+}
@@ -0,0 +1,400 @@
+/*
+ * Copyright (c) 2017-2018 Aditya Saligrama.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO
+ * EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES
+ * OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.saligrama.patricia;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.function.Supplier;
+import org.junit.jupiter.api.Test;
+
+/**
+ * PatriciaMapTest runs random operations on PatriciaMap, PatriciaIntMap and PatriciaLongMap and
+ * on a TreeMap ordered by code point, and checks that the two agree: on navigation, on head, tail,
+ * sub, prefix and descending views nested a few deep, and on writes made through those views and
+ * their entries. Keys are drawn from a few code points, some outside the BMP, so that they share
+ * prefixes and their UTF-8 order differs from String.compareTo.
+ *
+ * @author Aditya Saligrama
+ * @version 1.0
+ */
+public class PatriciaMapTest {
+  private static final Comparator<String> ORDER = Utils::compareUtf8;
+  private static final String[] CODE_POINTS = {"a", "b", "c", "\u00e9", "\uff01", "\ud83d\ude00"};
+  // above every code point in CODE_POINTS, so prefix + MAX_CODE_POINT bounds a prefix's keys
+  private static final String MAX_CODE_POINT = "\udbff\udfff";
+  private static final int NUM_SEEDS = 200;
+  private static final int NUM_PROBES = 20;
+  private static final int VIEW_DEPTH = 3;
+
+  @Test
+  public void ordersKeysByCodePoint() {
+    PatriciaMap<Integer> map = new PatriciaMap<>();
+    map.put("\ud83d\ude00", 0);
+    map.put("\uff01", 1);
+    map.put("a", 2);
+    assertEquals(List.of("a", "\uff01", "\ud83d\ude00"), new ArrayList<>(map.keySet()));
+    assertEquals("\uff01", map.lowerKey("\ud83d\ude00"));
+    assertEquals("\ud83d\ude00", map.higherKey("\uff01"));
+  }
+
+  @Test
+  public void randomMapsMatchTreeMaps() {
+    for (int seed = 0; seed < NUM_SEEDS; seed++) {
+      Random random = new Random(seed);
+      int maxLength = 1 + random.nextInt(6);
+      TreeMap<String, Integer> expected = new TreeMap<>(ORDER);
+      PatriciaMap<Integer> actual = new PatriciaMap<>();
+      for (int i = 0, n = random.nextInt(300); i < n; i++) {
+        String key = randomKey(random, maxLength);
+        if (random.nextInt(4) == 0) {
+          assertEquals(expected.remove(key), actual.remove(key));
+        } else {
+          Integer value = random.nextInt(8) == 0 ? null : i;
+          assertEquals(expected.put(key, value), actual.put(key, value));
+        }
+      }
+
+      assertSameMap(expected, actual);
+      for (int i = 0; i < NUM_PROBES; i++) {
+        checkViews(random, expected, actual, maxLength, VIEW_DEPTH);
+      }
+    }
+  }
+
+  @Test
+  public void writesThroughViewsMatchTreeMaps() {
+    for (int seed = 0; seed < NUM_SEEDS; seed++) {
+      Random random = new Random(seed);
+      int maxLength = 1 + random.nextInt(4);
+      TreeMap<String, Integer> expected = new TreeMap<>(ORDER);
+      PatriciaMap<Integer> actual = new PatriciaMap<>();
+      for (int i = 0, n = random.nextInt(200); i < n; i++) {
+        String key = randomKey(random, maxLength);
+        expected.put(key, i);
+        actual.put(key, i);
+      }
+
+      for (int i = 0; i < NUM_PROBES; i++) {
+        NavigableMap<String, Integer>[] view = randomView(random, expected, actual, maxLength);
+        if (view != null) writeThrough(random, view[0], view[1], maxLength);
+        assertSameMap(expected, actual);
+      }
+    }
+  }
+
+  @Test
+  public void intMapsMatchTreeMaps() {
+    for (int seed = 0; seed < NUM_SEEDS; seed++) {
+      Random random = new Random(seed);
+      int maxLength = 1 + random.nextInt(6);
+      TreeMap<String, Integer> expected = new TreeMap<>(ORDER);
+      PatriciaIntMap actual = new PatriciaIntMap();
+      for (int i = 0, n = random.nextInt(300); i < n; i++) {
+        String key = randomKey(random, maxLength);
+        int value = random.nextInt();
+        switch (random.nextInt(5)) {
+          case 0:
+            assertEquals(orZero(expected.remove(key)), actual.remove(key));
+            break;
+          case 1:
+            assertEquals(orZero(expected.put(key, value)), actual.put(key, value));
+            break;
+          case 2:
+            assertEquals((int) expected.merge(key, value, Integer::sum), actual.addTo(key, value));
+            break;
+          case 3:
+            assertEquals(
+                (int) expected.computeIfAbsent(key, k -> value),
+                actual.computeIfAbsent(key, k -> value));
+            break;
+          default:
+            assertEquals(expected.containsKey(key), actual.containsKey(key));
+            assertEquals(orZero(expected.get(key)), actual.get(key));
+            assertEquals((int) expected.getOrDefault(key, -1), actual.getOrDefault(key, -1));
+        }
+      }
+
+      assertEquals(expected.size(), actual.size());
+      assertEquals(expected.isEmpty(), actual.isEmpty());
+      assertEquals(expected.toString(), actual.toString());
+      List<Map.Entry<String, Integer>> entries = new ArrayList<>();
+      actual.forEach((k, v) -> entries.add(new AbstractMap.SimpleImmutableEntry<>(k, v)));
+      assertEquals(new ArrayList<>(expected.entrySet()), entries);
+      for (int i = 0; i < NUM_PROBES; i++) {
+        String prefix = randomKey(random, maxLength);
+        List<Map.Entry<String, Integer>> prefixed = new ArrayList<>();
+        actual.forEach(
+            prefix, (k, v) -> prefixed.add(new AbstractMap.SimpleImmutableEntry<>(k, v)));
+        assertEquals(new ArrayList<>(prefixOf(expected, prefix).entrySet()), prefixed);
+      }
+    }
+  }
+
+  @Test
+  public void longMapsMatchTreeMaps() {
+    for (int seed = 0; seed < NUM_SEEDS; seed++) {
+      Random random = new Random(seed);
+      int maxLength = 1 + random.nextInt(6);
+      TreeMap<String, Long> expected = new TreeMap<>(ORDER);
+      PatriciaLongMap actual = new PatriciaLongMap();
+      for (int i = 0, n = random.nextInt(300); i < n; i++) {
+        String key = randomKey(random, maxLength);
+        long value = random.nextLong();
+        switch (random.nextInt(5)) {
+          case 0:
+            assertEquals(orZero(expected.remove(key)), actual.remove(key));
+            break;
+          case 1:
+            assertEquals(orZero(expected.put(key, value)), actual.put(key, value));
+            break;
+          case 2:
+            assertEquals((long) expected.merge(key, value, Long::sum), actual.addTo(key, value));
+            break;
+          case 3:
+            assertEquals(
+                (long) expected.computeIfAbsent(key, k -> value),
+                actual.computeIfAbsent(key, k -> value));
+            break;
+          default:
+            assertEquals(expected.containsKey(key), actual.containsKey(key));
+            assertEquals(orZero(expected.get(key)), actual.get(key));
+            assertEquals((long) expected.getOrDefault(key, -1L), actual.getOrDefault(key, -1));
+        }
+      }
+
+      assertEquals(expected.size(), actual.size());
+      assertEquals(expected.isEmpty(), actual.isEmpty());
+      assertEquals(expected.toString(), actual.toString());
+      List<Map.Entry<String, Long>> entries = new ArrayList<>();
+      actual.forEach((k, v) -> entries.add(new AbstractMap.SimpleImmutableEntry<>(k, v)));
+      assertEquals(new ArrayList<>(expected.entrySet()), entries);
+      for (int i = 0; i < NUM_PROBES; i++) {
+        String prefix = randomKey(random, maxLength);
+        List<Map.Entry<String, Long>> prefixed = new ArrayList<>();
+        actual.forEach(
+            prefix, (k, v) -> prefixed.add(new AbstractMap.SimpleImmutableEntry<>(k, v)));
+        assertEquals(new ArrayList<>(prefixOf(expected, prefix).entrySet()), prefixed);
+      }
+    }
+  }
+
+  /**
+   * Compare a random view of each map, then a random view of those views, down to a given depth.
+   */
+  private static void checkViews(
+      Random _random,
+      NavigableMap<String, Integer> _expected,
+      NavigableMap<String, Integer> _actual,
+      int _maxLength,
+      int _depth) {
+    for (int i = 0; i < 4; i++) {
+      assertNavigation(_expected, _actual, randomKey(_random, _maxLength));
+    }
+    if (_depth == 0) return;
+
+    NavigableMap<String, Integer>[] view = randomView(_random, _expected, _actual, _maxLength);
+    if (view == null) return;
+    assertSameMap(view[0], view[1]);
+    checkViews(_random, view[0], view[1], _maxLength, _depth - 1);
+  }
+
+  /**
+   * Take the same random view of both maps: a head, tail, sub or descending map, or a prefix map of
+   * a whole PatriciaMap. A view whose bounds the TreeMap rejects must be rejected by the other map
+   * too.
+   *
+   * @return the expected and actual views, or null if both maps rejected the bounds
+   */
+  private static NavigableMap<String, Integer>[] randomView(
+      Random _random,
+      NavigableMap<String, Integer> _expected,
+      NavigableMap<String, Integer> _actual,
+      int _maxLength) {
+    String from = randomKey(_random, _maxLength);
+    boolean fromInclusive = _random.nextBoolean();
+    String to = randomKey(_random, _maxLength);
+    boolean toInclusive = _random.nextBoolean();
+    switch (_random.nextInt(5)) {
+      case 0:
+        return restrict(
+            () -> _expected.headMap(to, toInclusive), () -> _actual.headMap(to, toInclusive));
+      case 1:
+        return restrict(
+            () -> _expected.tailMap(from, fromInclusive),
+            () -> _actual.tailMap(from, fromInclusive));
+      case 2:
+        return restrict(
+            () -> _expected.subMap(from, fromInclusive, to, toInclusive),
+            () -> _actual.subMap(from, fromInclusive, to, toInclusive));
+      case 3:
+        return pair(_expected.descendingMap(), _actual.descendingMap());
+      default:
+        if (!(_actual instanceof PatriciaMap)) return pair(_expected, _actual);
+        return pair(prefixOf(_expected, from), ((PatriciaMap<Integer>) _actual).prefixMap(from));
+    }
+  }
+
+  private static NavigableMap<String, Integer>[] restrict(
+      Supplier<NavigableMap<String, Integer>> _expected,
+      Supplier<NavigableMap<String, Integer>> _actual) {
+    NavigableMap<String, Integer> expected;
+    try {
+      expected = _expected.get();
+    } catch (IllegalArgumentException e) {
+      assertThrows(IllegalArgumentException.class, _actual::get);
+      return null;
+    }
+    return pair(expected, _actual.get());
+  }
+
+  @SuppressWarnings("unchecked")
+  private static NavigableMap<String, Integer>[] pair(
+      NavigableMap<String, Integer> _expected, NavigableMap<String, Integer> _actual) {
+    return new NavigableMap[] {_expected, _actual};
+  }
+
+  /** Make the same random write through a view of each map. */
+  private static void writeThrough(
+      Random _random,
+      NavigableMap<String, Integer> _expected,
+      NavigableMap<String, Integer> _actual,
+      int _maxLength) {
+    String key = randomKey(_random, _maxLength);
+    switch (_random.nextInt(6)) {
+      case 0:
+        Integer value = _random.nextInt();
+        try {
+          Integer old = _expected.put(key, value);
+          assertEquals(old, _actual.put(key, value));
+        } catch (IllegalArgumentException e) {
+          assertThrows(IllegalArgumentException.class, () -> _actual.put(key, value));
+        }
+        break;
+      case 1:
+        assertEquals(_expected.remove(key), _actual.remove(key));
+        break;
+      case 2:
+        assertEquals(_expected.pollFirstEntry(), _actual.pollFirstEntry());
+        break;
+      case 3:
+        assertEquals(_expected.pollLastEntry(), _actual.pollLastEntry());
+        break;
+      case 4:
+        // setValue on entries of the view writes through to the map
+        Iterator<Map.Entry<String, Integer>> actual = _actual.entrySet().iterator();
+        for (Map.Entry<String, Integer> e : _expected.entrySet()) {
+          Map.Entry<String, Integer> a = actual.next();
+          Integer next = e.getValue() == null ? 0 : e.getValue() + 1;
+          assertEquals(e.setValue(next), a.setValue(next));
+          assertEquals(next, a.getValue());
+        }
+        assertTrue(!actual.hasNext());
+        break;
+      default:
+        // removing every other entry through the iterators
+        Iterator<String> expectedKeys = _expected.keySet().iterator();
+        Iterator<String> actualKeys = _actual.keySet().iterator();
+        for (boolean drop = false; expectedKeys.hasNext(); drop = !drop) {
+          assertEquals(expectedKeys.next(), actualKeys.next());
+          if (drop) {
+            expectedKeys.remove();
+            actualKeys.remove();
+          }
+        }
+        assertTrue(!actualKeys.hasNext());
+    }
+  }
+
+  private static void assertSameMap(
+      NavigableMap<String, Integer> _expected, NavigableMap<String, Integer> _actual) {
+    assertEquals(_expected.size(), _actual.size());
+    assertEquals(_expected.isEmpty(), _actual.isEmpty());
+    assertEquals(new ArrayList<>(_expected.entrySet()), new ArrayList<>(_actual.entrySet()));
+    assertEquals(new ArrayList<>(_expected.keySet()), new ArrayList<>(_actual.keySet()));
+    assertEquals(
+        new ArrayList<>(_expected.descendingKeySet()),
+        new ArrayList<>(_actual.descendingKeySet()));
+    assertEquals(
+        new ArrayList<>(_expected.descendingMap().entrySet()),
+        new ArrayList<>(_actual.descendingMap().entrySet()));
+    assertEquals(_expected, _actual);
+    assertEquals(_actual, _expected);
+    assertEquals(_expected.hashCode(), _actual.hashCode());
+    assertEquals(_expected.firstEntry(), _actual.firstEntry());
+    assertEquals(_expected.lastEntry(), _actual.lastEntry());
+    if (_expected.isEmpty()) {
+      assertThrows(NoSuchElementException.class, _actual::firstKey);
+      assertThrows(NoSuchElementException.class, _actual::lastKey);
+    } else {
+      assertEquals(_expected.firstKey(), _actual.firstKey());
+      assertEquals(_expected.lastKey(), _actual.lastKey());
+    }
+  }
+
+  private static void assertNavigation(
+      NavigableMap<String, Integer> _expected, NavigableMap<String, Integer> _actual, String _key) {
+    assertEquals(_expected.containsKey(_key), _actual.containsKey(_key));
+    assertEquals(_expected.get(_key), _actual.get(_key));
+    assertEquals(_expected.lowerEntry(_key), _actual.lowerEntry(_key));
+    assertEquals(_expected.lowerKey(_key), _actual.lowerKey(_key));
+    assertEquals(_expected.floorEntry(_key), _actual.floorEntry(_key));
+    assertEquals(_expected.floorKey(_key), _actual.floorKey(_key));
+    assertEquals(_expected.ceilingEntry(_key), _actual.ceilingEntry(_key));
+    assertEquals(_expected.ceilingKey(_key), _actual.ceilingKey(_key));
+    assertEquals(_expected.higherEntry(_key), _actual.higherEntry(_key));
+    assertEquals(_expected.higherKey(_key), _actual.higherKey(_key));
+  }
+
+  /** @return view of the mappings of _map whose keys start with _prefix */
+  private static <V> NavigableMap<String, V> prefixOf(
+      NavigableMap<String, V> _map, String _prefix) {
+    return _map.subMap(_prefix, true, _prefix + MAX_CODE_POINT, true);
+  }
+
+  private static int orZero(Integer _value) {
+    return _value == null ? 0 : _value;
+  }
+
+  private static long orZero(Long _value) {
+    return _value == null ? 0 : _value;
+  }
+
+  private static String randomKey(Random _random, int _maxLength) {
+    int length = 1 + _random.nextInt(_maxLength);
+    StringBuilder ret = new StringBuilder();
+    for (int i = 0; i < length; i++) ret.append(CODE_POINTS[_random.nextInt(CODE_POINTS.length)]);
+    return ret.toString();
+  }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2017-2018 Aditya Saligrama.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO
+ * EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES
+ * OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.saligrama.patricia;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+/**
+ * PatriciaTreeAllocationTest checks that the contains overloads allocate nothing per call, by
+ * reading the bytes the current thread has allocated before and after many lookups of keys that
+ * are and are not in the tree, once the lookups are warmed up.
+ *
+ * @author Aditya Saligrama
+ * @version 1.0
+ */
+public class PatriciaTreeAllocationTest {
+  private static final int NUM_KEYS = 10_000;
+  private static final int WARMUP_ROUNDS = 20;
+  private static final int NUM_LOOKUPS = 100_000;
+
+  private final PatriciaTree tree = new PatriciaTree();
+  private final String[] strings = new String[2 * NUM_KEYS];
+  private final byte[][] bytes = new byte[strings.length][];
+  private final ByteBuffer[] heapBuffers = new ByteBuffer[strings.length];
+  private final ByteBuffer[] directBuffers = new ByteBuffer[strings.length];
+
+  public PatriciaTreeAllocationTest() {
+    Random random = new Random(42);
+    for (int i = 0; i < strings.length; i++) {
+      // every other key is added, so half of the lookups miss; some chars take two bytes in UTF-8
+      StringBuilder key = new StringBuilder();
+      int length = random.nextInt(24);
+      for (int j = 0; j < length; j++) {
+        boolean wide = random.nextInt(8) == 0;
+        key.append(wide ? (char) (0xe0 + random.nextInt(32)) : (char) ('a' + random.nextInt(26)));
+      }
+      strings[i] = key.append('/').append(i).toString();
+      if (i % 2 == 0) tree.add(strings[i]);
+
+      bytes[i] = strings[i].getBytes(StandardCharsets.UTF_8);
+      heapBuffers[i] = ByteBuffer.wrap(bytes[i]);
+      directBuffers[i] = ByteBuffer.allocateDirect(bytes[i].length).put(bytes[i]);
+      directBuffers[i].flip();
+    }
+  }
+
+  @Test
+  public void containsCharSequenceDoesNotAllocate() {
+    assertNoAllocation(i -> tree.contains(strings[i]));
+  }
+
+  @Test
+  public void containsByteArrayDoesNotAllocate() {
+    assertNoAllocation(i -> tree.contains(bytes[i], 0, bytes[i].length));
+  }
+
+  @Test
+  public void containsHeapByteBufferDoesNotAllocate() {
+    assertNoAllocation(i -> tree.contains(heapBuffers[i]));
+  }
+
+  @Test
+  public void containsDirectByteBufferDoesNotAllocate() {
+    assertNoAllocation(i -> tree.contains(directBuffers[i]));
+  }
+
+  /** Lookup is one call of a contains overload on the i-th key. */
+  private interface Lookup {
+    boolean contains(int _index);
+  }
+
+  private void assertNoAllocation(Lookup _lookup) {
+    com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long thread = Thread.currentThread().getId();
+
+    // the lookups must be right before measuring
+    for (int i = 0; i < strings.length; i++) {
+      assertEquals(i % 2 == 0, _lookup.contains(i), strings[i]);
+    }
+    for (int round = 0; round < WARMUP_ROUNDS; round++) lookUp(_lookup);
+    threads.getThreadAllocatedBytes(thread);
+
+    long before = threads.getThreadAllocatedBytes(thread);
+    int hits = lookUp(_lookup);
+    long allocated = threads.getThreadAllocatedBytes(thread) - before;
+
+    assertEquals(NUM_LOOKUPS / 2, hits);
+    assertEquals(0, allocated, "bytes allocated by " + NUM_LOOKUPS + " lookups");
+  }
+
+  /** @return number of lookups that found their key */
+  private int lookUp(Lookup _lookup) {
+    int ret = 0;
+    for (int i = 0; i < NUM_LOOKUPS; i++) {
+      if (_lookup.contains(i % strings.length)) ret++;
+    }
+    return ret;
+  }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2017-2018 Aditya Saligrama.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO
+ * EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES
+ * OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.saligrama.patricia;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+import org.junit.jupiter.api.Test;
+
+/**
+ * PersistentPatriciaTreeTest keeps every version a random run of additions and removals produces,
+ * along with a copy of what each one held when it was made, and checks at the end that no later
+ * change, on its own branch or another, altered an earlier version.
+ *
+ * @author Aditya Saligrama
+ * @version 1.0
+ */
+public class PersistentPatriciaTreeTest {
+  private static final int NUM_SEEDS = 20;
+  private static final int NUM_VERSIONS = 1_000;
+
+  @Test
+  public void oldVersionsStayUnchanged() {
+    for (int seed = 0; seed < NUM_SEEDS; seed++) {
+      Random random = new Random(seed);
+      List<PersistentPatriciaTree> versions = new ArrayList<>();
+      List<TreeSet<String>> contents = new ArrayList<>();
+      versions.add(PersistentPatriciaTree.empty());
+      contents.add(new TreeSet<>(Utils::compareUtf8));
+
+      for (int v = 1; v < NUM_VERSIONS; v++) {
+        // branch off a random earlier version half of the time, else off the latest one
+        int base = random.nextBoolean() ? random.nextInt(versions.size()) : versions.size() - 1;
+        TreeSet<String> expected = new TreeSet<>(contents.get(base));
+        String key = randomKey(random);
+        boolean changes;
+        PersistentPatriciaTree next;
+        if (random.nextInt(3) == 0) {
+          changes = expected.remove(key);
+          next = versions.get(base).remove(key);
+        } else {
+          changes = expected.add(key);
+          next = versions.get(base).add(key);
+        }
+        if (!changes) assertSame(versions.get(base), next, key);
+        versions.add(next);
+        contents.add(expected);
+      }
+
+      for (int v = 0; v < versions.size(); v++) assertHolds(contents.get(v), versions.get(v));
+    }
+  }
+
+  private static void assertHolds(TreeSet<String> _expected, PersistentPatriciaTree _tree) {
+    assertEquals(_expected.size(), _tree.size());
+    List<String> actual = new ArrayList<>();
+    for (String s : _tree) actual.add(s);
+    assertEquals(new ArrayList<>(_expected), actual);
+    for (String s : _expected) assertEquals(true, _tree.contains(s), s);
+  }
+
+  private static String randomKey(Random _random) {
+    int length = 1 + _random.nextInt(6);
+    StringBuilder ret = new StringBuilder(length);
+    for (int i = 0; i < length; i++) ret.append("ab\u00e9\u4e2d".charAt(_random.nextInt(4)));
+    return ret.toString();
+  }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2017-2018 Aditya Saligrama.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO
+ * EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES
+ * OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.saligrama.patricia;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+/**
+ * SetOperationTest checks union, intersect, difference and isSubsetOf against the same algebra on
+ * TreeSets. Keys are drawn from a small alphabet, so that many are prefixes of others and the two
+ * trees share long runs of structure, and the large cases hold enough keys for the merge to fork
+ * subtrees onto the common ForkJoinPool.
+ *
+ * @author Aditya Saligrama
+ * @version 1.0
+ */
+public class SetOperationTest {
+  private static final int NUM_SEEDS = 200;
+  private static final int LARGE_SIZE = 4 * Constants.NODE_MERGE_FORK_SIZE;
+
+  @ParameterizedTest
+  @EnumSource(Radix.class)
+  public void randomSetsMatchTreeSets(Radix _radix) {
+    for (int seed = 0; seed < NUM_SEEDS; seed++) {
+      Random random = new Random(seed);
+      int alphabet = 2 + random.nextInt(4);
+      int maxLength = 1 + random.nextInt(10);
+      TreeSet<String> left = randomKeys(random, random.nextInt(300), alphabet, maxLength);
+      TreeSet<String> right = randomKeys(random, random.nextInt(300), alphabet, maxLength);
+      if (seed % 4 == 0) right.addAll(left);
+      checkAll(left, right, _radix, _radix);
+    }
+  }
+
+  @Test
+  public void largeSetsMatchTreeSets() {
+    Random random = new Random(0);
+    TreeSet<String> left = randomKeys(random, LARGE_SIZE, 4, 12);
+    TreeSet<String> right = randomKeys(random, LARGE_SIZE, 4, 12);
+    checkAll(left, right, Radix.BIT, Radix.BIT);
+
+    // a superset sharing every key of the smaller tree
+    TreeSet<String> superset = new TreeSet<>(Utils::compareUtf8);
+    superset.addAll(left);
+    superset.addAll(randomKeys(random, LARGE_SIZE / 2, 4, 12));
+    checkAll(left, superset, Radix.BIT, Radix.BIT);
+  }
+
+  @Test
+  public void keysThatArePrefixesOfEachOther() {
+    TreeSet<String> left = new TreeSet<>(Utils::compareUtf8);
+    TreeSet<String> right = new TreeSet<>(Utils::compareUtf8);
+    StringBuilder key = new StringBuilder();
+    for (int i = 0; i < 40; i++) {
+      key.append((char) ('a' + i % 3));
+      (i % 3 == 1 ? right : left).add(key.toString());
+      if (i % 5 == 0) right.add(key.toString());
+      left.add(key + "z");
+    }
+    for (Radix r : Radix.values()) checkAll(left, right, r, r);
+  }
+
+  @Test
+  public void treesOfDifferentRadixes() {
+    Random random = new Random(1);
+    TreeSet<String> left = randomKeys(random, 2_000, 3, 8);
+    TreeSet<String> right = randomKeys(random, 2_000, 3, 8);
+    for (Radix a : Radix.values()) {
+      for (Radix b : Radix.values()) checkAll(left, right, a, b);
+    }
+  }
+
+  private static void checkAll(
+      TreeSet<String> _left, TreeSet<String> _right, Radix _leftRadix, Radix _rightRadix) {
+    PatriciaTree left = build(_left, _leftRadix);
+    PatriciaTree right = build(_right, _rightRadix);
+
+    TreeSet<String> union = new TreeSet<>(_left);
+    union.addAll(_right);
+    TreeSet<String> intersection = new TreeSet<>(_left);
+    intersection.retainAll(_right);
+    TreeSet<String> difference = new TreeSet<>(_left);
+    difference.removeAll(_right);
+
+    assertHolds(union, left.union(right), _leftRadix);
+    assertHolds(intersection, left.intersect(right), _leftRadix);
+    assertHolds(difference, left.difference(right), _leftRadix);
+    assertEquals(_right.containsAll(_left), left.isSubsetOf(right));
+    assertEquals(_left.containsAll(_right), right.isSubsetOf(left));
+    assertEquals(true, left.intersect(right).isSubsetOf(right));
+    assertEquals(true, left.isSubsetOf(left.union(right)));
+
+    // neither input is changed by a merge
+    assertHolds(_left, left, _leftRadix);
+    assertHolds(_right, right, _rightRadix);
+  }
+
+  private static void assertHolds(TreeSet<String> _expected, PatriciaTree _tree, Radix _radix) {
+    assertEquals(_radix, _tree.radix());
+    assertEquals(_expected.size(), _tree.size());
+    List<String> actual = new ArrayList<>(_expected.size());
+    for (String s : _tree) actual.add(s);
+    assertEquals(new ArrayList<>(_expected), actual);
+  }
+
+  private static PatriciaTree build(TreeSet<String> _keys, Radix _radix) {
+    PatriciaTree ret = new PatriciaTree(_radix);
+    for (String s : _keys) ret.add(s);
+    return ret;
+  }
+
+  private static TreeSet<String> randomKeys(
+      Random _random, int _count, int _alphabet, int _maxLength) {
+    TreeSet<String> ret = new TreeSet<>(Utils::compareUtf8);
+    for (int i = 0; i < _count; i++) {
+      int length = 1 + _random.nextInt(_maxLength);
+      StringBuilder key = new StringBuilder(length);
+      for (int k = 0; k < length; k++) key.append((char) ('a' + _random.nextInt(_alphabet)));
+      ret.add(key.toString());
+    }
+    return ret;
+  }
+}
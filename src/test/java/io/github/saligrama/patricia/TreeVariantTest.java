@@ -0,0 +1,407 @@
+/*
+ * Copyright (c) 2017-2018 Aditya Saligrama.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO
+ * EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES
+ * OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.saligrama.patricia;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+/**
+ * TreeVariantTest runs the same random sequence of additions and removals on each variant of the
+ * tree and on a TreeSet, and after every round of changes checks that the two hold the same keys:
+ * by size, iteration, contains and prefixScan. Read-only variants are copied from a PatriciaTree
+ * of a random radix at the end of each round, so each copy is checked against the keys it was
+ * made from.
+ *
+ * @author Aditya Saligrama
+ * @version 1.0
+ */
+public class TreeVariantTest {
+  private static final String[] CODE_POINTS = {"a", "b", "c", "\u00e9", "\ud83d\ude00"};
+  private static final int NUM_SEEDS = 40;
+  private static final int NUM_ROUNDS = 8;
+  private static final int OPS_PER_ROUND = 150;
+  private static final int NUM_PROBES = 50;
+
+  @TempDir Path tmp;
+
+  /** Variant is a tree under test. */
+  enum Variant {
+    FROZEN,
+    MAPPED,
+    READ,
+    COMPACT,
+    LABELED,
+    SHARDED_BY_PREFIX,
+    SHARDED_BY_HASH
+  }
+
+  @ParameterizedTest
+  @EnumSource(Variant.class)
+  public void randomOperationsMatchTreeSet(Variant _variant) throws IOException {
+    for (int seed = 0; seed < NUM_SEEDS; seed++) {
+      Random random = new Random(seed);
+      int maxLength = 1 + random.nextInt(8);
+      TreeSet<String> expected = new TreeSet<>(Utils::compareUtf8);
+      Subject actual = create(_variant, Radix.values()[seed % Radix.values().length], seed);
+      for (int round = 0; round < NUM_ROUNDS; round++) {
+        // later rounds mostly remove, so that trees shrink back as well as grow
+        int removeOdds = round < NUM_ROUNDS / 2 ? 4 : 2;
+        for (int i = 0; i < OPS_PER_ROUND; i++) {
+          String key = randomKey(random, maxLength);
+          if (random.nextInt(removeOdds) == 0) {
+            assertEquals(expected.remove(key), actual.remove(key));
+          } else {
+            assertEquals(expected.add(key), actual.add(key));
+          }
+        }
+
+        actual.settle();
+        assertHolds(random, expected, actual, maxLength);
+      }
+    }
+  }
+
+  private Subject create(Variant _variant, Radix _radix, int _seed) {
+    switch (_variant) {
+      case FROZEN:
+        return new Frozen(_radix);
+      case MAPPED:
+        return new Mapped(_radix, tmp.resolve("mapped" + _seed), true);
+      case READ:
+        return new Mapped(_radix, tmp.resolve("read" + _seed), false);
+      case COMPACT:
+        return new Compact();
+      case LABELED:
+        return new Labeled();
+      case SHARDED_BY_PREFIX:
+        return new Sharded(ShardedPatriciaTree.Partitioning.PREFIX);
+      case SHARDED_BY_HASH:
+        return new Sharded(ShardedPatriciaTree.Partitioning.HASH);
+      default:
+        throw new AssertionError(_variant);
+    }
+  }
+
+  private static void assertHolds(
+      Random _random, TreeSet<String> _expected, Subject _actual, int _maxLength) {
+    assertEquals(_expected.size(), _actual.size());
+    List<String> keys = new ArrayList<>(_expected.size());
+    _actual.iterator().forEachRemaining(keys::add);
+    assertEquals(new ArrayList<>(_expected), keys);
+
+    List<String> probes = new ArrayList<>(NUM_PROBES);
+    for (int i = 0; i < NUM_PROBES; i++) {
+      // half the probes are keys of the tree, so that hits are checked as well as misses
+      probes.add(
+          i % 2 == 0 || _expected.isEmpty()
+              ? randomKey(_random, _maxLength)
+              : keys.get(_random.nextInt(keys.size())));
+    }
+    BitSet found = _actual.containsAll(probes);
+    for (int i = 0; i < NUM_PROBES; i++) {
+      String probe = probes.get(i);
+      assertEquals(_expected.contains(probe), _actual.contains(probe), probe);
+      assertEquals(_expected.contains(probe), found.get(i), probe);
+
+      String prefix = probe.substring(0, probe.offsetByCodePoints(0, 1));
+      List<String> expected =
+          _expected.stream().filter(s -> s.startsWith(prefix)).collect(Collectors.toList());
+      assertEquals(expected, _actual.prefixScan(prefix).collect(Collectors.toList()), prefix);
+      expected = _expected.stream().filter(s -> s.startsWith(probe)).collect(Collectors.toList());
+      assertEquals(expected, _actual.prefixScan(probe).collect(Collectors.toList()), probe);
+    }
+  }
+
+  private static String randomKey(Random _random, int _maxLength) {
+    int length = 1 + _random.nextInt(_maxLength);
+    StringBuilder ret = new StringBuilder();
+    for (int i = 0; i < length; i++) ret.append(CODE_POINTS[_random.nextInt(CODE_POINTS.length)]);
+    return ret.toString();
+  }
+
+  /**
+   * @param _key a key
+   * @return the UTF-8 bytes of _key with a byte before and after them, to check that lookups of
+   *     byte ranges stay within their range
+   */
+  private static byte[] padded(String _key) {
+    byte[] key = _key.getBytes(StandardCharsets.UTF_8);
+    byte[] ret = new byte[key.length + 2];
+    ret[0] = 'a';
+    System.arraycopy(key, 0, ret, 1, key.length);
+    ret[ret.length - 1] = 'a';
+    return ret;
+  }
+
+  /** Subject is a tree under test, seen through the operations every variant offers. */
+  private interface Subject {
+    boolean add(String _key);
+
+    boolean remove(String _key);
+
+    /** Make the changes since the last call visible to the reads. */
+    default void settle() throws IOException {}
+
+    int size();
+
+    boolean contains(String _key);
+
+    default BitSet containsAll(List<String> _keys) {
+      BitSet ret = new BitSet(_keys.size());
+      for (int i = 0; i < _keys.size(); i++) ret.set(i, contains(_keys.get(i)));
+      return ret;
+    }
+
+    Iterator<String> iterator();
+
+    Stream<String> prefixScan(String _prefix);
+  }
+
+  /** Copy is a read-only variant, copied from a PatriciaTree that takes the changes. */
+  private abstract static class Copy implements Subject {
+    protected final PatriciaTree source;
+
+    private Copy(Radix _radix) {
+      source = new PatriciaTree(_radix);
+    }
+
+    @Override
+    public boolean add(String _key) {
+      return source.add(_key);
+    }
+
+    @Override
+    public boolean remove(String _key) {
+      return source.remove(_key);
+    }
+  }
+
+  private static final class Frozen extends Copy {
+    private FrozenPatriciaTree tree;
+
+    private Frozen(Radix _radix) {
+      super(_radix);
+    }
+
+    @Override
+    public void settle() {
+      tree = source.freeze();
+    }
+
+    @Override
+    public int size() {
+      return tree.size();
+    }
+
+    @Override
+    public boolean contains(String _key) {
+      byte[] key = padded(_key);
+      assertEquals(tree.contains(_key), tree.contains(key, 1, key.length - 2), _key);
+      return tree.contains(_key);
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+      return tree.iterator();
+    }
+
+    @Override
+    public Stream<String> prefixScan(String _prefix) {
+      return tree.prefixScan(_prefix);
+    }
+  }
+
+  /** Mapped writes a snapshot per round, and maps it or reads it onto the heap. */
+  private static final class Mapped extends Copy {
+    private final Path prefix;
+    private final boolean map;
+    private int generation;
+    private MappedPatriciaTree tree;
+
+    private Mapped(Radix _radix, Path _prefix, boolean _map) {
+      super(_radix);
+      prefix = _prefix;
+      map = _map;
+    }
+
+    @Override
+    public void settle() throws IOException {
+      // a new file each round, since an earlier one may still be mapped
+      Path path = prefix.resolveSibling(prefix.getFileName() + "." + generation++);
+      source.writeTo(path);
+      tree = map ? PatriciaTree.mapFrom(path) : MappedPatriciaTree.read(path);
+    }
+
+    @Override
+    public int size() {
+      return tree.size();
+    }
+
+    @Override
+    public boolean contains(String _key) {
+      byte[] key = padded(_key);
+      assertEquals(tree.contains(_key), tree.contains(key, 1, key.length - 2), _key);
+      return tree.contains(_key);
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+      return tree.iterator();
+    }
+
+    @Override
+    public Stream<String> prefixScan(String _prefix) {
+      return tree.prefixScan(_prefix);
+    }
+  }
+
+  private static final class Compact implements Subject {
+    private final CompactPatriciaTree tree = new CompactPatriciaTree();
+
+    @Override
+    public boolean add(String _key) {
+      return tree.add(_key);
+    }
+
+    @Override
+    public boolean remove(String _key) {
+      return tree.remove(_key);
+    }
+
+    @Override
+    public int size() {
+      return tree.size();
+    }
+
+    @Override
+    public boolean contains(String _key) {
+      byte[] key = padded(_key);
+      assertEquals(tree.contains(_key), tree.contains(key, 1, key.length - 2), _key);
+      return tree.contains(_key);
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+      return tree.iterator();
+    }
+
+    @Override
+    public Stream<String> prefixScan(String _prefix) {
+      return tree.prefixScan(_prefix);
+    }
+  }
+
+  private static final class Labeled implements Subject {
+    private final LabeledPatriciaTree tree = new LabeledPatriciaTree();
+
+    @Override
+    public boolean add(String _key) {
+      return tree.add(_key);
+    }
+
+    @Override
+    public boolean remove(String _key) {
+      return tree.remove(_key);
+    }
+
+    @Override
+    public int size() {
+      return tree.size();
+    }
+
+    @Override
+    public boolean contains(String _key) {
+      byte[] key = padded(_key);
+      assertEquals(tree.contains(_key), tree.contains(key, 1, key.length - 2), _key);
+      return tree.contains(_key);
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+      return tree.iterator();
+    }
+
+    @Override
+    public Stream<String> prefixScan(String _prefix) {
+      return tree.prefixScan(_prefix);
+    }
+  }
+
+  /** Sharded checks batch lookups too; having no prefix scan, it is scanned by filtering. */
+  private static final class Sharded implements Subject {
+    private final ShardedPatriciaTree tree;
+
+    private Sharded(ShardedPatriciaTree.Partitioning _partitioning) {
+      tree = new ShardedPatriciaTree(3, _partitioning);
+    }
+
+    @Override
+    public boolean add(String _key) {
+      return tree.add(_key);
+    }
+
+    @Override
+    public boolean remove(String _key) {
+      return tree.remove(_key);
+    }
+
+    @Override
+    public int size() {
+      return tree.size();
+    }
+
+    @Override
+    public boolean contains(String _key) {
+      return tree.contains(_key);
+    }
+
+    @Override
+    public BitSet containsAll(List<String> _keys) {
+      return tree.containsAll(_keys);
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+      return tree.iterator();
+    }
+
+    @Override
+    public Stream<String> prefixScan(String _prefix) {
+      return tree.stream().filter(s -> s.startsWith(_prefix));
+    }
+  }
+}